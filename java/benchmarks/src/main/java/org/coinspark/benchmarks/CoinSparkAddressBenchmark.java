@@ -0,0 +1,136 @@
+/*
+ * CoinSpark 2.1 - Java benchmarks
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.coinspark.protocol.CoinSparkAddress;
+import org.coinspark.protocol.CoinSparkAssetRef;
+import org.coinspark.protocol.CoinSparkDecodeStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CoinSparkAddressBenchmark class for timing encoding and decoding of CoinSpark addresses and asset references
+ * from the Address-Input.txt and AssetRef-Input.txt corpora.
+ *
+ * Each invocation handles the next record in the corpus, so branch and cache behavior follow the corpus mix.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoinSparkAddressBenchmark {
+
+    @Setup
+    public void setup() throws IOException
+    {
+        List<String> addressRecords=CoinSparkCorpus.readAddresses();
+        encodedAddresses=addressRecords.toArray(new String[addressRecords.size()]);
+        addresses=new CoinSparkAddress[encodedAddresses.length];
+        for (int index=0; index<encodedAddresses.length; index++)
+        {
+            addresses[index]=new CoinSparkAddress();
+            if (!addresses[index].decode(encodedAddresses[index]))
+                throw new IOException("Invalid address in corpus: " + encodedAddresses[index]);
+        }
+
+        List<String> assetRefRecords=CoinSparkCorpus.readAssetRefs();
+        encodedAssetRefs=assetRefRecords.toArray(new String[assetRefRecords.size()]);
+        assetRefs=new CoinSparkAssetRef[encodedAssetRefs.length];
+        for (int index=0; index<encodedAssetRefs.length; index++)
+        {
+            assetRefs[index]=new CoinSparkAssetRef();
+            if (!assetRefs[index].decode(encodedAssetRefs[index]))
+                throw new IOException("Invalid asset reference in corpus: " + encodedAssetRefs[index]);
+        }
+
+        decodedAddress=new CoinSparkAddress();
+        decodedAssetRef=new CoinSparkAssetRef();
+        status=new CoinSparkDecodeStatus();
+    }
+
+    @Benchmark
+    public String addressEncode()
+    {
+        return addresses[addressIndex=next(addressIndex, addresses.length)].encode();
+    }
+
+    @Benchmark
+    public boolean addressDecode()
+    {
+        return decodedAddress.decode(encodedAddresses[addressIndex=next(addressIndex, encodedAddresses.length)]);
+    }
+
+    @Benchmark
+    public CoinSparkDecodeStatus.Reason addressDecodeWithStatus()
+    {
+        return decodedAddress.decode(encodedAddresses[addressIndex=next(addressIndex, encodedAddresses.length)], status);
+    }
+
+    @Benchmark
+    public String assetRefEncode()
+    {
+        return assetRefs[assetRefIndex=next(assetRefIndex, assetRefs.length)].encode();
+    }
+
+    @Benchmark
+    public boolean assetRefDecode()
+    {
+        return decodedAssetRef.decode(encodedAssetRefs[assetRefIndex=next(assetRefIndex, encodedAssetRefs.length)]);
+    }
+
+
+// Private variables/constants/functions
+
+    private String [] encodedAddresses;
+    private CoinSparkAddress [] addresses;
+    private String [] encodedAssetRefs;
+    private CoinSparkAssetRef [] assetRefs;
+
+    private CoinSparkAddress decodedAddress;
+    private CoinSparkAssetRef decodedAssetRef;
+    private CoinSparkDecodeStatus status;
+    private int addressIndex;
+    private int assetRefIndex;
+
+    private static int next(int index, int count)
+    {
+        return (index+1 == count) ? 0 : index+1;
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * CoinSpark 2.1 - Java benchmarks
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.coinspark.protocol.CoinSparkBase;
+import org.coinspark.protocol.CoinSparkMessagePart;
+
+/**
+ * CoinSparkCorpus class for reading benchmark inputs in the same format as the *-Input.txt files
+ * consumed by CoinSparkTest.
+ *
+ * Files are read from the directory named by the coinspark.corpus system property if it is set,
+ * for example a CoinSpark-Tests directory, otherwise from the corpus bundled with the benchmarks.
+ */
+
+public class CoinSparkCorpus {
+
+    /**
+     * System property naming a directory of *-Input.txt files to use instead of the bundled corpus
+     */
+
+    public static final String CORPUS_PROPERTY = "coinspark.corpus";
+
+    /**
+     * One Script-Input.txt record.
+     */
+
+    public static class ScriptRecord {
+        public int countInputs;
+        public int countOutputs;
+        public String scriptPubKeyHex;
+    }
+
+    /**
+     * One Genesis-Input.txt record.
+     */
+
+    public static class GenesisRecord {
+        public String firstSpentTxID;
+        public long firstSpentVout;
+        public String metadataHex;
+        public long [] outputsSatoshis;
+        public boolean [] outputsRegular;
+        public long feeSatoshis;
+    }
+
+    /**
+     * One Transfer-Input.txt record.
+     */
+
+    public static class TransferRecord {
+        public String genesisMetadataHex;
+        public String assetRef;
+        public String metadataHex;
+        public long [] inputBalances;
+        public long [] outputsSatoshis;
+        public boolean [] outputsRegular;
+        public long feeSatoshis;
+    }
+
+    /**
+     * One MessageHash-Input.txt record.
+     */
+
+    public static class MessageHashRecord {
+        public byte [] salt;
+        public CoinSparkMessagePart [] contentParts;
+    }
+
+    /**
+     * One AssetHash-Input.txt record.
+     */
+
+    public static class AssetHashRecord {
+        public String name;
+        public String issuer;
+        public String description;
+        public String units;
+        public String issueDate;
+        public String expiryDate;
+        public double interestRate;
+        public double multiple;
+        public byte [] contract;
+    }
+
+    /**
+     * Reads Address-Input.txt.
+     *
+     * @return encoded CoinSpark addresses
+     * @throws IOException if the file cannot be read or has the wrong header
+     */
+
+    public static List<String> readAddresses() throws IOException
+    {
+        return readSingleLines("Address", "CoinSpark Address Tests Input");
+    }
+
+    /**
+     * Reads AssetRef-Input.txt.
+     *
+     * @return encoded asset references
+     * @throws IOException if the file cannot be read or has the wrong header
+     */
+
+    public static List<String> readAssetRefs() throws IOException
+    {
+        return readSingleLines("AssetRef", "CoinSpark AssetRef Tests Input");
+    }
+
+    /**
+     * Reads Script-Input.txt.
+     *
+     * @return script records
+     * @throws IOException if the file cannot be read or has the wrong header
+     */
+
+    public static List<ScriptRecord> readScripts() throws IOException
+    {
+        List<ScriptRecord> records=new ArrayList<ScriptRecord>();
+        BufferedReader reader=open("Script", "CoinSpark Script Tests Input");
+        try {
+            String [] lines;
+            while ((lines=readLines(reader, 4)) != null)
+            {
+                ScriptRecord record=new ScriptRecord();
+                record.countInputs=Integer.parseInt(lines[0]);
+                record.countOutputs=Integer.parseInt(lines[1]);
+                record.scriptPubKeyHex=lines[2];
+                records.add(record);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return records;
+    }
+
+    /**
+     * Reads Genesis-Input.txt.
+     *
+     * @return genesis records
+     * @throws IOException if the file cannot be read or has the wrong header
+     */
+
+    public static List<GenesisRecord> readGeneses() throws IOException
+    {
+        List<GenesisRecord> records=new ArrayList<GenesisRecord>();
+        BufferedReader reader=open("Genesis", "CoinSpark Genesis Tests Input");
+        try {
+            String [] lines;
+            while ((lines=readLines(reader, 7)) != null)
+            {
+                GenesisRecord record=new GenesisRecord();
+                record.firstSpentTxID=lines[0];
+                record.firstSpentVout=Long.parseLong(lines[1]);
+                record.metadataHex=lines[2];
+                record.outputsSatoshis=parseLongs(lines[3]);
+                record.outputsRegular=parseFlags(lines[4]);
+                record.feeSatoshis=Long.parseLong(lines[5]);
+                records.add(record);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return records;
+    }
+
+    /**
+     * Reads Transfer-Input.txt.
+     *
+     * @return transfer records
+     * @throws IOException if the file cannot be read or has the wrong header
+     */
+
+    public static List<TransferRecord> readTransfers() throws IOException
+    {
+        List<TransferRecord> records=new ArrayList<TransferRecord>();
+        BufferedReader reader=open("Transfer", "CoinSpark Transfer Tests Input");
+        try {
+            String [] lines;
+            while ((lines=readLines(reader, 8)) != null)
+            {
+                TransferRecord record=new TransferRecord();
+                record.genesisMetadataHex=lines[0];
+                record.assetRef=lines[1];
+                record.metadataHex=lines[2];
+                record.inputBalances=parseLongs(lines[3]);
+                record.outputsSatoshis=parseLongs(lines[4]);
+                record.outputsRegular=parseFlags(lines[5]);
+                record.feeSatoshis=Long.parseLong(lines[6]);
+                records.add(record);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return records;
+    }
+
+    /**
+     * Reads MessageHash-Input.txt.
+     *
+     * @return message hash records
+     * @throws IOException if the file cannot be read or has the wrong header
+     */
+
+    public static List<MessageHashRecord> readMessageHashes() throws IOException
+    {
+        List<MessageHashRecord> records=new ArrayList<MessageHashRecord>();
+        BufferedReader reader=open("MessageHash", "CoinSpark MessageHash Tests Input");
+        try {
+            String [] lines;
+            while ((lines=readLines(reader, 2)) != null)
+            {
+                MessageHashRecord record=new MessageHashRecord();
+                record.salt=lines[0].getBytes();
+                int countParts=Integer.parseInt(lines[1]);
+
+                lines=readLines(reader, 3*countParts+1);
+                if (lines == null)
+                    break;
+
+                record.contentParts=new CoinSparkMessagePart[countParts];
+                for (int index=0; index<countParts; index++)
+                {
+                    record.contentParts[index]=new CoinSparkMessagePart();
+                    record.contentParts[index].mimeType=lines[index*3+0];
+                    record.contentParts[index].fileName=lines[index*3+1];
+                    record.contentParts[index].content=lines[index*3+2].getBytes();
+                }
+                records.add(record);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return records;
+    }
+
+    /**
+     * Reads AssetHash-Input.txt.
+     *
+     * @return asset hash records
+     * @throws IOException if the file cannot be read or has the wrong header
+     */
+
+    public static List<AssetHashRecord> readAssetHashes() throws IOException
+    {
+        List<AssetHashRecord> records=new ArrayList<AssetHashRecord>();
+        BufferedReader reader=open("AssetHash", "CoinSpark AssetHash Tests Input");
+        try {
+            String [] lines;
+            while ((lines=readLines(reader, 10)) != null)
+            {
+                AssetHashRecord record=new AssetHashRecord();
+                record.name=lines[0];
+                record.issuer=lines[1];
+                record.description=lines[2];
+                record.units=lines[3];
+                record.issueDate=lines[4];
+                record.expiryDate=lines[5];
+                record.interestRate=Double.parseDouble(lines[6]);
+                record.multiple=Double.parseDouble(lines[7]);
+                record.contract=lines[8].getBytes();
+                records.add(record);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return records;
+    }
+
+    /**
+     * Converts hexadecimal metadata or script from a corpus record to raw binary.
+     *
+     * @param hex hexadecimal string
+     * @return byte [] | null raw binary, null if hex is not valid hexadecimal
+     */
+
+    public static byte [] hexToBytes(String hex)
+    {
+        byte [] raw=new byte[hex.length()/2];
+        if (CoinSparkBase.hexToByte(hex, 0, hex.length(), raw, 0) < 0)
+            return null;
+
+        return raw;
+    }
+
+
+// Private variables/constants/functions
+
+    private static List<String> readSingleLines(String suffix, String header) throws IOException
+    {
+        List<String> records=new ArrayList<String>();
+        BufferedReader reader=open(suffix, header);
+        try {
+            String line;
+            while ((line=readLine(reader)) != null)
+                if (line.length() > 0)
+                    records.add(line);
+        } finally {
+            reader.close();
+        }
+
+        return records;
+    }
+
+    private static BufferedReader open(String suffix, String header) throws IOException
+    {
+        String fileName=suffix + "-Input.txt";
+        String directory=System.getProperty(CORPUS_PROPERTY);
+        InputStream input;
+
+        if ((directory != null) && (directory.length() > 0))
+        {
+            input=new FileInputStream(new File(directory, fileName));
+        }
+        else
+        {
+            input=CoinSparkCorpus.class.getResourceAsStream("/corpus/" + fileName);
+            if (input == null)
+                throw new IOException("Missing bundled corpus " + fileName);
+        }
+
+        BufferedReader reader=new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+
+        String line=readLine(reader);
+        if ((line == null) || !line.equals(header))
+        {
+            reader.close();
+            throw new IOException("Different header line expected in " + fileName + ", got " + line);
+        }
+
+        line=readLine(reader);
+        if ((line == null) || (line.length() > 0))
+        {
+            reader.close();
+            throw new IOException("Empty line expected in " + fileName + ", got " + line);
+        }
+
+        return reader;
+    }
+
+    private static String readLine(BufferedReader reader) throws IOException                // same rules as CoinSparkTest
+    {
+        String line=reader.readLine();
+
+        if (line != null)
+        {
+            line=("x" + line).trim().substring(1);
+            int pos=line.indexOf(" # ");
+            if (pos >= 0)
+                line=line.substring(0, pos);
+        }
+
+        return line;
+    }
+
+    private static String [] readLines(BufferedReader reader, int count) throws IOException
+    {
+        String [] lines=new String[count];
+        for (int index=0; index<count; index++)
+        {
+            lines[index]=readLine(reader);
+            if (lines[index] == null)
+                return null;
+        }
+
+        return lines;
+    }
+
+    private static long [] parseLongs(String line)
+    {
+        String [] values=line.split(",");
+        long [] result=new long[values.length];
+        for (int index=0; index<values.length; index++)
+            result[index]=Long.parseLong(values[index]);
+
+        return result;
+    }
+
+    private static boolean [] parseFlags(String line)
+    {
+        String [] values=line.split(",");
+        boolean [] result=new boolean[values.length];
+        for (int index=0; index<values.length; index++)
+            result[index]=!values[index].equals("0");
+
+        return result;
+    }
+}
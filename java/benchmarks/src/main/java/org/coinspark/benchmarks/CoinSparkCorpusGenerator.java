@@ -0,0 +1,446 @@
+/*
+ * CoinSpark 2.1 - Java benchmarks
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.coinspark.protocol.CoinSparkAddress;
+import org.coinspark.protocol.CoinSparkAssetRef;
+import org.coinspark.protocol.CoinSparkBase;
+import org.coinspark.protocol.CoinSparkGenesis;
+import org.coinspark.protocol.CoinSparkIORange;
+import org.coinspark.protocol.CoinSparkMessage;
+import org.coinspark.protocol.CoinSparkPaymentRef;
+import org.coinspark.protocol.CoinSparkTransfer;
+import org.coinspark.protocol.CoinSparkTransferList;
+
+/**
+ * CoinSparkCorpusGenerator class for writing a reproducible benchmark corpus in the *-Input.txt formats
+ * read by CoinSparkTest and CoinSparkCorpus.
+ *
+ * Usage: CoinSparkCorpusGenerator directory [records] [seed]
+ */
+
+public class CoinSparkCorpusGenerator {
+
+    public static void main(String [] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: CoinSparkCorpusGenerator directory [records] [seed]");
+            return;
+        }
+
+        File directory=new File(args[0]);
+        int countRecords=(args.length > 1) ? Integer.parseInt(args[1]) : 200;
+        long seed=(args.length > 2) ? Long.parseLong(args[2]) : 1;
+
+        CoinSparkCorpusGenerator generator=new CoinSparkCorpusGenerator(seed);
+        generator.writeAddresses(directory, countRecords);
+        generator.writeAssetRefs(directory, countRecords);
+        generator.writeGeneses(directory, countRecords);
+        generator.writeTransfers(directory, countRecords);
+        generator.writeScripts(directory, countRecords);
+        generator.writeMessageHashes(directory, countRecords);
+        generator.writeAssetHashes(directory, countRecords);
+    }
+
+    /**
+     * CoinSparkCorpusGenerator class for writing a reproducible benchmark corpus.
+     *
+     * @param Seed seed for the random choices, the same seed always gives the same corpus
+     */
+
+    public CoinSparkCorpusGenerator(long Seed)
+    {
+        random=new Random(Seed);
+    }
+
+    public void writeAddresses(File directory, int countRecords) throws IOException
+    {
+        StringBuilder output=header("Address");
+        for (int record=0; record<countRecords; record++)
+        {
+            String encoded=randomAddress().encode();
+            if (encoded != null)
+                output.append(encoded).append('\n');
+        }
+        write(directory, "Address", output);
+    }
+
+    public void writeAssetRefs(File directory, int countRecords) throws IOException
+    {
+        StringBuilder output=header("AssetRef");
+        for (int record=0; record<countRecords; record++)
+            output.append(randomAssetRef().encode()).append('\n');
+        write(directory, "AssetRef", output);
+    }
+
+    public void writeGeneses(File directory, int countRecords) throws IOException
+    {
+        StringBuilder output=header("Genesis");
+        for (int record=0; record<countRecords; record++)
+        {
+            int countOutputs=1+random.nextInt(8);
+            output.append(randomHex(32)).append('\n');
+            output.append(random.nextInt(4)).append('\n');
+            output.append(randomGenesis().encodeToHex(40)).append('\n');
+            output.append(randomSatoshis(countOutputs)).append('\n');
+            output.append(randomRegular(countOutputs)).append('\n');
+            output.append(randomFee()).append('\n');
+            output.append('\n');
+        }
+        write(directory, "Genesis", output);
+    }
+
+    public void writeTransfers(File directory, int countRecords) throws IOException
+    {
+        StringBuilder output=header("Transfer");
+        int record=0;
+        while (record<countRecords)
+        {
+            int countInputs=1+random.nextInt(6);
+            int countOutputs=1+random.nextInt(8);
+            CoinSparkAssetRef assetRef=randomAssetRef();
+            String transfersHex=randomTransferList(assetRef, countInputs, countOutputs).encodeToHex(countInputs, countOutputs, 40);
+            if (transfersHex == null)
+                continue;
+
+            StringBuilder inputBalances=new StringBuilder();
+            for (int input=0; input<countInputs; input++)
+                inputBalances.append(input>0 ? "," : "").append(random.nextInt(4) == 0 ? 0 : random.nextInt(1000000));
+
+            output.append(randomGenesis().encodeToHex(40)).append('\n');
+            output.append(assetRef.encode()).append('\n');
+            output.append(transfersHex).append('\n');
+            output.append(inputBalances).append('\n');
+            output.append(randomSatoshis(countOutputs)).append('\n');
+            output.append(randomRegular(countOutputs)).append('\n');
+            output.append(randomFee()).append('\n');
+            output.append('\n');
+            record++;
+        }
+        write(directory, "Transfer", output);
+    }
+
+    public void writeScripts(File directory, int countRecords) throws IOException
+    {
+        StringBuilder output=header("Script");
+        int record=0;
+        while (record<countRecords)
+        {
+            int countInputs=1+random.nextInt(6);
+            int countOutputs=1+random.nextInt(8);
+            byte [] metadata=null;
+
+            if (random.nextInt(4) == 0)
+            {
+                metadata=randomGenesis().encode(40);
+            }
+            else
+            {
+                if (random.nextBoolean())
+                    metadata=append(metadata, new CoinSparkPaymentRef(random.nextInt(1000000)).encode(40));
+                if (random.nextInt(4) != 0)
+                    metadata=append(metadata, randomTransferList(randomAssetRef(), countInputs, countOutputs).encode(countInputs, countOutputs, maxAppendLen(metadata)));
+                if (random.nextInt(3) == 0)
+                    metadata=append(metadata, randomMessage(countOutputs).encode(countOutputs, maxAppendLen(metadata)));
+            }
+
+            if (metadata == null)
+                continue;
+
+            output.append(countInputs).append('\n');
+            output.append(countOutputs).append('\n');
+            output.append(CoinSparkBase.metadataToScriptHex(metadata)).append('\n');
+            output.append('\n');
+            record++;
+        }
+        write(directory, "Script", output);
+    }
+
+    public void writeMessageHashes(File directory, int countRecords) throws IOException
+    {
+        StringBuilder output=header("MessageHash");
+        for (int record=0; record<countRecords; record++)
+        {
+            int countParts=1+random.nextInt(3);
+            output.append(randomWord(8+random.nextInt(24))).append('\n');
+            output.append(countParts).append('\n');
+            for (int part=0; part<countParts; part++)
+            {
+                output.append(MIME_TYPES[random.nextInt(MIME_TYPES.length)]).append('\n');
+                output.append(random.nextBoolean() ? "" : randomWord(6) + ".txt").append('\n');
+                output.append(randomSentence(5+random.nextInt(200))).append('\n');
+            }
+            output.append('\n');
+        }
+        write(directory, "MessageHash", output);
+    }
+
+    public void writeAssetHashes(File directory, int countRecords) throws IOException
+    {
+        StringBuilder output=header("AssetHash");
+        for (int record=0; record<countRecords; record++)
+        {
+            output.append(" ").append(capitalize(randomWord(6))).append(" Certificate ").append(random.nextInt(1000)).append('\n');
+            output.append(capitalize(randomWord(8))).append(" Holdings Ltd").append('\n');
+            output.append(randomSentence(5+random.nextInt(30))).append('\n');
+            output.append(UNITS[random.nextInt(UNITS.length)]).append('\n');
+            output.append(randomDate(2014)).append('\n');
+            output.append(random.nextBoolean() ? "" : randomDate(2020)).append('\n');
+            output.append(random.nextInt(3) == 0 ? "0" : String.format("%d.%d", random.nextInt(10), random.nextInt(100))).append('\n');
+            output.append(random.nextBoolean() ? "1" : "0.01").append('\n');
+            output.append(randomSentence(20+random.nextInt(500))).append('\n');
+            output.append('\n');
+        }
+        write(directory, "AssetHash", output);
+    }
+
+
+// Private variables/constants/functions
+
+    private static final String BASE58_CHARS = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+    private static final String [] DOMAINS = {
+            "coinspark.org", "www.coinsecrets.org", "assets.example.com", "gold-issuer.co.uk", "www.bank.com.au",
+            "tokens.exchange.de", "issuer.io", "198.51.100.7", "shop.example.net", "www.coupons.fr"
+    };
+    private static final String [] PATHS = {
+            "", "", "gold", "usd", "voucher-2014", "a1", "shares"
+    };
+    private static final String [] MIME_TYPES = {
+            "text/plain", "text/html", "image/png", "application/pdf", ""
+    };
+    private static final String [] UNITS = {
+            "1 ounce", "1 USD", "1 share", "1 kg", "1 voucher"
+    };
+
+    private final Random random;
+
+    private static StringBuilder header(String suffix)
+    {
+        return new StringBuilder("CoinSpark " + suffix + " Tests Input\n\n");
+    }
+
+    private static void write(File directory, String suffix, StringBuilder output) throws IOException
+    {
+        Writer writer=new OutputStreamWriter(new FileOutputStream(new File(directory, suffix + "-Input.txt")), StandardCharsets.UTF_8);
+        try {
+            writer.write(output.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static byte [] append(byte [] metadata, byte [] appendMetadata)
+    {
+        if (appendMetadata == null)
+            return metadata;
+
+        if (metadata == null)
+            return appendMetadata;
+
+        byte [] appended=CoinSparkBase.metadataAppend(metadata, 40, appendMetadata);
+        return (appended != null) ? appended : metadata;
+    }
+
+    private static int maxAppendLen(byte [] metadata)
+    {
+        return (metadata == null) ? 40 : CoinSparkBase.metadataMaxAppendLen(metadata, 40);
+    }
+
+    private CoinSparkAddress randomAddress()
+    {
+        StringBuilder bitcoinAddress=new StringBuilder(random.nextInt(5) == 0 ? "3" : "1");
+        int length=32+random.nextInt(2);
+        for (int charIndex=0; charIndex<length; charIndex++)
+            bitcoinAddress.append(BASE58_CHARS.charAt(random.nextInt(BASE58_CHARS.length())));
+
+        int flags=0;
+        if (random.nextInt(4) != 0)
+            flags|=CoinSparkAddress.COINSPARK_ADDRESS_FLAG_ASSETS;
+        if (random.nextBoolean())
+            flags|=CoinSparkAddress.COINSPARK_ADDRESS_FLAG_PAYMENT_REFS;
+        if (random.nextBoolean())
+            flags|=CoinSparkAddress.COINSPARK_ADDRESS_FLAG_TEXT_MESSAGES|(random.nextBoolean() ? CoinSparkAddress.COINSPARK_ADDRESS_FLAG_FILE_MESSAGES : 0);
+
+        long paymentRef=(random.nextInt(3) == 0) ? (random.nextLong() & 0xFFFFFFFFFFFFFL) : 0;
+
+        return new CoinSparkAddress(bitcoinAddress.toString(), flags, new CoinSparkPaymentRef(paymentRef));
+    }
+
+    private CoinSparkAssetRef randomAssetRef()
+    {
+        byte [] txIDPrefix=new byte[CoinSparkAssetRef.COINSPARK_ASSETREF_TXID_PREFIX_LEN];
+        random.nextBytes(txIDPrefix);
+
+        return new CoinSparkAssetRef(300000+random.nextInt(150000), 81+random.nextInt(900000), txIDPrefix);
+    }
+
+    private CoinSparkGenesis randomGenesis()
+    {
+        CoinSparkGenesis genesis;
+
+        do {
+            genesis=randomGenesisFields();
+        } while (genesis.encode(40) == null); // some random combinations are invalid or too long
+
+        return genesis;
+    }
+
+    private CoinSparkGenesis randomGenesisFields()
+    {
+        CoinSparkGenesis genesis=new CoinSparkGenesis();
+        genesis.setQtyMantissa((short)(1+random.nextInt(1000)));
+        genesis.setQtyExponent((short)random.nextInt(9));
+        if (random.nextBoolean())
+        {
+            genesis.setChargeFlatMantissa((short)random.nextInt(100));
+            genesis.setChargeFlatExponent((short)random.nextInt(3));
+        }
+        if (random.nextBoolean())
+            genesis.setChargeBasisPoints((short)random.nextInt(250));
+
+        genesis.setUseHttps(random.nextBoolean());
+        genesis.setDomainName(DOMAINS[random.nextInt(DOMAINS.length)]);
+        genesis.setUsePrefix(random.nextBoolean());
+        genesis.setPagePath(PATHS[random.nextInt(PATHS.length)]);
+
+        byte [] assetHash=new byte[32];
+        random.nextBytes(assetHash);
+        genesis.setAssetHash(assetHash);
+        genesis.setAssetHashLen(genesis.calcHashLen(40));
+
+        return genesis;
+    }
+
+    private CoinSparkTransferList randomTransferList(CoinSparkAssetRef assetRef, int countInputs, int countOutputs)
+    {
+        int countTransfers=1+random.nextInt(4);
+        CoinSparkTransferList transfers=new CoinSparkTransferList(countTransfers);
+
+        for (int index=0; index<countTransfers; index++)
+        {
+            CoinSparkTransfer transfer=new CoinSparkTransfer();
+            transfer.setAssetRef(random.nextInt(4) == 0 ? randomAssetRef() : assetRef);
+
+            int firstInput=random.nextInt(countInputs);
+            transfer.setInputs(new CoinSparkIORange(firstInput, 1+random.nextInt(countInputs-firstInput)));
+            int firstOutput=random.nextInt(countOutputs);
+            transfer.setOutputs(new CoinSparkIORange(firstOutput, 1+random.nextInt(countOutputs-firstOutput)));
+            transfer.setQtyPerOutput(random.nextBoolean() ? 1+random.nextInt(100) : random.nextInt(1000000));
+
+            transfers.setTransfer(index, transfer);
+        }
+
+        return transfers;
+    }
+
+    private CoinSparkMessage randomMessage(int countOutputs)
+    {
+        CoinSparkMessage message=new CoinSparkMessage();
+        message.setUseHttps(random.nextBoolean());
+        message.setServerHost(DOMAINS[random.nextInt(DOMAINS.length)]);
+        message.setUsePrefix(random.nextBoolean());
+        message.setServerPath(PATHS[random.nextInt(PATHS.length)]);
+        message.setIsPublic(random.nextBoolean());
+
+        int firstOutput=random.nextInt(countOutputs);
+        message.addOutputs(new CoinSparkIORange(firstOutput, 1+random.nextInt(countOutputs-firstOutput)));
+
+        byte [] hash=new byte[32];
+        random.nextBytes(hash);
+        message.setHash(hash);
+        message.setHashLen(12);
+
+        return message;
+    }
+
+    private String randomSatoshis(int countOutputs)
+    {
+        StringBuilder result=new StringBuilder();
+        for (int output=0; output<countOutputs; output++)
+            result.append(output>0 ? "," : "").append(random.nextInt(3) == 0 ? 546 : 1000+random.nextInt(100000000));
+
+        return result.toString();
+    }
+
+    private String randomRegular(int countOutputs)
+    {
+        StringBuilder result=new StringBuilder();
+        for (int output=0; output<countOutputs; output++)
+            result.append(output>0 ? "," : "").append(random.nextInt(6) == 0 ? "0" : "1");
+
+        return result.toString();
+    }
+
+    private long randomFee()
+    {
+        return 1000*random.nextInt(100);
+    }
+
+    private String randomHex(int countBytes)
+    {
+        StringBuilder result=new StringBuilder();
+        for (int index=0; index<countBytes; index++)
+            result.append(String.format("%02x", random.nextInt(256)));
+
+        return result.toString();
+    }
+
+    private String randomWord(int length)
+    {
+        StringBuilder result=new StringBuilder();
+        for (int index=0; index<length; index++)
+            result.append((char)('a'+random.nextInt(26)));
+
+        return result.toString();
+    }
+
+    private String randomSentence(int countWords)
+    {
+        StringBuilder result=new StringBuilder();
+        for (int index=0; index<countWords; index++)
+            result.append(index>0 ? " " : "").append(randomWord(1+random.nextInt(9)));
+
+        return capitalize(result.toString()) + ".";
+    }
+
+    private String randomDate(int fromYear)
+    {
+        return String.format("%04d-%02d-%02d", fromYear+random.nextInt(5), 1+random.nextInt(12), 1+random.nextInt(28));
+    }
+
+    private static String capitalize(String word)
+    {
+        return (word.length() == 0) ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+}
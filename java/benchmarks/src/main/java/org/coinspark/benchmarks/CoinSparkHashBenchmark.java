@@ -0,0 +1,135 @@
+/*
+ * CoinSpark 2.1 - Java benchmarks
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.coinspark.protocol.CoinSparkGenesis;
+import org.coinspark.protocol.CoinSparkMessage;
+import org.coinspark.protocol.CoinSparkMessageHasher;
+import org.coinspark.protocol.CoinSparkMessagePart;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CoinSparkHashBenchmark class for timing asset and message hashing over the AssetHash-Input.txt and
+ * MessageHash-Input.txt corpora.
+ *
+ * If contentBytes is 0 the contracts and message contents from the corpus are used as they are, otherwise
+ * each contract and message part content is replaced by that many random bytes.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoinSparkHashBenchmark {
+
+    @Param({"0", "65536", "1048576"})
+    public int contentBytes;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        Random random=new Random(1);
+
+        List<CoinSparkCorpus.AssetHashRecord> assetRecords=CoinSparkCorpus.readAssetHashes();
+        assets=assetRecords.toArray(new CoinSparkCorpus.AssetHashRecord[assetRecords.size()]);
+        for (CoinSparkCorpus.AssetHashRecord record : assets)
+            if (contentBytes > 0)
+                record.contract=randomBytes(random);
+
+        List<CoinSparkCorpus.MessageHashRecord> messageRecords=CoinSparkCorpus.readMessageHashes();
+        messages=messageRecords.toArray(new CoinSparkCorpus.MessageHashRecord[messageRecords.size()]);
+        for (CoinSparkCorpus.MessageHashRecord record : messages)
+            if (contentBytes > 0)
+                for (CoinSparkMessagePart part : record.contentParts)
+                    part.content=randomBytes(random);
+
+        messageHasher=new CoinSparkMessageHasher(messages[0].salt);
+    }
+
+    @Benchmark
+    public byte [] assetHash()
+    {
+        CoinSparkCorpus.AssetHashRecord record=assets[assetIndex=next(assetIndex, assets.length)];
+        return CoinSparkGenesis.calcAssetHash(record.name, record.issuer, record.description, record.units,
+                record.issueDate, record.expiryDate, record.interestRate, record.multiple, record.contract);
+    }
+
+    @Benchmark
+    public byte [] messageHash()
+    {
+        CoinSparkCorpus.MessageHashRecord record=messages[messageIndex=next(messageIndex, messages.length)];
+        return CoinSparkMessage.calcMessageHash(record.salt, record.contentParts);
+    }
+
+    @Benchmark
+    public byte [] messageHashStreaming()
+    {
+        CoinSparkCorpus.MessageHashRecord record=messages[messageIndex=next(messageIndex, messages.length)];
+        messageHasher.reset(record.salt);
+        for (CoinSparkMessagePart part : record.contentParts)
+            messageHasher.addPart(part);
+
+        return messageHasher.getHash();
+    }
+
+
+// Private variables/constants/functions
+
+    private CoinSparkCorpus.AssetHashRecord [] assets;
+    private CoinSparkCorpus.MessageHashRecord [] messages;
+
+    private CoinSparkMessageHasher messageHasher;
+    private int assetIndex;
+    private int messageIndex;
+
+    private byte [] randomBytes(Random random)
+    {
+        byte [] content=new byte[contentBytes];
+        random.nextBytes(content);
+        return content;
+    }
+
+    private static int next(int index, int count)
+    {
+        return (index+1 == count) ? 0 : index+1;
+    }
+}
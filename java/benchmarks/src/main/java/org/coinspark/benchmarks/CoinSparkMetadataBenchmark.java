@@ -0,0 +1,240 @@
+/*
+ * CoinSpark 2.1 - Java benchmarks
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.coinspark.protocol.CoinSparkBase;
+import org.coinspark.protocol.CoinSparkGenesis;
+import org.coinspark.protocol.CoinSparkMessage;
+import org.coinspark.protocol.CoinSparkPaymentRef;
+import org.coinspark.protocol.CoinSparkTransferList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CoinSparkMetadataBenchmark class for timing encoding and decoding of genesis, transfer list, message and
+ * payment reference metadata, and appending metadata together.
+ *
+ * Genesis metadata comes from Genesis-Input.txt, transfer lists from Transfer-Input.txt, and payment
+ * references and messages from the scripts in Script-Input.txt.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoinSparkMetadataBenchmark {
+
+    @Setup
+    public void setup() throws IOException
+    {
+        List<byte []> metadatas=new ArrayList<byte []>();
+        List<CoinSparkGenesis> geneses=new ArrayList<CoinSparkGenesis>();
+        for (CoinSparkCorpus.GenesisRecord record : CoinSparkCorpus.readGeneses())
+        {
+            byte [] metadata=CoinSparkCorpus.hexToBytes(record.metadataHex);
+            CoinSparkGenesis genesis=new CoinSparkGenesis();
+            if ((metadata != null) && genesis.decode(metadata))
+            {
+                metadatas.add(metadata);
+                geneses.add(genesis);
+            }
+        }
+        genesisMetadata=metadatas.toArray(new byte[metadatas.size()][]);
+        genesisObjects=geneses.toArray(new CoinSparkGenesis[geneses.size()]);
+
+        metadatas.clear();
+        List<CoinSparkTransferList> transferLists=new ArrayList<CoinSparkTransferList>();
+        List<int []> transferCounts=new ArrayList<int []>();
+        for (CoinSparkCorpus.TransferRecord record : CoinSparkCorpus.readTransfers())
+        {
+            byte [] metadata=CoinSparkCorpus.hexToBytes(record.metadataHex);
+            CoinSparkTransferList transferList=new CoinSparkTransferList();
+            if ((metadata != null) && transferList.decode(metadata, record.inputBalances.length, record.outputsSatoshis.length))
+            {
+                metadatas.add(metadata);
+                transferLists.add(transferList);
+                transferCounts.add(new int [] {record.inputBalances.length, record.outputsSatoshis.length});
+            }
+        }
+        transferListMetadata=metadatas.toArray(new byte[metadatas.size()][]);
+        transferListObjects=transferLists.toArray(new CoinSparkTransferList[transferLists.size()]);
+        transferListCounts=transferCounts.toArray(new int[transferCounts.size()][]);
+
+        metadatas.clear();
+        List<CoinSparkPaymentRef> paymentRefs=new ArrayList<CoinSparkPaymentRef>();
+        List<byte []> messageMetadatas=new ArrayList<byte []>();
+        List<CoinSparkMessage> messages=new ArrayList<CoinSparkMessage>();
+        List<Integer> messageCounts=new ArrayList<Integer>();
+        for (CoinSparkCorpus.ScriptRecord record : CoinSparkCorpus.readScripts())
+        {
+            byte [] metadata=CoinSparkBase.scriptToMetadata(record.scriptPubKeyHex);
+            if (metadata == null)
+                continue;
+
+            CoinSparkPaymentRef paymentRef=new CoinSparkPaymentRef();
+            if (paymentRef.decode(metadata))
+            {
+                metadatas.add(metadata);
+                paymentRefs.add(paymentRef);
+            }
+
+            CoinSparkMessage message=new CoinSparkMessage();
+            if (message.decode(metadata, record.countOutputs))
+            {
+                messageMetadatas.add(metadata);
+                messages.add(message);
+                messageCounts.add(record.countOutputs);
+            }
+        }
+        paymentRefMetadata=metadatas.toArray(new byte[metadatas.size()][]);
+        paymentRefObjects=paymentRefs.toArray(new CoinSparkPaymentRef[paymentRefs.size()]);
+        messageMetadata=messageMetadatas.toArray(new byte[messageMetadatas.size()][]);
+        messageObjects=messages.toArray(new CoinSparkMessage[messages.size()]);
+        messageCountOutputs=new int[messageCounts.size()];
+        for (int index=0; index<messageCountOutputs.length; index++)
+            messageCountOutputs[index]=messageCounts.get(index);
+
+        if ((genesisObjects.length == 0) || (transferListObjects.length == 0) || (paymentRefObjects.length == 0) || (messageObjects.length == 0))
+            throw new IOException("Corpus has no records for one of the metadata types");
+
+        decodedGenesis=new CoinSparkGenesis();
+        decodedTransferList=new CoinSparkTransferList();
+        decodedPaymentRef=new CoinSparkPaymentRef();
+        decodedMessage=new CoinSparkMessage();
+    }
+
+    @Benchmark
+    public byte [] genesisEncode()
+    {
+        return genesisObjects[genesisIndex=next(genesisIndex, genesisObjects.length)].encode(METADATA_MAX_LEN);
+    }
+
+    @Benchmark
+    public boolean genesisDecode()
+    {
+        return decodedGenesis.decode(genesisMetadata[genesisIndex=next(genesisIndex, genesisMetadata.length)]);
+    }
+
+    @Benchmark
+    public byte [] transferListEncode()
+    {
+        transferListIndex=next(transferListIndex, transferListObjects.length);
+        int [] counts=transferListCounts[transferListIndex];
+        return transferListObjects[transferListIndex].encode(counts[0], counts[1], METADATA_MAX_LEN);
+    }
+
+    @Benchmark
+    public boolean transferListDecode()
+    {
+        transferListIndex=next(transferListIndex, transferListMetadata.length);
+        int [] counts=transferListCounts[transferListIndex];
+        return decodedTransferList.decode(transferListMetadata[transferListIndex], counts[0], counts[1]);
+    }
+
+    @Benchmark
+    public byte [] messageEncode()
+    {
+        messageIndex=next(messageIndex, messageObjects.length);
+        return messageObjects[messageIndex].encode(messageCountOutputs[messageIndex], METADATA_MAX_LEN);
+    }
+
+    @Benchmark
+    public boolean messageDecode()
+    {
+        messageIndex=next(messageIndex, messageMetadata.length);
+        return decodedMessage.decode(messageMetadata[messageIndex], messageCountOutputs[messageIndex]);
+    }
+
+    @Benchmark
+    public byte [] paymentRefEncode()
+    {
+        return paymentRefObjects[paymentRefIndex=next(paymentRefIndex, paymentRefObjects.length)].encode(METADATA_MAX_LEN);
+    }
+
+    @Benchmark
+    public boolean paymentRefDecode()
+    {
+        return decodedPaymentRef.decode(paymentRefMetadata[paymentRefIndex=next(paymentRefIndex, paymentRefMetadata.length)]);
+    }
+
+    @Benchmark
+    public byte [] metadataAppend()
+    {
+        paymentRefIndex=next(paymentRefIndex, paymentRefObjects.length);
+        transferListIndex=next(transferListIndex, transferListObjects.length);
+        int [] counts=transferListCounts[transferListIndex];
+
+        byte [] metadata=paymentRefObjects[paymentRefIndex].encode(METADATA_MAX_LEN);
+        byte [] appendMetadata=transferListObjects[transferListIndex].encode(counts[0], counts[1],
+                CoinSparkBase.metadataMaxAppendLen(metadata, METADATA_MAX_LEN));
+
+        return (appendMetadata == null) ? metadata : CoinSparkBase.metadataAppend(metadata, METADATA_MAX_LEN, appendMetadata);
+    }
+
+
+// Private variables/constants/functions
+
+    private static final int METADATA_MAX_LEN = 40;
+
+    private byte [][] genesisMetadata;
+    private CoinSparkGenesis [] genesisObjects;
+    private byte [][] transferListMetadata;
+    private CoinSparkTransferList [] transferListObjects;
+    private int [][] transferListCounts;
+    private byte [][] paymentRefMetadata;
+    private CoinSparkPaymentRef [] paymentRefObjects;
+    private byte [][] messageMetadata;
+    private CoinSparkMessage [] messageObjects;
+    private int [] messageCountOutputs;
+
+    private CoinSparkGenesis decodedGenesis;
+    private CoinSparkTransferList decodedTransferList;
+    private CoinSparkPaymentRef decodedPaymentRef;
+    private CoinSparkMessage decodedMessage;
+    private int genesisIndex;
+    private int transferListIndex;
+    private int paymentRefIndex;
+    private int messageIndex;
+
+    private static int next(int index, int count)
+    {
+        return (index+1 == count) ? 0 : index+1;
+    }
+}
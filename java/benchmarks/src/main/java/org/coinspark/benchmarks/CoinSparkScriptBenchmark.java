@@ -0,0 +1,160 @@
+/*
+ * CoinSpark 2.1 - Java benchmarks
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.coinspark.protocol.CoinSparkBase;
+import org.coinspark.protocol.CoinSparkMetadataView;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CoinSparkScriptBenchmark class for timing extraction of metadata from the output scripts of a transaction.
+ *
+ * Each transaction holds one OP_RETURN script from Script-Input.txt at a random position among
+ * pay-to-pubkey-hash scripts, for a total of outputsPerTransaction outputs.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoinSparkScriptBenchmark {
+
+    @Param({"2", "8", "32"})
+    public int outputsPerTransaction;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        List<CoinSparkCorpus.ScriptRecord> records=CoinSparkCorpus.readScripts();
+        Random random=new Random(1);
+
+        scriptsHex=new String[records.size()][];
+        scriptsRaw=new byte[records.size()][][];
+        transactionData=new byte[records.size()][];
+        scriptOffsets=new int[records.size()][];
+        scriptLengths=new int[records.size()][];
+
+        for (int transaction=0; transaction<records.size(); transaction++)
+        {
+            int metadataOutput=random.nextInt(outputsPerTransaction);
+            String [] scripts=new String[outputsPerTransaction];
+            for (int output=0; output<outputsPerTransaction; output++)
+                scripts[output]=(output == metadataOutput) ? records.get(transaction).scriptPubKeyHex : randomPayToPubKeyHash(random);
+
+            scriptsHex[transaction]=scripts;
+            scriptsRaw[transaction]=new byte[outputsPerTransaction][];
+            scriptOffsets[transaction]=new int[outputsPerTransaction];
+            scriptLengths[transaction]=new int[outputsPerTransaction];
+
+            int dataLength=0;
+            for (int output=0; output<outputsPerTransaction; output++)
+            {
+                scriptsRaw[transaction][output]=CoinSparkCorpus.hexToBytes(scripts[output]);
+                dataLength+=9+scriptsRaw[transaction][output].length;          // value and length byte before each script
+            }
+
+            transactionData[transaction]=new byte[dataLength];
+            int offset=0;
+            for (int output=0; output<outputsPerTransaction; output++)
+            {
+                byte [] script=scriptsRaw[transaction][output];
+                offset+=8;
+                transactionData[transaction][offset++]=(byte)script.length;
+                System.arraycopy(script, 0, transactionData[transaction], offset, script.length);
+                scriptOffsets[transaction][output]=offset;
+                scriptLengths[transaction][output]=script.length;
+                offset+=script.length;
+            }
+        }
+
+        metadataView=new CoinSparkMetadataView();
+    }
+
+    @Benchmark
+    public byte [] scriptsToMetadataHex()
+    {
+        return CoinSparkBase.scriptsToMetadata(scriptsHex[transactionIndex=next(transactionIndex, scriptsHex.length)]);
+    }
+
+    @Benchmark
+    public byte [] scriptsToMetadataRaw()
+    {
+        return CoinSparkBase.scriptsToMetadata(scriptsRaw[transactionIndex=next(transactionIndex, scriptsRaw.length)]);
+    }
+
+    @Benchmark
+    public int scriptsToMetadataInPlace()
+    {
+        transactionIndex=next(transactionIndex, transactionData.length);
+        CoinSparkBase.scriptsToMetadata(transactionData[transactionIndex], scriptOffsets[transactionIndex], scriptLengths[transactionIndex], metadataView);
+        return metadataView.length;
+    }
+
+
+// Private variables/constants/functions
+
+    private String [][] scriptsHex;
+    private byte [][][] scriptsRaw;
+    private byte [][] transactionData;
+    private int [][] scriptOffsets;
+    private int [][] scriptLengths;
+
+    private CoinSparkMetadataView metadataView;
+    private int transactionIndex;
+
+    private static String randomPayToPubKeyHash(Random random)
+    {
+        byte [] pubKeyHash=new byte[20];
+        random.nextBytes(pubKeyHash);
+
+        StringBuilder script=new StringBuilder("76a914");
+        for (byte value : pubKeyHash)
+            script.append(String.format("%02x", value & 0xFF));
+
+        return script.append("88ac").toString();
+    }
+
+    private static int next(int index, int count)
+    {
+        return (index+1 == count) ? 0 : index+1;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * CoinSpark 2.1 - Java benchmarks
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.benchmarks;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.coinspark.protocol.CoinSparkApplyContext;
+import org.coinspark.protocol.CoinSparkAssetRef;
+import org.coinspark.protocol.CoinSparkGenesis;
+import org.coinspark.protocol.CoinSparkIORange;
+import org.coinspark.protocol.CoinSparkTransfer;
+import org.coinspark.protocol.CoinSparkTransferList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CoinSparkTransferApplyBenchmark class for timing CoinSparkTransferList apply, applyNone and calcMinFee
+ * for transactions with varying numbers of inputs, outputs and transfers.
+ *
+ * Geneses and asset references come from Genesis-Input.txt and AssetRef-Input.txt, while the transfer
+ * lists, balances and output values are generated from a fixed seed for each combination of parameters.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoinSparkTransferApplyBenchmark {
+
+    @Param({"1", "8", "64"})
+    public int countInputs;
+
+    @Param({"2", "16", "128"})
+    public int countOutputs;
+
+    @Param({"1", "8", "64"})
+    public int countTransfers;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        Random random=new Random(1);
+
+        genesis=new CoinSparkGenesis();
+        if (!genesis.decode(CoinSparkCorpus.hexToBytes(CoinSparkCorpus.readGeneses().get(0).metadataHex)))
+            throw new IOException("Invalid genesis in corpus");
+
+        assetRef=new CoinSparkAssetRef();
+        if (!assetRef.decode(CoinSparkCorpus.readAssetRefs().get(0)))
+            throw new IOException("Invalid asset reference in corpus");
+
+        CoinSparkAssetRef otherAssetRef=new CoinSparkAssetRef();
+        if (!otherAssetRef.decode(CoinSparkCorpus.readAssetRefs().get(1)))
+            throw new IOException("Invalid asset reference in corpus");
+
+        transferLists=new CoinSparkTransferList[COUNT_TRANSACTIONS];
+        inputBalances=new long[COUNT_TRANSACTIONS][];
+        outputsSatoshis=new long[COUNT_TRANSACTIONS][];
+        outputsRegular=new boolean[COUNT_TRANSACTIONS][];
+
+        for (int transaction=0; transaction<COUNT_TRANSACTIONS; transaction++)
+        {
+            transferLists[transaction]=new CoinSparkTransferList(countTransfers);
+            for (int index=0; index<countTransfers; index++)
+            {
+                CoinSparkTransfer transfer=new CoinSparkTransfer();
+                transfer.setAssetRef((random.nextInt(4) == 0) ? otherAssetRef : assetRef);
+
+                int firstInput=random.nextInt(countInputs);
+                transfer.setInputs(new CoinSparkIORange(firstInput, 1+random.nextInt(countInputs-firstInput)));
+                int firstOutput=random.nextInt(countOutputs);
+                transfer.setOutputs(new CoinSparkIORange(firstOutput, 1+random.nextInt(countOutputs-firstOutput)));
+                transfer.setQtyPerOutput(1+random.nextInt(1000));
+
+                transferLists[transaction].setTransfer(index, transfer);
+            }
+
+            inputBalances[transaction]=new long[countInputs];
+            for (int input=0; input<countInputs; input++)
+                inputBalances[transaction][input]=random.nextInt(1000000);
+
+            outputsSatoshis[transaction]=new long[countOutputs];
+            outputsRegular[transaction]=new boolean[countOutputs];
+            for (int output=0; output<countOutputs; output++)
+            {
+                outputsSatoshis[transaction][output]=(random.nextInt(3) == 0) ? 546 : 1000+random.nextInt(100000000);
+                outputsRegular[transaction][output]=(random.nextInt(8) != 0);
+            }
+        }
+
+        outputBalances=new long[countOutputs];
+        context=new CoinSparkApplyContext(countInputs);
+    }
+
+    @Benchmark
+    public long [] apply()
+    {
+        transactionIndex=next(transactionIndex, COUNT_TRANSACTIONS);
+        return transferLists[transactionIndex].apply(assetRef, genesis, inputBalances[transactionIndex], outputsRegular[transactionIndex]);
+    }
+
+    @Benchmark
+    public long [] applyWithContext()
+    {
+        transactionIndex=next(transactionIndex, COUNT_TRANSACTIONS);
+        transferLists[transactionIndex].apply(assetRef, genesis, countInputs, inputBalances[transactionIndex],
+                countOutputs, outputsRegular[transactionIndex], outputBalances, context);
+        return outputBalances;
+    }
+
+    @Benchmark
+    public long [] applyNone()
+    {
+        transactionIndex=next(transactionIndex, COUNT_TRANSACTIONS);
+        return transferLists[transactionIndex].applyNone(assetRef, genesis, inputBalances[transactionIndex], outputsRegular[transactionIndex]);
+    }
+
+    @Benchmark
+    public long calcMinFee()
+    {
+        transactionIndex=next(transactionIndex, COUNT_TRANSACTIONS);
+        return transferLists[transactionIndex].calcMinFee(countInputs, outputsSatoshis[transactionIndex], outputsRegular[transactionIndex]);
+    }
+
+
+// Private variables/constants/functions
+
+    private static final int COUNT_TRANSACTIONS = 64;
+
+    private CoinSparkGenesis genesis;
+    private CoinSparkAssetRef assetRef;
+    private CoinSparkTransferList [] transferLists;
+    private long [][] inputBalances;
+    private long [][] outputsSatoshis;
+    private boolean [][] outputsRegular;
+
+    private long [] outputBalances;
+    private CoinSparkApplyContext context;
+    private int transactionIndex;
+
+    private static int next(int index, int count)
+    {
+        return (index+1 == count) ? 0 : index+1;
+    }
+}
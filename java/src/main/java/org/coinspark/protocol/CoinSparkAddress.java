@@ -80,7 +80,8 @@ public class CoinSparkAddress extends CoinSparkBase{
      */
     
     public final void setBitcoinAddress(String BitcoinAddress) {
-        bitcoinAddress = new StringBuffer(BitcoinAddress);
+        bitcoinAddress.setLength(0);
+        bitcoinAddress.append(BitcoinAddress);
     }
 
     /**
@@ -137,7 +138,7 @@ public class CoinSparkAddress extends CoinSparkBase{
     
     public final void clear()
     {        
-        bitcoinAddress = new StringBuffer();
+        bitcoinAddress.setLength(0);
         addressFlags = 0;
         paymentRef = new CoinSparkPaymentRef(0);
     }
@@ -199,7 +200,7 @@ public class CoinSparkAddress extends CoinSparkBase{
     
     public boolean isValid()
     {
-        if((bitcoinAddress == null) || (bitcoinAddress.length() == 0))
+        if(bitcoinAddress.length() == 0)
             return false;
         
         if((addressFlags & COINSPARK_ADDRESS_FLAG_MASK) != addressFlags)
@@ -233,61 +234,77 @@ public class CoinSparkAddress extends CoinSparkBase{
     
     public String encode()
     {        
+        int stringLen=encodedLen();
+        if(stringLen < 0)
+            return null;
+        
+        char [] address=new char[stringLen];
+        if(encode(address, 0) < 0)
+            return null;
+        
+        return new String(address);
+    }
+    
+    /**
+     * Encodes the fields in address into a caller-owned buffer, without allocating memory.
+     * 
+     * @param Address Buffer to write the CoinSpark address to.
+     * @param Offset Position in Address to write the first character to.
+     * @return number of characters written, -1 if we failed or Address is too small.
+     */
+    
+    public int encode(char [] Address, int Offset)
+    {
         try
         {
-            if(!isValid())
+            int stringLen=encodedLen();
+            if(stringLen < 0)
                 throw new CoinSparkExceptions.CannotEncode("Invalid CoinSpark address");
             
-            CoinSparkBuffer buffer= new CoinSparkBuffer();
+            if( (Offset < 0) || (Offset > Address.length-stringLen) )
+                throw new CoinSparkExceptions.CannotEncode("Buffer too small");
             
-            int stringBase58[] = new int[1024];
-
-            //  Build up extra data for address flags
+            //  Build up extra data for address flags and payment reference, which are stored 
+            //  as base 58 values in Address until they are converted to characters at the end
             
             int addressFlagChars = 0;
             int testAddressFlags = addressFlags;
 
             while (testAddressFlags>0)
             {
-                stringBase58[2+addressFlagChars]=testAddressFlags%58;
+                Address[Offset+2+addressFlagChars]=(char)(testAddressFlags%58);
                 testAddressFlags/=58;                                           // keep as integer
                 addressFlagChars++;
             }
 
-            //  Build up extra data for payment reference
-            
             int paymentRefChars = 0;
             long testPaymentRef=paymentRef.ref;
 
             while (testPaymentRef > 0)
             {
-                stringBase58[2+addressFlagChars+paymentRefChars] = (int)(testPaymentRef%58);
+                Address[Offset+2+addressFlagChars+paymentRefChars] = (char)(testPaymentRef%58);
                 testPaymentRef /=58;                                            // keep as integer
                 paymentRefChars++;
             }
 
-            //  Calculate total length required
-            
             int extraDataChars = addressFlagChars+paymentRefChars;
-            int bitcoinAddressLen = bitcoinAddress.length();
-            int stringLen=bitcoinAddressLen+2+extraDataChars;
             
-            stringBase58[1]=addressFlagChars*COINSPARK_ADDRESS_FLAG_CHARS_MULTIPLE+paymentRefChars;
+            Address[Offset+1]=(char)(addressFlagChars*COINSPARK_ADDRESS_FLAG_CHARS_MULTIPLE+paymentRefChars);
             
             //  Convert the address itself
             
             for (int charIndex=0; charIndex<this.bitcoinAddress.length(); charIndex++)
             {
-                int charValue = base58ToInteger((byte)bitcoinAddress.charAt(charIndex));
+                int charValue = base58ToInteger(bitcoinAddress.charAt(charIndex));
                 if (charValue<0)
                     throw new CoinSparkExceptions.CannotEncode("Wrong address character");
 
                 charValue+=COINSPARK_ADDRESS_CHAR_INCREMENT;
                 
                 if (extraDataChars>0)
-                    charValue+=stringBase58[2+charIndex%extraDataChars];
+                    charValue+=Address[Offset+2+charIndex%extraDataChars];
 
-                stringBase58[2+extraDataChars+charIndex]=charValue%58;
+                Address[Offset+2+extraDataChars+charIndex]=(char)(charValue%58);
             }
 
             //  Obfuscate first half of address using second half to prevent common prefixes
@@ -295,27 +312,48 @@ public class CoinSparkAddress extends CoinSparkBase{
             int halfLength=(stringLen+1)/2;
             for (int charIndex=1; charIndex<halfLength; charIndex++) // exclude first character
             {
-                stringBase58[charIndex]=(stringBase58[charIndex]+stringBase58[stringLen-charIndex])%58;
+                Address[Offset+charIndex]=(char)((Address[Offset+charIndex]+Address[Offset+stringLen-charIndex])%58);
             }
             
-        //  Convert to base 58 and add prefix and terminator
+        //  Convert to base 58 and add prefix
 
-            buffer.writeByte(COINSPARK_ADDRESS_PREFIX);                
+            Address[Offset]=(char)COINSPARK_ADDRESS_PREFIX;
             for (int charIndex=1; charIndex<stringLen; charIndex++)
             {
-                buffer.writeByte((byte)(integerToBase58.charAt(stringBase58[charIndex])));
+                Address[Offset+charIndex]=integerToBase58[Address[Offset+charIndex]];
             }
             
-            return buffer.toAscii();
+            return stringLen;
         }
         
         catch (CoinSparkExceptions.CannotEncode ex)
         {
-            System.out.print(ex.getMessage());
-            return null;
+            return -1;
         }
     }
     
+    /**
+     * Returns the number of characters in the encoded CoinSpark address.
+     * 
+     * @return number of characters, -1 if the address is not valid.
+     */
+    
+    public int encodedLen()
+    {
+        if(!isValid())
+            return -1;
+        
+        int extraDataChars = 0;
+        
+        for (int testAddressFlags = addressFlags; testAddressFlags>0; testAddressFlags/=58)
+            extraDataChars++;
+
+        for (long testPaymentRef = paymentRef.ref; testPaymentRef>0; testPaymentRef/=58)
+            extraDataChars++;
+        
+        return bitcoinAddress.length()+2+extraDataChars;
+    }
+    
     /**
      * Decodes the CoinSpark address string into the fields in address.
      * 
@@ -325,121 +363,169 @@ public class CoinSparkAddress extends CoinSparkBase{
     
     public boolean decode(String Address)
     {
-        try
-        {
-            CoinSparkBuffer buffer= new CoinSparkBuffer(Address,false);
-            int stringBase58[] = new int[1024];
-            int stringLen=Address.length();
-            
-            //  Check for basic validity and get length of address flags
-
-            if ( buffer.length() < 2)
-                throw new CoinSparkExceptions.CannotDecode("Too Short");
+        return decode((CharSequence)Address);
+    }
+    
+    /**
+     * Decodes the CoinSpark address string into the fields in address, allocating only a new payment reference.
+     * 
+     * @param Address CoinSpark address to decode
+     * @return true on success, false on failure
+     */
+    
+    public boolean decode(CharSequence Address)
+    {
+        return decode(Address, null) == CoinSparkDecodeStatus.Reason.OK;
+    }
+    
+    /**
+     * Decodes the CoinSpark address string into the fields in address, reporting why it failed 
+     * without writing to the console.
+     * 
+     * @param Address CoinSpark address to decode
+     * @param Status Set to the result and the character offset of any failure, can be null
+     * @return OK on success, otherwise the reason for failure
+     */
+    
+    public CoinSparkDecodeStatus.Reason decode(CharSequence Address, CoinSparkDecodeStatus Status)
+    {
+        if(Address == null)
+            return CoinSparkDecodeStatus.set(Status, CoinSparkDecodeStatus.Reason.NOT_FOUND, 0);
+        
+        int stringLen=Address.length();
+        
+        //  Check for basic validity and get length of address flags
 
-            if (buffer.readByte()!=COINSPARK_ADDRESS_PREFIX)
-                throw new CoinSparkExceptions.CannotDecode("Wrong Prefix");
-                        
-            //  Convert from base 58
+        if ( stringLen < 2)
+            return CoinSparkDecodeStatus.set(Status, CoinSparkDecodeStatus.Reason.TRUNCATED, stringLen);
 
-            stringBase58[0]=COINSPARK_ADDRESS_PREFIX;
-            for (int charIndex=1; charIndex<stringLen; charIndex++) 
-            { // exclude first character
-                int charValue=base58ToInteger(buffer.readByte());
-                if (charValue<0)
-                    throw new CoinSparkExceptions.CannotDecode("Invalid Address");
-                stringBase58[charIndex]=charValue;
-            }
-            
-            //  De-obfuscate first half of address using second half
+        if (Address.charAt(0)!=COINSPARK_ADDRESS_PREFIX)
+            return CoinSparkDecodeStatus.set(Status, CoinSparkDecodeStatus.Reason.NOT_FOUND, 0);
+                    
+        //  Check all characters are base 58, values are converted as they are used
 
-            int halfLength=(buffer.length()+1)/2;
-            for (int charIndex=1; charIndex<halfLength; charIndex++) // exclude first character
-            {
-                stringBase58[charIndex]=(stringBase58[charIndex]+58-stringBase58[stringLen-charIndex])%58;
-            }
-            
-            int charValue = stringBase58[1];            
-            int addressFlagChars = charValue/COINSPARK_ADDRESS_FLAG_CHARS_MULTIPLE; // keep as integer
-            int paymentRefChars = charValue%COINSPARK_ADDRESS_FLAG_CHARS_MULTIPLE;
-            int extraDataChars = addressFlagChars + paymentRefChars;
+        for (int charIndex=1; charIndex<stringLen; charIndex++) 
+        { // exclude first character
+            if (base58ToInteger(Address.charAt(charIndex))<0)
+                return CoinSparkDecodeStatus.set(Status, CoinSparkDecodeStatus.Reason.INVALID_CHARACTER, charIndex);
+        }
+        
+        int charValue = decodedValue(Address, 1);
+        int addressFlagChars = charValue/COINSPARK_ADDRESS_FLAG_CHARS_MULTIPLE; // keep as integer
+        int paymentRefChars = charValue%COINSPARK_ADDRESS_FLAG_CHARS_MULTIPLE;
+        int extraDataChars = addressFlagChars + paymentRefChars;
 
-            if ( stringLen < (2+extraDataChars))
-            {
-                throw new CoinSparkExceptions.CannotDecode("Invalid Address");
-            }
+        if ( stringLen < (2+extraDataChars))
+        {
+            return CoinSparkDecodeStatus.set(Status, CoinSparkDecodeStatus.Reason.TRUNCATED, stringLen);
+        }
 
-            //  Check we have sufficient length for the decoded address
+        //  Check we have sufficient length for the decoded address
 
-            int bitcoinAddressLength = buffer.length() - 2 - extraDataChars;
-            bitcoinAddress.setLength(bitcoinAddressLength);
-            
-            //  Read the extra data for address flags
+        int bitcoinAddressLength = stringLen - 2 - extraDataChars;
+        bitcoinAddress.setLength(bitcoinAddressLength);
+        
+        //  Read the extra data for address flags
 
-            addressFlags = 0;
-            long multiplier = 1;
+        addressFlags = 0;
+        long multiplier = 1;
 
-            for (int charIndex=0; charIndex<addressFlagChars; charIndex++)
-            {
-                charValue = stringBase58[2+charIndex];
-                if (charValue < 0)
-                {
-                    throw new CoinSparkExceptions.CannotDecode("Invalid Value (58 based < 0)");
-                }
-                addressFlags += multiplier * charValue;
-                multiplier *= 58;
-            }
+        for (int charIndex=0; charIndex<addressFlagChars; charIndex++)
+        {
+            charValue = decodedValue(Address, 2+charIndex);
+            addressFlags += multiplier * charValue;
+            multiplier *= 58;
+        }
 
-            if ((addressFlags & COINSPARK_ADDRESS_FLAG_MASK) != addressFlags)
-            {
-                throw new CoinSparkExceptions.CannotDecode("Wrong Address Flag Mask");
-            }
-            
-            //  Read the extra data for payment assetRef
+        if ((addressFlags & COINSPARK_ADDRESS_FLAG_MASK) != addressFlags)
+        {
+            return CoinSparkDecodeStatus.set(Status, CoinSparkDecodeStatus.Reason.OUT_OF_RANGE, 2);
+        }
+        
+        //  Read the extra data for payment assetRef
 
-            paymentRef = new CoinSparkPaymentRef(0);
-            multiplier = 1;
+        paymentRef = new CoinSparkPaymentRef(0);                                // a caller may still hold the previous one
+        multiplier = 1;
 
-            for (int charIndex=0; charIndex<paymentRefChars; charIndex++)
-            {
-                charValue = stringBase58[2+addressFlagChars+charIndex];
-                if (charValue<0)
-                {
-                    throw new CoinSparkExceptions.CannotDecode("Invalid Value (58 based < 0)");
-                }
+        for (int charIndex=0; charIndex<paymentRefChars; charIndex++)
+        {
+            charValue = decodedValue(Address, 2+addressFlagChars+charIndex);
+            paymentRef.ref += multiplier * charValue;
+            multiplier *= 58;
+        }
 
-                paymentRef.ref += multiplier * charValue;
-                multiplier *= 58;
-            }
+        if(!paymentRef.isValid())
+            return CoinSparkDecodeStatus.set(Status, CoinSparkDecodeStatus.Reason.OUT_OF_RANGE, 2+addressFlagChars);
 
-            if(!paymentRef.isValid())
-                throw new CoinSparkExceptions.CannotDecode("Wrong Payment Range");
+        //  Convert the address itself
 
-            //  Convert the address itself
+        for (int charIndex=0; charIndex<bitcoinAddressLength; charIndex++)
+        {
+            charValue=decodedValue(Address, 2+extraDataChars+charIndex);
+            charValue += 58*2-COINSPARK_ADDRESS_CHAR_INCREMENT;             // avoid worrying about the result of modulo on negative numbers in any language
 
-            for (int charIndex=0; charIndex<bitcoinAddressLength; charIndex++)
+            if (extraDataChars > 0)
             {
-                charValue=stringBase58[2+extraDataChars+charIndex];
-                if (charValue<0)
-                {
-                    throw new CoinSparkExceptions.CannotDecode("Invalid Value (58 based < 0)");
-                }
-                
-                charValue += 58*2-COINSPARK_ADDRESS_CHAR_INCREMENT;             // avoid worrying about the result of modulo on negative numbers in any language
-
-                if (extraDataChars > 0)
-                {
-                    charValue -= stringBase58[2+charIndex%extraDataChars];
-                }
-                bitcoinAddress.setCharAt(charIndex, integerToBase58.charAt(charValue%58));
+                charValue -= decodedValue(Address, 2+charIndex%extraDataChars);
             }
+            bitcoinAddress.setCharAt(charIndex, integerToBase58[charValue%58]);
+        }
 
-            return true;
+        return CoinSparkDecodeStatus.set(Status, CoinSparkDecodeStatus.Reason.OK, 0);
+    }
+    
+    /**
+     * Encodes many CoinSpark addresses.
+     * 
+     * @param Addresses Addresses to encode.
+     * @param Encoded Array (size as Addresses) to fill with the encoded addresses, null where encoding failed.
+     * @return number of addresses encoded successfully, -1 if the array sizes do not match.
+     */
+    
+    public static int encodeAll(CoinSparkAddress [] Addresses, String [] Encoded)
+    {
+        if(Addresses.length != Encoded.length)
+            return -1;
+        
+        int countEncoded=0;
+        
+        for (int addressIndex=0; addressIndex<Addresses.length; addressIndex++)
+        {
+            Encoded[addressIndex]=Addresses[addressIndex].encode();
+            if(Encoded[addressIndex] != null)
+                countEncoded++;
         }
-        catch (CoinSparkExceptions.CannotDecode ex)
+        
+        return countEncoded;
+    }
+    
+    /**
+     * Decodes many CoinSpark addresses, reusing the address objects already in Addresses.
+     * 
+     * @param Encoded CoinSpark addresses to decode.
+     * @param Addresses Array (size as Encoded) of addresses to decode into. Null elements are filled with new objects.
+     * @param Decoded Array (size as Encoded) to fill with the result of each decode.
+     * @return number of addresses decoded successfully, -1 if the array sizes do not match.
+     */
+    
+    public static int decodeAll(CharSequence [] Encoded, CoinSparkAddress [] Addresses, boolean [] Decoded)
+    {
+        if( (Addresses.length != Encoded.length) || (Decoded.length != Encoded.length) )
+            return -1;
+        
+        int countDecoded=0;
+        
+        for (int addressIndex=0; addressIndex<Encoded.length; addressIndex++)
         {
-            System.out.print(ex.getMessage());
-            return false;
+            if(Addresses[addressIndex] == null)
+                Addresses[addressIndex]=new CoinSparkAddress();
+            
+            Decoded[addressIndex]=Addresses[addressIndex].decode(Encoded[addressIndex]);
+            if(Decoded[addressIndex])
+                countDecoded++;
         }
+        
+        return countDecoded;
     }
 
 // Private variables/constants/functions   
@@ -448,13 +534,30 @@ public class CoinSparkAddress extends CoinSparkBase{
     private static final int  COINSPARK_ADDRESS_FLAG_CHARS_MULTIPLE  = 10;
     private static final int  COINSPARK_ADDRESS_CHAR_INCREMENT       = 13;
     
-    private StringBuffer bitcoinAddress = null;
+    private final StringBuilder bitcoinAddress = new StringBuilder();
     private int addressFlags;
     private CoinSparkPaymentRef paymentRef;
 
     
-    private static final StringBuffer integerToBase58 =
-            new StringBuffer("123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz");
+    private static final char [] integerToBase58 =
+            "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz".toCharArray();
+
+    /**
+     * Returns the base 58 value at charIndex of a valid encoded address, with the first half de-obfuscated using the second half.
+     */
+    
+    private static int decodedValue(CharSequence Address, int charIndex)
+    {
+        int stringLen=Address.length();
+        int charValue=base58ToInteger(Address.charAt(charIndex));
+        
+        if (charIndex < (stringLen+1)/2)
+        {
+            charValue=(charValue+58-base58ToInteger(Address.charAt(stringLen-charIndex)))%58;
+        }
+        
+        return charValue;
+    }
 
 
     private class FlagToString {
@@ -0,0 +1,87 @@
+/*
+ * CoinSpark 2.1 - Java library
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.protocol;
+
+/**
+ * CoinSparkApplyContext class holding the scratch arrays used while applying transfers, so that
+ * balances can be calculated repeatedly without allocating.
+ *
+ * The arrays grow to the largest transaction seen. A context must not be used by more than one thread at a time.
+ */
+
+public class CoinSparkApplyContext {
+
+    /**
+     * CoinSparkApplyContext class holding the scratch arrays used while applying transfers.
+     */
+
+    public CoinSparkApplyContext()
+    {
+        this(0);
+    }
+
+    /**
+     * CoinSparkApplyContext class holding the scratch arrays used while applying transfers.
+     *
+     * @param MaxInputs number of transaction inputs which can be handled before the arrays grow
+     */
+
+    public CoinSparkApplyContext(int MaxInputs)
+    {
+        inputsRemaining=new long[Math.max(MaxInputs, 0)];
+        inputDefaultOutput=new int[Math.max(MaxInputs, 0)];
+    }
+
+
+// Private variables/constants/functions
+
+    private long [] inputsRemaining;
+    private int [] inputDefaultOutput;
+
+    /**
+     * Returns the array for the quantities left in each input, with room for at least countInputs entries.
+     */
+
+    protected long [] getInputsRemaining(int countInputs)
+    {
+        if (inputsRemaining.length < countInputs)
+            inputsRemaining=new long[countInputs];
+
+        return inputsRemaining;
+    }
+
+    /**
+     * Returns the array for the default route map, with room for at least countInputs entries.
+     */
+
+    protected int [] getInputDefaultOutput(int countInputs)
+    {
+        if (inputDefaultOutput.length < countInputs)
+            inputDefaultOutput=new int[countInputs];
+
+        return inputDefaultOutput;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * CoinSpark 2.1 - Java library
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.protocol;
+
+import java.util.Arrays;
+
+/**
+ * CoinSparkAssetIndex class for numbering asset references densely from 0, so that other tables can
+ * refer to an asset by an int instead of a CoinSparkAssetRef object.
+ *
+ * Asset references are found by open addressing on their block number, transaction offset and transaction
+ * id prefix, without allocating. A CoinSparkAssetIndex must not be used by more than one thread at a time.
+ */
+
+class CoinSparkAssetIndex {
+
+    /**
+     * CoinSparkAssetIndex class for numbering asset references densely from 0.
+     */
+
+    CoinSparkAssetIndex()
+    {
+        countAssets=0;
+        assetRefs=new CoinSparkAssetRef[CAPACITY_DEFAULT];
+        blockNums=new long[CAPACITY_DEFAULT];
+        txOffsets=new long[CAPACITY_DEFAULT];
+        txIDPrefixes=new char[CAPACITY_DEFAULT];
+        slots=CoinSparkOpenAddressing.newSlots(2*CAPACITY_DEFAULT);
+    }
+
+    /**
+     * Returns number of asset references in the index.
+     *
+     * @return number of asset references, which are numbered from 0 to this minus 1
+     */
+
+    int count()
+    {
+        return countAssets;
+    }
+
+    /**
+     * Returns the asset reference with number assetIndex. It is owned by the index and must not be modified.
+     *
+     * @param assetIndex asset number
+     * @return asset reference
+     */
+
+    CoinSparkAssetRef get(int assetIndex)
+    {
+        return assetRefs[assetIndex];
+    }
+
+    /**
+     * Returns the number of assetRef.
+     *
+     * @param assetRef asset reference to look up
+     * @return asset number, -1 if not in the index
+     */
+
+    int find(CoinSparkAssetRef assetRef)
+    {
+        return find(assetRef.getBlockNum(), assetRef.getTxOffset(), prefixToInteger(assetRef.getTxIDPrefix()));
+    }
+
+    /**
+     * Returns the number of the asset reference with these fields.
+     *
+     * @param blockNum block number of the asset reference
+     * @param txOffset transaction offset of the asset reference
+     * @param txIDPrefix transaction id prefix as integer, as in CoinSparkAssetRef.encode()
+     * @return asset number, -1 if not in the index
+     */
+
+    int find(long blockNum, long txOffset, int txIDPrefix)
+    {
+        int mask=slots.length-1;
+        for (int slot=CoinSparkOpenAddressing.assetHash(blockNum, txOffset, txIDPrefix) & mask; slots[slot] >= 0; slot=(slot+1) & mask)
+        {
+            int assetIndex=slots[slot];
+            if ((blockNums[assetIndex] == blockNum) && (txOffsets[assetIndex] == txOffset) && (txIDPrefixes[assetIndex] == txIDPrefix))
+                return assetIndex;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the number of assetRef, adding a copy of it to the index if it is not there yet.
+     *
+     * @param assetRef asset reference to look up or add
+     * @return asset number
+     */
+
+    int add(CoinSparkAssetRef assetRef)
+    {
+        return add(assetRef.getBlockNum(), assetRef.getTxOffset(), prefixToInteger(assetRef.getTxIDPrefix()));
+    }
+
+    /**
+     * Returns the number of the asset reference with these fields, adding it to the index if it is not there yet.
+     *
+     * @param blockNum block number of the asset reference
+     * @param txOffset transaction offset of the asset reference
+     * @param txIDPrefix transaction id prefix as integer, as in CoinSparkAssetRef.encode()
+     * @return asset number
+     */
+
+    int add(long blockNum, long txOffset, int txIDPrefix)
+    {
+        int assetIndex=find(blockNum, txOffset, txIDPrefix);
+        if (assetIndex >= 0)
+            return assetIndex;
+
+        if (countAssets == assetRefs.length)
+            grow();
+
+        assetIndex=countAssets++;
+        assetRefs[assetIndex]=new CoinSparkAssetRef(blockNum, txOffset, new byte [] {(byte)txIDPrefix, (byte)(txIDPrefix >> 8)});
+        blockNums[assetIndex]=blockNum;
+        txOffsets[assetIndex]=txOffset;
+        txIDPrefixes[assetIndex]=(char)txIDPrefix;
+        insertSlot(assetIndex);
+
+        return assetIndex;
+    }
+
+    /**
+     * Converts the first COINSPARK_ASSETREF_TXID_PREFIX_LEN bytes of a transaction id to an integer, as in CoinSparkAssetRef.encode().
+     *
+     * @param txIDPrefix transaction id or its prefix
+     * @return transaction id prefix as integer
+     */
+
+    static int prefixToInteger(byte [] txIDPrefix)
+    {
+        return 256*(txIDPrefix[1] & 0xFF) + (txIDPrefix[0] & 0xFF);
+    }
+
+
+// Private variables/constants/functions
+
+    private static final int CAPACITY_DEFAULT = 16;
+
+    private int countAssets;
+    private CoinSparkAssetRef [] assetRefs;
+    private long [] blockNums;
+    private long [] txOffsets;
+    private char [] txIDPrefixes;                                               // byte 0 in the low bits, so unsigned
+    private int [] slots;                                                       // asset numbers, -1 for empty, at most half full
+
+    private void insertSlot(int assetIndex)
+    {
+        slots[CoinSparkOpenAddressing.emptySlot(slots, CoinSparkOpenAddressing.assetHash(blockNums[assetIndex], txOffsets[assetIndex], txIDPrefixes[assetIndex]))]=assetIndex;
+    }
+
+    private void grow()
+    {
+        int capacity=2*assetRefs.length;
+        assetRefs=Arrays.copyOf(assetRefs, capacity);
+        blockNums=Arrays.copyOf(blockNums, capacity);
+        txOffsets=Arrays.copyOf(txOffsets, capacity);
+        txIDPrefixes=Arrays.copyOf(txIDPrefixes, capacity);
+
+        slots=CoinSparkOpenAddressing.newSlots(2*capacity);
+        for (int assetIndex=0; assetIndex<countAssets; assetIndex++)
+            insertSlot(assetIndex);
+    }
+}
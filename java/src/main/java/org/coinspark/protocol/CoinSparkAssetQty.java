@@ -94,16 +94,36 @@ public class CoinSparkAssetQty {
         mantissa=Mantissa;
         exponent=Exponent;
         
-        value = mantissa;
+        value = mantissaExponentToValue(mantissa, exponent);
+    }    
+    
+    protected static long mantissaExponentToValue(int Mantissa, int Exponent)
+    {
+        long result = Mantissa;
 
-        int e=exponent;
+        int e=Exponent;
         for (; e>0; e--)
         {
-            value*=10;        
+            result*=10;        
         }
-    }    
+        
+        return result;
+    }
     
     protected CoinSparkAssetQty(long Quantity, int Rounding, int MantissaMax, short ExponentMax)
+    {
+        long mantissaExponent = toMantissaExponent(Quantity, Rounding, MantissaMax, ExponentMax);
+
+        construct(mantissaExponentToMantissa(mantissaExponent), mantissaExponentToExponent(mantissaExponent));
+    }
+    
+    /**
+     * Rounds Quantity to mantissa and exponent without creating an object.
+     * 
+     * @return mantissa in the low 32 bits and exponent in the high 32 bits
+     */
+    
+    protected static long toMantissaExponent(long Quantity, int Rounding, int MantissaMax, short ExponentMax)
     {
         long roundOffset;
 
@@ -126,7 +146,17 @@ public class CoinSparkAssetQty {
         if (Exponent > ExponentMax)
             Exponent = ExponentMax;
 
-        construct(Mantissa, Exponent);
+        return ((long)Exponent << 32) | (Mantissa & 0xFFFFFFFFL);
+    }
+    
+    protected static int mantissaExponentToMantissa(long MantissaExponent)
+    {
+        return (int)MantissaExponent;
+    }
+    
+    protected static int mantissaExponentToExponent(long MantissaExponent)
+    {
+        return (int)(MantissaExponent >> 32);
     }
     
 }
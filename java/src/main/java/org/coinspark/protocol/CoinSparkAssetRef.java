@@ -243,7 +243,6 @@ public class CoinSparkAssetRef extends CoinSparkBase {
         }
         catch (NumberFormatException | CoinSparkExceptions.CannotDecode ex)
         {
-            System.out.print(ex.getMessage());
             return false;
         }
 
@@ -0,0 +1,305 @@
+/*
+ * CoinSpark 2.1 - Java library
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.protocol;
+
+import java.util.Arrays;
+
+/**
+ * CoinSparkAssetRegistry class for looking up the genesis of an asset by its reference.
+ *
+ * Each asset reference is keyed by its block number and transaction offset packed into a single long by packKey(),
+ * with the transaction id prefix checked as a secondary key. Assets are found by open addressing on the packed key,
+ * so lookups do not allocate, and removing an asset frees its entry. A CoinSparkAssetRegistry must not be used by
+ * more than one thread at a time.
+ */
+
+public class CoinSparkAssetRegistry {
+
+    /**
+     * Key of an asset reference which cannot be packed
+     */
+
+    public static final long COINSPARK_ASSET_REGISTRY_KEY_INVALID = -1;
+
+    /**
+     * CoinSparkAssetRegistry class for looking up the genesis of an asset by its reference.
+     */
+
+    public CoinSparkAssetRegistry()
+    {
+        clear();
+    }
+
+    /**
+     * Removes all assets from the registry.
+     */
+
+    public final void clear()
+    {
+        countAssets=0;
+        keys=new long[CAPACITY_DEFAULT];
+        txIDPrefixes=new char[CAPACITY_DEFAULT];
+        hashes=new int[CAPACITY_DEFAULT];
+        geneses=new CoinSparkGenesis[CAPACITY_DEFAULT];
+        slots=CoinSparkOpenAddressing.newSlots(CoinSparkOpenAddressing.tableSize(CAPACITY_DEFAULT));
+    }
+
+    /**
+     * Returns number of assets in the registry.
+     *
+     * @return number of assets
+     */
+
+    public int size()
+    {
+        return countAssets;
+    }
+
+    /**
+     * Packs the block number and transaction offset of an asset reference into a single key.
+     *
+     * @param blockNum block number of the asset reference
+     * @param txOffset transaction offset of the asset reference
+     * @return packed key, COINSPARK_ASSET_REGISTRY_KEY_INVALID if either is outside the range 0 to 4294967295
+     */
+
+    public static long packKey(long blockNum, long txOffset)
+    {
+        if ((blockNum < 0) || (blockNum > UINT32_MAX) || (txOffset < 0) || (txOffset > UINT32_MAX))
+            return COINSPARK_ASSET_REGISTRY_KEY_INVALID;
+
+        return (blockNum << 32) | txOffset;
+    }
+
+    /**
+     * Packs the block number and transaction offset of assetRef into a single key.
+     *
+     * @param assetRef asset reference
+     * @return packed key, COINSPARK_ASSET_REGISTRY_KEY_INVALID if it cannot be packed
+     */
+
+    public static long packKey(CoinSparkAssetRef assetRef)
+    {
+        return packKey(assetRef.getBlockNum(), assetRef.getTxOffset());
+    }
+
+    /**
+     * Returns the block number packed into key by packKey().
+     *
+     * @param key packed key
+     * @return block number
+     */
+
+    public static long keyToBlockNum(long key)
+    {
+        return key >>> 32;
+    }
+
+    /**
+     * Returns the transaction offset packed into key by packKey().
+     *
+     * @param key packed key
+     * @return transaction offset
+     */
+
+    public static long keyToTxOffset(long key)
+    {
+        return key & UINT32_MAX;
+    }
+
+    /**
+     * Returns the genesis of assetRef.
+     *
+     * @param assetRef asset reference
+     * @return CoinSparkGenesis | null genesis, null if the asset is not in the registry
+     */
+
+    public CoinSparkGenesis get(CoinSparkAssetRef assetRef)
+    {
+        return get(packKey(assetRef), CoinSparkAssetIndex.prefixToInteger(assetRef.getTxIDPrefix()));
+    }
+
+    /**
+     * Returns the genesis of the asset reference with this key and transaction id prefix.
+     *
+     * @param key block number and transaction offset packed by packKey()
+     * @param txIDPrefix transaction id prefix as integer, as in CoinSparkAssetRef.encode()
+     * @return CoinSparkGenesis | null genesis, null if the asset is not in the registry
+     */
+
+    public CoinSparkGenesis get(long key, int txIDPrefix)
+    {
+        int assetIndex=find(key, txIDPrefix);
+        return (assetIndex >= 0) ? geneses[assetIndex] : null;
+    }
+
+    /**
+     * Returns true if assetRef is in the registry, false otherwise.
+     *
+     * @param assetRef asset reference
+     * @return true if the asset is in the registry
+     */
+
+    public boolean contains(CoinSparkAssetRef assetRef)
+    {
+        return get(assetRef) != null;
+    }
+
+    /**
+     * Sets the genesis of assetRef, replacing any genesis it already had.
+     *
+     * @param assetRef asset reference
+     * @param assetGenesis genesis of the asset, which is kept by the registry and must not be modified afterwards
+     * @return true if the genesis was set, false if assetRef cannot be packed or assetGenesis is null
+     */
+
+    public boolean put(CoinSparkAssetRef assetRef, CoinSparkGenesis assetGenesis)
+    {
+        return put(packKey(assetRef), CoinSparkAssetIndex.prefixToInteger(assetRef.getTxIDPrefix()), assetGenesis);
+    }
+
+    /**
+     * Sets the genesis of the asset reference with this key and transaction id prefix, replacing any genesis it already had.
+     *
+     * @param key block number and transaction offset packed by packKey()
+     * @param txIDPrefix transaction id prefix as integer, as in CoinSparkAssetRef.encode()
+     * @param assetGenesis genesis of the asset, which is kept by the registry and must not be modified afterwards
+     * @return true if the genesis was set, false if key is invalid or assetGenesis is null
+     */
+
+    public boolean put(long key, int txIDPrefix, CoinSparkGenesis assetGenesis)
+    {
+        if ((key == COINSPARK_ASSET_REGISTRY_KEY_INVALID) || (assetGenesis == null))
+            return false;
+
+        int assetIndex=find(key, txIDPrefix);
+        if (assetIndex < 0)
+        {
+            if (countAssets == keys.length)
+                grow();
+
+            assetIndex=countAssets++;
+            keys[assetIndex]=key;
+            txIDPrefixes[assetIndex]=(char)txIDPrefix;
+            hashes[assetIndex]=CoinSparkOpenAddressing.assetKeyHash(key, txIDPrefix);
+            slots[CoinSparkOpenAddressing.emptySlot(slots, hashes[assetIndex])]=assetIndex;
+        }
+
+        geneses[assetIndex]=assetGenesis;
+        return true;
+    }
+
+    /**
+     * Removes assetRef from the registry.
+     *
+     * @param assetRef asset reference
+     * @return CoinSparkGenesis | null genesis the asset had, null if it was not in the registry
+     */
+
+    public CoinSparkGenesis remove(CoinSparkAssetRef assetRef)
+    {
+        int assetIndex=find(packKey(assetRef), CoinSparkAssetIndex.prefixToInteger(assetRef.getTxIDPrefix()));
+        if (assetIndex < 0)
+            return null;
+
+        CoinSparkGenesis assetGenesis=geneses[assetIndex];
+        CoinSparkOpenAddressing.removeSlot(slots, CoinSparkOpenAddressing.findSlot(slots, hashes[assetIndex], assetIndex), entries);
+
+        int lastIndex=--countAssets;                                            // the last asset takes the removed one's number
+        if (assetIndex < lastIndex)
+        {
+            slots[CoinSparkOpenAddressing.findSlot(slots, hashes[lastIndex], lastIndex)]=assetIndex;
+            keys[assetIndex]=keys[lastIndex];
+            txIDPrefixes[assetIndex]=txIDPrefixes[lastIndex];
+            hashes[assetIndex]=hashes[lastIndex];
+            geneses[assetIndex]=geneses[lastIndex];
+        }
+        geneses[lastIndex]=null;
+
+        return assetGenesis;
+    }
+
+    /**
+     * Returns the number of slots in the table of the registry, which grows with the number of assets it holds.
+     *
+     * @return number of slots
+     */
+
+    int countSlots()
+    {
+        return slots.length;
+    }
+
+
+// Private variables/constants/functions
+
+    private static final int CAPACITY_DEFAULT = 32;
+    private static final long UINT32_MAX = 0xFFFFFFFFL;
+
+    private int countAssets;
+    private long [] keys;                                                       // by asset number, from 0 to countAssets-1
+    private char [] txIDPrefixes;
+    private int [] hashes;
+    private CoinSparkGenesis [] geneses;
+    private int [] slots;                                                       // asset numbers, -1 for empty, at most half full
+
+    private final CoinSparkOpenAddressing.Entries entries=new CoinSparkOpenAddressing.Entries() {
+        @Override
+        public int hashOf(int entry)
+        {
+            return hashes[entry];
+        }
+    };
+
+    private int find(long key, int txIDPrefix)
+    {
+        if (key == COINSPARK_ASSET_REGISTRY_KEY_INVALID)
+            return -1;
+
+        int mask=slots.length-1;
+        for (int slot=CoinSparkOpenAddressing.assetKeyHash(key, txIDPrefix) & mask; slots[slot] >= 0; slot=(slot+1) & mask)
+        {
+            int assetIndex=slots[slot];
+            if ((keys[assetIndex] == key) && (txIDPrefixes[assetIndex] == txIDPrefix))
+                return assetIndex;
+        }
+
+        return -1;
+    }
+
+    private void grow()
+    {
+        int capacity=2*keys.length;
+        keys=Arrays.copyOf(keys, capacity);
+        txIDPrefixes=Arrays.copyOf(txIDPrefixes, capacity);
+        hashes=Arrays.copyOf(hashes, capacity);
+        geneses=Arrays.copyOf(geneses, capacity);
+
+        slots=CoinSparkOpenAddressing.newSlots(CoinSparkOpenAddressing.tableSize(capacity));
+        for (int assetIndex=0; assetIndex<countAssets; assetIndex++)
+            slots[CoinSparkOpenAddressing.emptySlot(slots, hashes[assetIndex])]=assetIndex;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * CoinSpark 2.1 - Java library
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.protocol;
+
+/**
+ * CoinSparkBalanceStore interface for holding the balance of each asset in each unspent transaction output (outpoint).
+ *
+ * Outpoints are identified by a transaction id of COINSPARK_TXID_LEN bytes, in the same byte order as its usual
+ * hexadecimal representation, and an output index (vout). Only non-zero balances are stored, so outpoints
+ * without assets take no space.
+ */
+
+public interface CoinSparkBalanceStore {
+
+    /**
+     * Length of a bitcoin transaction id in bytes.
+     */
+
+    public static final int COINSPARK_TXID_LEN = 32;
+
+    /**
+     * Returns the balances of all assets held by an outpoint.
+     *
+     * @param txID transaction id of the outpoint (COINSPARK_TXID_LEN bytes)
+     * @param vout output index of the outpoint
+     * @param assetRefs array to receive the asset references, which are owned by the store and must not be modified
+     * @param balances array to receive the balance of each asset
+     * @return number of assets held by the outpoint, 0 if none, -1 if the arrays are too small,
+     *         -2 if txID is invalid or the store is closed
+     */
+
+    public int getBalances(byte [] txID, int vout, CoinSparkAssetRef [] assetRefs, long [] balances);
+
+    /**
+     * As getBalances(), but also removes the outpoint and its balances from the store, as when it is spent.
+     * If the arrays are too small the store is unchanged.
+     *
+     * @param txID transaction id of the outpoint (COINSPARK_TXID_LEN bytes)
+     * @param vout output index of the outpoint
+     * @param assetRefs array to receive the asset references, which are owned by the store and must not be modified
+     * @param balances array to receive the balance of each asset
+     * @return number of assets held by the outpoint, 0 if none, -1 if the arrays are too small,
+     *         -2 if txID is invalid or the store is closed
+     */
+
+    public int spendBalances(byte [] txID, int vout, CoinSparkAssetRef [] assetRefs, long [] balances);
+
+    /**
+     * Adds balance units of an asset to an outpoint, creating the outpoint if needed.
+     *
+     * @param txID transaction id of the outpoint (COINSPARK_TXID_LEN bytes)
+     * @param vout output index of the outpoint
+     * @param assetRef asset reference
+     * @param balance number of units to add, 0 leaves the store unchanged
+     * @return true on success, false if txID is invalid or the store cannot hold the balance
+     */
+
+    public boolean addBalance(byte [] txID, int vout, CoinSparkAssetRef assetRef, long balance);
+
+    /**
+     * Returns number of outpoints holding at least one asset.
+     *
+     * @return number of outpoints
+     */
+
+    public long countOutpoints();
+}
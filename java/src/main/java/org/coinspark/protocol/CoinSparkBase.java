@@ -25,8 +25,7 @@
 
 package org.coinspark.protocol;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -54,7 +53,30 @@ public class CoinSparkBase {
     
     public static byte [] scriptToMetadata(String scriptPubKey)
     {
-        return scriptToMetadata(hexToByte(scriptPubKey));
+        return scriptToMetadata((CharSequence)scriptPubKey);
+    }
+
+    /**
+     * Extracts OP_RETURN metadata (not necessarily CoinSpark data) from a bitcoin tx output script.
+     * 
+     * Only the embedded metadata is decoded from hexadecimal, and regular scripts are rejected from their first byte.
+     * 
+     * @param scriptPubKey Output script as hexadecimal.
+     * @return byte [] | null Raw binary embedded metadata if found, null otherwise. 
+     */
+    
+    public static byte [] scriptToMetadata(CharSequence scriptPubKey)
+    {
+        if (!scriptHexIsOpReturn(scriptPubKey))
+            return null;
+        
+        if (!scriptHexHasMetadata(scriptPubKey))
+            return null;
+        
+        byte [] metadata=new byte[scriptPubKey.length()/2-2];
+        hexToByte(scriptPubKey, 4, 2*metadata.length, metadata, 0);
+        
+        return metadata;
     }
 
     /**
@@ -69,13 +91,60 @@ public class CoinSparkBase {
         if(scriptPubKey == null)
             return null;
         
-        int scriptPubKeyLen = scriptPubKey.length;
-        int metadataLength = scriptPubKeyLen-2;  // Skip the signature
+        if (scriptHasMetadata(scriptPubKey, 0, scriptPubKey.length))
+        {
+            return Arrays.copyOfRange(scriptPubKey, 2, scriptPubKey.length);
+        }
 
-        if ( (scriptPubKeyLen>2) && (scriptPubKey[0]==0x6a) &&
-             (scriptPubKey[1]>0) && (scriptPubKey[1]<=75) && (scriptPubKey[1] == metadataLength))
+        return null;
+    }
+    
+    /**
+     * Locates OP_RETURN metadata (not necessarily CoinSpark data) in a bitcoin tx output script
+     * stored inside a larger buffer, e.g. a serialized transaction or block, without copying it.
+     * 
+     * @param data Buffer containing the output script as raw binary data.
+     * @param scriptOffset Position of the output script in data.
+     * @param scriptLength Length of the output script.
+     * @param metadata View to set to the embedded metadata, left unchanged if not found.
+     * @return true if metadata was found, false otherwise.
+     */
+    
+    public static boolean scriptToMetadata(byte[] data, int scriptOffset, int scriptLength, CoinSparkMetadataView metadata)
+    {
+        if( (data == null) || (scriptOffset < 0) || (scriptLength < 0) || (scriptOffset > data.length - scriptLength) )
+            return false;
+        
+        if (scriptHasMetadata(data, scriptOffset, scriptLength))
+        {
+            metadata.set(data, scriptOffset+2, scriptLength-2);
+            return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Locates OP_RETURN metadata (not necessarily CoinSpark data) in a bitcoin tx output script, without copying it.
+     * 
+     * @param scriptPubKey Output script between position and limit, which are not changed.
+     * @return ByteBuffer | null Slice of scriptPubKey containing the embedded metadata if found, null otherwise. 
+     */
+    
+    public static ByteBuffer scriptToMetadata(ByteBuffer scriptPubKey)
+    {
+        if(scriptPubKey == null)
+            return null;
+        
+        int scriptOffset = scriptPubKey.position();
+        int scriptPubKeyLen = scriptPubKey.remaining();
+        
+        if ( (scriptPubKeyLen>2) && (scriptPubKey.get(scriptOffset)==0x6a) &&
+             (scriptPubKey.get(scriptOffset+1)>0) && (scriptPubKey.get(scriptOffset+1)<=75) && (scriptPubKey.get(scriptOffset+1) == scriptPubKeyLen-2))
         {
-            return Arrays.copyOfRange(scriptPubKey, 2, scriptPubKeyLen);
+            ByteBuffer metadata=scriptPubKey.duplicate();
+            metadata.position(scriptOffset+2);
+            return metadata.slice();
         }
 
         return null;
@@ -90,14 +159,51 @@ public class CoinSparkBase {
     
     public static byte [] scriptsToMetadata(String [] scriptPubKeys)
     {
-        byte [][] raw=new byte[scriptPubKeys.length][];
+        return scriptsToMetadata((CharSequence [])scriptPubKeys);
+    }
+    
+    /**
+     * Extracts OP_RETURN metadata (not necessarily CoinSpark data) from a bitcoin tx output scripts.
+     * 
+     * Regular scripts are skipped from their first byte, without decoding them from hexadecimal.
+     * 
+     * @param scriptPubKeys Output scripts as hexadecimal.
+     * @return metadata if found, null otherwise
+     */
+    
+    public static byte [] scriptsToMetadata(CharSequence [] scriptPubKeys)
+    {
+        for (CharSequence scriptPubKey : scriptPubKeys) {
+            if (scriptHexIsOpReturn(scriptPubKey)) {
+                return scriptToMetadata(scriptPubKey);
+            }
+        }
         
-        for(int i=0;i<scriptPubKeys.length;i++)
+        return null;
+    }
+    
+    /**
+     * Tests whether a bitcoin tx output script contains CoinSpark metadata, without decoding it from hexadecimal.
+     * 
+     * @param scriptPubKey Output script as hexadecimal.
+     * @return true if the script is an OP_RETURN script whose metadata starts with the CoinSpark identifier, false otherwise.
+     */
+    
+    public static boolean scriptHasCoinSparkMetadata(CharSequence scriptPubKey)
+    {
+        if (!scriptHexIsOpReturn(scriptPubKey) || !scriptHexHasMetadata(scriptPubKey))
+            return false;
+        
+        if (scriptPubKey.length() < 2*(2+COINSPARK_METADATA_IDENTIFIER_LEN))
+            return false;
+        
+        for (int i=0; i<COINSPARK_METADATA_IDENTIFIER_LEN; i++)
         {
-            raw[i]=hexToByte(scriptPubKeys[i]);
+            if (hexPairToInteger(scriptPubKey.charAt(4+2*i), scriptPubKey.charAt(5+2*i)) != COINSPARK_METADATA_IDENTIFIER_BYTES[i])
+                return false;
         }
         
-        return scriptsToMetadata(raw);
+        return true;
     }
     
     /**
@@ -118,6 +224,32 @@ public class CoinSparkBase {
         return null;
     }
     
+    /**
+     * Locates OP_RETURN metadata (not necessarily CoinSpark data) in bitcoin tx output scripts
+     * stored inside a larger buffer, e.g. a serialized transaction or block, without copying it.
+     * 
+     * @param data Buffer containing the output scripts as raw binary data.
+     * @param scriptOffsets Position of each output script in data.
+     * @param scriptLengths Length of each output script (array size as scriptOffsets).
+     * @param metadata View to set to the embedded metadata, left unchanged if not found.
+     * @return true if metadata was found, false otherwise.
+     */
+    
+    public static boolean scriptsToMetadata(byte[] data, int[] scriptOffsets, int[] scriptLengths, CoinSparkMetadataView metadata)
+    {
+        if(scriptOffsets.length != scriptLengths.length)
+            return false;
+        
+        for (int i=0; i<scriptOffsets.length; i++) {
+            if ( (scriptLengths[i] > 0) && (scriptOffsets[i] >= 0) && (scriptOffsets[i] < data.length) &&
+                 (data[scriptOffsets[i]] == 0x6a) ) {                           // first script which is not regular
+                return scriptToMetadata(data, scriptOffsets[i], scriptLengths[i], metadata);
+            }
+        }
+        
+        return false;
+    }
+    
     /**
      * Converts CoinSpark metadata (or other data) into an OP_RETURN bitcoin tx output script.
      * 
@@ -193,7 +325,7 @@ public class CoinSparkBase {
             return appendMetadata;
         }
         
-        CoinSparkBase.CoinSparkBuffer oldBuffer=new CoinSparkBase().new CoinSparkBuffer(metadata);
+        CoinSparkBase.CoinSparkBuffer oldBuffer=new CoinSparkBuffer(metadata);
 
         if(!oldBuffer.locateRange((byte)0))                                     // check we can find last metadata
             return null;
@@ -201,7 +333,7 @@ public class CoinSparkBase {
         if(appendMetadata.length < COINSPARK_METADATA_IDENTIFIER_LEN + 1)       // check there is enough to check the prefix
             return null;
         
-        if (memcmp(COINSPARK_METADATA_IDENTIFIER.getBytes(), appendMetadata, COINSPARK_METADATA_IDENTIFIER_LEN) != 0) // check the prefix
+        if (memcmp(COINSPARK_METADATA_IDENTIFIER_BYTES, appendMetadata, COINSPARK_METADATA_IDENTIFIER_LEN) != 0) // check the prefix
             return null;
         
         int needLength=metadata.length+appendMetadata.length-COINSPARK_METADATA_IDENTIFIER_LEN+1;
@@ -212,7 +344,7 @@ public class CoinSparkBase {
         int lastMetadataLen=oldBuffer.availableForRead()+1;                     // include prefix
         int lastMetaDataPos=oldBuffer.offsetRead-1;
         
-        CoinSparkBase.CoinSparkBuffer newBuffer=new CoinSparkBase().new CoinSparkBuffer(); 
+        CoinSparkBase.CoinSparkBuffer newBuffer=new CoinSparkBuffer(); 
         newBuffer.writeBytes(metadata, lastMetaDataPos);                        // Data before last metadata
         newBuffer.writeByte((byte)lastMetadataLen);                             // Length prefix for last metadata
         newBuffer.writeByte(metadata[lastMetaDataPos]);                         // Last metadata prefix
@@ -235,7 +367,21 @@ public class CoinSparkBase {
     
     public static boolean scriptIsRegular(String scriptPubKey)
     {
-        return scriptIsRegular(hexToByte(scriptPubKey));
+        return scriptIsRegular((CharSequence)scriptPubKey);
+    }
+    
+    /**
+     * Tests whether a bitcoin tx output script is 'regular', i.e. not an OP_RETURN script.
+     * 
+     * Regular scripts are recognized from their first byte, without decoding them from hexadecimal.
+     * 
+     * @param scriptPubKey Output script as hexadecimal.
+     * @return true if the script is 'regular', false if it is an OP_RETURN script.
+     */
+    
+    public static boolean scriptIsRegular(CharSequence scriptPubKey)
+    {
+        return !scriptHexIsOpReturn(scriptPubKey);
     }
     
     /**
@@ -250,9 +396,205 @@ public class CoinSparkBase {
 
     public static boolean scriptIsRegular(byte[] scriptPubKey)
     {
-        return (scriptPubKey.length < 1) || (scriptPubKey[0] != 0x6a);
+        return (scriptPubKey == null) || (scriptPubKey.length < 1) || (scriptPubKey[0] != 0x6a);
+    }
+    
+    private static boolean scriptHexIsOpReturn(CharSequence scriptPubKey)
+    {
+        if ( (scriptPubKey == null) || (scriptPubKey.length() < 2) )
+            return false;
+        
+        if ( (scriptPubKey.charAt(0) != '6') || ((scriptPubKey.charAt(1) != 'a') && (scriptPubKey.charAt(1) != 'A')) )
+            return false;                                                       // regular, whether or not the rest is valid
+        
+        return isHex(scriptPubKey);
+    }
+    
+    private static boolean scriptHexHasMetadata(CharSequence scriptPubKey)     // scriptPubKey must be a valid OP_RETURN script
+    {
+        int scriptPubKeyLen=scriptPubKey.length()/2;
+        
+        if (scriptPubKeyLen <= 2)
+            return false;
+        
+        int metadataLength=hexPairToInteger(scriptPubKey.charAt(2), scriptPubKey.charAt(3));
+        
+        return (metadataLength>0) && (metadataLength<=75) && (metadataLength == scriptPubKeyLen-2);
+    }
+    
+    private static boolean scriptHasMetadata(byte[] data, int scriptOffset, int scriptPubKeyLen)
+    {
+        int metadataLength = scriptPubKeyLen-2;  // Skip the signature
+
+        return (scriptPubKeyLen>2) && (data[scriptOffset]==0x6a) &&
+               (data[scriptOffset+1]>0) && (data[scriptOffset+1]<=75) && (data[scriptOffset+1] == metadataLength);
     }
 
+    /**
+     * Tests whether a string is valid hexadecimal, i.e. has an even length and only contains 0-9, A-F and a-f.
+     * 
+     * @param hex String to test.
+     * @return true if hex can be decoded, false otherwise.
+     */
+    
+    public static boolean isHex(CharSequence hex)
+    {
+        if( (hex == null) || ((hex.length() & 1) != 0) )
+            return false;
+        
+        for (int i=0; i<hex.length(); i++)
+        {
+            if(hexToInteger(hex.charAt(i)) < 0)
+                return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Decodes hexadecimal into a caller-owned buffer.
+     * 
+     * @param hex Hexadecimal to decode.
+     * @param hexOffset Position of the first character to decode in hex.
+     * @param hexLength Number of characters to decode, must be even.
+     * @param raw Buffer to write the decoded bytes to.
+     * @param rawOffset Position in raw to write the first byte to.
+     * @return number of bytes written, -1 if hex is not valid or raw is too small. The contents of raw are undefined on failure.
+     */
+    
+    public static int hexToByte(CharSequence hex, int hexOffset, int hexLength, byte [] raw, int rawOffset)
+    {
+        if(!hexRangeValid(hex.length(), hexOffset, hexLength, raw.length, rawOffset))
+            return -1;
+        
+        int rawIndex=rawOffset;
+        for (int hexIndex=hexOffset; hexIndex<hexOffset+hexLength; hexIndex+=2)
+        {
+            int value=hexPairToInteger(hex.charAt(hexIndex), hex.charAt(hexIndex+1));
+            if(value < 0)
+                return -1;
+            
+            raw[rawIndex++]=(byte)value;
+        }
+        
+        return rawIndex-rawOffset;
+    }
+    
+    /**
+     * Decodes hexadecimal into a caller-owned buffer.
+     * 
+     * @param hex Hexadecimal to decode.
+     * @param hexOffset Position of the first character to decode in hex.
+     * @param hexLength Number of characters to decode, must be even.
+     * @param raw Buffer to write the decoded bytes to.
+     * @param rawOffset Position in raw to write the first byte to.
+     * @return number of bytes written, -1 if hex is not valid or raw is too small. The contents of raw are undefined on failure.
+     */
+    
+    public static int hexToByte(char [] hex, int hexOffset, int hexLength, byte [] raw, int rawOffset)
+    {
+        if(!hexRangeValid(hex.length, hexOffset, hexLength, raw.length, rawOffset))
+            return -1;
+        
+        int rawIndex=rawOffset;
+        for (int hexIndex=hexOffset; hexIndex<hexOffset+hexLength; hexIndex+=2)
+        {
+            int value=hexPairToInteger(hex[hexIndex], hex[hexIndex+1]);
+            if(value < 0)
+                return -1;
+            
+            raw[rawIndex++]=(byte)value;
+        }
+        
+        return rawIndex-rawOffset;
+    }
+    
+    /**
+     * Decodes hexadecimal into a heap or direct ByteBuffer, starting at its position.
+     * 
+     * @param hex Hexadecimal to decode.
+     * @param raw Buffer to write the decoded bytes to. Its position is advanced past them on success.
+     * @return number of bytes written, -1 if hex is not valid or raw has too little space remaining. 
+     * The position of raw is not changed on failure, but the bytes after it are undefined.
+     */
+    
+    public static int hexToByte(CharSequence hex, ByteBuffer raw)
+    {
+        int hexLength=hex.length();
+        if( ((hexLength & 1) != 0) || (hexLength/2 > raw.remaining()) )
+            return -1;
+        
+        int rawIndex=raw.position();
+        for (int hexIndex=0; hexIndex<hexLength; hexIndex+=2)
+        {
+            int value=hexPairToInteger(hex.charAt(hexIndex), hex.charAt(hexIndex+1));
+            if(value < 0)
+                return -1;
+            
+            raw.put(rawIndex++, (byte)value);
+        }
+        
+        raw.position(rawIndex);
+        return hexLength/2;
+    }
+    
+    /**
+     * Encodes raw data as upper case hexadecimal into a caller-owned buffer.
+     * 
+     * @param raw Raw data to encode.
+     * @param rawOffset Position of the first byte to encode in raw.
+     * @param rawLength Number of bytes to encode.
+     * @param hex Buffer to write the hexadecimal to.
+     * @param hexOffset Position in hex to write the first character to.
+     * @return number of characters written, -1 if the ranges are not valid.
+     */
+    
+    public static int byteToHex(byte [] raw, int rawOffset, int rawLength, char [] hex, int hexOffset)
+    {
+        if( (rawOffset < 0) || (rawLength < 0) || (rawOffset > raw.length-rawLength) ||
+            (hexOffset < 0) || (hexOffset > hex.length-2*rawLength) )
+            return -1;
+        
+        int hexIndex=hexOffset;
+        for (int rawIndex=rawOffset; rawIndex<rawOffset+rawLength; rawIndex++)
+        {
+            int value=raw[rawIndex] & 0xFF;
+            hex[hexIndex++]=hexCharMap[value>>4];
+            hex[hexIndex++]=hexCharMap[value&15];
+        }
+        
+        return hexIndex-hexOffset;
+    }
+    
+    /**
+     * Encodes the bytes between position and limit of a heap or direct ByteBuffer as upper case hexadecimal into a caller-owned buffer.
+     * 
+     * @param raw Raw data to encode. Its position is not changed.
+     * @param hex Buffer to write the hexadecimal to.
+     * @param hexOffset Position in hex to write the first character to.
+     * @return number of characters written, -1 if hex is too small.
+     */
+    
+    public static int byteToHex(ByteBuffer raw, char [] hex, int hexOffset)
+    {
+        int rawLength=raw.remaining();
+        
+        if(raw.hasArray())
+            return byteToHex(raw.array(), raw.arrayOffset()+raw.position(), rawLength, hex, hexOffset);
+        
+        if( (hexOffset < 0) || (hexOffset > hex.length-2*rawLength) )
+            return -1;
+        
+        int hexIndex=hexOffset;
+        for (int rawIndex=raw.position(); rawIndex<raw.limit(); rawIndex++)
+        {
+            int value=raw.get(rawIndex) & 0xFF;
+            hex[hexIndex++]=hexCharMap[value>>4];
+            hex[hexIndex++]=hexCharMap[value&15];
+        }
+        
+        return hexIndex-hexOffset;
+    }
 
     
 //	Utitlity functions/classes used internally in CoinSpark Library    
@@ -280,15 +622,21 @@ public class CoinSparkBase {
     }
     
     protected final static String COINSPARK_METADATA_IDENTIFIER    = "SPK";
+    private final static byte [] COINSPARK_METADATA_IDENTIFIER_BYTES = {'S', 'P', 'K'};
     
-    private static final byte[] hexCharMap = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+    private static final char[] hexCharMap = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+    private static final int[] hexMinus48ToInteger = { // 55 elements
+             0,  1,  2,  3,  4,  5,  6,  7,  8,  9, -1, -1, -1, -1, -1, -1,
+            -1, 10, 11, 12, 13, 14, 15, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, 10, 11, 12, 13, 14, 15    };
     private static final int[] base58Minus49ToInteger = { // 74 elements
             0,  1,  2,  3,  4,  5,  6,  7,  8, -1, -1, -1, -1, -1, -1, -1,
             9, 10, 11, 12, 13, 14, 15, 16, -1, 17, 18, 19, 20, 21, -1, 22,
             23, 24, 25, 26, 27, 28, 29, 30, 31, 32, -1, -1, -1, -1, -1, -1,
             33, 34, 35, 36, 37, 38, 39, 40, 41, 42, 43, -1, 44, 45, 46, 47,
             48, 49, 50, 51, 52, 53, 54, 55, 56, 57    };
-    private final static int COINSPARK_METADATA_IDENTIFIER_LEN   = 3;
+    protected final static int COINSPARK_METADATA_IDENTIFIER_LEN   = 3;
     private final static int COINSPARK_LENGTH_PREFIX_MAX         = 96;
 
     /**
@@ -301,12 +649,7 @@ public class CoinSparkBase {
     
     protected static byte [] coinSparkCalcSHA256Hash(byte[] input, int inputLen) 
     {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            return digest.digest(Arrays.copyOf(input, inputLen));
-        } catch (NoSuchAlgorithmException ex) {
-            return null;
-        }
+        return CoinSparkHasher.hash(input, 0, inputLen);
     }
     
     
@@ -317,35 +660,66 @@ public class CoinSparkBase {
 
         return base58Minus49ToInteger[base58Character-49];
     }
+    
+    protected static int base58ToInteger(char base58Character)                  // returns -1 if invalid
+    {
+        if ( (base58Character<49) || (base58Character>122) )
+            return -1;
+
+        return base58Minus49ToInteger[base58Character-49];
+    }
+
+    protected static int hexToInteger(char hexCharacter)                        // returns -1 if invalid
+    {
+        if ( (hexCharacter<48) || (hexCharacter>102) )
+            return -1;
 
+        return hexMinus48ToInteger[hexCharacter-48];
+    }
+    
+    private static int hexPairToInteger(char hexCharacter1, char hexCharacter2) // returns -1 if invalid
+    {
+        int high=hexToInteger(hexCharacter1);
+        int low=hexToInteger(hexCharacter2);
+        
+        if( (high < 0) || (low < 0) )
+            return -1;
+        
+        return (high << 4) | low;
+    }
+    
+    private static boolean hexRangeValid(int hexSize, int hexOffset, int hexLength, int rawSize, int rawOffset)
+    {
+        return (hexOffset >= 0) && (hexLength >= 0) && ((hexLength & 1) == 0) && (hexOffset <= hexSize-hexLength) &&
+               (rawOffset >= 0) && (rawOffset <= rawSize-hexLength/2);
+    }
+    
     protected static String byteToHex(byte [] raw)
     {
         if(raw==null)
             return null;
         
-        byte [] hexBytes=new byte [raw.length*2];
+        return byteToHex(raw, 0, raw.length);
+    }
+    
+    protected static String byteToHex(byte [] raw, int offset, int length)
+    {
+        char [] hex=new char [length*2];
         
-        for(int i=0;i<raw.length;i++)
-        {
-            short value=(short)(raw[i] & 0xFF);
-            hexBytes[2*i+0]=hexCharMap[(byte)(value>>4)];
-            hexBytes[2*i+1]=hexCharMap[(byte)(value&15)];
-        }
+        byteToHex(raw, offset, length, hex, 0);
         
-        return new String(hexBytes);
+        return new String(hex);
     }
     
-    protected static byte[] hexToByte(String str)
+    protected static byte[] hexToByte(CharSequence str)                        // returns null if invalid
     {
-        if (str == null)
+        if ( (str == null) || ((str.length() & 1) != 0) )
             return null;
 
         byte[] bytes = new byte[str.length() / 2];
-        for (int i = 0; i < bytes.length; i++)
-        {
-            bytes[i] = (byte) Integer
-                    .parseInt(str.substring(2 * i, 2 * i + 2), 16);
-        }
+        if(hexToByte(str, 0, str.length(), bytes, 0) < 0)
+            return null;
+        
         return bytes;
     }
     
@@ -405,7 +779,11 @@ public class CoinSparkBase {
     
     protected static int getLastRegularOutput(boolean[] outputsRegular)
     {
-        int countOutputs=outputsRegular.length;
+        return getLastRegularOutput(outputsRegular.length, outputsRegular);
+    }
+    
+    protected static int getLastRegularOutput(int countOutputs, boolean[] outputsRegular)
+    {
         int outputIndex;
 
         for (outputIndex=countOutputs-1; outputIndex>=0; outputIndex--) 
@@ -417,12 +795,15 @@ public class CoinSparkBase {
         return countOutputs; // indicates no regular ones were found
     }
 
-    protected class CoinSparkBuffer{
+    protected static class CoinSparkBuffer{
         
         private final static int BUFFER_ALLOC_LENGTH = 40;
         
         private boolean resizable;
-        private byte [] raw;
+        private byte [] raw;                                                    // backing array, null if wrapping a ByteBuffer without one
+        private ByteBuffer source;                                              // used only if raw is null (e.g. direct ByteBuffer)
+        private int offsetStart;                                                // all offsets below are absolute positions in raw/source
+        private int offsetLimit;
         private int offsetRead;
         private int offsetWrite;
         private int sizeRead;
@@ -431,6 +812,8 @@ public class CoinSparkBase {
         public CoinSparkBuffer(int size)
         {
             raw=new byte[size];
+            offsetStart=0;
+            offsetLimit=size;
             offsetRead=0;
             offsetWrite=0;
             sizeRead=offsetWrite;
@@ -445,32 +828,81 @@ public class CoinSparkBase {
 
         CoinSparkBuffer(String Source,boolean IsHex)
         {
-            if(IsHex)
-            {
-                raw=hexToByte(Source);
-            }
-            else
-            {
-                raw=Source.getBytes();
-            }
-            offsetRead=0;
-            offsetWrite=raw.length;
-            sizeRead=offsetWrite;
-            resizable=false;
+            this(IsHex ? hexToByteOrEmpty(Source) : Source.getBytes());
         }
         
         CoinSparkBuffer(byte [] Source)
+        {
+            this(Source,0,Source.length);
+        }
+        
+        /**
+         * Wraps a region of an existing array without copying it. The region is readable, and
+         * after resetWriteOffset() it can be written up to its end.
+         */
+        
+        CoinSparkBuffer(byte [] Source,int Offset,int Length)
+        {
+            wrap(Source, Offset, Length);
+        }
+        
+        /**
+         * Wraps the bytes between position and limit of a heap or direct ByteBuffer without copying them.
+         * The position of Source is not changed.
+         */
+        
+        CoinSparkBuffer(ByteBuffer Source)
+        {
+            wrap(Source);
+        }
+        
+        /**
+         * Points this buffer at a region of another array, as the constructor with the same parameters,
+         * so that one buffer can be reused for many pieces of metadata.
+         */
+        
+        protected final void wrap(byte [] Source,int Offset,int Length)
         {
             raw=Source;
-            offsetRead=0;
-            offsetWrite=raw.length;
+            source=null;
+            offsetStart=Offset;
+            offsetLimit=Offset+Length;
+            offsetRead=offsetStart;
+            offsetWrite=offsetLimit;
+            sizeRead=offsetWrite;
+            resizable=false;
+        }
+        
+        /**
+         * Points this buffer at the bytes between position and limit of a ByteBuffer, as the constructor
+         * with the same parameter.
+         */
+        
+        protected final void wrap(ByteBuffer Source)
+        {
+            if(Source.hasArray())
+            {
+                raw=Source.array();
+                source=null;
+                offsetStart=Source.arrayOffset()+Source.position();
+                offsetLimit=Source.arrayOffset()+Source.limit();
+            }
+            else
+            {
+                raw=null;
+                source=Source;
+                offsetStart=Source.position();
+                offsetLimit=Source.limit();
+            }
+            offsetRead=offsetStart;
+            offsetWrite=offsetLimit;
             sizeRead=offsetWrite;
             resizable=false;
         }
         
         protected int length()
         {
-            return offsetWrite;
+            return offsetWrite-offsetStart;
         }
         
         protected int availableForRead()
@@ -478,45 +910,73 @@ public class CoinSparkBase {
             return sizeRead-offsetRead;
         }
         
+        protected int readOffset()                                              // relative to the start of the buffer
+        {
+            return offsetRead-offsetStart;
+        }
+        
+        protected void setReadOffset(int offset)                                // relative to the start of the buffer
+        {
+            offsetRead=offsetStart+offset;
+        }
+        
+        protected byte byteAtOffset(int offset)                                 // relative to the start of the buffer
+        {
+            return byteAt(offsetStart+offset);
+        }
+        
         protected void resetReadOffset()
         {
-            offsetRead=0;           
+            offsetRead=offsetStart;           
             sizeRead=offsetWrite;            
         }
         
         protected void resetWriteOffset()
         {
-            offsetWrite=0;            
+            offsetWrite=offsetStart;            
         }
         
         protected boolean realloc(int bytes)
         {
+            if(offsetWrite+bytes<=offsetLimit)
+            {
+                return true;
+            }
+            if(!resizable)
+            {
+                return false;
+            }
+            
             int size=raw.length;
             while(size<offsetWrite+bytes)
             {
                 size+=BUFFER_ALLOC_LENGTH;
             }
-            if(size>raw.length)
-            {
-                if(!resizable)
-                {
-                    return false;
-                }
-                byte [] newRaw=new byte[size];
-                System.arraycopy(raw, 0, newRaw, 0, offsetWrite);
-                raw=newRaw;
-            }
+            byte [] newRaw=new byte[size];
+            System.arraycopy(raw, 0, newRaw, 0, offsetWrite);
+            raw=newRaw;
+            offsetLimit=size;
             return true;
         }
         
         protected byte [] toBytes()
         {
-            if(offsetWrite==0)
+            if(offsetWrite==offsetStart)
             {
                 return null;
             }
             
-            return Arrays.copyOf(raw, offsetWrite);
+            if(raw != null)
+            {
+                return Arrays.copyOfRange(raw, offsetStart, offsetWrite);
+            }
+            
+            byte [] result=new byte[offsetWrite-offsetStart];
+            for(int i=0;i<result.length;i++)
+            {
+                result[i]=source.get(offsetStart+i);
+            }
+            return result;
         }
         
         protected String toAscii()
@@ -526,15 +986,44 @@ public class CoinSparkBase {
         
         protected String toHex()
         {
+            if( (raw != null) && (offsetWrite != offsetStart) )
+            {
+                return byteToHex(raw, offsetStart, offsetWrite-offsetStart);
+            }
+            
             return byteToHex(toBytes());
         }
         
+        private static byte [] hexToByteOrEmpty(String Source)              // invalid hexadecimal leaves nothing to decode
+        {
+            byte [] raw=hexToByte(Source);
+            
+            return (raw != null) ? raw : new byte[0];
+        }
+        
+        private byte byteAt(int offset)
+        {
+            return (raw != null) ? raw[offset] : source.get(offset);
+        }
+        
+        private void putAt(int offset,byte b)
+        {
+            if(raw != null)
+            {
+                raw[offset]=b;
+            }
+            else
+            {
+                source.put(offset,b);
+            }
+        }
+        
         protected boolean writeByte(byte b) 
         {
             if(!realloc(1))
                 return false;
                 
-            raw[offsetWrite]=b;
+            putAt(offsetWrite,b);
             offsetWrite++;
             return true;
         }
@@ -546,7 +1035,20 @@ public class CoinSparkBase {
 
         protected boolean writeLong(long value,int size) 
         {
-            return writeBytes(unsignedToSmallEndianBytes(value, size));
+            if(size<=0)
+                return true;
+            
+            if(!realloc(size))
+                return false;
+            
+            for (int index=0; index<size; index++)                             // same as unsignedToSmallEndianBytes()
+            {
+                putAt(offsetWrite+index,(byte)(value & 0xFF));
+                value /= 256;
+            }        
+            
+            offsetWrite+=size;
+            return true;
         }
         
         protected boolean writeBytes(byte [] b) 
@@ -565,7 +1067,17 @@ public class CoinSparkBase {
             if(!realloc(size))
                 return false;
             
-            System.arraycopy(b, 0, raw, offsetWrite, size);
+            if(raw != null)
+            {
+                System.arraycopy(b, 0, raw, offsetWrite, size);
+            }
+            else
+            {
+                for(int i=0;i<size;i++)
+                {
+                    source.put(offsetWrite+i,b[i]);
+                }
+            }
             
             offsetWrite+=size;
             return true;
@@ -575,35 +1087,72 @@ public class CoinSparkBase {
         {
             return writeBytes(s.getBytes());
         }
+        
+        /**
+         * Writes the CoinSpark metadata identifier followed by the prefix of this piece of metadata.
+         */
+        
+        protected boolean writePrefix(byte prefix)
+        {
+            return writeBytes(COINSPARK_METADATA_IDENTIFIER_BYTES) && writeByte(prefix);
+        }
+        
+        /**
+         * Reads one byte.
+         * 
+         * @return unsigned value 0-255, or -1 if there is nothing left to read
+         */
                 
-        protected Byte readByte()
+        protected int readUnsignedByte()
         {
             if(offsetRead>=sizeRead)
-             return null;
+             return -1;
             
             offsetRead++;
-            return raw[offsetRead-1];
+            return byteAt(offsetRead-1) & 0xFF;
         }
      
-        protected Long readLong(int size)
+        /**
+         * Reads size bytes as a small endian unsigned integer, dropping the top bit of an 8 byte value.
+         * As with readInt(), callers must check canRead(size) first rather than testing the result for -1.
+         * 
+         * @return decoded value (never negative), or -1 if there is not enough left to read
+         */
+        
+        protected long readLong(int size)
         {
-            if(offsetRead+size>sizeRead)
-             return null;
+            if( (size<0) || (offsetRead+size>sizeRead) )
+             return -1;
+            
+            long value = 0;
+
+            for (int curbyte=size-1; curbyte>=0; curbyte--)                     // same as SmallEndianBytesToUnsigned()
+            {
+                value *= 256;
+                value += byteAt(offsetRead+curbyte) & 0xFF;
+            }
             
             offsetRead+=size;
             
-            return SmallEndianBytesToUnsigned(raw, offsetRead-size, size);
+            return value & 0x7FFFFFFFFFFFFFFFL;
         }
 
-        protected Integer readInt(int size)
+        /**
+         * Reads up to 4 bytes as a small endian unsigned integer. Callers must check canRead(size) first, since
+         * 4 bytes of all ones are also returned as -1.
+         * 
+         * @return decoded value, or -1 if size is above 4 or there is not enough left to read
+         */
+        
+        protected int readInt(int size)
         {          
             if(size>4)
-                return null;
+                return -1;
             
             if(offsetRead+size>sizeRead)
-             return null;
+             return -1;
          
-            return readLong(size).intValue();
+            return (int)readLong(size);
         }
         
         protected byte [] readBytes(int size)
@@ -611,12 +1160,43 @@ public class CoinSparkBase {
             if(offsetRead+size>sizeRead)
              return null;
 
-            offsetRead+=size;
+            byte [] result=new byte[size];
+            readBytes(result, 0, size);
+            return result;
+        }
+        
+        /**
+         * Reads size bytes into an existing array.
+         * 
+         * @return true on success, false (with nothing read) if there is not enough left to read
+         */
+        
+        protected boolean readBytes(byte [] target,int targetOffset,int size)
+        {
+            if( (size<0) || (offsetRead+size>sizeRead) )
+             return false;
+
+            if(raw != null)
+            {
+                System.arraycopy(raw, offsetRead, target, targetOffset, size);
+            }
+            else
+            {
+                for(int i=0;i<size;i++)
+                {
+                    target[targetOffset+i]=source.get(offsetRead+i);
+                }
+            }
             
-            return Arrays.copyOfRange(raw, offsetRead-size, offsetRead);
+            offsetRead+=size;
+            return true;
         }
         
         
+        /**
+         * Returns true if size more bytes can be read, which must be checked before readInt() or readLong().
+         */
+        
         protected boolean canRead(int size)
         {
             if(offsetRead+size>sizeRead)
@@ -626,18 +1206,22 @@ public class CoinSparkBase {
         
         protected boolean locateRange(byte desiredPrefix)
         {
-            offsetRead=0;
+            offsetRead=offsetStart;
+            sizeRead=offsetWrite;
             if(!canRead(COINSPARK_METADATA_IDENTIFIER_LEN+1))
                 return false;
 
-            if (memcmp(COINSPARK_METADATA_IDENTIFIER.getBytes(), raw, COINSPARK_METADATA_IDENTIFIER_LEN) != 0) // check it starts 'SPK'
-                return false;
+            for(int i=0;i<COINSPARK_METADATA_IDENTIFIER_LEN;i++)                // check it starts 'SPK'
+            {
+                if(byteAt(offsetStart+i) != COINSPARK_METADATA_IDENTIFIER_BYTES[i])
+                    return false;
+            }
 
             offsetRead+=COINSPARK_METADATA_IDENTIFIER_LEN;                      // skip past 'SPK'
 
             while (offsetRead < offsetWrite) 
             {
-                byte foundPrefix = readByte();                                  // read the next prefix
+                int foundPrefix = byteAt(offsetRead++) & 0xFF;                  // read the next prefix (unsigned, so a corrupt length can't go backwards)
 
                 if (desiredPrefix != 0 ? (foundPrefix==desiredPrefix) : (foundPrefix > COINSPARK_LENGTH_PREFIX_MAX))
                 {
@@ -657,7 +1241,7 @@ public class CoinSparkBase {
                 if (offsetRead >= offsetWrite)                                  // something went wrong - that was the end of the input data
                     return false;
 
-                if (raw[offsetRead] == desiredPrefix) 
+                if (byteAt(offsetRead) == desiredPrefix) 
                 {                                                               // it's the length of our part
                     offsetRead++;
                     sizeRead=offsetRead+foundPrefix-1;
@@ -0,0 +1,126 @@
+/*
+ * CoinSpark 2.1 - Java library
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.protocol;
+
+/**
+ * CoinSparkDecodeStatus class for reporting why metadata or an address could not be decoded,
+ * without throwing exceptions or writing to the console.
+ *
+ * A single status can be reused for every decode.
+ */
+
+public class CoinSparkDecodeStatus {
+
+    /**
+     * Result of a decode.
+     */
+
+    public enum Reason {
+        /** Decoded successfully */
+        OK,
+        /** No data of the expected type was found, e.g. missing CoinSpark identifier or prefix */
+        NOT_FOUND,
+        /** The data ended before a field could be read */
+        TRUNCATED,
+        /** A packing byte has a value which is not allowed */
+        INVALID_PACKING,
+        /** A character or encoded value is not allowed */
+        INVALID_CHARACTER,
+        /** A decoded value is outside its permitted range */
+        OUT_OF_RANGE,
+        /** A decoded string is longer than permitted */
+        TOO_LONG,
+        /** The decoded fields are not valid together */
+        INVALID
+    }
+
+    /**
+     * Result of the last decode
+     */
+
+    public Reason reason;
+
+    /**
+     * Position of the failure in the metadata (in bytes) or in the address (in characters), 0 on success
+     */
+
+    public int offset;
+
+    /**
+     * CoinSparkDecodeStatus class for reporting decode failures.
+     */
+
+    public CoinSparkDecodeStatus()
+    {
+        clear();
+    }
+
+    /**
+     * Set status to success.
+     */
+
+    public final void clear()
+    {
+        reason = Reason.OK;
+        offset = 0;
+    }
+
+    /**
+     * Returns true if the last decode succeeded, false otherwise.
+     *
+     * @return true on success
+     */
+
+    public boolean isOK()
+    {
+        return reason == Reason.OK;
+    }
+
+    @Override
+    public String toString()
+    {
+        return isOK() ? reason.name() : (reason.name() + " at " + offset);
+    }
+
+// Private variables/constants/functions
+
+    /**
+     * Records Result and Offset in Status if it is not null.
+     *
+     * @return Result
+     */
+
+    protected static Reason set(CoinSparkDecodeStatus Status, Reason Result, int Offset)
+    {
+        if(Status != null)
+        {
+            Status.reason = Result;
+            Status.offset = (Result == Reason.OK) ? 0 : Offset;
+        }
+
+        return Result;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * CoinSpark 2.1 - Java library
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.protocol;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * CoinSparkDomainCache class holding canonical decoded domain names and paths, and their URLs, shared
+ * by all threads.
+ *
+ * Decoded entries are found by the packed bytes they were decoded from, so repeated issuer domains are
+ * decoded once. URL entries are found by domain, path and flags. Each table has a fixed number of slots,
+ * and a new entry replaces whichever entry was in its slot, so memory use is bounded.
+ */
+
+public class CoinSparkDomainCache {
+
+    /**
+     * Removes all entries from the cache.
+     */
+
+    public static void clear()
+    {
+        for (int slot=0; slot<COINSPARK_DOMAIN_CACHE_SLOTS; slot++)
+        {
+            decoded.set(slot, null);
+            urls.set(slot, null);
+        }
+    }
+
+
+// Private variables/constants/functions
+
+    private static final int COINSPARK_DOMAIN_CACHE_SLOTS = 4096;               // must be a power of 2
+    private static final int COINSPARK_DOMAIN_CACHE_MAX_KEY = 64;
+
+    private static final AtomicReferenceArray<Entry> decoded = new AtomicReferenceArray<Entry>(COINSPARK_DOMAIN_CACHE_SLOTS);
+    private static final AtomicReferenceArray<Entry> urls = new AtomicReferenceArray<Entry>(COINSPARK_DOMAIN_CACHE_SLOTS);
+
+    /**
+     * Decoded domain and path with the URLs built from them. Entries are never changed once created.
+     */
+
+    protected static final class Entry
+    {
+        protected final byte [] packed;                                         // null if not created by decoding
+        protected final boolean forMessages;
+        protected final String domainName;
+        protected final String path;
+        protected final boolean useHttps;
+        protected final boolean usePrefix;
+        protected final String fullURL;
+        protected final String domainURL;
+        protected final String assetURLPrefix;                                  // URL up to the path, lower case
+
+        private Entry(byte [] Packed, boolean ForMessages, String DomainName, String Path, boolean UseHttps, boolean UsePrefix)
+        {
+            packed=Packed;
+            forMessages=ForMessages;
+            domainName=DomainName;
+            path=Path;
+            useHttps=UseHttps;
+            usePrefix=UsePrefix;
+
+            //  Each URL extends the one before, and none needs locale-dependent case folding
+
+            StringBuilder url=new StringBuilder(32+domainName.length()+((path != null) ? path.length() : 4));
+            url.append(useHttps ? "https" : "http").append("://").append(domainName);
+            domainURL=url.toString();
+            url.append('/');
+            if (usePrefix)
+                url.append("coinspark/");
+            assetURLPrefix=url.toString().toLowerCase();
+            url.append(path).append('/');
+            fullURL=url.toString().toLowerCase();
+        }
+
+        private boolean matches(String DomainName, String Path, boolean UseHttps, boolean UsePrefix)
+        {
+            return (useHttps == UseHttps) && (usePrefix == UsePrefix) && stringsEqual(domainName, DomainName) && stringsEqual(path, Path);
+        }
+    }
+
+    /**
+     * Returns the hash of the packed bytes between From and To in buffer, 0 if they are too long to be cached.
+     */
+
+    protected static int packedHash(boolean ForMessages, CoinSparkBase.CoinSparkBuffer buffer, int From, int To)
+    {
+        if (To-From > COINSPARK_DOMAIN_CACHE_MAX_KEY)
+            return 0;
+
+        int hash=ForMessages ? 1 : 0;
+        for (int offset=From; offset<To; offset++)
+            hash=hash*31+buffer.byteAtOffset(offset);
+
+        return hash;
+    }
+
+    /**
+     * Returns the entry decoded from the packed bytes between From and To in buffer, null if none is cached.
+     * PackedHash is packedHash() of those bytes.
+     */
+
+    protected static Entry getDecoded(CoinSparkBase.CoinSparkBuffer buffer, int From, int To, boolean ForMessages, int PackedHash)
+    {
+        if (To-From > COINSPARK_DOMAIN_CACHE_MAX_KEY)
+            return null;
+
+        Entry entry=decoded.get(spread(PackedHash));
+        if ( (entry == null) || (entry.forMessages != ForMessages) || (entry.packed.length != To-From) )
+            return null;
+
+        for (int offset=From; offset<To; offset++)
+            if (entry.packed[offset-From] != buffer.byteAtOffset(offset))
+                return null;
+
+        return entry;
+    }
+
+    /**
+     * Adds the domain and path decoded from the packed bytes between From and To in buffer, whose hash is PackedHash.
+     *
+     * @return the new entry, whose strings should be used in place of those passed in
+     */
+
+    protected static Entry putDecoded(CoinSparkBase.CoinSparkBuffer buffer, int From, int To, boolean ForMessages, int PackedHash,
+            String DomainName, String Path, boolean UseHttps, boolean UsePrefix)
+    {
+        if (To-From > COINSPARK_DOMAIN_CACHE_MAX_KEY)
+            return null;
+
+        byte [] packed=new byte[To-From];
+        for (int offset=From; offset<To; offset++)
+            packed[offset-From]=buffer.byteAtOffset(offset);
+
+        Entry entry=new Entry(packed, ForMessages, DomainName, Path, UseHttps, UsePrefix);
+        decoded.set(spread(PackedHash), entry);
+        urls.set(urlSlot(DomainName, Path, UseHttps, UsePrefix), entry);
+
+        return entry;
+    }
+
+    /**
+     * Returns the URL entry for a domain and path, creating it if necessary.
+     *
+     * @return Entry | null, null if the URLs depend on the default locale and must be built on each call
+     */
+
+    protected static Entry getURLs(String DomainName, String Path, boolean UseHttps, boolean UsePrefix)
+    {
+        if ( (DomainName == null) || CoinSparkDomainPath.needsFoldBeyondTable(DomainName) || ((Path != null) && CoinSparkDomainPath.needsFoldBeyondTable(Path)) )
+            return null;
+
+        int slot=urlSlot(DomainName, Path, UseHttps, UsePrefix);
+        Entry entry=urls.get(slot);
+        if ( (entry != null) && entry.matches(DomainName, Path, UseHttps, UsePrefix) )
+            return entry;
+
+        entry=new Entry(null, false, DomainName, Path, UseHttps, UsePrefix);
+        urls.set(slot, entry);
+
+        return entry;
+    }
+
+    private static int urlSlot(String DomainName, String Path, boolean UseHttps, boolean UsePrefix)
+    {
+        int hash=DomainName.hashCode()*31+((Path != null) ? Path.hashCode() : 0);
+        hash=hash*4+(UseHttps ? 2 : 0)+(UsePrefix ? 1 : 0);
+
+        return spread(hash);
+    }
+
+    private static int spread(int hash)
+    {
+        hash^=(hash >>> 16);
+        hash*=0x45d9f3b;
+        hash^=(hash >>> 16);
+
+        return hash & (COINSPARK_DOMAIN_CACHE_SLOTS-1);
+    }
+
+    private static boolean stringsEqual(String string1, String string2)
+    {
+        return (string1 == string2) || ((string1 != null) && string1.equals(string2));
+    }
+}
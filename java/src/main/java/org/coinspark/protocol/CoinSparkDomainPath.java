@@ -25,7 +25,7 @@
 
 package org.coinspark.protocol;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 
@@ -94,6 +94,12 @@ public class CoinSparkDomainPath extends CoinSparkBase{
     
     public String getFullURL()
     {
+        CoinSparkDomainCache.Entry entry=CoinSparkDomainCache.getURLs(domainName, path, useHttps, usePrefix);
+        if(entry != null)
+        {
+            return entry.fullURL;
+        }
+        
         return String.format("%s://%s/%s%s/", useHttps ? "https" : "http",domainName,usePrefix ? "coinspark/" : "",path).toLowerCase();
     }
     
@@ -143,6 +149,7 @@ public class CoinSparkDomainPath extends CoinSparkBase{
         }
         
         String suffix=path;
+        CoinSparkDomainCache.Entry entry=CoinSparkDomainCache.getURLs(domainName, path, useHttps, usePrefix);
 
         
         if((suffix == null) || (suffix.length() == 0))
@@ -158,6 +165,15 @@ public class CoinSparkDomainPath extends CoinSparkBase{
             {
                 suffix+=FirstSpentTxID.substring(0,16-charsToCopy);
             }
+            
+            if((entry != null) && !needsFoldBeyondTable(suffix))
+            {
+                return entry.assetURLPrefix + suffix.toLowerCase() + "/";
+            }
+        }
+        else if(entry != null)
+        {
+            return entry.fullURL;
         }
         
         return String.format("%s://%s/%s%s/", useHttps ? "https" : "http",domainName,usePrefix ? "coinspark/" : "",suffix).toLowerCase();
@@ -176,6 +192,12 @@ public class CoinSparkDomainPath extends CoinSparkBase{
             return null;
         }
         
+        CoinSparkDomainCache.Entry entry=CoinSparkDomainCache.getURLs(domainName, path, useHttps, usePrefix);
+        if(entry != null)
+        {
+            return entry.domainURL;
+        }
+        
         return String.format("%s://%s", useHttps ? "https" : "http",domainName);
     }
         
@@ -193,6 +215,7 @@ public class CoinSparkDomainPath extends CoinSparkBase{
     private static final int COINSPARK_DOMAIN_PATH_ENCODE_BASE        = 40;
     private static final int COINSPARK_DOMAIN_PATH_FALSE_MARKER       = 38;
     private static final int COINSPARK_DOMAIN_PATH_TRUE_MARKER        = 39;
+    private static final int COINSPARK_DOMAIN_PATH_MAX_UNPACKED       = 256;
 
     private static final String domainNamePrefixes[]={
             "",
@@ -265,51 +288,43 @@ public class CoinSparkDomainPath extends CoinSparkBase{
     };
 
     private static final String domainNameChars = "0123456789abcdefghijklmnopqrstuvwxyz-.<>"; 
+    private static final byte [] domainNameCharIndex = new byte[128];         // position in domainNameChars, upper case folded, -1 if absent
+    
+    static {
+        Arrays.fill(domainNameCharIndex, (byte)-1);
+        for (int charIndex=0; charIndex<domainNameChars.length(); charIndex++)
+        {
+            char domainChar=domainNameChars.charAt(charIndex);
+            domainNameCharIndex[domainChar]=(byte)charIndex;
+            if ((domainChar>='a') && (domainChar<='z'))
+                domainNameCharIndex[domainChar-'a'+'A']=(byte)charIndex;
+        }
+    }
+    
+    private static final AffixTrie domainNamePrefixTrie = new AffixTrie(domainNamePrefixes, false);
+    private static final AffixTrie domainNameSuffixTrie = new AffixTrie(domainNameSuffixes, true);
    
     private String domainNameShort;
+    private CharSequence shrinkSource;                                          // lower case domain name, set by shrink()
+    private int shrinkStart;
+    private int shrinkEnd;
+    private int packTriplet;
+    private int packPos;
     private int domainNamePacking;    
     
         
     private boolean shrink()
     {
-        int bestPrefixLen=0;
-        int bestPrefix=0;
-        int bestSuffixLen=0;
-        int bestSuffix=0;
-        
-        String source=domainName.toLowerCase();
-        
-        for (int prefixIndex=1; prefixIndex < domainNamePrefixes.length; prefixIndex++)
-        {
-            int prefixLen = domainNamePrefixes[prefixIndex].length();
-
-            if(source.length()>prefixLen)
-            {
-                if (prefixLen>bestPrefixLen && domainNamePrefixes[prefixIndex].equals(source.substring(0, prefixLen)))
-                {
-                    bestPrefix=prefixIndex;
-                    bestPrefixLen=prefixLen;
-                }
-            }
-        }
-        
-        domainNameShort=source.substring(bestPrefixLen);
+        CharSequence source=domainName;
+        if (needsFoldBeyondTable(domainName))
+            source=domainName.toLowerCase();
         
-        for (int suffixIndex=1; suffixIndex < domainNameSuffixes.length; suffixIndex++)
-        {
-            int suffixLen = domainNameSuffixes[suffixIndex].length();
-
-            if(domainNameShort.length()>suffixLen)
-            {
-                if (suffixLen>bestSuffixLen && domainNameSuffixes[suffixIndex].equals(domainNameShort.substring(domainNameShort.length()-suffixLen)))
-                {
-                    bestSuffix=suffixIndex;
-                    bestSuffixLen=suffixLen;
-                }
-            }
-        }
+        int bestPrefix=domainNamePrefixTrie.longestMatch(source, 0, source.length());
+        int bestSuffix=domainNameSuffixTrie.longestMatch(source, domainNamePrefixes[bestPrefix].length(), source.length());
         
-        domainNameShort=domainNameShort.substring(0, domainNameShort.length()-bestSuffixLen);
+        shrinkSource=source;
+        shrinkStart=domainNamePrefixes[bestPrefix].length();
+        shrinkEnd=source.length()-domainNameSuffixes[bestSuffix].length();
             
         domainNamePacking=((bestPrefix << COINSPARK_DOMAIN_PACKING_PREFIX_SHIFT)&COINSPARK_DOMAIN_PACKING_PREFIX_MASK)|
                  (bestSuffix & COINSPARK_DOMAIN_PACKING_SUFFIX_MASK);
@@ -317,11 +332,41 @@ public class CoinSparkDomainPath extends CoinSparkBase{
         return true;
     }
 
+    protected static boolean needsFoldBeyondTable(String source)
+    {
+        //  True if the string must go through String.toLowerCase() as before, rather than relying on the character
+        //  table to fold ASCII upper case: for non-ASCII characters, and for 'I' which some locales lower case to a dotless i
+        
+        for (int charPos=0; charPos<source.length(); charPos++)
+        {
+            char sourceChar=source.charAt(charPos);
+            if ((sourceChar >= 128) || (sourceChar == 'I'))
+                return true;
+        }
+        
+        return false;
+    }
+    
+    private static int domainCharToIndex(char sourceChar)                       // returns -1 if not in domainNameChars
+    {
+        if (sourceChar >= 128)
+        {
+            sourceChar=Character.toLowerCase(sourceChar);
+            if (sourceChar >= 128)
+                return -1;
+        }
+        
+        return domainNameCharIndex[sourceChar];
+    }
+    
     private boolean expand()
     {
         int prefixIndex = (domainNamePacking & COINSPARK_DOMAIN_PACKING_PREFIX_MASK)>>COINSPARK_DOMAIN_PACKING_PREFIX_SHIFT;
         int suffixIndex = domainNamePacking & COINSPARK_DOMAIN_PACKING_SUFFIX_MASK;
         
+        if ((prefixIndex >= domainNamePrefixes.length) || (suffixIndex >= domainNameSuffixes.length))
+            return false;
+        
         domainName = domainNamePrefixes[prefixIndex] + domainNameShort +  domainNameSuffixes[suffixIndex];
         
         return true;        
@@ -367,113 +412,104 @@ public class CoinSparkDomainPath extends CoinSparkBase{
         return octets;        
     }
     
-    private boolean packString(CoinSparkBuffer buffer,String Source)
+    private boolean packString(CoinSparkBuffer buffer,CharSequence Source,int From,int To)
     {
-        int strPos, strTriplet, strChar, strLen;
-        
-        strLen=Source.length();
-        try
-        {        
-            strTriplet=0;
-            for (strPos = 0; strPos<Source.length(); strPos++) {
-
-                int foundChar = domainNameChars.indexOf(Character.toLowerCase(Source.charAt(strPos)));
-                if (foundChar == -1)
-                    throw new CoinSparkExceptions.CannotEncode("Invalid character in packing source");
-                strChar = foundChar;
-
-                switch (strPos%3)
-                {
-                    case 0:
-                        strTriplet=strChar;
-                        break;
-
-                    case 1:
-                        strTriplet+=strChar*COINSPARK_DOMAIN_PATH_ENCODE_BASE;
-                        break;
-
-                    case 2:
-                        strTriplet+=strChar*COINSPARK_DOMAIN_PATH_ENCODE_BASE*COINSPARK_DOMAIN_PATH_ENCODE_BASE;
-                        break;
-                }
-
-                if ( ((strPos%3)==2) || (strPos==Source.length()-1) ) // write out 2 bytes if we've collected 3 chars, or if we're finishing
-                { 
-                    buffer.writeBytes(unsignedToSmallEndianBytes(strTriplet, 2));
-                }
-            }
-        }
-        catch (Exception cne)
+        for (int strPos=From; strPos<To; strPos++)
         {
-            System.out.println(cne.getMessage());
-            return false;
+            int foundChar=domainCharToIndex(Source.charAt(strPos));
+            if (foundChar == -1)
+                return false;
+            
+            packChar(buffer, foundChar);
         }
+        
         return true;
     }
     
-    private byte [] unpackString(CoinSparkBuffer buffer,int parts)
+    private void packChar(CoinSparkBuffer buffer,int strChar)
+    {
+        switch (packPos%3)
+        {
+            case 0:
+                packTriplet=strChar;
+                break;
+
+            case 1:
+                packTriplet+=strChar*COINSPARK_DOMAIN_PATH_ENCODE_BASE;
+                break;
+
+            case 2:
+                packTriplet+=strChar*COINSPARK_DOMAIN_PATH_ENCODE_BASE*COINSPARK_DOMAIN_PATH_ENCODE_BASE;
+                buffer.writeInt(packTriplet, 2);                                // write out 2 bytes if we've collected 3 chars
+                break;
+        }
+        
+        packPos++;
+    }
+    
+    private void packFinish(CoinSparkBuffer buffer)
     {
+        if ((packPos%3) != 0)                                                   // write out 2 bytes for the last partial triplet
+            buffer.writeInt(packTriplet, 2);
+    }
+    
+    private static CoinSparkDecodeStatus.Reason unpackString(CoinSparkBuffer buffer,int parts,byte [] target,CoinSparkDecodeStatus status)
+    {                                                                           // target null to check and skip the packed string only
         int strPos, strTriplet, strChar;
-        byte [] result=new byte[256];
         
         strTriplet=0;
         strChar=0;
         strPos=0;
-        try
+        
+        while(parts>0)    
         {
-            while(parts>0)    
+            if(strPos>=COINSPARK_DOMAIN_PATH_MAX_UNPACKED)
             {
-                if(strPos>=result.length)
-                {
-                    throw new CoinSparkExceptions.CannotDecode("Domain/Path too long");                    
-                }
-                if ((strPos%3)==0)
+                return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.TOO_LONG, buffer.readOffset());
+            }
+            if ((strPos%3)==0)
+            {
+                if(buffer.canRead(2))
                 {
-                    if(buffer.canRead(2))
-                    {
-                        strTriplet=buffer.readInt(2);
-                        if (strTriplet >=
-                                (COINSPARK_DOMAIN_PATH_ENCODE_BASE*COINSPARK_DOMAIN_PATH_ENCODE_BASE*COINSPARK_DOMAIN_PATH_ENCODE_BASE))
-                            throw new CoinSparkExceptions.CannotDecode("Invalid value in Domain/Path");
-                    }
-                    else
-                        throw new CoinSparkExceptions.CannotDecode("Ran out of characters");
+                    strTriplet=buffer.readInt(2);
+                    if (strTriplet >=
+                            (COINSPARK_DOMAIN_PATH_ENCODE_BASE*COINSPARK_DOMAIN_PATH_ENCODE_BASE*COINSPARK_DOMAIN_PATH_ENCODE_BASE))
+                        return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.INVALID_CHARACTER, buffer.readOffset()-2);
                 }
+                else
+                    return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.TRUNCATED, buffer.readOffset());
+            }
 
-                switch (strPos%3)
-                {
-                    case 0:
-                        strChar=strTriplet%COINSPARK_DOMAIN_PATH_ENCODE_BASE;
-                        break;
+            switch (strPos%3)
+            {
+                case 0:
+                    strChar=strTriplet%COINSPARK_DOMAIN_PATH_ENCODE_BASE;
+                    break;
 
-                    case 1:
-                        strChar=(strTriplet/COINSPARK_DOMAIN_PATH_ENCODE_BASE)%COINSPARK_DOMAIN_PATH_ENCODE_BASE;
-                        break;
+                case 1:
+                    strChar=(strTriplet/COINSPARK_DOMAIN_PATH_ENCODE_BASE)%COINSPARK_DOMAIN_PATH_ENCODE_BASE;
+                    break;
 
-                    case 2:
-                        strChar=strTriplet/(COINSPARK_DOMAIN_PATH_ENCODE_BASE*COINSPARK_DOMAIN_PATH_ENCODE_BASE);
-                        break;
-                }
+                case 2:
+                    strChar=strTriplet/(COINSPARK_DOMAIN_PATH_ENCODE_BASE*COINSPARK_DOMAIN_PATH_ENCODE_BASE);
+                    break;
+            }
 
-                if ((strChar==COINSPARK_DOMAIN_PATH_FALSE_MARKER) || (strChar == COINSPARK_DOMAIN_PATH_TRUE_MARKER)) 
-                {
-                    parts--;
-                }
+            if ((strChar==COINSPARK_DOMAIN_PATH_FALSE_MARKER) || (strChar == COINSPARK_DOMAIN_PATH_TRUE_MARKER)) 
+            {
+                parts--;
+            }
 
-                result[strPos] = (byte)domainNameChars.charAt(strChar);
-                strPos++;
+            if(target != null)
+            {
+                target[strPos] = (byte)domainNameChars.charAt(strChar);
             }
-        }
-        catch (Exception cne)
-        {
-            System.out.println(cne.getMessage());
-            return null;
+            strPos++;
         }
         
-        return  Arrays.copyOfRange(result, 0, strPos);
+        return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.OK, 0);
     }
     
-    
     protected int encodedLen(boolean forMessages)
     {
         int encodedLen=0;                
@@ -494,7 +530,7 @@ public class CoinSparkDomainPath extends CoinSparkBase{
         {
             encodedLen+=1;
             shrink();
-            decodedLen+=domainNameShort.length()+1;            
+            decodedLen+=shrinkEnd-shrinkStart+1;            
         }
         
         if(decodedLen>0)
@@ -510,7 +546,9 @@ public class CoinSparkDomainPath extends CoinSparkBase{
         int [] octets;
         int parts=0;
         boolean takePathPart=true;
-        String stringToPack="";
+        
+        packTriplet=0;
+        packPos=0;
         
         try
         {
@@ -538,33 +576,32 @@ public class CoinSparkDomainPath extends CoinSparkBase{
                 if(!shrink())
                     throw new CoinSparkExceptions.CannotEncode("Cannot shrink domain");
                         
-                if (domainNameShort.length() == 0)
+                if (shrinkEnd == shrinkStart)
                     throw new CoinSparkExceptions.CannotEncode("Zero-length packing source string");
 
                 buffer.writeByte((byte)domainNamePacking);
 
-                stringToPack+=domainNameShort + 
-                        (useHttps ? domainNameChars.charAt(COINSPARK_DOMAIN_PATH_TRUE_MARKER) : domainNameChars.charAt(COINSPARK_DOMAIN_PATH_FALSE_MARKER));
+                if(!packString(buffer, shrinkSource, shrinkStart, shrinkEnd))
+                    throw new CoinSparkExceptions.CannotEncode("Cannot write domain and path");
+                packChar(buffer, useHttps ? COINSPARK_DOMAIN_PATH_TRUE_MARKER : COINSPARK_DOMAIN_PATH_FALSE_MARKER);
                 parts++;
             }
             
             if(takePathPart)
             {
-                stringToPack+=path.toLowerCase() + 
-                        (usePrefix ? domainNameChars.charAt(COINSPARK_DOMAIN_PATH_TRUE_MARKER) : domainNameChars.charAt(COINSPARK_DOMAIN_PATH_FALSE_MARKER));
+                String pathToPack=needsFoldBeyondTable(path) ? path.toLowerCase() : path;
+                if(!packString(buffer, pathToPack, 0, pathToPack.length()))
+                    throw new CoinSparkExceptions.CannotEncode("Cannot write domain and path");
+                packChar(buffer, usePrefix ? COINSPARK_DOMAIN_PATH_TRUE_MARKER : COINSPARK_DOMAIN_PATH_FALSE_MARKER);
                 parts++;
             }           
             if(parts > 0)
             {
-                if(!packString(buffer, stringToPack))
-                {
-                    throw new CoinSparkExceptions.CannotEncode("Cannot write domain and path");                    
-                }
+                packFinish(buffer);
             }
         }
-        catch (Exception cne)
+        catch (CoinSparkExceptions.CannotEncode ex)
         {
-            System.out.println(cne.getMessage());
             return false;
         }
         return true;
@@ -572,108 +609,201 @@ public class CoinSparkDomainPath extends CoinSparkBase{
             
     
     protected boolean decode(CoinSparkBuffer buffer,boolean forMessages)
+    {
+        return decode(buffer, forMessages, null) == CoinSparkDecodeStatus.Reason.OK;
+    }
+    
+    protected CoinSparkDecodeStatus.Reason decode(CoinSparkBuffer buffer,boolean forMessages,CoinSparkDecodeStatus status)
     {
         byte packing,packingSuffix;
         int[] octets = new int[4];
         byte result[] = new byte[1];
         int parts=0;
         int pathPart;
+        int packingOffset=buffer.readOffset();
         
-        try
+        if (buffer.canRead(1))
+        {
+            packing=(byte)buffer.readUnsignedByte();
+        }
+        else
+            return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.TRUNCATED, buffer.readOffset());
+
+        packingSuffix=(byte)(packing & COINSPARK_DOMAIN_PACKING_SUFFIX_MASK);
+        if ((packingSuffix==COINSPARK_DOMAIN_PACKING_SUFFIX_IPv4) ||
+            (forMessages && (packingSuffix==COINSPARK_DOMAIN_PACKING_SUFFIX_IPv4_NO_PATH)))// check for IPv4 address
         {
-            if (buffer.canRead(1))
+            domainNamePacking=-1;
+            useHttps = ((packing & COINSPARK_DOMAIN_PACKING_IPv4_HTTPS) != 0);
+
+            if(buffer.canRead(4))
             {
-                packing=buffer.readByte();
+                for(int i=0;i<4;i++)
+                {
+                    octets[i]=buffer.readUnsignedByte();
+                }
             }
             else
-                throw new CoinSparkExceptions.CannotDecode("Buffer is empty");
+                return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.TRUNCATED, buffer.readOffset());
 
-            packingSuffix=(byte)(packing & COINSPARK_DOMAIN_PACKING_SUFFIX_MASK);
-            if ((packingSuffix==COINSPARK_DOMAIN_PACKING_SUFFIX_IPv4) ||
-                (forMessages && (packingSuffix==COINSPARK_DOMAIN_PACKING_SUFFIX_IPv4_NO_PATH)))// check for IPv4 address
+            if(forMessages && (packingSuffix==COINSPARK_DOMAIN_PACKING_SUFFIX_IPv4_NO_PATH))
             {
-                domainNamePacking=-1;
-                useHttps = ((packing & COINSPARK_DOMAIN_PACKING_IPv4_HTTPS) != 0);
+                path="";
+                usePrefix = ((packing & COINSPARK_DOMAIN_PACKING_IPv4_NO_PATH_PREFIX) != 0);
+                parts--;
+            }
+        }
+        else
+        {
+            domainNamePacking=packing;
+            parts++;
+        }
+        
+        parts++;
+        pathPart=parts;
+        
+        int packedStart=buffer.readOffset();                                    // check the packed string before looking it up in the cache
+        CoinSparkDecodeStatus.Reason reason=unpackString(buffer,parts,null,status);
+        if(reason != CoinSparkDecodeStatus.Reason.OK)
+        {
+            return reason;
+        }
+        
+        int packedEnd=buffer.readOffset();
+        int packedHash=CoinSparkDomainCache.packedHash(forMessages, buffer, packingOffset, packedEnd);
+        CoinSparkDomainCache.Entry cached=CoinSparkDomainCache.getDecoded(buffer, packingOffset, packedEnd, forMessages, packedHash);
+        if(cached != null)
+        {
+            domainName=cached.domainName;
+            path=cached.path;
+            useHttps=cached.useHttps;
+            usePrefix=cached.usePrefix;
+            return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.OK, 0);
+        }
+        buffer.setReadOffset(packedStart);
+        
+        if(domainNamePacking == -1)
+        {
+            domainName = String.format("%d.%d.%d.%d", octets[0], octets[1], octets[2], octets[3]);
 
-                if(buffer.canRead(4))
+            if (domainName.length() >= 256) // allow for null terminator
+                return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.TOO_LONG, buffer.readOffset());
+        }
+        
+        byte [] unpacked=new byte[COINSPARK_DOMAIN_PATH_MAX_UNPACKED];
+        unpackString(buffer,parts,unpacked,null);                               // checked above, so cannot fail
+        
+        byte charTrue=(byte)domainNameChars.charAt(COINSPARK_DOMAIN_PATH_TRUE_MARKER);
+        byte charFalse=(byte)domainNameChars.charAt(COINSPARK_DOMAIN_PATH_FALSE_MARKER);
+        
+        int start=0;
+        if(parts>0)
+        {
+            parts=1;
+            for(int i=0;parts<=pathPart;i++)
+            {
+                if((unpacked[i] == charTrue) || (unpacked[i] == charFalse))
                 {
-                    for(int i=0;i<4;i++)
+                    String decodedString="";
+                    boolean decodeFlag=(unpacked[i] == charTrue);
+                    if(i>start)
+                    {
+                        decodedString=new String(unpacked, start, i-start, StandardCharsets.UTF_8);
+                    }
+                    if(parts == pathPart)
                     {
-                        octets[i]=buffer.readByte();
-                        if(octets[i]<0)
-                            octets[i]+=256;
+                        path=decodedString;
+                        usePrefix=decodeFlag;
                     }
+                    else
+                    {
+                        domainNameShort=decodedString;
+                        useHttps=decodeFlag;
+                        if(!expand())
+                            return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.INVALID_PACKING, packingOffset);
+                    }
+                    start=i+1;
+                    parts++;
                 }
-                else
-                    throw new CoinSparkExceptions.CannotDecode("Cannot read octets");
-
-                domainName = String.format("%d.%d.%d.%d", octets[0], octets[1], octets[2], octets[3]);
+            }            
+        }
 
-                if (domainName.length() >= 256) // allow for null terminator
-                    throw new CoinSparkExceptions.CannotDecode("Domain name too long");
-                
-                if(forMessages && (packingSuffix==COINSPARK_DOMAIN_PACKING_SUFFIX_IPv4_NO_PATH))
-                {
-                    path="";
-                    usePrefix = ((packing & COINSPARK_DOMAIN_PACKING_IPv4_NO_PATH_PREFIX) != 0);
-                    parts--;
-                }
-            }
-            else
-            {
-                domainNamePacking=packing;
-                parts++;
-            }
-            
-            parts++;
-            pathPart=parts;
-            
-            byte [] unpacked=unpackString(buffer,parts);
-            if(unpacked == null)
-            {
-                throw new CoinSparkExceptions.CannotDecode("Cannot unpack path");                    
-            }
+        CoinSparkDomainCache.Entry entry=CoinSparkDomainCache.putDecoded(buffer, packingOffset, packedEnd, forMessages, packedHash,
+                domainName, path, useHttps, usePrefix);
+        if(entry != null)
+        {
+            domainName=entry.domainName;
+            path=entry.path;
+        }
+        
+        return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.OK, 0);
+    }
+    
+    /**
+     * Trie over the characters of domain name prefixes or suffixes, matched from the start or end of a domain.
+     */
+    
+    private static final class AffixTrie
+    {
+        private final int [] next;                                              // child node for each node and character index, 0 if none
+        private final int [] affix;                                             // index of affix ending at each node, 0 if none
+        private final boolean fromEnd;
+        
+        AffixTrie(String [] affixes, boolean FromEnd)
+        {
+            int countNodes=1;
+            for (String affixString : affixes)
+                countNodes+=affixString.length();
             
-            byte charTrue=(byte)domainNameChars.charAt(COINSPARK_DOMAIN_PATH_TRUE_MARKER);
-            byte charFalse=(byte)domainNameChars.charAt(COINSPARK_DOMAIN_PATH_FALSE_MARKER);
+            next=new int[countNodes*COINSPARK_DOMAIN_PATH_ENCODE_BASE];
+            affix=new int[countNodes];
+            fromEnd=FromEnd;
             
-            int start=0;
-            if(parts>0)
+            int usedNodes=1;
+            for (int affixIndex=1; affixIndex<affixes.length; affixIndex++)
             {
-                parts=1;
-                for(int i=0;i<unpacked.length;i++)
+                String affixString=affixes[affixIndex];
+                int node=0;
+                for (int charPos=0; charPos<affixString.length(); charPos++)
                 {
-                    if((unpacked[i] == charTrue) || (unpacked[i] == charFalse))
-                    {
-                        String decodedString="";
-                        boolean decodeFlag=(unpacked[i] == charTrue);
-                        if(i>start)
-                        {
-                            decodedString=new String(Arrays.copyOfRange(unpacked, start, i), "UTF-8");
-                        }
-                        if(parts == pathPart)
-                        {
-                            path=decodedString;
-                            usePrefix=decodeFlag;
-                        }
-                        else
-                        {
-                            domainNameShort=decodedString;
-                            useHttps=decodeFlag;
-                            expand();                        
-                        }
-                        start=i+1;
-                        parts++;
-                    }
-                }            
+                    int charIndex=domainNameCharIndex[affixString.charAt(fromEnd ? affixString.length()-1-charPos : charPos)];
+                    int slot=node*COINSPARK_DOMAIN_PATH_ENCODE_BASE+charIndex;
+                    if (next[slot] == 0)
+                        next[slot]=usedNodes++;
+                    node=next[slot];
+                }
+                affix[node]=affixIndex;
             }
         }
-        catch (CoinSparkExceptions.CannotDecode | UnsupportedEncodingException ex)
+        
+        /**
+         * Returns the index of the longest affix of source between From and To which is shorter than that range, 0 if none.
+         */
+        
+        int longestMatch(CharSequence source, int From, int To)
         {
-           System.out.print(ex.getMessage());
-           return false;
+            int best=0;
+            int node=0;
+            
+            for (int matchLen=1; matchLen<To-From; matchLen++)
+            {
+                char sourceChar=source.charAt(fromEnd ? To-matchLen : From+matchLen-1);
+                if (sourceChar >= 128)
+                    break;
+                
+                int charIndex=domainNameCharIndex[sourceChar];
+                if (charIndex < 0)
+                    break;
+                
+                node=next[node*COINSPARK_DOMAIN_PATH_ENCODE_BASE+charIndex];
+                if (node == 0)
+                    break;
+                
+                if (affix[node] != 0)
+                    best=affix[node];
+            }
+            
+            return best;
         }
-
-        return true;
     }
 }
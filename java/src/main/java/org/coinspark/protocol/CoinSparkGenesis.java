@@ -25,6 +25,9 @@
 
 package org.coinspark.protocol;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
 import java.util.Arrays;
 
 /**
@@ -644,6 +647,66 @@ public class CoinSparkGenesis extends CoinSparkBase{
         return decode(buffer);
     }
     
+    /**
+     * Decodes the genesis in metadata.
+     * 
+     * @param metadata Metadata to decode, in place in its buffer
+     * @return true on success, false on failure
+     */
+    
+    public boolean decode(CoinSparkMetadataView metadata)
+    {
+        if(!metadata.isValid())
+            return false;
+        
+        CoinSparkBuffer buffer=new CoinSparkBuffer(metadata.data, metadata.offset, metadata.length);
+        return decode(buffer);
+    }
+    
+    /**
+     * Decodes the genesis in metadata.
+     * 
+     * @param metadata Metadata to decode between position and limit, which are not changed
+     * @return true on success, false on failure
+     */
+    
+    public boolean decode(ByteBuffer metadata)
+    {
+        CoinSparkBuffer buffer=new CoinSparkBuffer(metadata);
+        return decode(buffer);
+    }
+    
+    /**
+     * Decodes the genesis in metadata, reporting why it failed without writing to the console.
+     * 
+     * @param metadata Metadata to decode as raw data
+     * @param status Set to the result and the offset of any failure, can be null
+     * @return OK on success, otherwise the reason for failure
+     */
+    
+    public CoinSparkDecodeStatus.Reason decode(byte [] metadata, CoinSparkDecodeStatus status)
+    {
+        CoinSparkBuffer buffer=new CoinSparkBuffer(metadata);
+        return decode(buffer, status);
+    }
+    
+    /**
+     * Decodes the genesis in metadata, reporting why it failed without writing to the console.
+     * 
+     * @param metadata Metadata to decode, in place in its buffer
+     * @param status Set to the result and the offset of any failure, can be null
+     * @return OK on success, otherwise the reason for failure
+     */
+    
+    public CoinSparkDecodeStatus.Reason decode(CoinSparkMetadataView metadata, CoinSparkDecodeStatus status)
+    {
+        if(!metadata.isValid())
+            return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.NOT_FOUND, 0);
+        
+        CoinSparkBuffer buffer=new CoinSparkBuffer(metadata.data, metadata.offset, metadata.length);
+        return decode(buffer, status);
+    }
+    
     
     /**
      * Returns the minimum transaction fee (in bitcoin satoshis) required to make the genesis transaction valid.
@@ -673,13 +736,33 @@ public class CoinSparkGenesis extends CoinSparkBase{
     
     public long [] apply(boolean[] outputsRegular)
     {
-        int countOutputs=outputsRegular.length;
+        long [] outputBalances=new long [outputsRegular.length];
+        
+        apply(outputsRegular.length, outputsRegular, outputBalances);
+        
+        return outputBalances;
+    }
+
+    /**
+     * As apply(boolean[]), but writes into outputBalances so that it does not allocate.
+     * The arrays may be longer than countOutputs, extra entries are ignored.
+     * ** This is only relevant if the transaction DOES HAVE a sufficient fee to make the genesis valid **
+     * 
+     * @param countOutputs number of outputs in transaction
+     * @param outputsRegular array of bools in outputsRegular for whether each output script is regular (at least countOutputs entries)
+     * @param outputBalances array of at least countOutputs entries to receive the output balances
+     * @return true on success, false if an array is too small
+    */
+    
+    public boolean apply(int countOutputs, boolean[] outputsRegular, long [] outputBalances)
+    {
+        if( (countOutputs < 0) || (outputsRegular.length < countOutputs) || (outputBalances.length < countOutputs) )
+            return false;
         
-        long [] outputBalances=new long [countOutputs];
         long qtyPerOutput;
 
-        int lastRegularOutput = getLastRegularOutput(outputsRegular);
-        int divideOutputs = countNonLastRegularOutputs(outputsRegular);
+        int lastRegularOutput = getLastRegularOutput(countOutputs, outputsRegular);
+        int divideOutputs = countNonLastRegularOutputs(countOutputs, outputsRegular);
         long genesisQty = getQty();
 
         if (divideOutputs==0)
@@ -699,7 +782,7 @@ public class CoinSparkGenesis extends CoinSparkBase{
                 outputBalances[outputIndex] = 0;
         }
         
-        return outputBalances;
+        return true;
     }
 
     /**
@@ -752,45 +835,99 @@ public class CoinSparkGenesis extends CoinSparkBase{
     public static byte [] calcAssetHash(String name, String issuer, String description, String units, String issueDate, String expiryDate,
                            Double interestRate, Double multiple, byte [] contractContent)
     {
-        int bufferSize=1024;
-        bufferSize += (name != null) ? name.getBytes().length : 0;
-        bufferSize += (issuer != null) ? issuer.getBytes().length : 0;
-        bufferSize += (description != null) ? description.getBytes().length : 0;
-        bufferSize += (units != null) ? units.getBytes().length : 0;
-        bufferSize += (issueDate != null) ? issueDate.getBytes().length : 0;
-        bufferSize += (expiryDate != null) ? expiryDate.getBytes().length : 0;
-        bufferSize += (contractContent != null) ? contractContent.length : 0;
-        
-        byte[] buffer = new byte[bufferSize ];
-        int offset = 0;
+        CoinSparkHasher hasher=startAssetHash(name, issuer, description, units, issueDate, expiryDate, interestRate, multiple);
+        if(hasher == null)
+        {
+            return null;
+        }
         
-        offset+=addToHashBuffer(name, buffer, offset);
-        offset+=addToHashBuffer(issuer, buffer, offset);
-        offset+=addToHashBuffer(description, buffer, offset);
-        offset+=addToHashBuffer(units, buffer, offset);
-        offset+=addToHashBuffer(issueDate, buffer, offset);
-        offset+=addToHashBuffer(expiryDate, buffer, offset);
-
+        if(contractContent != null)
+        {
+            hasher.update(contractContent);
+            hasher.update((byte)0x00);
+        }
+        else
+        {
+            addToHash(null, hasher);
+        }
 
-        long interestRateToHash = Math.round(Math.floor(((interestRate != null)  ? interestRate : 0)*1000000.0+0.5));
-        long multipleToHash = Math.round(Math.floor(((multiple != null) ? multiple : 1)*1000000.0+0.5));
+        return hasher.digest();
+    }
+    
+    /**
+     * Calculates the assetHash as calcAssetHash, with the contract read from a file. The file is memory 
+     * mapped a region at a time, so heap use does not depend on the size of the contract.
+     *
+     * @param name asset name
+     * @param issuer issuer name
+     * @param description asset description
+     * @param units asset units
+     * @param issueDate issue data
+     * @param expiryDate expiry date, if not specified pass null or zero-length String
+     * @param interestRate interest rate
+     * @param multiple asset multiple
+     * @param contractFile file holding the contract, null if there is no contract
+     * 
+     * @return asset hash or null on failure, including if the contract could not be read
+    */
+    
+    public static byte [] calcAssetHashFromFile(String name, String issuer, String description, String units, String issueDate, String expiryDate,
+                           Double interestRate, Double multiple, Path contractFile)
+    {
+        CoinSparkHasher hasher=startAssetHash(name, issuer, description, units, issueDate, expiryDate, interestRate, multiple);
+        if(hasher == null)
+        {
+            return null;
+        }
         
-        String temp = String.format("%d", interestRateToHash);
-        offset+=addToHashBuffer(temp, buffer, offset);
-        temp = String.format("%d", multipleToHash);
-        offset+=addToHashBuffer(temp, buffer, offset);
+        if(contractFile != null)
+        {
+            if(!hasher.updateFrom(contractFile))
+            {
+                return null;
+            }
+        }
+        hasher.update((byte)0x00);
 
-        if(contractContent != null)
+        return hasher.digest();
+    }
+    
+    /**
+     * Calculates the assetHash as calcAssetHash, with the contract read from a channel in fixed-size
+     * chunks, so heap use does not depend on the size of the contract. The channel is not closed.
+     *
+     * @param name asset name
+     * @param issuer issuer name
+     * @param description asset description
+     * @param units asset units
+     * @param issueDate issue data
+     * @param expiryDate expiry date, if not specified pass null or zero-length String
+     * @param interestRate interest rate
+     * @param multiple asset multiple
+     * @param contractChannel channel holding the contract, read to its end, null if there is no contract
+     * 
+     * @return asset hash or null on failure, including if the contract could not be read
+    */
+    
+    public static byte [] calcAssetHashFromChannel(String name, String issuer, String description, String units, String issueDate, String expiryDate,
+                           Double interestRate, Double multiple, ReadableByteChannel contractChannel)
+    {
+        CoinSparkHasher hasher=startAssetHash(name, issuer, description, units, issueDate, expiryDate, interestRate, multiple);
+        if(hasher == null)
         {
-            System.arraycopy(contractContent, 0, buffer, offset, contractContent.length);
-            offset += contractContent.length+1;buffer[offset-1]=0x00;
+            return null;
         }
-        else
+        
+        if(contractChannel != null)
         {
-            offset+=addToHashBuffer(null, buffer, offset);
+            if(!hasher.updateFrom(contractChannel))
+            {
+                return null;
+            }
         }
+        hasher.update((byte)0x00);
 
-        return coinSparkCalcSHA256Hash(buffer, offset);
+        return hasher.digest();
     }
     
     /**
@@ -869,8 +1006,7 @@ public class CoinSparkGenesis extends CoinSparkBase{
             if (!isValid())
                 throw new CoinSparkExceptions.CannotEncode("invalid genesis");
 
-            buffer.writeString(COINSPARK_METADATA_IDENTIFIER);
-            buffer.writeByte(COINSPARK_GENESIS_PREFIX);
+            buffer.writePrefix(COINSPARK_GENESIS_PREFIX);
             
             //  Quantity mantissa and exponent
             
@@ -909,9 +1045,8 @@ public class CoinSparkGenesis extends CoinSparkBase{
             if(buffer.length()>metadataMaxLen)
                 throw new CoinSparkExceptions.CannotEncode("total length above limit");
         }
-        catch (Exception ex)
+        catch (CoinSparkExceptions.CannotEncode ex)
         {
-            System.out.print(ex.getMessage());
             return false;
         }
         
@@ -920,119 +1055,124 @@ public class CoinSparkGenesis extends CoinSparkBase{
 
     
     private boolean decode(CoinSparkBuffer buffer)
+    {
+        return decode(buffer, null) == CoinSparkDecodeStatus.Reason.OK;
+    }
+    
+    private CoinSparkDecodeStatus.Reason decode(CoinSparkBuffer buffer, CoinSparkDecodeStatus status)
     {
         int quantityEncoded, chargeEncoded;
         if(!buffer.locateRange(COINSPARK_GENESIS_PREFIX))
-            return false;
+            return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.NOT_FOUND, 0);
 
-        try
-        {            
-            //  Quantity mantissa and exponent
-            
-            if(buffer.canRead(COINSPARK_GENESIS_QTY_FLAGS_LENGTH))
-            {
-                quantityEncoded = buffer.readInt(COINSPARK_GENESIS_QTY_FLAGS_LENGTH);
+        //  Quantity mantissa and exponent
+        
+        if(buffer.canRead(COINSPARK_GENESIS_QTY_FLAGS_LENGTH))
+        {
+            quantityEncoded = buffer.readInt(COINSPARK_GENESIS_QTY_FLAGS_LENGTH);
 
-                qtyMantissa = (short)((quantityEncoded&COINSPARK_GENESIS_QTY_MASK) % COINSPARK_GENESIS_QTY_EXPONENT_MULTIPLE);
-                qtyExponent = (short)((quantityEncoded&COINSPARK_GENESIS_QTY_MASK) / COINSPARK_GENESIS_QTY_EXPONENT_MULTIPLE);
+            qtyMantissa = (short)((quantityEncoded&COINSPARK_GENESIS_QTY_MASK) % COINSPARK_GENESIS_QTY_EXPONENT_MULTIPLE);
+            qtyExponent = (short)((quantityEncoded&COINSPARK_GENESIS_QTY_MASK) / COINSPARK_GENESIS_QTY_EXPONENT_MULTIPLE);
 
-                if ((qtyMantissa < COINSPARK_GENESIS_QTY_MANTISSA_MIN) ||
-                        (qtyMantissa > COINSPARK_GENESIS_QTY_MANTISSA_MAX) )
-                    throw new CoinSparkExceptions.CannotDecode("mantissa out of range");
+            if ((qtyMantissa < COINSPARK_GENESIS_QTY_MANTISSA_MIN) ||
+                    (qtyMantissa > COINSPARK_GENESIS_QTY_MANTISSA_MAX) )
+                return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.OUT_OF_RANGE, buffer.readOffset()-COINSPARK_GENESIS_QTY_FLAGS_LENGTH);
 
-                if ((qtyExponent < COINSPARK_GENESIS_QTY_EXPONENT_MIN) ||
-                        (qtyExponent > COINSPARK_GENESIS_QTY_EXPONENT_MAX) )
-                    throw new CoinSparkExceptions.CannotDecode("exponent out of range");
-            }
-            else
-                throw new CoinSparkExceptions.CannotDecode("cannot read genesis flags");
+            if ((qtyExponent < COINSPARK_GENESIS_QTY_EXPONENT_MIN) ||
+                    (qtyExponent > COINSPARK_GENESIS_QTY_EXPONENT_MAX) )
+                return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.OUT_OF_RANGE, buffer.readOffset()-COINSPARK_GENESIS_QTY_FLAGS_LENGTH);
+        }
+        else
+            return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.TRUNCATED, buffer.readOffset());
 
-            //  Charges - flat and basis points
-            
-            if ((quantityEncoded & COINSPARK_GENESIS_FLAG_CHARGE_FLAT) !=0)
+        //  Charges - flat and basis points
+        
+        if ((quantityEncoded & COINSPARK_GENESIS_FLAG_CHARGE_FLAT) !=0)
+        {
+            if(buffer.canRead(COINSPARK_GENESIS_CHARGE_FLAT_LENGTH))
             {
-                if(buffer.canRead(COINSPARK_GENESIS_CHARGE_FLAT_LENGTH))
-                {
-                    chargeEncoded = buffer.readInt(COINSPARK_GENESIS_CHARGE_FLAT_LENGTH);
+                chargeEncoded = buffer.readInt(COINSPARK_GENESIS_CHARGE_FLAT_LENGTH);
 
-                    this.chargeFlatMantissa = (short)(chargeEncoded % COINSPARK_GENESIS_CHARGE_FLAT_EXPONENT_MULTIPLE);
-                    this.chargeFlatExponent = (short)(chargeEncoded / COINSPARK_GENESIS_CHARGE_FLAT_EXPONENT_MULTIPLE);
+                this.chargeFlatMantissa = (short)(chargeEncoded % COINSPARK_GENESIS_CHARGE_FLAT_EXPONENT_MULTIPLE);
+                this.chargeFlatExponent = (short)(chargeEncoded / COINSPARK_GENESIS_CHARGE_FLAT_EXPONENT_MULTIPLE);
 
-                    if ( (this.chargeFlatExponent<COINSPARK_GENESIS_CHARGE_FLAT_EXPONENT_MIN) ||
-                            (this.chargeFlatExponent>COINSPARK_GENESIS_CHARGE_FLAT_EXPONENT_MAX) )
-                        throw new CoinSparkExceptions.CannotDecode("flat exponent out of range");
+                if ( (this.chargeFlatExponent<COINSPARK_GENESIS_CHARGE_FLAT_EXPONENT_MIN) ||
+                        (this.chargeFlatExponent>COINSPARK_GENESIS_CHARGE_FLAT_EXPONENT_MAX) )
+                    return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.OUT_OF_RANGE, buffer.readOffset()-COINSPARK_GENESIS_CHARGE_FLAT_LENGTH);
 
-                    if (this.chargeFlatMantissa<COINSPARK_GENESIS_CHARGE_FLAT_MANTISSA_MIN)
-                        throw new CoinSparkExceptions.CannotDecode("flat mantissa out of range");
+                if (this.chargeFlatMantissa<COINSPARK_GENESIS_CHARGE_FLAT_MANTISSA_MIN)
+                    return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.OUT_OF_RANGE, buffer.readOffset()-COINSPARK_GENESIS_CHARGE_FLAT_LENGTH);
 
-                    if (this.chargeFlatMantissa > (
-                            (this.chargeFlatExponent==COINSPARK_GENESIS_CHARGE_FLAT_EXPONENT_MAX) ?
-                                    COINSPARK_GENESIS_CHARGE_FLAT_MANTISSA_MAX_IF_EXP_MAX : COINSPARK_GENESIS_CHARGE_FLAT_MANTISSA_MAX))
-                        throw new CoinSparkExceptions.CannotDecode("flat mantissa out of range");
-
-                }
-                else
-                    throw new CoinSparkExceptions.CannotDecode("cannot read charge flat");
+                if (this.chargeFlatMantissa > (
+                        (this.chargeFlatExponent==COINSPARK_GENESIS_CHARGE_FLAT_EXPONENT_MAX) ?
+                                COINSPARK_GENESIS_CHARGE_FLAT_MANTISSA_MAX_IF_EXP_MAX : COINSPARK_GENESIS_CHARGE_FLAT_MANTISSA_MAX))
+                    return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.OUT_OF_RANGE, buffer.readOffset()-COINSPARK_GENESIS_CHARGE_FLAT_LENGTH);
 
             }
             else
-            {
-                this.chargeFlatMantissa=0;
-                this.chargeFlatExponent=0;
-            }
+                return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.TRUNCATED, buffer.readOffset());
 
-            if ((quantityEncoded & COINSPARK_GENESIS_FLAG_CHARGE_BPS) != 0)
+        }
+        else
+        {
+            this.chargeFlatMantissa=0;
+            this.chargeFlatExponent=0;
+        }
+
+        if ((quantityEncoded & COINSPARK_GENESIS_FLAG_CHARGE_BPS) != 0)
+        {
+            if(buffer.canRead(COINSPARK_GENESIS_CHARGE_BPS_LENGTH))
             {
-                if(buffer.canRead(COINSPARK_GENESIS_CHARGE_BPS_LENGTH))
-                {
-                    this.chargeBasisPoints = buffer.readInt(COINSPARK_GENESIS_CHARGE_BPS_LENGTH).shortValue();
+                this.chargeBasisPoints = (short)buffer.readInt(COINSPARK_GENESIS_CHARGE_BPS_LENGTH);
 
-                    if ( (this.chargeBasisPoints<COINSPARK_GENESIS_CHARGE_BASIS_POINTS_MIN) ||
-                            (this.chargeBasisPoints>COINSPARK_GENESIS_CHARGE_BASIS_POINTS_MAX) )
-                        throw new CoinSparkExceptions.CannotDecode("basic points out of range");
+                if ( (this.chargeBasisPoints<COINSPARK_GENESIS_CHARGE_BASIS_POINTS_MIN) ||
+                        (this.chargeBasisPoints>COINSPARK_GENESIS_CHARGE_BASIS_POINTS_MAX) )
+                    return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.OUT_OF_RANGE, buffer.readOffset()-COINSPARK_GENESIS_CHARGE_BPS_LENGTH);
 
-                }
-                else
-                    throw new CoinSparkExceptions.CannotDecode("cannot read basic points");
+            }
+            else
+                return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.TRUNCATED, buffer.readOffset());
 
-            } else
-                this.chargeBasisPoints=0;
+        } else
+            this.chargeBasisPoints=0;
 
-            //  Domain name
-            
-            CoinSparkDomainPath assetWebPage=new CoinSparkDomainPath(domainName, pagePath, useHttps, usePrefix);
-            if (!assetWebPage.decode(buffer,false))
-                throw new CoinSparkExceptions.CannotDecode("cannot decode domain name");
+        //  Domain name
+        
+        CoinSparkDomainPath assetWebPage=new CoinSparkDomainPath(domainName, pagePath, useHttps, usePrefix);
+        CoinSparkDecodeStatus.Reason webPageReason=assetWebPage.decode(buffer,false,status);
+        if (webPageReason != CoinSparkDecodeStatus.Reason.OK)
+            return webPageReason;
+
+        domainName=assetWebPage.domainName;
+        pagePath=assetWebPage.path;
+        useHttps=assetWebPage.useHttps;
+        usePrefix=assetWebPage.usePrefix;
+        
+        //  Hash of key information
+        
+        assetHashLen = buffer.availableForRead();//TBD loss
+        assetHashLen = Math.min(assetHashLen, COINSPARK_GENESIS_HASH_MAX_LEN); // apply maximum
 
-            domainName=assetWebPage.domainName;
-            pagePath=assetWebPage.path;
-            useHttps=assetWebPage.useHttps;
-            usePrefix=assetWebPage.usePrefix;
-            
-            //  Hash of key information
-            
-            assetHashLen = buffer.availableForRead();//TBD loss
-            assetHashLen = Math.min(assetHashLen, COINSPARK_GENESIS_HASH_MAX_LEN); // apply maximum
+        if (assetHashLen < COINSPARK_GENESIS_HASH_MIN_LEN)
+            // not enough hash data
+            return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.TRUNCATED, buffer.readOffset());
 
-            if (assetHashLen < COINSPARK_GENESIS_HASH_MIN_LEN)
-                // not enough hash data
-                throw new CoinSparkExceptions.CannotDecode("has data out of range");
+        assetHash=buffer.readBytes(assetHashLen);
 
-            assetHash=buffer.readBytes(assetHashLen);
-        }
-        catch (Exception ex)
-        {
-            System.out.print(ex.getMessage());
-            return false;
-        }
+        if(!isValid())
+            return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.INVALID, buffer.readOffset());
         
-        return isValid();
+        return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.OK, 0);
     }
 
     private static int countNonLastRegularOutputs(boolean[] outputsRegular)
+    {        
+        return countNonLastRegularOutputs(outputsRegular.length, outputsRegular);
+    }
+    
+    private static int countNonLastRegularOutputs(int countOutputs, boolean[] outputsRegular)
     {        
         int countRegularOutputs, outputIndex;
-        int countOutputs=outputsRegular.length;
         countRegularOutputs=0;
 
         for (outputIndex=0; outputIndex<countOutputs; outputIndex++) {
@@ -1043,6 +1183,34 @@ public class CoinSparkGenesis extends CoinSparkBase{
         return countRegularOutputs > 1 ? countRegularOutputs-1 :  0;
     }
     
+    private static CoinSparkHasher startAssetHash(String name, String issuer, String description, String units, String issueDate, String expiryDate,
+                           Double interestRate, Double multiple)
+    {
+        CoinSparkHasher hasher=CoinSparkHasher.get();
+        if(hasher == null)
+        {
+            return null;
+        }
+        
+        addToHash(name, hasher);
+        addToHash(issuer, hasher);
+        addToHash(description, hasher);
+        addToHash(units, hasher);
+        addToHash(issueDate, hasher);
+        addToHash(expiryDate, hasher);
+
+
+        long interestRateToHash = Math.round(Math.floor(((interestRate != null)  ? interestRate : 0)*1000000.0+0.5));
+        long multipleToHash = Math.round(Math.floor(((multiple != null) ? multiple : 1)*1000000.0+0.5));
+        
+        String temp = String.format("%d", interestRateToHash);
+        addToHash(temp, hasher);
+        temp = String.format("%d", multipleToHash);
+        addToHash(temp, hasher);
+
+        return hasher;
+    }
+    
     private static String trimForHash(String Source)
     {
         if(Source == null)
@@ -1092,20 +1260,14 @@ public class CoinSparkGenesis extends CoinSparkBase{
         return Source.substring(from,to);
     }
     
-    private static int addToHashBuffer(String string, byte[] buffer, int offset)
+    private static void addToHash(String string, CoinSparkHasher hasher)
     {
         String trimmed=trimForHash(string);
         if (trimmed != null && trimmed.length() !=0)
         {
-            System.arraycopy(trimmed.getBytes(), 0, buffer, offset, trimmed.length());
-            buffer[offset+trimmed.length()] = 0x00;
-            return trimmed.length()+1;
-        }
-        else
-        {
-            buffer[offset]=0x00;
-            return 1;
+            hasher.update(trimmed.getBytes(), 0, trimmed.length());
         }
+        hasher.update((byte)0x00);
     }
     
 }
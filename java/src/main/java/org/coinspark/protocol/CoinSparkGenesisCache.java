@@ -0,0 +1,591 @@
+/*
+ * CoinSpark 2.1 - Java library
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * CoinSparkGenesisCache class holding the geneses of recently used assets, fetched by a CoinSparkGenesisLoader
+ * when missing, shared by all threads.
+ *
+ * The cache holds at most a fixed number of geneses, split between segments which are locked separately. Each
+ * segment evicts by segmented LRU: a new genesis enters a probation list and moves to a protected list when it
+ * is used again, so assets seen only once cannot push out those used repeatedly. If several threads ask for the
+ * same missing asset at once, the loader is called only once and the others wait for its result. A genesis which
+ * is put, removed or cleared while it is being loaded is not replaced by the loaded one when the load finishes.
+ *
+ * A CoinSparkGenesisCache is itself a CoinSparkGenesisLoader, so it can be passed to a CoinSparkLedger.
+ */
+
+public class CoinSparkGenesisCache implements CoinSparkGenesisLoader {
+
+    /**
+     * CoinSparkGenesisCache class holding the geneses of recently used assets.
+     *
+     * @param Loader loader called for assets which are not in the cache
+     * @param Capacity maximum number of geneses held
+     */
+
+    public CoinSparkGenesisCache(CoinSparkGenesisLoader Loader, int Capacity)
+    {
+        loader=Loader;
+        capacity=Math.max(1, Capacity);
+
+        int countSegments=1;
+        while ((countSegments < SEGMENTS_MAX) && (2*countSegments*SEGMENT_CAPACITY_MIN <= capacity))
+            countSegments*=2;
+
+        segments=new Segment[countSegments];
+        for (int index=0; index<countSegments; index++)
+            segments[index]=new Segment(capacity/countSegments + ((index < capacity%countSegments) ? 1 : 0));
+    }
+
+    /**
+     * Returns the maximum number of geneses held.
+     *
+     * @return capacity
+     */
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Returns the genesis of an asset, calling the loader if it is not in the cache.
+     * If the loader throws an exception, it is thrown to this caller and other threads waiting for the same asset receive null.
+     *
+     * @param assetRef asset reference
+     * @return CoinSparkGenesis | null genesis, null if the loader does not know the asset or assetRef is out of range.
+     *         It is shared between threads and must not be modified.
+     */
+
+    public CoinSparkGenesis get(CoinSparkAssetRef assetRef)
+    {
+        long key=CoinSparkAssetRegistry.packKey(assetRef);
+        if (key == CoinSparkAssetRegistry.COINSPARK_ASSET_REGISTRY_KEY_INVALID)
+            return null;
+
+        int txIDPrefix=CoinSparkAssetIndex.prefixToInteger(assetRef.getTxIDPrefix());
+        int hash=hash(key, txIDPrefix);
+        Segment segment=segmentFor(hash);
+
+        Load load;
+        boolean loading=false;
+
+        synchronized (segment)
+        {
+            CoinSparkGenesis assetGenesis=segment.find(key, txIDPrefix, hash);
+            if (assetGenesis != null)
+            {
+                segment.hits++;
+                return assetGenesis;
+            }
+
+            segment.misses++;
+            load=segment.findLoad(key, txIDPrefix);
+            if (load == null)
+            {
+                load=new Load(key, txIDPrefix);
+                segment.loads.add(load);
+                segment.loaderCalls++;
+                loading=true;
+            }
+        }
+
+        if (!loading)
+            return load.await();
+
+        CoinSparkGenesis assetGenesis=null;
+        try {
+            assetGenesis=loader.loadGenesis(assetRef);
+        } finally {
+            synchronized (segment)
+            {
+                segment.loads.remove(load);
+                if ((assetGenesis != null) && !load.invalidated)
+                    segment.insert(key, txIDPrefix, hash, assetGenesis);
+            }
+
+            load.complete(assetGenesis);
+        }
+
+        return assetGenesis;
+    }
+
+    /**
+     * Returns the genesis of an asset, as get().
+     *
+     * @param assetRef asset reference
+     * @return CoinSparkGenesis | null genesis, null if the asset is not known
+     */
+
+    @Override
+    public CoinSparkGenesis loadGenesis(CoinSparkAssetRef assetRef)
+    {
+        return get(assetRef);
+    }
+
+    /**
+     * Adds the genesis of an asset without calling the loader, replacing any genesis it already had or is being loaded.
+     *
+     * @param assetRef asset reference
+     * @param assetGenesis genesis of the asset, which is shared between threads and must not be modified afterwards
+     * @return true if the genesis was added, false if assetRef is out of range or assetGenesis is null
+     */
+
+    public boolean put(CoinSparkAssetRef assetRef, CoinSparkGenesis assetGenesis)
+    {
+        long key=CoinSparkAssetRegistry.packKey(assetRef);
+        if ((key == CoinSparkAssetRegistry.COINSPARK_ASSET_REGISTRY_KEY_INVALID) || (assetGenesis == null))
+            return false;
+
+        int txIDPrefix=CoinSparkAssetIndex.prefixToInteger(assetRef.getTxIDPrefix());
+        int hash=hash(key, txIDPrefix);
+        Segment segment=segmentFor(hash);
+
+        synchronized (segment)
+        {
+            segment.invalidateLoad(key, txIDPrefix);
+            segment.insert(key, txIDPrefix, hash, assetGenesis);
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes the genesis of an asset from the cache, so that the next get() calls the loader. If the asset
+     * is being loaded, the loaded genesis is not added to the cache.
+     *
+     * @param assetRef asset reference
+     * @return true if the asset was in the cache
+     */
+
+    public boolean remove(CoinSparkAssetRef assetRef)
+    {
+        long key=CoinSparkAssetRegistry.packKey(assetRef);
+        if (key == CoinSparkAssetRegistry.COINSPARK_ASSET_REGISTRY_KEY_INVALID)
+            return false;
+
+        int txIDPrefix=CoinSparkAssetIndex.prefixToInteger(assetRef.getTxIDPrefix());
+        int hash=hash(key, txIDPrefix);
+        Segment segment=segmentFor(hash);
+
+        synchronized (segment)
+        {
+            segment.invalidateLoad(key, txIDPrefix);
+            int node=segment.findNode(key, txIDPrefix, hash);
+            if (node < 0)
+                return false;
+
+            segment.release(node, hash);
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes all geneses from the cache, including those being loaded. Statistics are not cleared.
+     */
+
+    public void clear()
+    {
+        for (Segment segment : segments)
+            synchronized (segment)
+            {
+                segment.clear();
+            }
+    }
+
+    /**
+     * Returns number of geneses in the cache.
+     *
+     * @return number of geneses
+     */
+
+    public int size()
+    {
+        int count=0;
+        for (Segment segment : segments)
+            synchronized (segment)
+            {
+                count+=segment.countNodes;
+            }
+
+        return count;
+    }
+
+    /**
+     * Returns number of calls to get() which found the genesis in the cache.
+     *
+     * @return number of hits
+     */
+
+    public long getHits()
+    {
+        long count=0;
+        for (Segment segment : segments)
+            synchronized (segment)
+            {
+                count+=segment.hits;
+            }
+
+        return count;
+    }
+
+    /**
+     * Returns number of calls to get() which did not find the genesis in the cache, including those which waited
+     * for another thread to load it.
+     *
+     * @return number of misses
+     */
+
+    public long getMisses()
+    {
+        long count=0;
+        for (Segment segment : segments)
+            synchronized (segment)
+            {
+                count+=segment.misses;
+            }
+
+        return count;
+    }
+
+    /**
+     * Returns number of calls to the loader.
+     *
+     * @return number of loads
+     */
+
+    public long getLoads()
+    {
+        long count=0;
+        for (Segment segment : segments)
+            synchronized (segment)
+            {
+                count+=segment.loaderCalls;
+            }
+
+        return count;
+    }
+
+    /**
+     * Returns number of geneses removed from the cache to make space for others.
+     *
+     * @return number of evictions
+     */
+
+    public long getEvictions()
+    {
+        long count=0;
+        for (Segment segment : segments)
+            synchronized (segment)
+            {
+                count+=segment.evictions;
+            }
+
+        return count;
+    }
+
+    /**
+     * Resets the statistics to zero.
+     */
+
+    public void clearCounters()
+    {
+        for (Segment segment : segments)
+            synchronized (segment)
+            {
+                segment.hits=0;
+                segment.misses=0;
+                segment.loaderCalls=0;
+                segment.evictions=0;
+            }
+    }
+
+
+// Private variables/constants/functions
+
+    private static final int SEGMENTS_MAX = 16;                                 // must be a power of 2
+    private static final int SEGMENT_CAPACITY_MIN = 64;
+    private static final int PROTECTED_PERCENT = 80;
+
+    private static final int LIST_PROBATION = 0;
+    private static final int LIST_PROTECTED = 1;
+
+    private final CoinSparkGenesisLoader loader;
+    private final int capacity;
+    private final Segment [] segments;
+
+    private static int hash(long key, int txIDPrefix)
+    {
+        return CoinSparkOpenAddressing.assetKeyHash(key, txIDPrefix);
+    }
+
+    private Segment segmentFor(int hash)
+    {
+        return segments[(hash >>> 24) & (segments.length-1)];                    // slots within a segment use the low bits
+    }
+
+    /**
+     * Genesis being fetched by one thread, which others asking for the same asset wait for.
+     */
+
+    private static final class Load
+    {
+        private final long key;
+        private final int txIDPrefix;
+        private boolean invalidated;                                            // guarded by the segment, set by put, remove or clear
+        private CoinSparkGenesis genesis;
+        private boolean done;
+
+        private Load(long Key, int TxIDPrefix)
+        {
+            key=Key;
+            txIDPrefix=TxIDPrefix;
+        }
+
+        private synchronized void complete(CoinSparkGenesis Genesis)
+        {
+            genesis=Genesis;
+            done=true;
+            notifyAll();
+        }
+
+        private synchronized CoinSparkGenesis await()
+        {
+            boolean interrupted=false;
+            while (!done)
+            {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    interrupted=true;                                           // keep waiting, the loading thread will finish
+                }
+            }
+
+            if (interrupted)
+                Thread.currentThread().interrupt();
+
+            return genesis;
+        }
+    }
+
+    /**
+     * Part of the cache with its own lock. Entries are nodes numbered from 0 in parallel arrays, found by open
+     * addressing and linked into the probation or protected list, most recently used first.
+     */
+
+    private static final class Segment implements CoinSparkOpenAddressing.Entries
+    {
+        private final int capacity;
+        private final int protectedCapacity;
+        private final long [] keys;
+        private final char [] txIDPrefixes;
+        private final CoinSparkGenesis [] geneses;
+        private final int [] prevs;
+        private final int [] nexts;                                             // also links the free nodes
+        private final byte [] lists;
+        private final int [] slots;                                             // node numbers, -1 for empty, at most half full
+        private final int [] heads=new int[2];
+        private final int [] tails=new int[2];
+        private final ArrayList<Load> loads=new ArrayList<Load>();
+
+        private int countNodes;
+        private int countProtected;
+        private int freeHead;
+
+        private long hits;
+        private long misses;
+        private long loaderCalls;
+        private long evictions;
+
+        private Segment(int Capacity)
+        {
+            capacity=Capacity;
+            protectedCapacity=(int)((long)capacity*PROTECTED_PERCENT/100);
+            keys=new long[capacity];
+            txIDPrefixes=new char[capacity];
+            geneses=new CoinSparkGenesis[capacity];
+            prevs=new int[capacity];
+            nexts=new int[capacity];
+            lists=new byte[capacity];
+
+            slots=new int[CoinSparkOpenAddressing.tableSize(capacity)];
+
+            clear();
+        }
+
+        private void clear()
+        {
+            for (Load load : loads)
+                load.invalidated=true;
+
+            Arrays.fill(geneses, null);
+            Arrays.fill(slots, -1);
+            for (int node=0; node<capacity; node++)
+                nexts[node]=node+1;
+            nexts[capacity-1]=-1;
+
+            freeHead=0;
+            countNodes=0;
+            countProtected=0;
+            Arrays.fill(heads, -1);
+            Arrays.fill(tails, -1);
+        }
+
+        private int findNode(long key, int txIDPrefix, int hash)
+        {
+            int mask=slots.length-1;
+            for (int slot=hash & mask; slots[slot] >= 0; slot=(slot+1) & mask)
+            {
+                int node=slots[slot];
+                if ((keys[node] == key) && (txIDPrefixes[node] == txIDPrefix))
+                    return node;
+            }
+
+            return -1;
+        }
+
+        private CoinSparkGenesis find(long key, int txIDPrefix, int hash)
+        {
+            int node=findNode(key, txIDPrefix, hash);
+            if (node < 0)
+                return null;
+
+            touch(node);
+            return geneses[node];
+        }
+
+        private Load findLoad(long key, int txIDPrefix)
+        {
+            for (Load load : loads)
+                if ((load.key == key) && (load.txIDPrefix == txIDPrefix))
+                    return load;
+
+            return null;
+        }
+
+        private void invalidateLoad(long key, int txIDPrefix)
+        {
+            Load load=findLoad(key, txIDPrefix);
+            if (load != null)
+                load.invalidated=true;
+        }
+
+        private void insert(long key, int txIDPrefix, int hash, CoinSparkGenesis assetGenesis)
+        {
+            int node=findNode(key, txIDPrefix, hash);
+            if (node >= 0)
+            {
+                geneses[node]=assetGenesis;
+                touch(node);
+                return;
+            }
+
+            if (countNodes == capacity)
+            {
+                int victim=(tails[LIST_PROBATION] >= 0) ? tails[LIST_PROBATION] : tails[LIST_PROTECTED];
+                release(victim, CoinSparkGenesisCache.hash(keys[victim], txIDPrefixes[victim]));
+                evictions++;
+            }
+
+            node=freeHead;
+            freeHead=nexts[node];
+            keys[node]=key;
+            txIDPrefixes[node]=(char)txIDPrefix;
+            geneses[node]=assetGenesis;
+            link(node, LIST_PROBATION);
+            countNodes++;
+
+            slots[CoinSparkOpenAddressing.emptySlot(slots, hash)]=node;
+        }
+
+        private void release(int node, int hash)
+        {
+            CoinSparkOpenAddressing.removeSlot(slots, CoinSparkOpenAddressing.findSlot(slots, hash, node), this);
+
+            unlink(node);
+            geneses[node]=null;
+            nexts[node]=freeHead;
+            freeHead=node;
+            countNodes--;
+        }
+
+        @Override
+        public int hashOf(int node)
+        {
+            return CoinSparkGenesisCache.hash(keys[node], txIDPrefixes[node]);
+        }
+
+        private void touch(int node)                                            // promote on use, demoting the least recent protected node if full
+        {
+            unlink(node);
+            link(node, LIST_PROTECTED);
+
+            if (countProtected > protectedCapacity)
+            {
+                int demoted=tails[LIST_PROTECTED];
+                unlink(demoted);
+                link(demoted, LIST_PROBATION);
+            }
+        }
+
+        private void link(int node, int list)
+        {
+            lists[node]=(byte)list;
+            prevs[node]=-1;
+            nexts[node]=heads[list];
+            if (heads[list] >= 0)
+                prevs[heads[list]]=node;
+            else
+                tails[list]=node;
+            heads[list]=node;
+
+            if (list == LIST_PROTECTED)
+                countProtected++;
+        }
+
+        private void unlink(int node)
+        {
+            int list=lists[node];
+            if (prevs[node] >= 0)
+                nexts[prevs[node]]=nexts[node];
+            else
+                heads[list]=nexts[node];
+
+            if (nexts[node] >= 0)
+                prevs[nexts[node]]=prevs[node];
+            else
+                tails[list]=prevs[node];
+
+            if (list == LIST_PROTECTED)
+                countProtected--;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * CoinSpark 2.1 - Java library
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.protocol;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CoinSparkHashVerifier class for checking the hashes of many geneses and messages at once, spread
+ * over the threads of a ForkJoinPool.
+ *
+ * Work is split into ranges of items and results are written into a caller-supplied array, so no
+ * per-item objects are created beyond those needed to calculate each hash. Counters of items and
+ * content bytes verified, and of the time spent, accumulate across calls until clearCounters().
+ * Calls may be made from several threads at once, and share the pool.
+ */
+
+public class CoinSparkHashVerifier {
+
+    /**
+     * Key information for one genesis, as passed to CoinSparkGenesis.calcAssetHash.
+     */
+
+    public static class AssetItem {
+        public CoinSparkGenesis genesis;
+        public String name;
+        public String issuer;
+        public String description;
+        public String units;
+        public String issueDate;
+        public String expiryDate;
+        public Double interestRate;
+        public Double multiple;
+        public byte [] contractContent;
+    }
+
+    /**
+     * Content for one message, as passed to CoinSparkMessage.calcMessageHash.
+     */
+
+    public static class MessageItem {
+        public CoinSparkMessage message;
+        public byte [] salt;
+        public CoinSparkMessagePart [] messageParts;
+    }
+
+    /**
+     * CoinSparkHashVerifier class using one thread per available processor.
+     */
+
+    public CoinSparkHashVerifier()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * CoinSparkHashVerifier class using a fixed number of threads.
+     *
+     * @param Parallelism number of threads to verify with
+     */
+
+    public CoinSparkHashVerifier(int Parallelism)
+    {
+        pool=new ForkJoinPool(Math.max(Parallelism, 1));
+    }
+
+    /**
+     * Checks the asset hash in each genesis against the hash of its key information.
+     *
+     * @param items assets to check, null entries or entries without a genesis fail
+     * @param results receives true for each item whose hash matches, false otherwise
+     * @return number of items whose hash matches, -1 if results is smaller than items
+     */
+
+    public int verifyAssets(AssetItem [] items, boolean [] results)
+    {
+        if (results.length < items.length)
+            return -1;
+
+        return run(new VerifyTask(items, null, results, 0, items.length, bytesHashed));
+    }
+
+    /**
+     * Checks the hash in each message against the hash of its content.
+     *
+     * @param items messages to check, null entries or entries without a message or content fail
+     * @param results receives true for each item whose hash matches, false otherwise
+     * @return number of items whose hash matches, -1 if results is smaller than items
+     */
+
+    public int verifyMessages(MessageItem [] items, boolean [] results)
+    {
+        if (results.length < items.length)
+            return -1;
+
+        return run(new VerifyTask(null, items, results, 0, items.length, bytesHashed));
+    }
+
+    /**
+     * Returns the number of items checked since the counters were last cleared.
+     *
+     * @return number of items checked
+     */
+
+    public long getItemsVerified()
+    {
+        return itemsVerified.get();
+    }
+
+    /**
+     * Returns the number of items whose hash did not match since the counters were last cleared.
+     *
+     * @return number of items which failed
+     */
+
+    public long getItemsFailed()
+    {
+        return itemsFailed.get();
+    }
+
+    /**
+     * Returns the number of contract and message content bytes hashed since the counters were last cleared.
+     *
+     * @return number of content bytes hashed
+     */
+
+    public long getBytesHashed()
+    {
+        return bytesHashed.get();
+    }
+
+    /**
+     * Returns the wall-clock time during which at least one call to verifyAssets or verifyMessages was running, since
+     * the counters were last cleared. Calls which overlap are counted once, not summed.
+     *
+     * @return elapsed time in nanoseconds
+     */
+
+    public long getNanosElapsed()
+    {
+        synchronized (timing)
+        {
+            return nanosElapsed+((activeCalls > 0) ? System.nanoTime()-activeSince : 0);
+        }
+    }
+
+    /**
+     * Returns the number of items checked per second since the counters were last cleared.
+     *
+     * @return items per second, 0 if nothing has been checked
+     */
+
+    public double getItemsPerSecond()
+    {
+        long nanos=getNanosElapsed();
+        if (nanos <= 0)
+            return 0;
+
+        return itemsVerified.get()*1000000000.0/nanos;
+    }
+
+    /**
+     * Sets all counters to zero.
+     */
+
+    public void clearCounters()
+    {
+        itemsVerified.set(0);
+        itemsFailed.set(0);
+        bytesHashed.set(0);
+
+        synchronized (timing)
+        {
+            nanosElapsed=0;
+            activeSince=System.nanoTime();                                      // time from now for calls still running
+        }
+    }
+
+    /**
+     * Stops the threads used by this verifier. It must not be used afterwards.
+     */
+
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+
+// Private variables/constants/functions
+
+    private static final int COINSPARK_VERIFY_ITEMS_PER_TASK = 16;
+
+    private final ForkJoinPool pool;
+    private final AtomicLong itemsVerified=new AtomicLong();
+    private final AtomicLong itemsFailed=new AtomicLong();
+    private final AtomicLong bytesHashed=new AtomicLong();
+    private final Object timing=new Object();                                   // guards the fields below
+    private int activeCalls;
+    private long activeSince;                                                   // when activeCalls became non-zero
+    private long nanosElapsed;                                                  // up to activeSince if activeCalls is non-zero
+
+    private int run(VerifyTask task)
+    {
+        synchronized (timing)
+        {
+            if (activeCalls++ == 0)
+                activeSince=System.nanoTime();
+        }
+
+        try {
+            pool.invoke(task);
+        } finally {
+            synchronized (timing)
+            {
+                if (--activeCalls == 0)
+                    nanosElapsed+=System.nanoTime()-activeSince;
+            }
+        }
+
+        int countMatched=0;
+        for (int index=task.from; index<task.to; index++)
+            if (task.results[index])
+                countMatched++;
+
+        itemsVerified.addAndGet(task.to-task.from);
+        itemsFailed.addAndGet(task.to-task.from-countMatched);
+
+        return countMatched;
+    }
+
+    private static boolean verifyAsset(AssetItem item, long [] bytes)
+    {
+        if ( (item == null) || (item.genesis == null) )
+            return false;
+
+        if (item.contractContent != null)
+            bytes[0]+=item.contractContent.length;
+
+        return item.genesis.validateAssetHash(CoinSparkGenesis.calcAssetHash(item.name, item.issuer, item.description, item.units,
+                item.issueDate, item.expiryDate, item.interestRate, item.multiple, item.contractContent));
+    }
+
+    private static boolean verifyMessage(MessageItem item, long [] bytes)
+    {
+        if ( (item == null) || (item.message == null) || (item.messageParts == null) )
+            return false;
+
+        for (CoinSparkMessagePart part : item.messageParts)
+        {
+            if (part == null)
+                return false;
+
+            if (part.content != null)
+                bytes[0]+=part.content.length;
+        }
+
+        return item.message.validateMessageHash(CoinSparkMessage.calcMessageHash(item.salt, item.messageParts));
+    }
+
+    private static final class VerifyTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final AssetItem [] assets;
+        private final MessageItem [] messages;
+        private final boolean [] results;
+        private final int from;
+        private final int to;
+        private final AtomicLong bytesHashed;
+
+        VerifyTask(AssetItem [] Assets, MessageItem [] Messages, boolean [] Results, int From, int To, AtomicLong BytesHashed)
+        {
+            assets=Assets;
+            messages=Messages;
+            results=Results;
+            from=From;
+            to=To;
+            bytesHashed=BytesHashed;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to-from > COINSPARK_VERIFY_ITEMS_PER_TASK)
+            {
+                int middle=(from+to) >>> 1;
+                invokeAll(new VerifyTask(assets, messages, results, from, middle, bytesHashed),
+                        new VerifyTask(assets, messages, results, middle, to, bytesHashed));
+                return;
+            }
+
+            long [] bytes=new long[1];
+            for (int index=from; index<to; index++)
+                results[index]=(assets != null) ? verifyAsset(assets[index], bytes) : verifyMessage(messages[index], bytes);
+
+            bytesHashed.addAndGet(bytes[0]);
+        }
+    }
+}
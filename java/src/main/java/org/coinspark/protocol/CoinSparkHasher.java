@@ -0,0 +1,316 @@
+/*
+ * CoinSpark 2.1 - Java library
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * CoinSparkHasher class for calculating SHA-256 hashes by feeding data in segments, without first
+ * assembling it into one array.
+ *
+ * get() returns a hasher kept per thread, so hashing many assets or messages does not create a
+ * new MessageDigest each time. A hasher must not be used by more than one thread at a time.
+ */
+
+public class CoinSparkHasher {
+
+    /**
+     * Length of SHA-256 hash in bytes
+     */
+
+    public static final int COINSPARK_HASH_LEN = 32;
+
+    /**
+     * Returns the hasher for the current thread, reset and ready for new data.
+     *
+     * The same object is returned by every call on that thread, so it must not be held while other code
+     * which may use get() runs. Use create() for a hasher which is not shared.
+     *
+     * @return CoinSparkHasher | null, null if SHA-256 is not available.
+     */
+
+    public static CoinSparkHasher get()
+    {
+        CoinSparkHasher hasher=threadHasher.get();
+        if (hasher != null)
+            hasher.reset();
+
+        return hasher;
+    }
+
+    /**
+     * Returns a new hasher which is not shared with other callers.
+     *
+     * @return CoinSparkHasher | null, null if SHA-256 is not available.
+     */
+
+    public static CoinSparkHasher create()
+    {
+        try {
+            return new CoinSparkHasher(MessageDigest.getInstance("SHA-256"));
+        } catch (NoSuchAlgorithmException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the SHA-256 hash of part of an array, using the hasher for the current thread.
+     *
+     * @param data data to hash
+     * @param offset position of the first byte to hash
+     * @param length number of bytes to hash
+     * @return byte [] | null SHA-256 hash, null if SHA-256 is not available.
+     */
+
+    public static byte [] hash(byte [] data, int offset, int length)
+    {
+        CoinSparkHasher hasher=get();
+        if (hasher == null)
+            return null;
+
+        return hasher.update(data, offset, length).digest();
+    }
+
+    /**
+     * Discards any data fed so far.
+     *
+     * @return this hasher
+     */
+
+    public CoinSparkHasher reset()
+    {
+        digest.reset();
+        return this;
+    }
+
+    /**
+     * Feeds a single byte.
+     *
+     * @param value byte to feed
+     * @return this hasher
+     */
+
+    public CoinSparkHasher update(byte value)
+    {
+        digest.update(value);
+        return this;
+    }
+
+    /**
+     * Feeds a whole array.
+     *
+     * @param data bytes to feed
+     * @return this hasher
+     */
+
+    public CoinSparkHasher update(byte [] data)
+    {
+        digest.update(data);
+        return this;
+    }
+
+    /**
+     * Feeds part of an array.
+     *
+     * @param data bytes to feed
+     * @param offset position of the first byte to feed
+     * @param length number of bytes to feed
+     * @return this hasher
+     */
+
+    public CoinSparkHasher update(byte [] data, int offset, int length)
+    {
+        digest.update(data, offset, length);
+        return this;
+    }
+
+    /**
+     * Feeds the bytes between the position and limit of a buffer, which can be direct or memory mapped.
+     * The position of the buffer is moved to its limit.
+     *
+     * @param data bytes to feed
+     * @return this hasher
+     */
+
+    public CoinSparkHasher update(ByteBuffer data)
+    {
+        digest.update(data);
+        return this;
+    }
+
+    /**
+     * Feeds everything remaining in a stream, reading it in fixed-size chunks so that memory use does
+     * not depend on its length. The stream is not closed.
+     *
+     * @param data stream to read until its end
+     * @return true on success, false if reading failed, in which case the data fed so far is incomplete
+     */
+
+    public boolean updateFrom(InputStream data)
+    {
+        byte [] chunk=getChunk();
+
+        try {
+            int bytesRead;
+            while ((bytesRead=data.read(chunk)) >= 0)
+                digest.update(chunk, 0, bytesRead);
+        } catch (IOException ex) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Feeds everything remaining in a channel, reading it in fixed-size chunks so that memory use does
+     * not depend on its length. The channel is not closed.
+     *
+     * @param data channel to read until its end
+     * @return true on success, false if reading failed, in which case the data fed so far is incomplete
+     */
+
+    public boolean updateFrom(ReadableByteChannel data)
+    {
+        ByteBuffer chunk=ByteBuffer.wrap(getChunk());
+
+        try {
+            while (data.read(chunk) >= 0)
+            {
+                digest.update(chunk.array(), 0, chunk.position());
+                chunk.clear();
+            }
+        } catch (IOException ex) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Feeds the whole content of a file by mapping it into memory a region at a time, so that it is
+     * never copied onto the heap.
+     *
+     * @param file file to hash
+     * @return true on success, false if the file could not be opened or mapped
+     */
+
+    public boolean updateFrom(Path file)
+    {
+        FileChannel channel=null;
+
+        try {
+            channel=FileChannel.open(file, StandardOpenOption.READ);
+
+            long fileSize=channel.size();
+            for (long position=0; position<fileSize; position+=COINSPARK_HASH_MAP_SIZE)
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(COINSPARK_HASH_MAP_SIZE, fileSize-position)));
+        } catch (IOException ex) {
+            return false;
+        } finally {
+            if (channel != null)
+            {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Completes the hash and resets the hasher.
+     *
+     * @return byte [] SHA-256 hash
+     */
+
+    public byte [] digest()
+    {
+        return digest.digest();
+    }
+
+    /**
+     * Completes the hash into a caller-owned array and resets the hasher.
+     *
+     * @param hash array to receive the hash, COINSPARK_HASH_LEN bytes from offset
+     * @param offset position in hash to write the first byte
+     * @return true on success, false if hash is too short
+     */
+
+    public boolean digest(byte [] hash, int offset)
+    {
+        if ( (hash == null) || (offset < 0) || (offset > hash.length-COINSPARK_HASH_LEN) )
+            return false;
+
+        try {
+            digest.digest(hash, offset, COINSPARK_HASH_LEN);
+        } catch (DigestException ex) {
+            return false;
+        }
+
+        return true;
+    }
+
+
+// Private variables/constants/functions
+
+    private static final int COINSPARK_HASH_CHUNK_SIZE = 65536;
+    private static final long COINSPARK_HASH_MAP_SIZE = 1L<<28;
+
+    private final MessageDigest digest;
+    private byte [] chunk;
+
+    private static final ThreadLocal<CoinSparkHasher> threadHasher = new ThreadLocal<CoinSparkHasher>() {
+        @Override
+        protected CoinSparkHasher initialValue()
+        {
+            return create();
+        }
+    };
+
+    private CoinSparkHasher(MessageDigest Digest)
+    {
+        digest=Digest;
+    }
+
+    private byte [] getChunk()
+    {
+        if (chunk == null)
+            chunk=new byte[COINSPARK_HASH_CHUNK_SIZE];
+
+        return chunk;
+    }
+}
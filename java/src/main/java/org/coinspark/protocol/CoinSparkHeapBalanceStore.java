@@ -0,0 +1,322 @@
+/*
+ * CoinSpark 2.1 - Java library
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.protocol;
+
+import java.util.Arrays;
+
+/**
+ * CoinSparkHeapBalanceStore class for holding asset balances of outpoints on the Java heap, in primitive arrays.
+ *
+ * Outpoints are kept in an open addressing table with linear probing, storing transaction ids in one shared
+ * byte array, and each outpoint points to a chain of (asset number, balance) entries in a pool of parallel arrays.
+ * Assets are numbered by a CoinSparkAssetIndex, so no objects are allocated per outpoint or per balance.
+ * A CoinSparkHeapBalanceStore must not be used by more than one thread at a time.
+ */
+
+public class CoinSparkHeapBalanceStore implements CoinSparkBalanceStore {
+
+    /**
+     * CoinSparkHeapBalanceStore class for holding asset balances of outpoints on the Java heap.
+     */
+
+    public CoinSparkHeapBalanceStore()
+    {
+        this(CAPACITY_DEFAULT);
+    }
+
+    /**
+     * CoinSparkHeapBalanceStore class for holding asset balances of outpoints on the Java heap.
+     *
+     * @param Capacity number of outpoints which can be stored before the tables grow
+     */
+
+    public CoinSparkHeapBalanceStore(int Capacity)
+    {
+        assets=new CoinSparkAssetIndex();
+        allocateSlots(CoinSparkOpenAddressing.tableSize(Math.max(Capacity, 1)));
+        allocateEntries(Math.max(Capacity, 1));
+    }
+
+    @Override
+    public int getBalances(byte [] txID, int vout, CoinSparkAssetRef [] assetRefs, long [] balances)
+    {
+        if (!txIDValid(txID))
+            return -2;
+
+        int slot=findSlot(txID, vout, CoinSparkOpenAddressing.outpointHash(txID, 0, vout));
+        if (slot < 0)
+            return 0;
+
+        return readEntries(slot, assetRefs, balances);
+    }
+
+    @Override
+    public int spendBalances(byte [] txID, int vout, CoinSparkAssetRef [] assetRefs, long [] balances)
+    {
+        if (!txIDValid(txID))
+            return -2;
+
+        int slot=findSlot(txID, vout, CoinSparkOpenAddressing.outpointHash(txID, 0, vout));
+        if (slot < 0)
+            return 0;
+
+        int countAssets=readEntries(slot, assetRefs, balances);
+        if (countAssets < 0)
+            return -1;
+
+        int entry=slotFirsts[slot];
+        while (entry >= 0)
+        {
+            int nextEntry=entryNexts[entry];
+            entryNexts[entry]=freeEntry;
+            freeEntry=entry;
+            countEntries--;
+            entry=nextEntry;
+        }
+
+        removeSlot(slot);
+        return countAssets;
+    }
+
+    @Override
+    public boolean addBalance(byte [] txID, int vout, CoinSparkAssetRef assetRef, long balance)
+    {
+        if (!txIDValid(txID) || (balance < 0))
+            return false;
+
+        if (balance == 0)
+            return true;
+
+        int outpointHash=CoinSparkOpenAddressing.outpointHash(txID, 0, vout);
+        int slot=findSlot(txID, vout, outpointHash);
+        int assetIndex=assets.add(assetRef);
+
+        if (slot < 0)
+        {
+            if (2*(countOutpoints+1) > slotFirsts.length)
+                resizeSlots(2*slotFirsts.length);
+
+            slot=insertSlot(txID, 0, vout, outpointHash);
+        }
+        else
+        {
+            for (int entry=slotFirsts[slot]; entry >= 0; entry=entryNexts[entry])
+                if (entryAssets[entry] == assetIndex)
+                {
+                    if (entryBalances[entry]+balance < 0)                       // overflow
+                        return false;
+
+                    entryBalances[entry]+=balance;
+                    return true;
+                }
+        }
+
+        int entry=newEntry();
+        entryAssets[entry]=assetIndex;
+        entryBalances[entry]=balance;
+        entryNexts[entry]=slotFirsts[slot];
+        slotFirsts[slot]=entry;
+
+        return true;
+    }
+
+    @Override
+    public long countOutpoints()
+    {
+        return countOutpoints;
+    }
+
+    /**
+     * Returns number of (outpoint, asset) balances in the store.
+     *
+     * @return number of balances
+     */
+
+    public long countBalances()
+    {
+        return countEntries;
+    }
+
+
+// Private variables/constants/functions
+
+    private static final int CAPACITY_DEFAULT = 1024;
+
+    private final CoinSparkAssetIndex assets;
+
+    private int countOutpoints;
+    private int [] slotFirsts;                                                  // first entry of each outpoint, -1 for empty, at most half full
+    private int [] slotHashes;
+    private int [] slotVouts;
+    private byte [] slotTxIDs;                                                  // COINSPARK_TXID_LEN bytes per slot
+
+    private int countEntries;
+    private int freeEntry;                                                      // chain of removed entries through entryNexts
+    private int usedEntries;                                                    // entries below this have been handed out
+    private int [] entryAssets;
+    private long [] entryBalances;
+    private int [] entryNexts;
+
+    private static boolean txIDValid(byte [] txID)
+    {
+        return (txID != null) && (txID.length == COINSPARK_TXID_LEN);
+    }
+
+    private void allocateSlots(int size)
+    {
+        slotFirsts=new int[size];
+        Arrays.fill(slotFirsts, -1);
+        slotHashes=new int[size];
+        slotVouts=new int[size];
+        slotTxIDs=new byte[size*COINSPARK_TXID_LEN];
+    }
+
+    private void allocateEntries(int capacity)
+    {
+        entryAssets=new int[capacity];
+        entryBalances=new long[capacity];
+        entryNexts=new int[capacity];
+        freeEntry=-1;
+        usedEntries=0;
+        countEntries=0;
+    }
+
+    private int findSlot(byte [] txID, int vout, int outpointHash)
+    {
+        int mask=slotFirsts.length-1;
+        for (int slot=outpointHash & mask; slotFirsts[slot] >= 0; slot=(slot+1) & mask)
+            if ((slotHashes[slot] == outpointHash) && (slotVouts[slot] == vout) && txIDEquals(slot, txID))
+                return slot;
+
+        return -1;
+    }
+
+    private boolean txIDEquals(int slot, byte [] txID)
+    {
+        int offset=slot*COINSPARK_TXID_LEN;
+        for (int index=0; index<COINSPARK_TXID_LEN; index++)
+            if (slotTxIDs[offset+index] != txID[index])
+                return false;
+
+        return true;
+    }
+
+    private int insertSlot(byte [] txID, int txIDOffset, int vout, int outpointHash)
+    {
+        int mask=slotFirsts.length-1;
+        int slot=outpointHash & mask;
+        while (slotFirsts[slot] >= 0)
+            slot=(slot+1) & mask;
+
+        slotHashes[slot]=outpointHash;
+        slotVouts[slot]=vout;
+        System.arraycopy(txID, txIDOffset, slotTxIDs, slot*COINSPARK_TXID_LEN, COINSPARK_TXID_LEN);
+        countOutpoints++;
+
+        return slot;
+    }
+
+    private void removeSlot(int slot)
+    {
+        int mask=slotFirsts.length-1;
+        int hole=slot;
+
+        for (int next=(hole+1) & mask; slotFirsts[next] >= 0; next=(next+1) & mask)
+        {
+            if (CoinSparkOpenAddressing.shiftsBack(next, slotHashes[next] & mask, hole, mask))
+            {
+                slotFirsts[hole]=slotFirsts[next];
+                slotHashes[hole]=slotHashes[next];
+                slotVouts[hole]=slotVouts[next];
+                System.arraycopy(slotTxIDs, next*COINSPARK_TXID_LEN, slotTxIDs, hole*COINSPARK_TXID_LEN, COINSPARK_TXID_LEN);
+                hole=next;
+            }
+        }
+
+        slotFirsts[hole]=-1;
+        countOutpoints--;
+    }
+
+    private void resizeSlots(int size)
+    {
+        int [] oldFirsts=slotFirsts;
+        int [] oldHashes=slotHashes;
+        int [] oldVouts=slotVouts;
+        byte [] oldTxIDs=slotTxIDs;
+
+        allocateSlots(size);
+        countOutpoints=0;
+
+        for (int oldSlot=0; oldSlot<oldFirsts.length; oldSlot++)
+            if (oldFirsts[oldSlot] >= 0)
+            {
+                int slot=insertSlot(oldTxIDs, oldSlot*COINSPARK_TXID_LEN, oldVouts[oldSlot], oldHashes[oldSlot]);
+                slotFirsts[slot]=oldFirsts[oldSlot];
+            }
+    }
+
+    private int newEntry()
+    {
+        int entry;
+
+        if (freeEntry >= 0)
+        {
+            entry=freeEntry;
+            freeEntry=entryNexts[entry];
+        }
+        else
+        {
+            if (usedEntries == entryAssets.length)
+            {
+                int capacity=2*entryAssets.length;
+                entryAssets=Arrays.copyOf(entryAssets, capacity);
+                entryBalances=Arrays.copyOf(entryBalances, capacity);
+                entryNexts=Arrays.copyOf(entryNexts, capacity);
+            }
+
+            entry=usedEntries++;
+        }
+
+        countEntries++;
+        return entry;
+    }
+
+    private int readEntries(int slot, CoinSparkAssetRef [] assetRefs, long [] balances)
+    {
+        int countAssets=0;
+        for (int entry=slotFirsts[slot]; entry >= 0; entry=entryNexts[entry])
+        {
+            if ((countAssets >= assetRefs.length) || (countAssets >= balances.length))
+                return -1;
+
+            assetRefs[countAssets]=assets.get(entryAssets[entry]);
+            balances[countAssets]=entryBalances[entry];
+            countAssets++;
+        }
+
+        return countAssets;
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ * CoinSpark 2.1 - Java library
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.protocol;
+
+import java.util.Arrays;
+
+/**
+ * CoinSparkLedger class for tracking the balance of every CoinSpark asset in every unspent output, by
+ * processing bitcoin transactions one after another in block order.
+ *
+ * For each transaction the ledger spends the asset balances of its inputs, takes its metadata from the first
+ * non-regular output only, as CoinSparkBase.scriptsToMetadata() does, accepts a genesis if its fee is at least CoinSparkGenesis.calcMinFee(), and moves
+ * every asset held by the inputs with CoinSparkTransferList.apply() if the fee is at least calcMinFee() for the transfers,
+ * or applyNone() if not. Output balances are kept in a CoinSparkBalanceStore, by default a CoinSparkHeapBalanceStore.
+ * With a CoinSparkMappedBalanceStore, call its commit() after the last transaction of each block. Geneses of assets
+ * created before the first transaction processed are added by addGenesis() or fetched by a CoinSparkGenesisLoader,
+ * such as a CoinSparkGenesisCache.
+ *
+ * Scratch arrays are reused between transactions, so a CoinSparkLedger must not be used by more than one thread at a time.
+ */
+
+public class CoinSparkLedger {
+
+    /**
+     * CoinSparkLedger class for tracking asset balances, stored on the Java heap.
+     */
+
+    public CoinSparkLedger()
+    {
+        this(new CoinSparkHeapBalanceStore());
+    }
+
+    /**
+     * CoinSparkLedger class for tracking asset balances.
+     *
+     * @param Store store for the balances of unspent outputs
+     */
+
+    public CoinSparkLedger(CoinSparkBalanceStore Store)
+    {
+        this(Store, null);
+    }
+
+    /**
+     * CoinSparkLedger class for tracking asset balances.
+     *
+     * @param Store store for the balances of unspent outputs
+     * @param Loader loader for the geneses of assets not created by a processed transaction or added by addGenesis(), or null
+     */
+
+    public CoinSparkLedger(CoinSparkBalanceStore Store, CoinSparkGenesisLoader Loader)
+    {
+        store=Store;
+        loader=Loader;
+        registry=new CoinSparkAssetRegistry();
+
+        genesis=new CoinSparkGenesis();
+        transferList=new CoinSparkTransferList();
+        noTransfers=new CoinSparkTransferList();
+        metadata=new CoinSparkMetadataView();
+        context=new CoinSparkApplyContext();
+
+        outputsRegular=new boolean[0];
+        outputBalances=new long[0];
+        spentAssetRefs=new CoinSparkAssetRef[ASSETS_CAPACITY_DEFAULT];
+        spentBalances=new long[ASSETS_CAPACITY_DEFAULT];
+        txAssetRefs=new CoinSparkAssetRef[ASSETS_CAPACITY_DEFAULT];
+        txInputBalances=new long[ASSETS_CAPACITY_DEFAULT][];
+        countTxAssets=0;
+
+        clearCounters();
+    }
+
+    /**
+     * Returns the store holding the balances of unspent outputs.
+     *
+     * @return balance store
+     */
+
+    public CoinSparkBalanceStore getStore()
+    {
+        return store;
+    }
+
+    /**
+     * Adds an asset whose genesis transaction came before the first transaction processed, so that its balances can be moved.
+     * Its balances must be added to the store directly.
+     *
+     * @param assetRef asset reference
+     * @param assetGenesis genesis of the asset, which must not be modified afterwards
+     * @return true if the asset was added, false if assetRef is out of range or assetGenesis is null
+     */
+
+    public boolean addGenesis(CoinSparkAssetRef assetRef, CoinSparkGenesis assetGenesis)
+    {
+        return registry.put(assetRef, assetGenesis);
+    }
+
+    /**
+     * Returns the genesis of an asset created by a processed transaction or added by addGenesis(), or else
+     * the one returned by the loader.
+     *
+     * @param assetRef asset reference
+     * @return CoinSparkGenesis | null genesis, null if the asset is not known. Must not be modified.
+     */
+
+    public CoinSparkGenesis getGenesis(CoinSparkAssetRef assetRef)
+    {
+        CoinSparkGenesis assetGenesis=registry.get(assetRef);
+        if ((assetGenesis == null) && (loader != null))
+            assetGenesis=loader.loadGenesis(assetRef);
+
+        return assetGenesis;
+    }
+
+    /**
+     * Returns number of assets created by processed transactions or added by addGenesis().
+     *
+     * @return number of assets
+     */
+
+    public int countAssets()
+    {
+        return registry.size();
+    }
+
+    /**
+     * Returns the balance of an asset in an unspent output.
+     *
+     * @param txID transaction id of the output (CoinSparkBalanceStore.COINSPARK_TXID_LEN bytes, in hexadecimal order)
+     * @param vout output index
+     * @param assetRef asset reference
+     * @return balance, 0 if the output is spent, unknown or does not hold the asset
+     */
+
+    public long getBalance(byte [] txID, int vout, CoinSparkAssetRef assetRef)
+    {
+        int countAssets=readOutpoint(txID, vout, false);
+
+        for (int index=0; index<countAssets; index++)
+            if (spentAssetRefs[index].match(assetRef))
+                return spentBalances[index];
+
+        return 0;
+    }
+
+    /**
+     * Processes a bitcoin transaction, spending the asset balances of its inputs and setting those of its outputs.
+     * Transactions must be processed in the order of the blockchain. A genesis in this transaction creates an asset whose
+     * reference is blockNum, txOffset and the first bytes of txID.
+     *
+     * @param blockNum block containing the transaction
+     * @param txOffset byte offset of the transaction within the block
+     * @param txID transaction id (CoinSparkBalanceStore.COINSPARK_TXID_LEN bytes, in hexadecimal order)
+     * @param inputTxIDs transaction id of the output spent by each input (array size countInputs)
+     * @param inputVouts output index of the output spent by each input (array size countInputs)
+     * @param outputScripts output scripts as raw binary data (array size countOutputs)
+     * @param outputsSatoshis bitcoin satoshis in each output (array size countOutputs)
+     * @param feeSatoshis transaction fee in bitcoin satoshis
+     * @return true on success, false if the parameters are invalid (including a blockNum or txOffset outside the
+     *         range of an asset reference) or the store failed. Balances of the
+     *         inputs may already have been spent if the store failed.
+     */
+
+    public boolean processTransaction(long blockNum, long txOffset, byte [] txID, byte [][] inputTxIDs, int [] inputVouts,
+                                      byte [][] outputScripts, long [] outputsSatoshis, long feeSatoshis)
+    {
+        if (!transactionValid(txID, inputTxIDs, inputVouts, outputScripts, outputsSatoshis))
+            return false;
+
+        long key=CoinSparkAssetRegistry.packKey(blockNum, txOffset);
+        if (key == CoinSparkAssetRegistry.COINSPARK_ASSET_REGISTRY_KEY_INVALID)
+            return false;
+
+        int countInputs=inputTxIDs.length;
+        int countOutputs=outputScripts.length;
+
+        //  Spend the inputs, collecting the balance of each asset in each input
+
+        countTxAssets=0;
+        for (int input=0; input<countInputs; input++)
+        {
+            int countAssets=readOutpoint(inputTxIDs[input], inputVouts[input], true);
+            if (countAssets < 0)
+                return false;
+
+            for (int index=0; index<countAssets; index++)
+                txInputBalances[findTxAsset(spentAssetRefs[index], countInputs)][input]+=spentBalances[index];
+        }
+
+        //  Classify the outputs and find the metadata in the first OP_RETURN output
+
+        if (outputsRegular.length != countOutputs)
+            outputsRegular=new boolean[countOutputs];
+        if (outputBalances.length < countOutputs)
+            outputBalances=new long[countOutputs];
+
+        boolean hasMetadata=false;
+        boolean foundMetadataOutput=false;
+        for (int output=0; output<countOutputs; output++)
+        {
+            outputsRegular[output]=CoinSparkBase.scriptIsRegular(outputScripts[output]);
+            if (!(outputsRegular[output] || foundMetadataOutput))
+            {
+                hasMetadata=CoinSparkBase.scriptToMetadata(outputScripts[output], 0, outputScripts[output].length, metadata);
+                foundMetadataOutput=true;                                       // only the first, even if it has no valid metadata
+            }
+        }
+
+        transactionsProcessed++;
+        boolean success=true;
+
+        if (hasMetadata && genesis.decode(metadata))
+        {
+            if (feeSatoshis >= genesis.calcMinFee(outputsSatoshis, outputsRegular))
+            {
+                int txIDPrefix=CoinSparkAssetIndex.prefixToInteger(txID);
+
+                if (registry.get(key, txIDPrefix) == null)
+                {
+                    CoinSparkAssetRef assetRef=new CoinSparkAssetRef(blockNum, txOffset,
+                            Arrays.copyOf(txID, CoinSparkAssetRef.COINSPARK_ASSETREF_TXID_PREFIX_LEN));
+                    registry.put(key, txIDPrefix, genesis);
+                    genesis.apply(countOutputs, outputsRegular, outputBalances);
+                    success=addOutputBalances(txID, assetRef, countOutputs);
+                    genesis=new CoinSparkGenesis();                             // the accepted genesis is kept by the ledger
+                    genesesAccepted++;
+                }
+            }
+            else
+            {
+                genesesRejected++;
+            }
+        }
+
+        if (countTxAssets == 0)
+            return success;
+
+        //  Move each asset held by the inputs
+
+        CoinSparkTransferList transfers=noTransfers;
+        if (hasMetadata && transferList.decode(metadata, countInputs, countOutputs))
+            transfers=transferList;
+
+        boolean validFee=(feeSatoshis >= transfers.calcMinFee(countInputs, outputsSatoshis, outputsRegular));
+        if (validFee)
+            transfersApplied++;
+        else
+            transfersDefaulted++;
+
+        for (int txAsset=0; txAsset<countTxAssets; txAsset++)
+        {
+            CoinSparkAssetRef assetRef=txAssetRefs[txAsset];
+            CoinSparkGenesis assetGenesis=getGenesis(assetRef);
+            if (assetGenesis == null)
+            {
+                unknownAssets++;                                                // without the genesis the charges are unknown
+                continue;
+            }
+
+            if (validFee)
+                transfers.apply(assetRef, assetGenesis, countInputs, txInputBalances[txAsset], countOutputs, outputsRegular, outputBalances, context);
+            else
+                transfers.applyNone(assetRef, assetGenesis, countInputs, txInputBalances[txAsset], countOutputs, outputsRegular, outputBalances, context);
+
+            if (!addOutputBalances(txID, assetRef, countOutputs))
+                success=false;
+        }
+
+        return success;
+    }
+
+    /**
+     * Returns number of transactions processed since the ledger was created or clearCounters() was called.
+     *
+     * @return number of transactions
+     */
+
+    public long getTransactionsProcessed()
+    {
+        return transactionsProcessed;
+    }
+
+    /**
+     * Returns number of geneses accepted.
+     *
+     * @return number of geneses
+     */
+
+    public long getGenesesAccepted()
+    {
+        return genesesAccepted;
+    }
+
+    /**
+     * Returns number of geneses ignored because the transaction fee was too low.
+     *
+     * @return number of geneses
+     */
+
+    public long getGenesesRejected()
+    {
+        return genesesRejected;
+    }
+
+    /**
+     * Returns number of transactions moving assets whose fee was sufficient for their transfers.
+     *
+     * @return number of transactions
+     */
+
+    public long getTransfersApplied()
+    {
+        return transfersApplied;
+    }
+
+    /**
+     * Returns number of transactions moving assets by the default routes only, because their fee was too low.
+     *
+     * @return number of transactions
+     */
+
+    public long getTransfersDefaulted()
+    {
+        return transfersDefaulted;
+    }
+
+    /**
+     * Returns number of times an input held an asset whose genesis is not known, so its balance was dropped.
+     *
+     * @return number of unknown assets
+     */
+
+    public long getUnknownAssets()
+    {
+        return unknownAssets;
+    }
+
+    /**
+     * Sets all counters to zero.
+     */
+
+    public final void clearCounters()
+    {
+        transactionsProcessed=0;
+        genesesAccepted=0;
+        genesesRejected=0;
+        transfersApplied=0;
+        transfersDefaulted=0;
+        unknownAssets=0;
+    }
+
+
+// Private variables/constants/functions
+
+    private static final int ASSETS_CAPACITY_DEFAULT = 16;
+    private static final int SPENT_CAPACITY_MAX = 65536;
+
+    private final CoinSparkBalanceStore store;
+    private final CoinSparkAssetRegistry registry;                              // geneses of known assets
+    private final CoinSparkGenesisLoader loader;                                // null if none
+
+    private CoinSparkGenesis genesis;
+    private final CoinSparkTransferList transferList;
+    private final CoinSparkTransferList noTransfers;                            // always empty, for transactions without transfers
+    private final CoinSparkMetadataView metadata;
+    private final CoinSparkApplyContext context;
+
+    private boolean [] outputsRegular;
+    private long [] outputBalances;
+    private CoinSparkAssetRef [] spentAssetRefs;
+    private long [] spentBalances;
+    private CoinSparkAssetRef [] txAssetRefs;                                   // assets held by the inputs of the current transaction
+    private long [][] txInputBalances;
+    private int countTxAssets;
+
+    private long transactionsProcessed;
+    private long genesesAccepted;
+    private long genesesRejected;
+    private long transfersApplied;
+    private long transfersDefaulted;
+    private long unknownAssets;
+
+    private static boolean transactionValid(byte [] txID, byte [][] inputTxIDs, int [] inputVouts,
+                                            byte [][] outputScripts, long [] outputsSatoshis)
+    {
+        if ((txID == null) || (txID.length != CoinSparkBalanceStore.COINSPARK_TXID_LEN))
+            return false;
+
+        if ((inputTxIDs == null) || (inputVouts == null) || (inputTxIDs.length != inputVouts.length))
+            return false;
+
+        if ((outputScripts == null) || (outputsSatoshis == null) || (outputScripts.length != outputsSatoshis.length))
+            return false;
+
+        for (byte [] inputTxID : inputTxIDs)
+            if ((inputTxID == null) || (inputTxID.length != CoinSparkBalanceStore.COINSPARK_TXID_LEN))
+                return false;
+
+        return true;
+    }
+
+    private int readOutpoint(byte [] txID, int vout, boolean spend)
+    {
+        while (true)
+        {
+            int countAssets=spend ? store.spendBalances(txID, vout, spentAssetRefs, spentBalances) :
+                    store.getBalances(txID, vout, spentAssetRefs, spentBalances);
+
+            if ((countAssets != -1) || (spentAssetRefs.length >= SPENT_CAPACITY_MAX))  // -1 only if the arrays are too small
+                return countAssets;
+
+            spentAssetRefs=Arrays.copyOf(spentAssetRefs, 2*spentAssetRefs.length);
+            spentBalances=Arrays.copyOf(spentBalances, 2*spentBalances.length);
+        }
+    }
+
+    private int findTxAsset(CoinSparkAssetRef assetRef, int countInputs)
+    {
+        for (int txAsset=0; txAsset<countTxAssets; txAsset++)
+            if ((txAssetRefs[txAsset] == assetRef) || txAssetRefs[txAsset].match(assetRef))
+                return txAsset;
+
+        if (countTxAssets == txAssetRefs.length)
+        {
+            txAssetRefs=Arrays.copyOf(txAssetRefs, 2*txAssetRefs.length);
+            txInputBalances=Arrays.copyOf(txInputBalances, 2*txInputBalances.length);
+        }
+
+        int txAsset=countTxAssets++;
+        txAssetRefs[txAsset]=assetRef;
+
+        if ((txInputBalances[txAsset] == null) || (txInputBalances[txAsset].length < countInputs))
+            txInputBalances[txAsset]=new long[countInputs];
+        else
+            Arrays.fill(txInputBalances[txAsset], 0, countInputs, 0);
+
+        return txAsset;
+    }
+
+    private boolean addOutputBalances(byte [] txID, CoinSparkAssetRef assetRef, int countOutputs)
+    {
+        boolean success=true;
+
+        for (int output=0; output<countOutputs; output++)
+            if (outputBalances[output] > 0)
+                if (!store.addBalance(txID, output, assetRef, outputBalances[output]))
+                    success=false;
+
+        return success;
+    }
+}
@@ -0,0 +1,1055 @@
+/*
+ * CoinSpark 2.1 - Java library
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * CoinSparkMappedBalanceStore class for holding asset balances of outpoints off the Java heap, in memory-mapped files
+ * which persist between runs.
+ *
+ * Each (outpoint, asset) balance is a fixed size record in an open addressing table with linear probing, hashed by
+ * outpoint so that all the balances of an outpoint are found by one probe sequence. Changes are made in batches, usually
+ * one per block: until commit() is called they are held in a small overlay on the heap, and reads see them. commit()
+ * appends the changed records to a log and forces it to disk before copying them into the table, so the table only ever
+ * holds committed batches. After a crash, open() replays the complete batches in the log and drops any incomplete one.
+ * The log is emptied by checkpoint(), which forces the table to disk, and the table doubles in size when it is half full.
+ *
+ * Files in the directory: balances.hdr (header), balances.log (log), balances-N.dat (table of 2^N records).
+ * A CoinSparkMappedBalanceStore must not be used by more than one thread at a time.
+ */
+
+public class CoinSparkMappedBalanceStore implements CoinSparkBalanceStore, Closeable {
+
+    /**
+     * Opens the store in a directory, creating it if needed, and recovers any committed batches not yet in the table.
+     *
+     * @param Directory directory holding the store files
+     * @param Capacity number of balances which can be stored before the table grows, if the store is created
+     * @return CoinSparkMappedBalanceStore | null the store, null if it could not be opened
+     */
+
+    public static CoinSparkMappedBalanceStore open(Path Directory, long Capacity)
+    {
+        CoinSparkMappedBalanceStore store=new CoinSparkMappedBalanceStore(Directory);
+
+        try {
+            store.openFiles(Math.max(Capacity, 1));
+        } catch (IOException ex) {
+            store.closeFiles();
+            return null;
+        }
+
+        return store;
+    }
+
+    @Override
+    public int getBalances(byte [] txID, int vout, CoinSparkAssetRef [] assetRefs, long [] balances)
+    {
+        if (!txIDValid(txID) || (segments == null))
+            return -2;
+
+        setKey(txID, vout);
+        return readRecords(assetRefs, balances);
+    }
+
+    @Override
+    public int spendBalances(byte [] txID, int vout, CoinSparkAssetRef [] assetRefs, long [] balances)
+    {
+        if (!txIDValid(txID) || (segments == null))
+            return -2;
+
+        setKey(txID, vout);
+        int countAssets=readRecords(assetRefs, balances);
+        if (countAssets <= 0)
+            return countAssets;
+
+        for (int index=0; index<countAssets; index++)
+            removeSlot(findKeySlot());
+
+        countRecords-=countAssets;
+        countOutpoints--;
+        touch(txID, vout);
+
+        return countAssets;
+    }
+
+    @Override
+    public boolean addBalance(byte [] txID, int vout, CoinSparkAssetRef assetRef, long balance)
+    {
+        if (!txIDValid(txID) || (segments == null) || (balance < 0))
+            return false;
+
+        if ( (assetRef.getBlockNum() < 0) || (assetRef.getBlockNum() > UINT32_MAX) ||
+             (assetRef.getTxOffset() < 0) || (assetRef.getTxOffset() > UINT32_MAX) )
+            return false;
+
+        if (balance == 0)
+            return true;
+
+        int blockNum=(int)assetRef.getBlockNum();
+        int txOffset=(int)assetRef.getTxOffset();
+        char txIDPrefix=(char)CoinSparkAssetIndex.prefixToInteger(assetRef.getTxIDPrefix());
+
+        setKey(txID, vout);
+        boolean outpointFound=false;
+        long slot=ideal(keyHash);
+
+        for (; !locateEmpty(slot); slot=(slot+1) & mask)
+        {
+            if (locatedMatchesKey())
+            {
+                outpointFound=true;
+                if ( (located.getInt(locatedOffset+OFFSET_BLOCK_NUM) == blockNum) && (located.getInt(locatedOffset+OFFSET_TX_OFFSET) == txOffset) &&
+                     (located.getChar(locatedOffset+OFFSET_TXID_PREFIX) == txIDPrefix) )
+                {
+                    long newBalance=located.getLong(locatedOffset+OFFSET_BALANCE)+balance;
+                    if (newBalance < 0)                                         // overflow
+                        return false;
+
+                    locateWritable(slot);
+                    located.putLong(locatedOffset+OFFSET_BALANCE, newBalance);
+                    touch(txID, vout);
+                    return true;
+                }
+            }
+        }
+
+        if (4*(countRecords+1) > 3*capacity)                                     // too full to wait for commit()
+        {
+            if (!resize(capacityLog2+1))
+                return false;
+
+            return addBalance(txID, vout, assetRef, balance);
+        }
+
+        locateWritable(slot);
+        writeKey(located, locatedOffset);
+        located.putInt(locatedOffset+OFFSET_BLOCK_NUM, blockNum);
+        located.putInt(locatedOffset+OFFSET_TX_OFFSET, txOffset);
+        located.putChar(locatedOffset+OFFSET_TXID_PREFIX, txIDPrefix);
+        located.putLong(locatedOffset+OFFSET_BALANCE, balance);
+
+        countRecords++;
+        if (!outpointFound)
+            countOutpoints++;
+        touch(txID, vout);
+
+        return true;
+    }
+
+    @Override
+    public long countOutpoints()
+    {
+        return countOutpoints;
+    }
+
+    /**
+     * Returns number of (outpoint, asset) balances in the store, including changes not committed yet.
+     *
+     * @return number of balances
+     */
+
+    public long countBalances()
+    {
+        return countRecords;
+    }
+
+    /**
+     * Returns number of balances the table can hold, it grows when half full.
+     *
+     * @return table size in records
+     */
+
+    public long getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Returns the block number passed to the last successful commit(), so that processing can continue after it.
+     *
+     * @return block number, -1 if nothing was committed yet
+     */
+
+    public long getCommittedBlockNum()
+    {
+        return committedBlockNum;
+    }
+
+    /**
+     * Makes all changes since the last commit() or rollback() durable, as one batch.
+     *
+     * @param blockNum block number to record with the batch, returned by getCommittedBlockNum()
+     * @return true on success, false if the batch could not be written to the log, in which case the
+     *         changes are still pending and can be committed again or rolled back.
+     */
+
+    public boolean commit(long blockNum)
+    {
+        if (segments == null)
+            return false;
+
+        try {
+            appendBatch(sequence+1, blockNum);
+        } catch (IOException ex) {
+            return false;
+        }
+
+        for (int index=0; index<overlayCount; index++)
+            copyRecord(overlayBuffer, index*RECORD_LEN, mapped(overlayOrder[index]), mappedOffset(overlayOrder[index]));
+
+        sequence++;
+        committedBlockNum=blockNum;
+        committedRecords=countRecords;
+        committedOutpoints=countOutpoints;
+        clearPending();
+
+        if ((logSize > LOG_CHECKPOINT_SIZE) && !checkpoint())
+            return true;                                                        // the batch is safe in the log anyway
+
+        if (2*countRecords > capacity)
+            resize(capacityLog2+1);
+
+        return true;
+    }
+
+    /**
+     * Discards all changes since the last commit() or rollback().
+     */
+
+    public void rollback()
+    {
+        clearPending();
+        countRecords=committedRecords;
+        countOutpoints=committedOutpoints;
+    }
+
+    /**
+     * Forces the table to disk and empties the log. Pending changes are not affected.
+     *
+     * @return true on success, false if the files could not be written
+     */
+
+    public boolean checkpoint()
+    {
+        if (segments == null)
+            return false;
+
+        try {
+            for (MappedByteBuffer segment : segments)
+                segment.force();
+
+            writeHeader();
+            logChannel.truncate(0);
+            logChannel.force(true);
+            logSize=0;
+        } catch (IOException ex) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Discards pending changes, checkpoints and closes the files.
+     */
+
+    @Override
+    public void close()
+    {
+        if (segments != null)
+        {
+            rollback();
+            checkpoint();
+        }
+
+        closeFiles();
+    }
+
+
+// Private variables/constants/functions
+
+    private static final int HEADER_MAGIC = 0x43534842;                         // CSHB
+    private static final int BATCH_MAGIC = 0x4353424C;                          // CSBL
+    private static final int HEADER_VERSION = 1;
+    private static final int HEADER_LEN = 52;
+    private static final int BATCH_HEADER_LEN = 40;
+    private static final int BATCH_RECORD_LEN = 72;                             // slot number and record
+    private static final int BATCH_TRAILER_LEN = 8;
+
+    private static final int RECORD_LEN = 64;
+    private static final int RECORD_SHIFT = 6;
+    private static final int OFFSET_TXID = 0;
+    private static final int OFFSET_VOUT = 32;
+    private static final int OFFSET_HASH = 36;
+    private static final int OFFSET_BLOCK_NUM = 40;                             // asset reference, unsigned
+    private static final int OFFSET_TX_OFFSET = 44;                             // asset reference, unsigned
+    private static final int OFFSET_TXID_PREFIX = 48;                           // asset reference, as in CoinSparkAssetRef.encode()
+    private static final int OFFSET_BALANCE = 56;                               // 0 for an empty slot
+
+    private static final int SEGMENT_SHIFT = 24;                                // records per mapped segment, 1 GB
+    private static final long SEGMENT_SLOT_MASK = (1L << SEGMENT_SHIFT)-1;
+    private static final int CAPACITY_LOG2_MIN = 10;
+    private static final int CAPACITY_LOG2_MAX = 32;
+    private static final long LOG_CHECKPOINT_SIZE = 64L << 20;
+    private static final long UINT32_MAX = 0xFFFFFFFFL;
+
+    private final Path directory;
+    private final CoinSparkAssetIndex assets;
+
+    private int capacityLog2;
+    private long capacity;
+    private long mask;
+    private FileChannel dataChannel;
+    private MappedByteBuffer [] segments;
+    private FileChannel logChannel;
+    private long logSize;
+    private ByteBuffer batchBuffer;
+    private final CRC32 crc;
+
+    private long sequence;                                                      // number of the last committed batch
+    private long committedBlockNum;
+    private long committedRecords;
+    private long committedOutpoints;
+    private long countRecords;
+    private long countOutpoints;
+
+    private int overlayCount;                                                   // changed records not yet committed
+    private long [] overlayOrder;                                               // slot of each changed record
+    private byte [] overlayImages;
+    private ByteBuffer overlayBuffer;
+    private long [] overlaySlots;                                               // open addressing on slot, -1 for empty
+    private int [] overlayIndexes;
+
+    private int countTouched;                                                   // outpoints changed since the last commit
+    private byte [] touchedTxIDs;
+    private int [] touchedVouts;
+    private int [] touchedSlots;                                                // open addressing on outpoint, -1 for empty
+
+    private long key0, key1, key2, key3;                                        // outpoint being looked up
+    private int keyVout;
+    private int keyHash;
+
+    private ByteBuffer located;                                                 // record found by locate()
+    private int locatedOffset;
+    private final long [] recordCopy;
+
+    private CoinSparkMappedBalanceStore(Path Directory)
+    {
+        directory=Directory;
+        assets=new CoinSparkAssetIndex();
+        crc=new CRC32();
+        batchBuffer=ByteBuffer.allocate(BATCH_HEADER_LEN+BATCH_TRAILER_LEN+16*BATCH_RECORD_LEN);
+        recordCopy=new long[RECORD_LEN/8];
+
+        overlayOrder=new long[16];
+        overlayImages=new byte[16*RECORD_LEN];
+        overlayBuffer=ByteBuffer.wrap(overlayImages);
+        overlaySlots=new long[32];
+        overlayIndexes=new int[32];
+        Arrays.fill(overlaySlots, -1);
+
+        touchedTxIDs=new byte[16*COINSPARK_TXID_LEN];
+        touchedVouts=new int[16];
+        touchedSlots=CoinSparkOpenAddressing.newSlots(32);
+    }
+
+    private Path headerPath()
+    {
+        return directory.resolve("balances.hdr");
+    }
+
+    private Path logPath()
+    {
+        return directory.resolve("balances.log");
+    }
+
+    private Path dataPath(int log2)
+    {
+        return directory.resolve("balances-" + log2 + ".dat");
+    }
+
+    private static boolean txIDValid(byte [] txID)
+    {
+        return (txID != null) && (txID.length == COINSPARK_TXID_LEN);
+    }
+
+    private long ideal(int outpointHash)
+    {
+        return (outpointHash & UINT32_MAX) & mask;
+    }
+
+    //  Files
+
+    private void openFiles(long initialCapacity) throws IOException
+    {
+        Files.createDirectories(directory);
+
+        if (Files.exists(headerPath()))
+        {
+            readHeader();
+        }
+        else
+        {
+            capacityLog2=CAPACITY_LOG2_MIN;
+            while ((capacityLog2 < CAPACITY_LOG2_MAX) && ((1L << capacityLog2) < 2*initialCapacity))
+                capacityLog2++;
+
+            sequence=0;
+            committedBlockNum=-1;
+            committedRecords=0;
+            committedOutpoints=0;
+            Files.deleteIfExists(dataPath(capacityLog2));
+        }
+
+        setCapacity(capacityLog2);
+        dataChannel=FileChannel.open(dataPath(capacityLog2), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if ((dataChannel.size() != 0) && (dataChannel.size() != (capacity << RECORD_SHIFT)))
+            throw new IOException("Invalid balance store table size");
+
+        segments=mapSegments(dataChannel, capacity);
+
+        logChannel=FileChannel.open(logPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        replayLog();
+
+        countRecords=committedRecords;
+        countOutpoints=committedOutpoints;
+
+        if (!checkpoint())
+            throw new IOException("Cannot checkpoint balance store");
+
+        for (int log2=CAPACITY_LOG2_MIN; log2<=CAPACITY_LOG2_MAX; log2++)    // left by an interrupted resize
+            if (log2 != capacityLog2)
+                Files.deleteIfExists(dataPath(log2));
+    }
+
+    private void closeFiles()
+    {
+        segments=null;
+        closeChannel(dataChannel);
+        closeChannel(logChannel);
+        dataChannel=null;
+        logChannel=null;
+    }
+
+    private static void closeChannel(FileChannel channel)
+    {
+        if (channel != null)
+        {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+            }
+        }
+    }
+
+    private void setCapacity(int log2)
+    {
+        capacityLog2=log2;
+        capacity=1L << log2;
+        mask=capacity-1;
+    }
+
+    private static MappedByteBuffer [] mapSegments(FileChannel channel, long countSlots) throws IOException
+    {
+        int countSegments=(int)((countSlots+SEGMENT_SLOT_MASK) >>> SEGMENT_SHIFT);
+        MappedByteBuffer [] mappedSegments=new MappedByteBuffer[countSegments];
+
+        for (int segment=0; segment<countSegments; segment++)
+        {
+            long firstSlot=((long)segment) << SEGMENT_SHIFT;
+            long segmentSlots=Math.min(countSlots-firstSlot, 1L << SEGMENT_SHIFT);
+            mappedSegments[segment]=channel.map(FileChannel.MapMode.READ_WRITE, firstSlot << RECORD_SHIFT, segmentSlots << RECORD_SHIFT);
+        }
+
+        return mappedSegments;
+    }
+
+    private void readHeader() throws IOException
+    {
+        ByteBuffer header=ByteBuffer.wrap(Files.readAllBytes(headerPath()));
+        if (header.capacity() != HEADER_LEN)
+            throw new IOException("Invalid balance store header");
+
+        crc.reset();
+        crc.update(header.array(), 0, HEADER_LEN-8);
+        if ( (header.getInt(0) != HEADER_MAGIC) || (header.getInt(4) != HEADER_VERSION) || (header.getLong(HEADER_LEN-8) != crc.getValue()) )
+            throw new IOException("Invalid balance store header");
+
+        capacityLog2=header.getInt(8);
+        sequence=header.getLong(12);
+        committedBlockNum=header.getLong(20);
+        committedRecords=header.getLong(28);
+        committedOutpoints=header.getLong(36);
+
+        if ((capacityLog2 < CAPACITY_LOG2_MIN) || (capacityLog2 > CAPACITY_LOG2_MAX))
+            throw new IOException("Invalid balance store header");
+    }
+
+    private void writeHeader() throws IOException
+    {
+        ByteBuffer header=ByteBuffer.allocate(HEADER_LEN);
+        header.putInt(0, HEADER_MAGIC);
+        header.putInt(4, HEADER_VERSION);
+        header.putInt(8, capacityLog2);
+        header.putLong(12, sequence);
+        header.putLong(20, committedBlockNum);
+        header.putLong(28, committedRecords);
+        header.putLong(36, committedOutpoints);
+
+        crc.reset();
+        crc.update(header.array(), 0, HEADER_LEN-8);
+        header.putLong(HEADER_LEN-8, crc.getValue());
+
+        Path tempPath=directory.resolve("balances.hdr.tmp");
+        FileChannel channel=FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            while (header.hasRemaining())
+                channel.write(header);
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+
+        Files.move(tempPath, headerPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory();                                                       // so the rename, and any new table file, survive a crash
+    }
+
+    private void forceDirectory() throws IOException
+    {
+        FileChannel channel;
+        try {
+            channel=FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException ex) {
+            return;                                                             // directories cannot be opened on some platforms, e.g. Windows
+        }
+
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    //  Log of committed batches: header, (slot, record) pairs, CRC32 of everything before it
+
+    private void appendBatch(long batchSequence, long blockNum) throws IOException
+    {
+        int batchLen=BATCH_HEADER_LEN+overlayCount*BATCH_RECORD_LEN+BATCH_TRAILER_LEN;
+        if (batchBuffer.capacity() < batchLen)
+            batchBuffer=ByteBuffer.allocate(Math.max(batchLen, 2*batchBuffer.capacity()));
+
+        ByteBuffer batch=batchBuffer;
+        batch.clear();
+        batch.putInt(BATCH_MAGIC);
+        batch.putLong(batchSequence);
+        batch.putLong(blockNum);
+        batch.putLong(countRecords);
+        batch.putLong(countOutpoints);
+        batch.putInt(overlayCount);
+
+        for (int index=0; index<overlayCount; index++)
+        {
+            batch.putLong(overlayOrder[index]);
+            batch.put(overlayImages, index*RECORD_LEN, RECORD_LEN);
+        }
+
+        crc.reset();
+        crc.update(batch.array(), 0, batch.position());
+        batch.putLong(crc.getValue());
+        batch.flip();
+
+        long position=logSize;
+        while (batch.hasRemaining())
+            position+=logChannel.write(batch, position);
+
+        logChannel.force(false);
+        logSize=position;
+    }
+
+    private void replayLog() throws IOException
+    {
+        long logEnd=logChannel.size();
+        long position=0;
+        ByteBuffer header=ByteBuffer.allocate(BATCH_HEADER_LEN);
+
+        while (position+BATCH_HEADER_LEN <= logEnd)
+        {
+            header.clear();
+            readFully(header, position);
+            if (header.getInt(0) != BATCH_MAGIC)
+                break;
+
+            int countSlots=header.getInt(36);
+            if ((countSlots < 0) || (countSlots > (logEnd-position)/BATCH_RECORD_LEN))
+                break;
+
+            int batchLen=BATCH_HEADER_LEN+countSlots*BATCH_RECORD_LEN+BATCH_TRAILER_LEN;
+            if (position+batchLen > logEnd)
+                break;                                                          // interrupted while writing
+
+            ByteBuffer batch=ByteBuffer.allocate(batchLen);
+            readFully(batch, position);
+            crc.reset();
+            crc.update(batch.array(), 0, batchLen-BATCH_TRAILER_LEN);
+            if (batch.getLong(batchLen-BATCH_TRAILER_LEN) != crc.getValue())
+                break;
+
+            if (batch.getLong(4) > sequence)                                    // not in the table at the last checkpoint
+            {
+                for (int index=0; index<countSlots; index++)
+                {
+                    int recordOffset=BATCH_HEADER_LEN+index*BATCH_RECORD_LEN;
+                    long slot=batch.getLong(recordOffset);
+                    if ((slot < 0) || (slot >= capacity))
+                        throw new IOException("Invalid balance store log");
+
+                    copyRecord(batch, recordOffset+8, mapped(slot), mappedOffset(slot));
+                }
+
+                sequence=batch.getLong(4);
+                committedBlockNum=batch.getLong(12);
+                committedRecords=batch.getLong(20);
+                committedOutpoints=batch.getLong(28);
+            }
+
+            position+=batchLen;
+        }
+
+        logSize=position;                                                       // anything after is dropped at the checkpoint
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            int bytesRead=logChannel.read(buffer, position);
+            if (bytesRead < 0)
+                throw new IOException("Unexpected end of balance store log");
+
+            position+=bytesRead;
+        }
+    }
+
+    //  Growing the table, which needs a checkpoint since the log refers to slots
+
+    private boolean resize(int newLog2)
+    {
+        if (newLog2 > CAPACITY_LOG2_MAX)
+            return false;
+
+        //  Save the pending state of every outpoint changed since the last commit, to redo in the new table
+
+        int [] pendingCounts=new int[countTouched];
+        CoinSparkAssetRef [] pendingRefs=new CoinSparkAssetRef[16];
+        long [] pendingBalances=new long[16];
+        int countPending=0;
+
+        for (int touched=0; touched<countTouched; touched++)
+        {
+            setKey(touchedTxIDs, touched*COINSPARK_TXID_LEN, touchedVouts[touched]);
+            int countAssets=countKeyRecords();
+            if (countPending+countAssets > pendingRefs.length)
+            {
+                pendingRefs=Arrays.copyOf(pendingRefs, 2*(countPending+countAssets));
+                pendingBalances=Arrays.copyOf(pendingBalances, 2*(countPending+countAssets));
+            }
+
+            for (long slot=ideal(keyHash); !locateEmpty(slot); slot=(slot+1) & mask)
+                if (locatedMatchesKey())
+                {
+                    pendingRefs[countPending]=locatedAssetRef();
+                    pendingBalances[countPending]=located.getLong(locatedOffset+OFFSET_BALANCE);
+                    countPending++;
+                }
+
+            pendingCounts[touched]=countPending;
+        }
+
+        if (!checkpoint())
+            return false;
+
+        //  Copy the committed records into a new table file, and switch to it in the header
+
+        int oldLog2=capacityLog2;
+        long oldCapacity=capacity;
+        MappedByteBuffer [] oldSegments=segments;
+        FileChannel oldChannel=dataChannel;
+        FileChannel newChannel=null;
+
+        try {
+            Files.deleteIfExists(dataPath(newLog2));
+            newChannel=FileChannel.open(dataPath(newLog2), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer [] newSegments=mapSegments(newChannel, 1L << newLog2);
+
+            setCapacity(newLog2);
+            segments=newSegments;
+            for (long oldSlot=0; oldSlot<oldCapacity; oldSlot++)
+            {
+                MappedByteBuffer oldSegment=oldSegments[(int)(oldSlot >>> SEGMENT_SHIFT)];
+                int oldOffset=(int)((oldSlot & SEGMENT_SLOT_MASK) << RECORD_SHIFT);
+                if (oldSegment.getLong(oldOffset+OFFSET_BALANCE) != 0)
+                {
+                    long slot=ideal(oldSegment.getInt(oldOffset+OFFSET_HASH));
+                    while (mapped(slot).getLong(mappedOffset(slot)+OFFSET_BALANCE) != 0)
+                        slot=(slot+1) & mask;
+
+                    copyRecord(oldSegment, oldOffset, mapped(slot), mappedOffset(slot));
+                }
+            }
+
+            for (MappedByteBuffer segment : newSegments)
+                segment.force();
+
+            writeHeader();
+        } catch (IOException ex) {
+            setCapacity(oldLog2);
+            segments=oldSegments;
+            closeChannel(newChannel);
+            try {
+                Files.deleteIfExists(dataPath(newLog2));
+            } catch (IOException ex2) {
+            }
+            return false;
+        }
+
+        dataChannel=newChannel;
+        closeChannel(oldChannel);
+        try {
+            Files.deleteIfExists(dataPath(oldLog2));                            // retried by open() if the mapping prevents it
+        } catch (IOException ex) {
+        }
+
+        //  Redo the pending changes, so they are in the overlay for the new table
+
+        int touchedPending=countTouched;
+        byte [] touchedPendingTxIDs=Arrays.copyOf(touchedTxIDs, touchedPending*COINSPARK_TXID_LEN);
+        int [] touchedPendingVouts=Arrays.copyOf(touchedVouts, touchedPending);
+
+        clearPending();
+        countRecords=committedRecords;
+        countOutpoints=committedOutpoints;
+
+        int pendingIndex=0;
+        for (int touched=0; touched<touchedPending; touched++)
+        {
+            byte [] txID=Arrays.copyOfRange(touchedPendingTxIDs, touched*COINSPARK_TXID_LEN, (touched+1)*COINSPARK_TXID_LEN);
+            setKey(txID, touchedPendingVouts[touched]);
+
+            int countAssets=0;
+            long slot;
+            while ((slot=findKeySlot()) >= 0)
+            {
+                removeSlot(slot);
+                countAssets++;
+            }
+
+            if (countAssets > 0)
+            {
+                countRecords-=countAssets;
+                countOutpoints--;
+            }
+
+            for (; pendingIndex<pendingCounts[touched]; pendingIndex++)
+                addBalance(txID, touchedPendingVouts[touched], pendingRefs[pendingIndex], pendingBalances[pendingIndex]);
+
+            touch(txID, touchedPendingVouts[touched]);
+        }
+
+        return true;
+    }
+
+    //  Records, read through the overlay of pending changes
+
+    private MappedByteBuffer mapped(long slot)
+    {
+        return segments[(int)(slot >>> SEGMENT_SHIFT)];
+    }
+
+    private static int mappedOffset(long slot)
+    {
+        return (int)((slot & SEGMENT_SLOT_MASK) << RECORD_SHIFT);
+    }
+
+    private boolean locateEmpty(long slot)
+    {
+        int index=(overlayCount > 0) ? overlayFind(slot) : -1;
+
+        if (index >= 0)
+        {
+            located=overlayBuffer;
+            locatedOffset=index*RECORD_LEN;
+        }
+        else
+        {
+            located=mapped(slot);
+            locatedOffset=mappedOffset(slot);
+        }
+
+        return located.getLong(locatedOffset+OFFSET_BALANCE) == 0;
+    }
+
+    private void locateWritable(long slot)
+    {
+        int index=overlayFind(slot);
+        if (index < 0)
+            index=overlayAdd(slot);
+
+        located=overlayBuffer;
+        locatedOffset=index*RECORD_LEN;
+    }
+
+    private void setKey(byte [] txID, int vout)
+    {
+        setKey(txID, 0, vout);
+    }
+
+    private void setKey(byte [] txID, int txIDOffset, int vout)
+    {
+        key0=CoinSparkOpenAddressing.readLong(txID, txIDOffset);
+        key1=CoinSparkOpenAddressing.readLong(txID, txIDOffset+8);
+        key2=CoinSparkOpenAddressing.readLong(txID, txIDOffset+16);
+        key3=CoinSparkOpenAddressing.readLong(txID, txIDOffset+24);
+        keyVout=vout;
+        keyHash=CoinSparkOpenAddressing.outpointHash(key0, key3, vout);
+    }
+
+    private void writeKey(ByteBuffer buffer, int offset)
+    {
+        buffer.putLong(offset+OFFSET_TXID, key0);
+        buffer.putLong(offset+OFFSET_TXID+8, key1);
+        buffer.putLong(offset+OFFSET_TXID+16, key2);
+        buffer.putLong(offset+OFFSET_TXID+24, key3);
+        buffer.putInt(offset+OFFSET_VOUT, keyVout);
+        buffer.putInt(offset+OFFSET_HASH, keyHash);
+    }
+
+    private boolean locatedMatchesKey()
+    {
+        return (located.getInt(locatedOffset+OFFSET_HASH) == keyHash) && (located.getInt(locatedOffset+OFFSET_VOUT) == keyVout) &&
+               (located.getLong(locatedOffset+OFFSET_TXID) == key0) && (located.getLong(locatedOffset+OFFSET_TXID+8) == key1) &&
+               (located.getLong(locatedOffset+OFFSET_TXID+16) == key2) && (located.getLong(locatedOffset+OFFSET_TXID+24) == key3);
+    }
+
+    private CoinSparkAssetRef locatedAssetRef()
+    {
+        return assets.get(assets.add(located.getInt(locatedOffset+OFFSET_BLOCK_NUM) & UINT32_MAX,
+                located.getInt(locatedOffset+OFFSET_TX_OFFSET) & UINT32_MAX, located.getChar(locatedOffset+OFFSET_TXID_PREFIX)));
+    }
+
+    private int readRecords(CoinSparkAssetRef [] assetRefs, long [] balances)
+    {
+        int countAssets=0;
+
+        for (long slot=ideal(keyHash); !locateEmpty(slot); slot=(slot+1) & mask)
+            if (locatedMatchesKey())
+            {
+                if ((countAssets >= assetRefs.length) || ((balances != null) && (countAssets >= balances.length)))
+                    return -1;
+
+                assetRefs[countAssets]=locatedAssetRef();
+                if (balances != null)
+                    balances[countAssets]=located.getLong(locatedOffset+OFFSET_BALANCE);
+                countAssets++;
+            }
+
+        return countAssets;
+    }
+
+    private int countKeyRecords()
+    {
+        int countAssets=0;
+        for (long slot=ideal(keyHash); !locateEmpty(slot); slot=(slot+1) & mask)
+            if (locatedMatchesKey())
+                countAssets++;
+
+        return countAssets;
+    }
+
+    private long findKeySlot()
+    {
+        for (long slot=ideal(keyHash); !locateEmpty(slot); slot=(slot+1) & mask)
+            if (locatedMatchesKey())
+                return slot;
+
+        return -1;
+    }
+
+    private void removeSlot(long slot)
+    {
+        long hole=slot;
+
+        for (long next=(hole+1) & mask; !locateEmpty(next); next=(next+1) & mask)
+        {
+            if (CoinSparkOpenAddressing.shiftsBack(next, ideal(located.getInt(locatedOffset+OFFSET_HASH)), hole, mask))
+            {
+                for (int index=0; index<recordCopy.length; index++)
+                    recordCopy[index]=located.getLong(locatedOffset+8*index);
+
+                locateWritable(hole);
+                for (int index=0; index<recordCopy.length; index++)
+                    located.putLong(locatedOffset+8*index, recordCopy[index]);
+
+                hole=next;
+            }
+        }
+
+        locateWritable(hole);
+        for (int index=0; index<recordCopy.length; index++)
+            located.putLong(locatedOffset+8*index, 0);
+    }
+
+    private static void copyRecord(ByteBuffer from, int fromOffset, ByteBuffer to, int toOffset)
+    {
+        for (int index=0; index<RECORD_LEN; index+=8)
+            to.putLong(toOffset+index, from.getLong(fromOffset+index));
+    }
+
+    //  Overlay of pending changes: a copy of each changed record, found by open addressing on its slot
+
+    private int overlayFind(long slot)
+    {
+        int overlayMask=overlaySlots.length-1;
+        for (int index=(int)(slot ^ (slot >>> 17)) & overlayMask; overlaySlots[index] >= 0; index=(index+1) & overlayMask)
+            if (overlaySlots[index] == slot)
+                return overlayIndexes[index];
+
+        return -1;
+    }
+
+    private int overlayAdd(long slot)
+    {
+        if (overlayCount == overlayOrder.length)
+        {
+            overlayOrder=Arrays.copyOf(overlayOrder, 2*overlayOrder.length);
+            overlayImages=Arrays.copyOf(overlayImages, 2*overlayImages.length);
+            overlayBuffer=ByteBuffer.wrap(overlayImages);
+        }
+
+        if (2*(overlayCount+1) > overlaySlots.length)
+        {
+            overlaySlots=new long[2*overlaySlots.length];
+            overlayIndexes=new int[overlaySlots.length];
+            Arrays.fill(overlaySlots, -1);
+            for (int index=0; index<overlayCount; index++)
+                overlayInsert(overlayOrder[index], index);
+        }
+
+        int index=overlayCount++;
+        overlayOrder[index]=slot;
+        copyRecord(mapped(slot), mappedOffset(slot), overlayBuffer, index*RECORD_LEN);
+        overlayInsert(slot, index);
+
+        return index;
+    }
+
+    private void overlayInsert(long slot, int overlayIndex)
+    {
+        int overlayMask=overlaySlots.length-1;
+        int index=(int)(slot ^ (slot >>> 17)) & overlayMask;
+        while (overlaySlots[index] >= 0)
+            index=(index+1) & overlayMask;
+
+        overlaySlots[index]=slot;
+        overlayIndexes[index]=overlayIndex;
+    }
+
+    //  Outpoints changed since the last commit, each recorded once
+
+    private void touch(byte [] txID, int vout)
+    {
+        int touchedHash=CoinSparkOpenAddressing.outpointHash(txID, 0, vout);
+        int touchedMask=touchedSlots.length-1;
+        int index=touchedHash & touchedMask;
+
+        for (; touchedSlots[index] >= 0; index=(index+1) & touchedMask)
+            if (touchedMatches(touchedSlots[index], txID, vout))
+                return;
+
+        if (countTouched == touchedVouts.length)
+        {
+            touchedVouts=Arrays.copyOf(touchedVouts, 2*touchedVouts.length);
+            touchedTxIDs=Arrays.copyOf(touchedTxIDs, 2*touchedTxIDs.length);
+        }
+
+        int touched=countTouched++;
+        System.arraycopy(txID, 0, touchedTxIDs, touched*COINSPARK_TXID_LEN, COINSPARK_TXID_LEN);
+        touchedVouts[touched]=vout;
+
+        if (2*countTouched > touchedSlots.length)
+        {
+            touchedSlots=CoinSparkOpenAddressing.newSlots(2*touchedSlots.length);
+            for (int rehashed=0; rehashed<countTouched; rehashed++)
+                touchedInsert(rehashed);
+        }
+        else
+        {
+            touchedSlots[index]=touched;
+        }
+    }
+
+    private boolean touchedMatches(int touched, byte [] txID, int vout)
+    {
+        if (touchedVouts[touched] != vout)
+            return false;
+
+        int offset=touched*COINSPARK_TXID_LEN;
+        for (int index=0; index<COINSPARK_TXID_LEN; index++)
+            if (touchedTxIDs[offset+index] != txID[index])
+                return false;
+
+        return true;
+    }
+
+    private void touchedInsert(int touched)
+    {
+        int touchedHash=CoinSparkOpenAddressing.outpointHash(touchedTxIDs, touched*COINSPARK_TXID_LEN, touchedVouts[touched]);
+        touchedSlots[CoinSparkOpenAddressing.emptySlot(touchedSlots, touchedHash)]=touched;
+    }
+
+    private void clearPending()
+    {
+        if (overlayCount > 0)
+            Arrays.fill(overlaySlots, -1);
+
+        if (countTouched > 0)
+            Arrays.fill(touchedSlots, -1);
+
+        overlayCount=0;
+        countTouched=0;
+    }
+}
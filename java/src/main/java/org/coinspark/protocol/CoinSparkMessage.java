@@ -24,6 +24,7 @@
 
 package org.coinspark.protocol;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -479,6 +480,70 @@ public class CoinSparkMessage extends CoinSparkBase{
         return decode(buffer,countOutputs);
     }
     
+    /**
+     * Decodes the message.
+     * 
+     * @param countOutputs number of outputs in transaction
+     * @param metadata Metadata to decode, in place in its buffer
+     * @return true on success, false on failure
+     */
+    
+    public boolean decode(CoinSparkMetadataView metadata,int countOutputs)
+    {
+        if(!metadata.isValid())
+            return false;
+        
+        CoinSparkBuffer buffer=new CoinSparkBuffer(metadata.data, metadata.offset, metadata.length);
+        return decode(buffer,countOutputs);
+    }
+    
+    /**
+     * Decodes the message.
+     * 
+     * @param countOutputs number of outputs in transaction
+     * @param metadata Metadata to decode between position and limit, which are not changed
+     * @return true on success, false on failure
+     */
+    
+    public boolean decode(ByteBuffer metadata,int countOutputs)
+    {
+        CoinSparkBuffer buffer=new CoinSparkBuffer(metadata);
+        return decode(buffer,countOutputs);
+    }
+    
+    /**
+     * Decodes the message, reporting why it failed without writing to the console.
+     * 
+     * @param countOutputs number of outputs in transaction
+     * @param metadata Metadata to decode as raw data
+     * @param status Set to the result and the offset of any failure, can be null
+     * @return OK on success, otherwise the reason for failure
+     */
+    
+    public CoinSparkDecodeStatus.Reason decode(byte [] metadata,int countOutputs,CoinSparkDecodeStatus status)
+    {
+        CoinSparkBuffer buffer=new CoinSparkBuffer(metadata);
+        return decode(buffer,countOutputs,status);
+    }
+    
+    /**
+     * Decodes the message, reporting why it failed without writing to the console.
+     * 
+     * @param countOutputs number of outputs in transaction
+     * @param metadata Metadata to decode, in place in its buffer
+     * @param status Set to the result and the offset of any failure, can be null
+     * @return OK on success, otherwise the reason for failure
+     */
+    
+    public CoinSparkDecodeStatus.Reason decode(CoinSparkMetadataView metadata,int countOutputs,CoinSparkDecodeStatus status)
+    {
+        if(!metadata.isValid())
+            return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.NOT_FOUND, 0);
+        
+        CoinSparkBuffer buffer=new CoinSparkBuffer(metadata.data, metadata.offset, metadata.length);
+        return decode(buffer,countOutputs,status);
+    }
+    
     /**
      * Calculates the hash for the specific set of ContentParts
      * 
@@ -489,55 +554,85 @@ public class CoinSparkMessage extends CoinSparkBase{
     
     public static byte [] calcMessageHash(byte [] salt, CoinSparkMessagePart [] messageParts)
     {
-        if(salt == null)
-        {
-            salt = new byte [0];
-        }
-        
-        int bufferSize=16+salt.length+messageParts.length*3;
-        
         for(CoinSparkMessagePart part : messageParts)
         {
 	    // Avoid null pointer exception when accessing length attribute later
 	    if (part.content==null) {
 		return null;
 	    }
-	    
-            bufferSize += (part.mimeType != null) ? part.mimeType.getBytes().length : 0;
-            bufferSize += (part.fileName != null) ? part.fileName.getBytes().length : 0;
-            bufferSize+=part.content.length;
         }
-                
-        byte[] buffer = new byte[bufferSize];
-        int offset = 0;
         
-        if(salt.length>0)
+        CoinSparkHasher hasher=CoinSparkHasher.get();
+        if(hasher == null)
+        {
+            return null;
+        }
+        
+        if(salt != null)
         {
-            System.arraycopy(salt, 0, buffer, offset, salt.length);
+            hasher.update(salt);
         }
-        offset += salt.length+1;buffer[offset-1]=0x00;
+        hasher.update((byte)0x00);
         for(CoinSparkMessagePart part : messageParts)
         {
-            if((part.mimeType != null) && (part.mimeType.length() > 0))
-            {
-                System.arraycopy(part.mimeType.getBytes(), 0, buffer, offset, part.mimeType.length());
-                offset += part.mimeType.length();
-            }
-            offset += 1;buffer[offset-1]=0x00;
-            if((part.fileName != null) && (part.fileName.length() > 0))
-            {
-                System.arraycopy(part.fileName.getBytes(), 0, buffer, offset, part.fileName.length());
-                offset += part.fileName.length();
-            }
-            offset += 1;buffer[offset-1]=0x00;
-            if(part.content.length>0)
+            addPartHeaderToHash(part.mimeType, part.fileName, hasher);
+            hasher.update(part.content);
+            hasher.update((byte)0x00);
+        }        
+        
+        return hasher.digest();
+    }
+    
+    /**
+     * Compares given hash with value encoded in message.
+     * 
+     * @param MessageHashToCheck message hash to validate
+     * @return true if hashes match, false otherwise
+     */
+    
+    public boolean validateMessageHash(byte [] MessageHashToCheck)
+    {
+        if((MessageHashToCheck == null) || (hash == null))
+        {
+            return false;
+        }
+
+        if((MessageHashToCheck.length < hashLen) || (hash.length < hashLen))
+        {
+            return false;
+        }
+        
+        for(int index=0; index<hashLen; index++)
+        {
+            if(hash[index] != MessageHashToCheck[index])
             {
-                System.arraycopy(part.content, 0, buffer, offset, part.content.length);
+                return false;
             }
-            offset += part.content.length+1;buffer[offset-1]=0x00;
-        }        
+        }
         
-        return coinSparkCalcSHA256Hash(buffer, offset);
+        return true;
+    }
+    
+    /**
+     * Feeds the MIME type and file name of a message part to hasher, each followed by a zero byte.
+     * 
+     * @param mimeType MIME type of the part, can be null
+     * @param fileName file name of the part, can be null
+     * @param hasher hasher to feed
+     */
+    
+    protected static void addPartHeaderToHash(String mimeType, String fileName, CoinSparkHasher hasher)
+    {
+        if((mimeType != null) && (mimeType.length() > 0))
+        {
+            hasher.update(mimeType.getBytes(), 0, mimeType.length());
+        }
+        hasher.update((byte)0x00);
+        if((fileName != null) && (fileName.length() > 0))
+        {
+            hasher.update(fileName.getBytes(), 0, fileName.length());
+        }
+        hasher.update((byte)0x00);
     }
     
     /**
@@ -688,8 +783,7 @@ public class CoinSparkMessage extends CoinSparkBase{
         
             //  4-character identifier
 
-            buffer.writeString(COINSPARK_METADATA_IDENTIFIER);
-            buffer.writeByte(COINSPARK_MESSAGE_PREFIX);
+            buffer.writePrefix(COINSPARK_MESSAGE_PREFIX);
 		
             //  Server host and path
 
@@ -734,12 +828,11 @@ public class CoinSparkMessage extends CoinSparkBase{
             buffer.writeBytes(hash, hashLen);
             
             if(buffer.length()>metadataMaxLen)
-                throw new CoinSparkExceptions.CannotEncode("total length above limit");		
+                throw new CoinSparkExceptions.CannotEncode("total length above limit");
         
         }
-        catch (Exception ex)
+        catch (CoinSparkExceptions.CannotEncode ex)
         {
-            System.out.print(ex.getMessage());
             return false;
         }
         
@@ -747,134 +840,138 @@ public class CoinSparkMessage extends CoinSparkBase{
     }    
     
     private boolean decode(CoinSparkBuffer buffer,int countOutputs)
+    {
+        return decode(buffer, countOutputs, null) == CoinSparkDecodeStatus.Reason.OK;
+    }
+    
+    private CoinSparkDecodeStatus.Reason decode(CoinSparkBuffer buffer,int countOutputs,CoinSparkDecodeStatus status)
     {
         if(!buffer.locateRange(COINSPARK_MESSAGE_PREFIX))
-            return false;
+            return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.NOT_FOUND, 0);
 
-        try
-        {            
-            //  Server host and path
-            CoinSparkDomainPath assetWebPage=new CoinSparkDomainPath(serverHost, serverPath, useHttps, usePrefix);
-            if (!assetWebPage.decode(buffer,true))
-                throw new CoinSparkExceptions.CannotDecode("cannot decode server host");
+        //  Server host and path
+        CoinSparkDomainPath assetWebPage=new CoinSparkDomainPath(serverHost, serverPath, useHttps, usePrefix);
+        CoinSparkDecodeStatus.Reason webPageReason=assetWebPage.decode(buffer,true,status);
+        if (webPageReason != CoinSparkDecodeStatus.Reason.OK)
+            return webPageReason;
+        
+        serverHost=assetWebPage.domainName;
+        serverPath=assetWebPage.path;
+        useHttps=assetWebPage.useHttps;
+        usePrefix=assetWebPage.usePrefix;
+        
+        //  Output ranges
+
+        CoinSparkDecodeStatus.Reason rangesReason=decodeRanges(buffer, countOutputs, status);
+        if (rangesReason != CoinSparkDecodeStatus.Reason.OK)
+            return rangesReason;
+        
+        //  Message hash
+
+        hashLen = buffer.availableForRead();//TBD loss
+        hashLen = Math.min(hashLen, COINSPARK_MESSAGE_HASH_MAX_LEN);        // apply maximum, minimum checked by decodeRanges()
+
+        hash=buffer.readBytes(hashLen);            
+
+        if(!isValid())
+            return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.INVALID, buffer.readOffset());
+        
+        return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.OK, 0);
+    }
+
+    /**
+     * Reads the output ranges into the message, leaving the buffer at the hash.
+     * Also fails if there is too little hash data or the ranges are invalid, as decode() would.
+     */
+    
+    private CoinSparkDecodeStatus.Reason decodeRanges(CoinSparkBuffer buffer,int countOutputs,CoinSparkDecodeStatus status)
+    {
+        boolean rangesValid=true;
+        int packing=COINSPARK_OUTPUTS_MORE_FLAG;
+        
+        isPublic=false;
+        outputRanges=new CoinSparkIORange[COINSPARK_MESSAGE_MAX_IO_RANGES];
+        countOutputRanges=0;
+        
+        while((packing & COINSPARK_OUTPUTS_MORE_FLAG) > 0)
+        {
+            if(!buffer.canRead(1))
+                return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.TRUNCATED, buffer.readOffset());
             
-            serverHost=assetWebPage.domainName;
-            serverPath=assetWebPage.path;
-            useHttps=assetWebPage.useHttps;
-            usePrefix=assetWebPage.usePrefix;
+            packing=buffer.readInt(1);                                          //  Read the next packing byte and check reserved bits are zero
+            if((packing & COINSPARK_OUTPUTS_RESERVED_MASK) > 0)
+                return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.INVALID_PACKING, buffer.readOffset()-1);
             
-            //  Output ranges
-	
-            isPublic=false;
-            outputRanges=new CoinSparkIORange[COINSPARK_MESSAGE_MAX_IO_RANGES];
-            countOutputRanges=0;
-	            
-            int packing = COINSPARK_OUTPUTS_MORE_FLAG;            
+            int packingType=packing & COINSPARK_OUTPUTS_TYPE_MASK;
+            int packingValue=packing & COINSPARK_OUTPUTS_VALUE_MASK;
             
-            while((packing & COINSPARK_OUTPUTS_MORE_FLAG) > 0)
-            {                
-                if(buffer.canRead(1))
-                {
-                    packing=buffer.readInt(1);                                  //  Read the next packing byte and check reserved bits are zero
-                }
-                else
-                    throw new CoinSparkExceptions.CannotDecode("Cannot read packing");
-
-                if((packing & COINSPARK_OUTPUTS_RESERVED_MASK) > 0)
-                    throw new CoinSparkExceptions.CannotDecode("reserved bits used in packing");
-                		
-		int packingType=packing & COINSPARK_OUTPUTS_TYPE_MASK;
-                int packingValue=packing & COINSPARK_OUTPUTS_VALUE_MASK;
-		
-		if ((packingType==COINSPARK_OUTPUTS_TYPE_EXTEND) && (packingValue==CoinSparkPacking.COINSPARK_PACKING_EXTEND_PUBLIC))
-                {
-                    isPublic=true;                                              // special case for public messages
-                }
-                else 
-                {		
-                                                                                //  Create a new output range			
-                    if (countOutputRanges>=COINSPARK_MESSAGE_MAX_IO_RANGES)     // too many output ranges
-                        throw new CoinSparkExceptions.CannotDecode("too many output ranges");
-					
-                    int firstBytes=0;
-                    int countBytes=0;			
-                    CoinSparkIORange outputRange;
-                                                                                //  Decode packing byte			
-                    if (packingType==COINSPARK_OUTPUTS_TYPE_SINGLE)             // inline single input
-                    {                                                           
-                        outputRange=new CoinSparkIORange();
-                        outputRange.first=packingValue;
-                        outputRange.count=1;
-                    } 
-                    else if (packingType==COINSPARK_OUTPUTS_TYPE_FIRST)         // inline first few outputs
-                    { 
-                        outputRange=new CoinSparkIORange();
-                        outputRange.first=0;
-                        outputRange.count=packingValue;
-                    } 
-                    else if (packingType==COINSPARK_OUTPUTS_TYPE_EXTEND)        // we'll be taking additional bytes
-                    { 
-                        CoinSparkPacking.PackingType extendPackingType;
-			extendPackingType=CoinSparkPacking.decodePackingExtend((byte)packingValue, true);
-                        if (extendPackingType == CoinSparkPacking.PackingType._NONE)
-                            throw new CoinSparkExceptions.CannotDecode("Wrong packing type");
-						
-                        outputRange=CoinSparkPacking.packingTypeToValues(extendPackingType, null, countOutputs);
-
-                        int result [] =CoinSparkPacking.packingExtendAddByteCounts(packingValue, firstBytes, countBytes, true);
-                        firstBytes = result[1];				
-                        countBytes = result[2];				
-                    } 
-                    else
-                        throw new CoinSparkExceptions.CannotDecode("unused packing type");
-                        
-			
-                    //  The index of the first output and number of outputs, if necessary
-					
-                    if (firstBytes>0)
-                    {
-                        if(buffer.canRead(firstBytes))
-                            outputRange.first=buffer.readInt(firstBytes);
-                        else
-                            throw new CoinSparkExceptions.CannotDecode("Cannot read first");
-                    }
-
-                    if (countBytes>0)
-                    {
-                        if(buffer.canRead(countBytes))
-                            outputRange.count=buffer.readInt(countBytes);
-                        else
-                            throw new CoinSparkExceptions.CannotDecode("Cannot read count");
-                    }
-                    
-                    outputRanges[countOutputRanges]=outputRange;			//	Add on the new output range
-				
-                    countOutputRanges++;
-                }
+            if ((packingType==COINSPARK_OUTPUTS_TYPE_EXTEND) && (packingValue==CoinSparkPacking.COINSPARK_PACKING_EXTEND_PUBLIC))
+            {
+                isPublic=true;                                                  // special case for public messages
+                continue;
+            }
+            
+            if (countOutputRanges>=COINSPARK_MESSAGE_MAX_IO_RANGES)             // too many output ranges
+                return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.OUT_OF_RANGE, buffer.readOffset()-1);
+            
+            int first, count;
+            int firstBytes=0;
+            int countBytes=0;
+            
+            if (packingType==COINSPARK_OUTPUTS_TYPE_SINGLE)                     // inline single input
+            {
+                first=packingValue;
+                count=1;
+            }
+            else if (packingType==COINSPARK_OUTPUTS_TYPE_FIRST)                 // inline first few outputs
+            {
+                first=0;
+                count=packingValue;
+            }
+            else if (packingType==COINSPARK_OUTPUTS_TYPE_EXTEND)                // we'll be taking additional bytes
+            {
+                CoinSparkPacking.PackingType extendPackingType=CoinSparkPacking.decodePackingExtend((byte)packingValue, true);
+                if (extendPackingType == CoinSparkPacking.PackingType._NONE)
+                    return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.INVALID_PACKING, buffer.readOffset()-1);
                 
+                first=CoinSparkPacking.packingTypeToFirst(extendPackingType, false, 0, 0);
+                count=CoinSparkPacking.packingTypeToCount(extendPackingType, false, 0, countOutputs);
+                firstBytes=CoinSparkPacking.packingExtendFirstBytes(packingValue, 0);
+                countBytes=CoinSparkPacking.packingExtendCountBytes(packingValue, 0, true);
             }
+            else
+                return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.INVALID_PACKING, buffer.readOffset()-1);
             
-            //  Message hash
-
-            hashLen = buffer.availableForRead();//TBD loss
-            hashLen = Math.min(hashLen, COINSPARK_MESSAGE_HASH_MAX_LEN);        // apply maximum
-
-            if (hashLen < COINSPARK_MESSAGE_HASH_MIN_LEN)                       // not enough hash data                
-                throw new CoinSparkExceptions.CannotDecode("has data out of range");
-
-            hash=buffer.readBytes(hashLen);            
-        }
-        catch (Exception ex)
-        {
-            System.out.print(ex.getMessage());
-            return false;
+            //  The index of the first output and number of outputs, if necessary
+            
+            if (firstBytes>0)
+            {
+                if(!buffer.canRead(firstBytes))
+                    return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.TRUNCATED, buffer.readOffset());
+                first=buffer.readInt(firstBytes);
+            }
+            
+            if (countBytes>0)
+            {
+                if(!buffer.canRead(countBytes))
+                    return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.TRUNCATED, buffer.readOffset());
+                count=buffer.readInt(countBytes);
+            }
+            
+            if ( (first < 0) || (first > CoinSparkIORange.COINSPARK_IO_INDEX_MAX) || (count < 0) || (count > CoinSparkIORange.COINSPARK_IO_INDEX_MAX) )
+                rangesValid=false;                                              // as in CoinSparkIORange.isValid(), checked by isValid() after the hash
+            
+            outputRanges[countOutputRanges]=new CoinSparkIORange(first, count);
+            countOutputRanges++;
         }
         
-        return isValid();
+        int hashLen=Math.min(buffer.availableForRead(), COINSPARK_MESSAGE_HASH_MAX_LEN);
+        if (hashLen < COINSPARK_MESSAGE_HASH_MIN_LEN)                           // not enough hash data
+            return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.TRUNCATED, buffer.readOffset());
         
-			
-	
+        if (!rangesValid || ((!isPublic) && (countOutputRanges == 0)))
+            return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.INVALID, buffer.readOffset()+hashLen);
+        
+        return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.OK, 0);
     }
-
-    
 }
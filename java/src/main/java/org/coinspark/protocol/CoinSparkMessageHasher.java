@@ -0,0 +1,219 @@
+/*
+ * CoinSpark 2.1 - Java library
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.protocol;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * CoinSparkMessageHasher class for calculating a message hash one part at a time, with the content
+ * of each part taken from an array, buffer, stream, channel or file.
+ *
+ * Content is fed straight to the hash in fixed-size chunks, so memory use does not depend on the size
+ * of the message. The resulting hash is identical to CoinSparkMessage.calcMessageHash for the same parts.
+ *
+ * A hasher must not be used by more than one thread at a time.
+ */
+
+public class CoinSparkMessageHasher {
+
+    /**
+     * CoinSparkMessageHasher class for calculating a message hash one part at a time.
+     *
+     * @param Salt salt parameter, can be null
+     */
+
+    public CoinSparkMessageHasher(byte [] Salt)
+    {
+        hasher=CoinSparkHasher.create();
+        reset(Salt);
+    }
+
+    /**
+     * Discards all parts added so far and starts a new hash.
+     *
+     * @param Salt salt parameter, can be null
+     */
+
+    public final void reset(byte [] Salt)
+    {
+        failed=(hasher == null);
+        if (failed)
+            return;
+
+        hasher.reset();
+        if (Salt != null)
+            hasher.update(Salt);
+        hasher.update((byte)0x00);
+    }
+
+    /**
+     * Adds a message part whose content is held in memory.
+     *
+     * @param Part message part to add
+     * @return true on success, false if the part has no content
+     */
+
+    public boolean addPart(CoinSparkMessagePart Part)
+    {
+        return addPart(Part.mimeType, Part.fileName, Part.content);
+    }
+
+    /**
+     * Adds a message part whose content is held in an array.
+     *
+     * @param MimeType MIME type of the part, can be null
+     * @param FileName file name of the part, can be null
+     * @param Content content of the part
+     * @return true on success, false if Content is null
+     */
+
+    public boolean addPart(String MimeType, String FileName, byte [] Content)
+    {
+        if ( (Content == null) || !startPart(MimeType, FileName) )
+            return fail();
+
+        hasher.update(Content);
+        return endPart(true);
+    }
+
+    /**
+     * Adds a message part whose content lies between the position and limit of a buffer, which can be
+     * direct or memory mapped. The position of the buffer is moved to its limit.
+     *
+     * @param MimeType MIME type of the part, can be null
+     * @param FileName file name of the part, can be null
+     * @param Content content of the part
+     * @return true on success, false if Content is null
+     */
+
+    public boolean addPart(String MimeType, String FileName, ByteBuffer Content)
+    {
+        if ( (Content == null) || !startPart(MimeType, FileName) )
+            return fail();
+
+        hasher.update(Content);
+        return endPart(true);
+    }
+
+    /**
+     * Adds a message part whose content is everything remaining in a stream. The stream is not closed.
+     *
+     * @param MimeType MIME type of the part, can be null
+     * @param FileName file name of the part, can be null
+     * @param Content stream holding the content of the part
+     * @return true on success, false if Content is null or could not be read
+     */
+
+    public boolean addPart(String MimeType, String FileName, InputStream Content)
+    {
+        if ( (Content == null) || !startPart(MimeType, FileName) )
+            return fail();
+
+        return endPart(hasher.updateFrom(Content));
+    }
+
+    /**
+     * Adds a message part whose content is everything remaining in a channel. The channel is not closed.
+     *
+     * @param MimeType MIME type of the part, can be null
+     * @param FileName file name of the part, can be null
+     * @param Content channel holding the content of the part
+     * @return true on success, false if Content is null or could not be read
+     */
+
+    public boolean addPart(String MimeType, String FileName, ReadableByteChannel Content)
+    {
+        if ( (Content == null) || !startPart(MimeType, FileName) )
+            return fail();
+
+        return endPart(hasher.updateFrom(Content));
+    }
+
+    /**
+     * Adds a message part whose content is a file, which is memory mapped rather than read onto the heap.
+     *
+     * @param MimeType MIME type of the part, can be null
+     * @param FileName file name of the part, can be null
+     * @param Content file holding the content of the part
+     * @return true on success, false if Content is null or could not be read
+     */
+
+    public boolean addPart(String MimeType, String FileName, Path Content)
+    {
+        if ( (Content == null) || !startPart(MimeType, FileName) )
+            return fail();
+
+        return endPart(hasher.updateFrom(Content));
+    }
+
+    /**
+     * Completes the message hash. The hasher must be reset before it is used again.
+     *
+     * @return byte [] | null message hash, null if any part failed to be added.
+     */
+
+    public byte [] getHash()
+    {
+        if (failed)
+            return null;
+
+        failed=true;
+        return hasher.digest();
+    }
+
+
+// Private variables/constants/functions
+
+    private final CoinSparkHasher hasher;
+    private boolean failed;
+
+    private boolean startPart(String MimeType, String FileName)
+    {
+        if (failed)
+            return false;
+
+        CoinSparkMessage.addPartHeaderToHash(MimeType, FileName, hasher);
+        return true;
+    }
+
+    private boolean endPart(boolean Success)
+    {
+        if (!Success)
+            return fail();
+
+        hasher.update((byte)0x00);
+        return true;
+    }
+
+    private boolean fail()
+    {
+        failed=true;
+        return false;
+    }
+}
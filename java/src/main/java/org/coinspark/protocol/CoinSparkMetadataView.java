@@ -0,0 +1,158 @@
+/*
+ * CoinSpark 2.1 - Java library
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.coinspark.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * CoinSparkMetadataView class for referring to metadata in place, inside a caller-owned buffer
+ * such as a serialized transaction or block, without copying it.
+ *
+ * A single view can be reused for every output script being scanned.
+ */
+
+public class CoinSparkMetadataView {
+
+    /**
+     * Buffer containing the metadata, not owned by the view
+     */
+
+    public byte [] data;
+
+    /**
+     * Position of the first byte of metadata in data
+     */
+
+    public int offset;
+
+    /**
+     * Number of bytes of metadata
+     */
+
+    public int length;
+
+    /**
+     * CoinSparkMetadataView class for referring to metadata in place.
+     */
+
+    public CoinSparkMetadataView()
+    {
+        clear();
+    }
+
+    /**
+     * CoinSparkMetadataView class for referring to metadata in place.
+     *
+     * @param Data Buffer containing the metadata
+     * @param Offset Position of the first byte of metadata in Data
+     * @param Length Number of bytes of metadata
+     */
+
+    public CoinSparkMetadataView(byte [] Data, int Offset, int Length)
+    {
+        set(Data, Offset, Length);
+    }
+
+    /**
+     * Set all fields in view to their default/zero values, which are not necessarily valid.
+     */
+
+    public final void clear()
+    {
+        data = null;
+        offset = 0;
+        length = 0;
+    }
+
+    /**
+     * Points the view at a new region.
+     *
+     * @param Data Buffer containing the metadata
+     * @param Offset Position of the first byte of metadata in Data
+     * @param Length Number of bytes of metadata
+     */
+
+    public final void set(byte [] Data, int Offset, int Length)
+    {
+        data = Data;
+        offset = Offset;
+        length = Length;
+    }
+
+    /**
+     * Returns true if the view refers to a region which lies within its buffer, false otherwise.
+     *
+     * @return true if view is valid
+     */
+
+    public boolean isValid()
+    {
+        if(data == null)
+            return false;
+
+        if( (offset < 0) || (length < 0) || (offset > data.length - length) )
+            return false;
+
+        return true;
+    }
+
+    /**
+     * Copies the metadata out of the buffer.
+     *
+     * @return byte [] | null Raw binary metadata, null if the view is not valid.
+     */
+
+    public byte [] toBytes()
+    {
+        if(!isValid())
+            return null;
+
+        return Arrays.copyOfRange(data, offset, offset+length);
+    }
+
+    /**
+     * Returns the metadata as a ByteBuffer sharing the underlying buffer.
+     *
+     * @return ByteBuffer | null Metadata between position 0 and limit, null if the view is not valid.
+     */
+
+    public ByteBuffer toByteBuffer()
+    {
+        if(!isValid())
+            return null;
+
+        return ByteBuffer.wrap(data, offset, length).slice();
+    }
+
+    @Override
+    public String toString()
+    {
+        if(!isValid())
+            return "";
+
+        return CoinSparkBase.byteToHex(data, offset, length);
+    }
+}
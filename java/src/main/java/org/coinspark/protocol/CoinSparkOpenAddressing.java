@@ -0,0 +1,245 @@
+/*
+ * CoinSpark 2.1 - Java library
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package org.coinspark.protocol;
+
+import java.util.Arrays;
+
+/**
+ * CoinSparkOpenAddressing class with the hashes and linear probing shared by the open addressing tables of the library.
+ *
+ * Tables hold at most half as many entries as slots, and the number of slots is a power of 2. Entries are removed
+ * by backward shift deletion, moving later entries of the probe sequence into the hole, so no tombstones are needed.
+ * Tables whose slots hold entry numbers use the slot functions here directly, while tables which store their
+ * records inline in the slots move them themselves, deciding which to move with shiftsBack().
+ */
+
+final class CoinSparkOpenAddressing {
+
+    /**
+     * Gives the hash of an entry in a table whose slots hold entry numbers.
+     */
+
+    interface Entries {
+
+        /**
+         * Returns the hash of entry, as used when it was inserted.
+         *
+         * @param entry entry number
+         * @return hash of the entry
+         */
+
+        int hashOf(int entry);
+    }
+
+    /**
+     * Returns the hash of an asset reference.
+     *
+     * @param blockNum block number of the asset reference
+     * @param txOffset transaction offset of the asset reference
+     * @param txIDPrefix transaction id prefix as integer, as in CoinSparkAssetRef.encode()
+     * @return hash of the asset reference
+     */
+
+    static int assetHash(long blockNum, long txOffset, int txIDPrefix)
+    {
+        long key=(blockNum*0x9E3779B97F4A7C15L) ^ (txOffset*0xC2B2AE3D27D4EB4FL) ^ txIDPrefix;
+        return (int)(key ^ (key >>> 29) ^ (key >>> 47));
+    }
+
+    /**
+     * Returns the hash of an asset reference whose block number and transaction offset are packed into one key.
+     *
+     * @param key block number and transaction offset packed by CoinSparkAssetRegistry.packKey()
+     * @param txIDPrefix transaction id prefix as integer, as in CoinSparkAssetRef.encode()
+     * @return hash of the asset reference
+     */
+
+    static int assetKeyHash(long key, int txIDPrefix)
+    {
+        long mixed=(key*0x9E3779B97F4A7C15L) ^ txIDPrefix;                      // the multiply carries the offset into the high bits
+        return (int)(mixed ^ (mixed >>> 29) ^ (mixed >>> 47));
+    }
+
+    /**
+     * Returns the hash of an outpoint. It is stored in balance store files, so must not change.
+     *
+     * @param txID bytes containing the transaction id
+     * @param txIDOffset offset of the transaction id in txID
+     * @param vout output index
+     * @return hash of the outpoint
+     */
+
+    static int outpointHash(byte [] txID, int txIDOffset, int vout)
+    {
+        return outpointHash(readLong(txID, txIDOffset), readLong(txID, txIDOffset+24), vout);
+    }
+
+    /**
+     * Returns the hash of an outpoint from the first and last 8 bytes of its transaction id.
+     *
+     * @param txID0 first 8 bytes of the transaction id, big endian
+     * @param txID3 last 8 bytes of the transaction id, big endian
+     * @param vout output index
+     * @return hash of the outpoint
+     */
+
+    static int outpointHash(long txID0, long txID3, int vout)
+    {
+        long key=(txID0 ^ txID3) ^ (vout*0x9E3779B97F4A7C15L);                  // transaction ids are already random
+        return (int)(key ^ (key >>> 32));
+    }
+
+    /**
+     * Returns 8 bytes as a big endian long.
+     *
+     * @param bytes source bytes
+     * @param offset offset of the first byte
+     * @return value read
+     */
+
+    static long readLong(byte [] bytes, int offset)
+    {
+        long value=0;
+        for (int index=0; index<8; index++)
+            value=(value << 8) | (bytes[offset+index] & 0xFF);
+
+        return value;
+    }
+
+    /**
+     * Returns the number of slots for a table of capacity entries.
+     *
+     * @param capacity number of entries
+     * @return number of slots, a power of 2 at least twice capacity
+     */
+
+    static int tableSize(int capacity)
+    {
+        int size=2;
+        while (size < 2*capacity)
+            size*=2;
+
+        return size;
+    }
+
+    /**
+     * Returns a new table of entry numbers with all slots empty.
+     *
+     * @param size number of slots, a power of 2
+     * @return slots, -1 for empty
+     */
+
+    static int [] newSlots(int size)
+    {
+        int [] slots=new int[size];
+        Arrays.fill(slots, -1);
+        return slots;
+    }
+
+    /**
+     * Returns the first empty slot on the probe sequence of hash.
+     *
+     * @param slots slots of entry numbers, -1 for empty
+     * @param hash hash of the entry to insert
+     * @return empty slot
+     */
+
+    static int emptySlot(int [] slots, int hash)
+    {
+        int mask=slots.length-1;
+        int slot=hash & mask;
+        while (slots[slot] >= 0)
+            slot=(slot+1) & mask;
+
+        return slot;
+    }
+
+    /**
+     * Returns the slot holding entry.
+     *
+     * @param slots slots of entry numbers, -1 for empty
+     * @param hash hash of the entry
+     * @param entry entry number to look for
+     * @return slot, -1 if not found
+     */
+
+    static int findSlot(int [] slots, int hash, int entry)
+    {
+        int mask=slots.length-1;
+        for (int slot=hash & mask; slots[slot] >= 0; slot=(slot+1) & mask)
+            if (slots[slot] == entry)
+                return slot;
+
+        return -1;
+    }
+
+    /**
+     * Empties slot, shifting later entries of its probe sequence back.
+     *
+     * @param slots slots of entry numbers, -1 for empty
+     * @param slot slot to empty
+     * @param entries hashes of the entries
+     */
+
+    static void removeSlot(int [] slots, int slot, Entries entries)
+    {
+        int mask=slots.length-1;
+        int hole=slot;
+
+        for (int next=(hole+1) & mask; slots[next] >= 0; next=(next+1) & mask)
+            if (shiftsBack(next, entries.hashOf(slots[next]) & mask, hole, mask))
+            {
+                slots[hole]=slots[next];
+                hole=next;
+            }
+
+        slots[hole]=-1;
+    }
+
+    /**
+     * Returns true if the entry in slot next should be moved into the hole when deleting, because the hole lies
+     * on its probe sequence between its home slot and next.
+     *
+     * @param next slot of the entry, after hole on the same run of full slots
+     * @param home home slot of the entry, its hash masked
+     * @param hole empty slot
+     * @param mask number of slots minus 1
+     * @return true if the entry should be moved into the hole
+     */
+
+    static boolean shiftsBack(long next, long home, long hole, long mask)
+    {
+        return ((next-home) & mask) >= ((next-hole) & mask);
+    }
+
+
+// Private variables/constants/functions
+
+    private CoinSparkOpenAddressing()
+    {
+    }
+}
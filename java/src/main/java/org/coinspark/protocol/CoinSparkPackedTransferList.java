@@ -0,0 +1,825 @@
+/*
+ * CoinSpark 2.1 - Java library
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * CoinSparkPackedTransferList class for holding a list of asset transfers in parallel primitive arrays,
+ * one per field, instead of one CoinSparkTransfer object per transfer.
+ *
+ * Encoding, decoding, apply(), applyNone(), calcMinFee() and defaultOutputs() give the same results as CoinSparkTransferList.
+ */
+
+public class CoinSparkPackedTransferList extends CoinSparkBase{
+
+    /**
+     * CoinSparkPackedTransferList class for holding a list of asset transfers in parallel primitive arrays
+     */
+
+    public CoinSparkPackedTransferList()
+    {
+        this(CAPACITY_DEFAULT);
+    }
+
+    /**
+     * CoinSparkPackedTransferList class for holding a list of asset transfers in parallel primitive arrays
+     * @param Capacity initial number of transfers which can be stored without growing the arrays
+     */
+
+    public CoinSparkPackedTransferList(int Capacity)
+    {
+        allocate(Math.max(Capacity, 0));
+    }
+
+    /**
+     * Removes all transfers, keeping the allocated arrays.
+     */
+
+    public final void clear()
+    {
+        countTransfers=0;
+    }
+
+    /**
+     * Returns real number of transfer in the list
+     * @return number of transfers in the list
+     */
+
+    public int count() {
+        return countTransfers;
+    }
+
+    /**
+     * Shrinks the arrays to the number of transfers in the list.
+     */
+
+    public void trimToSize()
+    {
+        if (blockNums.length > countTransfers)
+            resize(countTransfers);
+    }
+
+    /**
+     * Returns block number of the asset of transfer i, or -1 for a default route.
+     *
+     * @param i transfer id (0 based)
+     * @return block number
+     */
+
+    public long getBlockNum(int i) {
+        return blockNums[i];
+    }
+
+    /**
+     * Returns byte offset within the block of the asset's genesis transaction of transfer i.
+     *
+     * @param i transfer id (0 based)
+     * @return transaction offset
+     */
+
+    public long getTxOffset(int i) {
+        return txOffsets[i];
+    }
+
+    /**
+     * Returns first bytes of genesis transaction id of transfer i, as in CoinSparkAssetRef.encode().
+     *
+     * @param i transfer id (0 based)
+     * @return transaction id prefix as integer
+     */
+
+    public int getTxIDPrefixInteger(int i) {
+        return txIDPrefixes[i];
+    }
+
+    /**
+     * Returns true if transfer i is a default route.
+     *
+     * @param i transfer id (0 based)
+     * @return true for a default route
+     */
+
+    public boolean isDefaultRoute(int i) {
+        return blockNums[i] == CoinSparkTransfer.COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE;
+    }
+
+    /**
+     * Returns index of the first input of transfer i.
+     *
+     * @param i transfer id (0 based)
+     * @return first input
+     */
+
+    public int getInputFirst(int i) {
+        return inputFirsts[i];
+    }
+
+    /**
+     * Returns number of inputs of transfer i.
+     *
+     * @param i transfer id (0 based)
+     * @return input count
+     */
+
+    public int getInputCount(int i) {
+        return inputCounts[i];
+    }
+
+    /**
+     * Returns index of the first output of transfer i.
+     *
+     * @param i transfer id (0 based)
+     * @return first output
+     */
+
+    public int getOutputFirst(int i) {
+        return outputFirsts[i];
+    }
+
+    /**
+     * Returns number of outputs of transfer i.
+     *
+     * @param i transfer id (0 based)
+     * @return output count
+     */
+
+    public int getOutputCount(int i) {
+        return outputCounts[i];
+    }
+
+    /**
+     * Returns quantity of asset units transferred to each output of transfer i.
+     *
+     * @param i transfer id (0 based)
+     * @return quantity per output
+     */
+
+    public long getQtyPerOutput(int i) {
+        return qtyPerOutputs[i];
+    }
+
+    /**
+     * Returns true if transfer i refers to the asset reference.
+     *
+     * @param i transfer id (0 based)
+     * @param assetRef asset reference to compare with
+     * @return true if the genesis block, offset and transaction id prefix are identical
+     */
+
+    public boolean matchAssetRef(int i, CoinSparkAssetRef assetRef)
+    {
+        byte [] txIDPrefix=assetRef.getTxIDPrefix();
+
+        return (blockNums[i] == assetRef.getBlockNum()) && (txOffsets[i] == assetRef.getTxOffset()) &&
+               (txIDPrefix != null) && (txIDPrefix.length == CoinSparkAssetRef.COINSPARK_ASSETREF_TXID_PREFIX_LEN) &&
+               (txIDPrefixes[i] == prefixToInteger(txIDPrefix));
+    }
+
+    /**
+     * Copies transfer i into a CoinSparkTransfer, reusing its asset reference and ranges.
+     *
+     * @param i transfer id (0 based)
+     * @param transfer transfer to set
+     */
+
+    public void getTransfer(int i, CoinSparkTransfer transfer)
+    {
+        CoinSparkAssetRef assetRef=transfer.getAssetRef();
+        assetRef.setBlockNum(blockNums[i]);
+        assetRef.setTxOffset(txOffsets[i]);
+        assetRef.getTxIDPrefix()[0]=(byte)txIDPrefixes[i];
+        assetRef.getTxIDPrefix()[1]=(byte)(txIDPrefixes[i] >> 8);
+        transfer.getInputs().first=inputFirsts[i];
+        transfer.getInputs().count=inputCounts[i];
+        transfer.getOutputs().first=outputFirsts[i];
+        transfer.getOutputs().count=outputCounts[i];
+        transfer.setQtyPerOutput(qtyPerOutputs[i]);
+    }
+
+    /**
+     * Return individual transfer as a new object
+     * @param i transfer id (0 based)
+     * @return individual transfer, null if i is out of range
+     */
+
+    public CoinSparkTransfer getTransfer(int i)
+    {
+        if ( (i < 0) || (i >= countTransfers) )
+            return null;
+
+        CoinSparkTransfer transfer=new CoinSparkTransfer();
+        getTransfer(i, transfer);
+        return transfer;
+    }
+
+    /**
+     * Adds transfer to the end of the list
+     *
+     * @param blockNum block number of the asset, or -1 for a default route
+     * @param txOffset byte offset within the block of the asset's genesis transaction
+     * @param txIDPrefix first bytes of genesis transaction id, as in CoinSparkAssetRef.encode()
+     * @param inputFirst index of the first input
+     * @param inputCount number of inputs
+     * @param outputFirst index of the first output
+     * @param outputCount number of outputs
+     * @param qtyPerOutput quantity of asset units transferred to each output
+     */
+
+    public void add(long blockNum, long txOffset, int txIDPrefix, int inputFirst, int inputCount,
+            int outputFirst, int outputCount, long qtyPerOutput)
+    {
+        if (countTransfers >= blockNums.length)
+            resize(Math.max(countTransfers*2, CAPACITY_DEFAULT));
+
+        blockNums[countTransfers]=blockNum;
+        txOffsets[countTransfers]=txOffset;
+        txIDPrefixes[countTransfers]=(char)txIDPrefix;
+        inputFirsts[countTransfers]=inputFirst;
+        inputCounts[countTransfers]=inputCount;
+        outputFirsts[countTransfers]=outputFirst;
+        outputCounts[countTransfers]=outputCount;
+        qtyPerOutputs[countTransfers]=qtyPerOutput;
+        countTransfers++;
+    }
+
+    /**
+     * Adds transfer to the end of the list
+     *
+     * @param transfer to add
+     */
+
+    public void add(CoinSparkTransfer transfer)
+    {
+        add(transfer.getAssetRef().getBlockNum(), transfer.getAssetRef().getTxOffset(), prefixToInteger(transfer.getAssetRef().getTxIDPrefix()),
+                transfer.getInputs().first, transfer.getInputs().count, transfer.getOutputs().first, transfer.getOutputs().count,
+                transfer.getQtyPerOutput());
+    }
+
+    /**
+     * Adds all transfers of a transfer list to the end of the list
+     *
+     * @param transfers transfer list to add
+     */
+
+    public void addAll(CoinSparkTransferList transfers)
+    {
+        for (int transferIndex=0; transferIndex<transfers.count(); transferIndex++) {
+            add(transfers.getTransfer(transferIndex));
+        }
+    }
+
+    /**
+     * Converts to a CoinSparkTransferList with one CoinSparkTransfer object per transfer.
+     *
+     * @return transfer list
+     */
+
+    public CoinSparkTransferList toTransferList()
+    {
+        CoinSparkTransferList transfers=new CoinSparkTransferList(Math.max(countTransfers, 1));
+
+        for (int transferIndex=0; transferIndex<countTransfers; transferIndex++) {
+            transfers.setTransfer(transferIndex, getTransfer(transferIndex));
+        }
+
+        return transfers;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("COINSPARK TRANSFERS\n");
+
+        CoinSparkTransfer transfer=new CoinSparkTransfer();
+        for (int index=0; index < countTransfers; index++)
+        {
+            if (index>0)
+                sb.append("\n");
+
+            getTransfer(index, transfer);
+            sb.append(CoinSparkTransfer.toStringInner(transfer, false));
+        }
+
+        sb.append("END COINSPARK TRANSFERS\n\n");
+        return sb.toString();
+    }
+
+    /**
+     * Encodes the transfer list into metadata.
+     *
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @param metadataMaxLen maximal size of metadata
+     * @return String | null Encoded transfer list as hexadecimal, null if we failed.
+     */
+
+    public String encodeToHex(int countInputs, int countOutputs,int metadataMaxLen)
+    {
+        CoinSparkBuffer buffer=new CoinSparkBuffer();
+        if(!encode(buffer,countInputs,countOutputs,metadataMaxLen))
+        {
+            return null;
+        }
+
+        return buffer.toHex();
+    }
+
+    /**
+     * Encodes the transfer list into metadata.
+     *
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @param metadataMaxLen maximal size of metadata
+     * @return byte [] | null Encoded transfer list as raw data, null if we failed.
+     */
+
+    public byte [] encode(int countInputs, int countOutputs,int metadataMaxLen)
+    {
+        CoinSparkBuffer buffer=new CoinSparkBuffer();
+
+        if(!encode(buffer,countInputs,countOutputs,metadataMaxLen))
+        {
+            return null;
+        }
+
+        return buffer.toBytes();
+    }
+
+    /**
+     * Decodes the metadata into transfer list, replacing its contents.
+     *
+     * @param metadata Metadata to decode as hexadecimal
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @return true on success, false on failure
+     */
+
+    public boolean decode(String metadata, int countInputs, int countOutputs)
+    {
+        CoinSparkTransferCursor cursor=new CoinSparkTransferCursor();
+        return decode(cursor, cursor.reset(metadata, countInputs, countOutputs));
+    }
+
+    /**
+     * Decodes the metadata into transfer list, replacing its contents.
+     *
+     * @param metadata Metadata to decode as raw data
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @return true on success, false on failure
+     */
+
+    public boolean decode(byte [] metadata, int countInputs, int countOutputs)
+    {
+        CoinSparkTransferCursor cursor=new CoinSparkTransferCursor();
+        return decode(cursor, cursor.reset(metadata, countInputs, countOutputs));
+    }
+
+    /**
+     * Decodes the metadata into transfer list, replacing its contents.
+     *
+     * @param metadata View of the metadata to decode, e.g. from scriptToMetadata(byte[],int,int,CoinSparkMetadataView)
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @return true on success, false on failure
+     */
+
+    public boolean decode(CoinSparkMetadataView metadata, int countInputs, int countOutputs)
+    {
+        CoinSparkTransferCursor cursor=new CoinSparkTransferCursor();
+        return decode(cursor, cursor.reset(metadata, countInputs, countOutputs));
+    }
+
+    /**
+     * Decodes the metadata into transfer list, replacing its contents.
+     *
+     * @param metadata Metadata to decode, between position and limit. The position is not changed.
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @return true on success, false on failure
+     */
+
+    public boolean decode(ByteBuffer metadata, int countInputs, int countOutputs)
+    {
+        CoinSparkTransferCursor cursor=new CoinSparkTransferCursor();
+        return decode(cursor, cursor.reset(metadata, countInputs, countOutputs));
+    }
+
+    /**
+     * Decodes the metadata into transfer list, replacing its contents and reporting why it failed without writing to the console.
+     *
+     * @param metadata Metadata to decode as raw data
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @param status Set to the result and the offset of any failure, can be null
+     * @return OK on success, otherwise the reason for failure
+     */
+
+    public CoinSparkDecodeStatus.Reason decode(byte [] metadata, int countInputs, int countOutputs, CoinSparkDecodeStatus status)
+    {
+        CoinSparkTransferCursor cursor=new CoinSparkTransferCursor();
+        decode(cursor, cursor.reset(metadata, countInputs, countOutputs));
+        return CoinSparkDecodeStatus.set(status, cursor.getStatus().reason, cursor.getStatus().offset);
+    }
+
+    /**
+     * Decodes the metadata into transfer list, replacing its contents and reporting why it failed without writing to the console.
+     *
+     * @param metadata View of the metadata to decode, e.g. from scriptToMetadata(byte[],int,int,CoinSparkMetadataView)
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @param status Set to the result and the offset of any failure, can be null
+     * @return OK on success, otherwise the reason for failure
+     */
+
+    public CoinSparkDecodeStatus.Reason decode(CoinSparkMetadataView metadata, int countInputs, int countOutputs, CoinSparkDecodeStatus status)
+    {
+        CoinSparkTransferCursor cursor=new CoinSparkTransferCursor();
+        decode(cursor, cursor.reset(metadata, countInputs, countOutputs));
+        return CoinSparkDecodeStatus.set(status, cursor.getStatus().reason, cursor.getStatus().offset);
+    }
+
+    /**
+     * Use CoinSparkScriptIsRegular() to pass an array of bools in outputsRegular for whether each output script is regular.
+     * Pass the number of transaction inputs and outputs in countInputs and countOutputs respectively.
+     * @param countInputs number of inputs in transaction
+     * @param outputsSatoshis Pass the number of bitcoin satoshis in each output in outputsSatoshis (array size countOutputs).
+     * @param outputsRegular pass array of booleans for whether each output script is regular
+     * @return Returns the minimum transaction fee (in bitcoin satoshis) required to make the set of transfers valid.
+    */
+
+    public long calcMinFee(int countInputs, long[] outputsSatoshis, boolean[] outputsRegular) {
+
+        if(outputsSatoshis.length != outputsRegular.length)
+        {
+            return COINSPARK_SATOSHI_QTY_MAX;
+        }
+
+        int transfersToCover = 0;
+
+        for (int transferIndex = 0; transferIndex < countTransfers; transferIndex++) {
+            if (blockNums[transferIndex] != CoinSparkTransfer.COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE) // don't count default routes
+            {
+                transfersToCover += CoinSparkTransferList.transferOutputsToCover(inputFirsts[transferIndex], inputCounts[transferIndex],
+                        outputFirsts[transferIndex], outputCounts[transferIndex], countInputs, outputsRegular);
+            }
+        }
+        long temp = getMinFeeBasis(outputsSatoshis, outputsRegular);
+        temp *= transfersToCover;
+        return temp;
+    }
+
+    /**
+     * For the asset specified by assetRef and genesis, applies the transfers in the list
+     * to move units of that asset from inputBalances (size countInputs) to outputBalances.
+     * Only transfers whose assetRef matches the function's assetRef parameter will be applied (apart from default routes).
+     * ** Call this if the transaction DOES HAVE a sufficient fee to make the list of transfers valid **
+     *
+     * @param reference Asset reference
+     * @param genesis Genesis object corresponding to asset reference
+     * @param inputBalances Input balances
+     * @param outputsRegular pass array of booleans for whether each output script is regular
+     * @return Output balances
+     */
+
+    public long[] apply(CoinSparkAssetRef reference, CoinSparkGenesis genesis,
+               long[] inputBalances,boolean[] outputsRegular)
+    {
+        long[] outputBalances=new long[outputsRegular.length];
+
+        apply(reference, genesis, inputBalances.length, inputBalances, outputsRegular.length, outputsRegular, outputBalances,
+                new CoinSparkApplyContext(inputBalances.length));
+
+        return outputBalances;
+    }
+
+    /**
+     * As apply(CoinSparkAssetRef,CoinSparkGenesis,long[],boolean[]), but writes into outputBalances and takes its scratch arrays
+     * from context, so it does not allocate. The arrays may be longer than countInputs/countOutputs, extra entries are ignored.
+     * ** Call this if the transaction DOES HAVE a sufficient fee to make the list of transfers valid **
+     *
+     * @param reference Asset reference
+     * @param genesis Genesis object corresponding to asset reference
+     * @param countInputs number of inputs in transaction
+     * @param inputBalances Input balances (at least countInputs entries)
+     * @param countOutputs number of outputs in transaction
+     * @param outputsRegular pass array of booleans for whether each output script is regular (at least countOutputs entries)
+     * @param outputBalances array of at least countOutputs entries to receive the output balances
+     * @param context reusable scratch arrays
+     * @return true on success, false if an array is too small
+     */
+
+    public boolean apply(CoinSparkAssetRef reference, CoinSparkGenesis genesis, int countInputs, long[] inputBalances,
+               int countOutputs, boolean[] outputsRegular, long[] outputBalances, CoinSparkApplyContext context)
+    {
+        if(!CoinSparkTransferList.applySizesValid(countInputs, inputBalances, countOutputs, outputsRegular, outputBalances))
+            return false;
+
+        long[] inputsRemaining = context.getInputsRemaining(countInputs);
+        System.arraycopy(inputBalances, 0, inputsRemaining, 0, countInputs);
+        Arrays.fill(outputBalances, 0, countOutputs, 0);
+
+        //  Perform explicit transfers (i.e. not default routes)
+
+        for (int transferIndex=0; transferIndex < countTransfers; transferIndex++)
+        {
+            if (matchAssetRef(transferIndex, reference)) {
+                CoinSparkTransferList.applyTransfer(inputFirsts[transferIndex], inputCounts[transferIndex],
+                        outputFirsts[transferIndex], outputCounts[transferIndex], qtyPerOutputs[transferIndex],
+                        countInputs, inputsRemaining, countOutputs, outputBalances, outputsRegular);
+            }
+        }
+
+        CoinSparkTransferList.applyChargesAndDefaultRoutes(genesis, countInputs, inputsRemaining, countOutputs, outputBalances, outputsRegular,
+                getDefaultRouteMap(countInputs, countOutputs, outputsRegular, context.getInputDefaultOutput(countInputs)));
+
+        return true;
+    }
+
+    /**
+     * For the asset specified by assetRef and genesis, move units of that asset from inputBalances (size countInputs) to
+     * outputBalances, applying the default behavior only (all assets goes to last regular output).
+     * ** Call this if the transaction DOES NOT HAVE a sufficient fee to make the list of transfers valid **
+     * @param assetRef Asset reference
+     * @param genesis Genesis object corresponding to asset reference
+     * @param inputBalances Input balances
+     * @param outputsRegular pass array of booleans for whether each output script is regular
+     * @return Output balances
+     */
+
+    public long[] applyNone(CoinSparkAssetRef assetRef, CoinSparkGenesis genesis,
+                                     long[] inputBalances,boolean[] outputsRegular)
+    {
+        long[] outputBalances=new long[outputsRegular.length];
+
+        CoinSparkTransferList.applyNoneInner(genesis, inputBalances.length, inputBalances, outputsRegular.length, outputsRegular, outputBalances,
+                new CoinSparkApplyContext(inputBalances.length));
+
+        return outputBalances;
+    }
+
+    /**
+     * As applyNone(CoinSparkAssetRef,CoinSparkGenesis,long[],boolean[]), but writes into outputBalances and takes its scratch arrays
+     * from context, so it does not allocate. The arrays may be longer than countInputs/countOutputs, extra entries are ignored.
+     * ** Call this if the transaction DOES NOT HAVE a sufficient fee to make the list of transfers valid **
+     *
+     * @param assetRef Asset reference
+     * @param genesis Genesis object corresponding to asset reference
+     * @param countInputs number of inputs in transaction
+     * @param inputBalances Input balances (at least countInputs entries)
+     * @param countOutputs number of outputs in transaction
+     * @param outputsRegular pass array of booleans for whether each output script is regular (at least countOutputs entries)
+     * @param outputBalances array of at least countOutputs entries to receive the output balances
+     * @param context reusable scratch arrays
+     * @return true on success, false if an array is too small
+     */
+
+    public boolean applyNone(CoinSparkAssetRef assetRef, CoinSparkGenesis genesis, int countInputs, long[] inputBalances,
+               int countOutputs, boolean[] outputsRegular, long[] outputBalances, CoinSparkApplyContext context)
+    {
+        return CoinSparkTransferList.applyNoneInner(genesis, countInputs, inputBalances, countOutputs, outputsRegular, outputBalances, context);
+    }
+
+    /**
+     * For the list of transfers on a transaction with countInputs inputs, calculate
+     * the array of bools in outputsDefault where each entry indicates whether that
+     * output might receive some assets due to default routes.
+     *
+     * @param countInputs number of inputs in transaction
+     * @param outputsRegular pass array of booleans for whether each output script is regular
+     * @return array of booleans indicating where each entry indicates whether that output might receive some assets due to default routes.
+    */
+
+    public boolean [] defaultOutputs(int countInputs, boolean[] outputsRegular)
+    {
+        boolean [] outputsDefault=new boolean [outputsRegular.length];
+
+        defaultOutputs(countInputs, outputsRegular.length, outputsRegular, outputsDefault, new CoinSparkApplyContext(countInputs));
+
+        return outputsDefault;
+    }
+
+    /**
+     * As defaultOutputs(int,boolean[]), but writes into outputsDefault and takes its scratch arrays from context, so it does not allocate.
+     *
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @param outputsRegular pass array of booleans for whether each output script is regular (at least countOutputs entries)
+     * @param outputsDefault array of at least countOutputs entries to receive the result
+     * @param context reusable scratch arrays
+     * @return true on success, false if an array is too small
+    */
+
+    public boolean defaultOutputs(int countInputs, int countOutputs, boolean[] outputsRegular, boolean [] outputsDefault, CoinSparkApplyContext context)
+    {
+        if( (countInputs < 0) || (countOutputs < 0) || (outputsRegular.length < countOutputs) || (outputsDefault.length < countOutputs) )
+            return false;
+
+        int[] inputDefaultOutput = getDefaultRouteMap(countInputs, countOutputs, outputsRegular, context.getInputDefaultOutput(countInputs));
+
+        CoinSparkTransferList.defaultRouteMapToOutputs(countInputs, inputDefaultOutput, countOutputs, outputsDefault);
+
+        return true;
+    }
+
+
+
+// Private variables/constants/functions
+
+
+    private static final int CAPACITY_DEFAULT = 4;
+
+    private int countTransfers;
+    private long [] blockNums;
+    private long [] txOffsets;
+    private char [] txIDPrefixes;                                               // byte 0 in the low bits, so unsigned
+    private int [] inputFirsts;
+    private int [] inputCounts;
+    private int [] outputFirsts;
+    private int [] outputCounts;
+    private long [] qtyPerOutputs;
+
+    private void allocate(int capacity)
+    {
+        blockNums=new long[capacity];
+        txOffsets=new long[capacity];
+        txIDPrefixes=new char[capacity];
+        inputFirsts=new int[capacity];
+        inputCounts=new int[capacity];
+        outputFirsts=new int[capacity];
+        outputCounts=new int[capacity];
+        qtyPerOutputs=new long[capacity];
+    }
+
+    private void resize(int capacity)
+    {
+        blockNums=Arrays.copyOf(blockNums, capacity);
+        txOffsets=Arrays.copyOf(txOffsets, capacity);
+        txIDPrefixes=Arrays.copyOf(txIDPrefixes, capacity);
+        inputFirsts=Arrays.copyOf(inputFirsts, capacity);
+        inputCounts=Arrays.copyOf(inputCounts, capacity);
+        outputFirsts=Arrays.copyOf(outputFirsts, capacity);
+        outputCounts=Arrays.copyOf(outputCounts, capacity);
+        qtyPerOutputs=Arrays.copyOf(qtyPerOutputs, capacity);
+    }
+
+    private static int prefixToInteger(byte [] txIDPrefix)
+    {
+        return 256*(txIDPrefix[1] & 0xFF) + (txIDPrefix[0] & 0xFF);
+    }
+
+    private boolean encode(CoinSparkBuffer buffer, int countInputs, int countOutputs,int metadataMaxLen)
+    {
+        buffer.writePrefix(COINSPARK_TRANSFERS_PREFIX);
+
+        //  Encode each transfer, grouping by asset reference, but preserving original order otherwise
+
+        int[] ordering = transfersGroupOrdering();
+
+        //  Two transfer objects are reused, one holding the transfer being encoded and one the previous transfer
+
+        CoinSparkTransfer transfer = new CoinSparkTransfer();
+        CoinSparkTransfer previousTransfer = new CoinSparkTransfer();
+        CoinSparkTransfer swap;
+
+        for (int transferIndex = 0; transferIndex<countTransfers; transferIndex++)
+        {
+            getTransfer(ordering[transferIndex], transfer);
+
+            if(!transfer.encode(buffer, (transferIndex > 0) ? previousTransfer : null, countInputs, countOutputs))
+            {
+                return false;
+            }
+
+            swap = previousTransfer;
+            previousTransfer = transfer;
+            transfer = swap;
+        }
+
+        if(buffer.length()>metadataMaxLen)
+        {
+            return false;
+        }
+
+        return true;
+    }
+
+    private boolean decode(CoinSparkTransferCursor cursor, boolean found)
+    {
+        countTransfers=0;
+
+        if(!found)
+            return false;
+
+        while (cursor.next())
+        {
+            add(cursor.getBlockNum(), cursor.getTxOffset(), cursor.getTxIDPrefixInteger(), cursor.getInputFirst(), cursor.getInputCount(),
+                    cursor.getOutputFirst(), cursor.getOutputCount(), cursor.getQtyPerOutput());
+        }
+
+        if(cursor.hasFailed())
+        {
+            countTransfers=0;                                                   // as if nothing was decoded
+            return false;
+        }
+
+        return true;
+    }
+
+    private int[] getDefaultRouteMap(int countInputs, int countOutputs, boolean[] outputsRegular, int[] inputDefaultOutput)
+    {
+        CoinSparkTransferList.fillDefaultRouteMap(countInputs, countOutputs, outputsRegular, inputDefaultOutput);
+
+        //  Apply any default route transfers in reverse order (since early ones take precedence)
+
+        for (int transferIndex=countTransfers-1; transferIndex>=0; transferIndex--) {
+            if (blockNums[transferIndex] == CoinSparkTransfer.COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE)
+            {
+                CoinSparkTransferList.applyDefaultRoute(inputFirsts[transferIndex], inputCounts[transferIndex],
+                        outputFirsts[transferIndex], countInputs, inputDefaultOutput, countOutputs);
+            }
+        }
+
+        return inputDefaultOutput;
+    }
+
+    private int compareAssetRef(int transferIndex1, int transferIndex2)
+    {
+        // same order as CoinSparkAssetRef.compare(), whose prefix comparison starts with byte 0
+
+        if (blockNums[transferIndex1] != blockNums[transferIndex2])
+            return blockNums[transferIndex1] < blockNums[transferIndex2] ? -1 : 1;
+
+        else if (blockNums[transferIndex1] == CoinSparkTransfer.COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE) // in this case don't compare other fields
+            return 0;
+
+        else if (txOffsets[transferIndex1] != txOffsets[transferIndex2])
+            return txOffsets[transferIndex1] < txOffsets[transferIndex2] ? -1 : 1;
+
+        int prefix1=txIDPrefixes[transferIndex1];
+        int prefix2=txIDPrefixes[transferIndex2];
+
+        if ((prefix1 & 0xFF) != (prefix2 & 0xFF))
+            return (prefix1 & 0xFF) - (prefix2 & 0xFF);
+
+        return (prefix1 >> 8) - (prefix2 >> 8);
+    }
+
+    private int[] transfersGroupOrdering()
+    {
+        // Default routes first in their original order, then grouped by asset reference as in CoinSparkTransferList.encode()
+
+        Integer[] sorted = new Integer[countTransfers];
+        for (int transferIndex=0; transferIndex<countTransfers; transferIndex++) {
+            sorted[transferIndex] = transferIndex;
+        }
+
+        Arrays.sort(sorted, new Comparator<Integer>() {                         // stable, so the original order is kept for ties
+            @Override
+            public int compare(Integer transferIndex1, Integer transferIndex2) {
+                boolean defaultRoute1 = isDefaultRoute(transferIndex1);
+                boolean defaultRoute2 = isDefaultRoute(transferIndex2);
+
+                if (defaultRoute1 != defaultRoute2)
+                    return defaultRoute1 ? -1 : 1;
+
+                return compareAssetRef(transferIndex1, transferIndex2);
+            }
+        });
+
+        int[] ordering = new int[countTransfers];
+        for (int transferIndex=0; transferIndex<countTransfers; transferIndex++) {
+            ordering[transferIndex] = sorted[transferIndex];
+        }
+
+        return ordering;
+    }
+
+}
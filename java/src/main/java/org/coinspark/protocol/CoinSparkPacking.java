@@ -102,6 +102,8 @@ public class CoinSparkPacking {
         }
     }
     
+    private final static PackingType packingTypes[]=PackingType.values();       // values() returns a new copy on each call
+    
     protected final static byte packingExtendMap[]={ // same order as above
             COINSPARK_PACKING_EXTEND_0P,
             COINSPARK_PACKING_EXTEND_1S,
@@ -116,7 +118,7 @@ public class CoinSparkPacking {
 
     protected static Byte encodePackingExtend(boolean [] packingOptions)
     {
-        for (PackingType option :  PackingType.values())       
+        for (PackingType option :  packingTypes)       
         {
             if (option != PackingType._NONE && option != PackingType.countPackingTypes && packingOptions[option.getValue()]) {
                 return packingExtendMap[option.getValue()];
@@ -129,7 +131,7 @@ public class CoinSparkPacking {
     protected static PackingType decodePackingExtend(byte packingExtend, boolean ForMessages)
     {
         PackingType packingType = PackingType._NONE;
-        for (PackingType option :  PackingType.values()) {       
+        for (PackingType option :  packingTypes) {       
             if (option != PackingType._NONE && option != PackingType.countPackingTypes)
                 if(option!=(ForMessages ? PackingType._1S : PackingType._0_1_BYTE))// no _1S for messages, no _0_1_BYTE for transfers
                     if (packingExtend==packingExtendMap[option.getValue()]) {                    
@@ -142,7 +144,7 @@ public class CoinSparkPacking {
     }
     
     
-    protected class PackingByteCounts{
+    protected static class PackingByteCounts{
         protected int blockNumBytes;
         protected int txOffsetBytes;
         protected int txIDPrefixBytes;
@@ -153,6 +155,11 @@ public class CoinSparkPacking {
         protected int quantityBytes;
 
         public PackingByteCounts()
+        {
+            clear();
+        }
+        
+        protected final void clear()
         {
             //  Set default values for bytes for all fields to zero
             blockNumBytes = 0;
@@ -179,46 +186,59 @@ public class CoinSparkPacking {
     protected static CoinSparkIORange packingTypeToValues(PackingType packingType, CoinSparkIORange previousRange, int countInputOutputs)
     {
         CoinSparkIORange range=new CoinSparkIORange();
+        
+        if (previousRange!= null) {
+            range.first=packingTypeToFirst(packingType, true, previousRange.first, previousRange.count);
+            range.count=packingTypeToCount(packingType, true, previousRange.count, countInputOutputs);
+        } else {
+            range.first=packingTypeToFirst(packingType, false, 0, 0);
+            range.count=packingTypeToCount(packingType, false, 0, countInputOutputs);
+        }
+        
+        return range;
+    }
+    
+    /**
+     * Same as packingTypeToValues(), for the first index only and without allocating a range.
+     */
+    
+    protected static int packingTypeToFirst(PackingType packingType, boolean hasPrevious, int previousFirst, int previousCount)
+    {
         switch (packingType)
         {
             case _0P:
-                if (previousRange!= null) {
-                    range.first=previousRange.first;
-                    range.count=previousRange.count;
-                } else {
-                    range.first=0;
-                    range.count=1;                    
-                }
-                break;
+                return hasPrevious ? previousFirst : 0;
 
             case _1S:
-                if (previousRange != null)
-                    range.first=previousRange.first+previousRange.count;
-                else
-                    range.first=1;
+                return hasPrevious ? previousFirst+previousCount : 1;
 
-                range.count=1;
-                break;
+            default:                                                            // _0_1_BYTE and _ALL start at 0, others need to be read in
+                return 0;
+        }
+    }
+    
+    /**
+     * Same as packingTypeToValues(), for the count only and without allocating a range.
+     */
+    
+    protected static int packingTypeToCount(PackingType packingType, boolean hasPrevious, int previousCount, int countInputOutputs)
+    {
+        switch (packingType)
+        {
+            case _0P:
+                return hasPrevious ? previousCount : 1;
 
-            case _0_1_BYTE:
-                range.first=0;
-                break;
-                
+            case _1S:
             case _1_0_BYTE:
             case _2_BYTES:
-                range.count=1;
-                break;
+                return 1;
 
             case _ALL:
-                range.first=0;
-                range.count=countInputOutputs;
-                break;
+                return countInputOutputs;
 
             default:                                                            // other packing types need to be read in
-                break;
+                return 0;
         }
-        
-        return range;
     }
     
     protected static int [] packingExtendAddByteCounts(int packingExtend,int firstBytes, int countBytes, boolean forMessages)
@@ -226,48 +246,61 @@ public class CoinSparkPacking {
         int [] result=new int[3];
         
         result[0]=0;                                                            // Reserved for packing
-        result[1]=firstBytes;
-        result[2]=countBytes;
+        result[1]=packingExtendFirstBytes(packingExtend, firstBytes);
+        result[2]=packingExtendCountBytes(packingExtend, countBytes, forMessages);
+        
+        return result;
+    }
+    
+    protected static int packingExtendFirstBytes(int packingExtend,int firstBytes)
+    {
+        switch (packingExtend)
+        {
+            case COINSPARK_PACKING_EXTEND_1_0_BYTE:
+            case COINSPARK_PACKING_EXTEND_1_1_BYTES:
+                return 1;
+
+            case COINSPARK_PACKING_EXTEND_2_BYTES:
+            case COINSPARK_PACKING_EXTEND_2_1_BYTES:
+            case COINSPARK_PACKING_EXTEND_2_2_BYTES:
+                return 2;
+        }
         
+        return firstBytes;
+    }
+    
+    protected static int packingExtendCountBytes(int packingExtend,int countBytes, boolean forMessages)
+    {
         switch (packingExtend)
         {
             case COINSPARK_PACKING_EXTEND_0_1_BYTE:
                 if (forMessages) // otherwise it's really COINSPARK_PACKING_EXTEND_1S
-	                result[2]=1;
+	                return 1;
                 break;
 		
-            case COINSPARK_PACKING_EXTEND_1_0_BYTE:
-                result[1] = 1;
-                break;
-
-            case COINSPARK_PACKING_EXTEND_2_BYTES:
-                result[1] = 2;
-                break;
-
             case COINSPARK_PACKING_EXTEND_1_1_BYTES:
-                result[1] = 1;
-                result[2] = 1;
-                break;
-
             case COINSPARK_PACKING_EXTEND_2_1_BYTES:
-                result[1] = 2;
-                result[2] = 1;
-                break;
+                return 1;
 
             case COINSPARK_PACKING_EXTEND_2_2_BYTES:
-                result[1] = 2;
-                result[2] = 2;
-                break;
+                return 2;
         }
         
-        return result;
+        return countBytes;
     }
     
     protected static PackingByteCounts transferPackingToByteCounts(byte packing, byte packingExtend)
+    {
+        PackingByteCounts counts=new PackingByteCounts();
+        transferPackingToByteCounts(packing, packingExtend, counts);
+        return counts;
+    }
+    
+    protected static void transferPackingToByteCounts(byte packing, byte packingExtend, PackingByteCounts counts)
     {
         //  Set default values for bytes for all fields to zero
         
-        PackingByteCounts counts=new CoinSparkPacking().new PackingByteCounts();
+        counts.clear();
         
         //  Packing for genesis reference
         
@@ -296,19 +329,17 @@ public class CoinSparkPacking {
 
         if ((packing & COINSPARK_PACKING_INDICES_MASK) == COINSPARK_PACKING_INDICES_EXTEND) { // we're using extended indices
 
-            int countsBytes[];
-            
             //  Input indices
-            countsBytes=packingExtendAddByteCounts(((packingExtend >> COINSPARK_PACKING_EXTEND_INPUTS_SHIFT) & COINSPARK_PACKING_EXTEND_MASK),
-                counts.firstInputBytes,counts.countInputsBytes, false);
-            counts.firstInputBytes=countsBytes[1];
-            counts.countInputsBytes=countsBytes[2];
+            counts.firstInputBytes=packingExtendFirstBytes(((packingExtend >> COINSPARK_PACKING_EXTEND_INPUTS_SHIFT) & COINSPARK_PACKING_EXTEND_MASK),
+                counts.firstInputBytes);
+            counts.countInputsBytes=packingExtendCountBytes(((packingExtend >> COINSPARK_PACKING_EXTEND_INPUTS_SHIFT) & COINSPARK_PACKING_EXTEND_MASK),
+                counts.countInputsBytes, false);
             
             //  Output indices
-            countsBytes=packingExtendAddByteCounts(((packingExtend >> COINSPARK_PACKING_EXTEND_OUTPUTS_SHIFT) & COINSPARK_PACKING_EXTEND_MASK),
-                counts.firstOutputBytes,counts.countOutputsBytes, false);
-            counts.firstOutputBytes=countsBytes[1];
-            counts.countOutputsBytes=countsBytes[2];
+            counts.firstOutputBytes=packingExtendFirstBytes(((packingExtend >> COINSPARK_PACKING_EXTEND_OUTPUTS_SHIFT) & COINSPARK_PACKING_EXTEND_MASK),
+                counts.firstOutputBytes);
+            counts.countOutputsBytes=packingExtendCountBytes(((packingExtend >> COINSPARK_PACKING_EXTEND_OUTPUTS_SHIFT) & COINSPARK_PACKING_EXTEND_MASK),
+                counts.countOutputsBytes, false);
             
 /*                
             switch ((packingExtend >> COINSPARK_PACKING_EXTEND_INPUTS_SHIFT) & COINSPARK_PACKING_EXTEND_MASK)
@@ -395,8 +426,6 @@ public class CoinSparkPacking {
                 counts.quantityBytes = CoinSparkTransfer.COINSPARK_TRANSFER_QTY_FLOAT_LENGTH;
                 break;
         }
-        
-        return counts;
     }
     
     protected static boolean [] getPackingOptions(CoinSparkIORange previousRange, CoinSparkIORange range, int countInputOutputs,boolean ForMessages)
@@ -25,6 +25,7 @@
 
 package org.coinspark.protocol;
 
+import java.nio.ByteBuffer;
 import java.util.Random;
 
 /**
@@ -219,6 +220,66 @@ public class CoinSparkPaymentRef  extends CoinSparkBase
         return decode(buffer);
     }
     
+    /**
+     * Decodes the payment reference in metadata  into paymentRef.
+     * 
+     * @param metadata Metadata to decode, in place in its buffer
+     * @return true on success, false on failure
+     */
+    
+    public boolean decode(CoinSparkMetadataView metadata)
+    {
+        if(!metadata.isValid())
+            return false;
+        
+        CoinSparkBuffer buffer=new CoinSparkBuffer(metadata.data, metadata.offset, metadata.length);
+        return decode(buffer);
+    }
+    
+    /**
+     * Decodes the payment reference in metadata  into paymentRef.
+     * 
+     * @param metadata Metadata to decode between position and limit, which are not changed
+     * @return true on success, false on failure
+     */
+    
+    public boolean decode(ByteBuffer metadata)
+    {
+        CoinSparkBuffer buffer=new CoinSparkBuffer(metadata);
+        return decode(buffer);
+    }
+    
+    /**
+     * Decodes the payment reference in metadata, reporting why it failed without writing to the console.
+     * 
+     * @param metadata Metadata to decode as raw data
+     * @param status Set to the result and the offset of any failure, can be null
+     * @return OK on success, otherwise the reason for failure
+     */
+    
+    public CoinSparkDecodeStatus.Reason decode(byte [] metadata, CoinSparkDecodeStatus status)
+    {
+        CoinSparkBuffer buffer=new CoinSparkBuffer(metadata);
+        return decode(buffer, status);
+    }
+    
+    /**
+     * Decodes the payment reference in metadata, reporting why it failed without writing to the console.
+     * 
+     * @param metadata Metadata to decode, in place in its buffer
+     * @param status Set to the result and the offset of any failure, can be null
+     * @return OK on success, otherwise the reason for failure
+     */
+    
+    public CoinSparkDecodeStatus.Reason decode(CoinSparkMetadataView metadata, CoinSparkDecodeStatus status)
+    {
+        if(!metadata.isValid())
+            return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.NOT_FOUND, 0);
+        
+        CoinSparkBuffer buffer=new CoinSparkBuffer(metadata.data, metadata.offset, metadata.length);
+        return decode(buffer, status);
+    }
+    
     
     
 //	Private functions
@@ -231,8 +292,7 @@ public class CoinSparkPaymentRef  extends CoinSparkBase
             if ( !isValid() )
                 throw new CoinSparkExceptions.CannotEncode("invalid payment reference");
 
-            buffer.writeString(COINSPARK_METADATA_IDENTIFIER);                  // CoinSpark metadata identifier
-            buffer.writeByte(COINSPARK_PAYMENTREF_PREFIX);                      // CoinSpark metadate prefix
+            buffer.writePrefix(COINSPARK_PAYMENTREF_PREFIX);                    // CoinSpark metadata identifier and prefix
             
             int bytes=0;
             long left = ref;
@@ -248,9 +308,8 @@ public class CoinSparkPaymentRef  extends CoinSparkBase
             if(buffer.length()>metadataMaxLen)                                  // check the total length is within the specified limit
                 throw new CoinSparkExceptions.CannotEncode("total length above limit");
         }
-        catch (Exception ex)
+        catch (CoinSparkExceptions.CannotEncode ex)
         {
-            System.out.print(ex.getMessage());
             return false;
         }
         
@@ -259,24 +318,21 @@ public class CoinSparkPaymentRef  extends CoinSparkBase
     
     
     private boolean decode(CoinSparkBuffer buffer)
+    {
+        return decode(buffer, null) == CoinSparkDecodeStatus.Reason.OK;
+    }
+    
+    private CoinSparkDecodeStatus.Reason decode(CoinSparkBuffer buffer, CoinSparkDecodeStatus status)
     {
         if(!buffer.locateRange(COINSPARK_PAYMENTREF_PREFIX))
-            return false;
+            return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.NOT_FOUND, 0);
         
-        try
-        {            
-            ref=buffer.readLong(buffer.availableForRead());                   // Payment reference
-            
-            if (!isValid())
-                throw new CoinSparkExceptions.CannotDecode("Payment  is invalid");
-        }
+        int refOffset=buffer.readOffset();
+        ref=buffer.readLong(buffer.availableForRead());                       // Payment reference
         
-        catch (Exception ex)
-        {
-            System.out.print(ex.getMessage());
-            return false;
-        }
+        if (!isValid())
+            return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.OUT_OF_RANGE, refOffset);
         
-        return true;
+        return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.OK, 0);
     }    
 }
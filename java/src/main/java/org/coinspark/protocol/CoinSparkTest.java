@@ -26,13 +26,29 @@
 package org.coinspark.protocol;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,7 +66,12 @@ public class CoinSparkTest {
         HASH("H","Asset Hashes", "AssetHash"),
         GENESIS("G","Genesis calculations", "Genesis"),
         TRANSFER("T","Transfer calculations", "Transfer"),
-        MESSAGE("M","Message Hashes", "MessageHash");
+        MESSAGE("M","Message Hashes", "MessageHash"),
+        LEDGER("L","Ledger processing", "Ledger"),
+        BALANCE_STORE("B","Mapped balance store", "BalanceStore"),
+        DOMAIN_CACHE("D","Domain cache", "DomainCache"),
+        ASSET_REGISTRY("Y","Asset registry", "AssetRegistry"),
+        GENESIS_CACHE("C","Genesis cache", "GenesisCache");
         
         private String letter;
         private String text;
@@ -948,6 +969,17 @@ public class CoinSparkTest {
 		writeOutputLine("");
 		
         String [] lines;
+        List<CoinSparkHashVerifier.MessageItem> verifyItems=new ArrayList<CoinSparkHashVerifier.MessageItem>();
+        CoinSparkMessageHasher messageHasher=new CoinSparkMessageHasher(null);  // reset for each message
+        int countMessages=0;
+        
+        Path directory;
+        try {
+            directory=Files.createTempDirectory("coinspark-messages");
+        } catch (IOException ex) {
+            writeLogLine("Cannot create directory for message parts");
+            return false;
+        }
         
         while((lines=getInputLines(2)) != null)
         {
@@ -977,11 +1009,38 @@ public class CoinSparkTest {
                         contentParts[index].content=lines[index*3+2].getBytes();
                     }
                     
-                    String hash=CoinSparkMessage.byteToHex(CoinSparkMessage.calcMessageHash(salt.getBytes(), contentParts));
+                    byte [] rawHash=CoinSparkMessage.calcMessageHash(salt.getBytes(), contentParts);
+                    String hash=CoinSparkMessage.byteToHex(rawHash);
 
                     if(hash != null)
                     {
                         writeOutputLine(hash);
+                        
+                        CoinSparkHashVerifier.MessageItem item=new CoinSparkHashVerifier.MessageItem();
+                        item.message=new CoinSparkMessage();
+                        item.message.setHash(rawHash);
+                        item.message.setHashLen(rawHash.length);
+                        item.salt=salt.getBytes();
+                        item.messageParts=contentParts;
+                        verifyItems.add(item);
+                        
+                        for(int index=0;index<countParts;index++)
+                        {
+                            String hasherError=checkHasher(contentParts[index].content);
+                            if(hasherError != null)
+                            {
+                                writeLogLine("Part " + index + " for " + salt + ": " + hasherError);
+                                this_result=false;
+                            }
+                        }
+                        
+                        byte [] streamedHash=hashMessageParts(messageHasher, salt.getBytes(), contentParts, countMessages, directory);
+                        if(!Arrays.equals(streamedHash, rawHash))
+                        {
+                            writeLogLine("CoinSparkMessageHasher gave " + CoinSparkMessage.byteToHex(streamedHash) + " for " + salt);
+                            this_result=false;
+                        }
+                        countMessages++;
                     }
                     else
                     {
@@ -1001,6 +1060,7 @@ public class CoinSparkTest {
                     {
                         if(ExitOnFailure)
                         {
+                            deleteDirectory(directory);
                             return result;
                         }
                         else
@@ -1012,6 +1072,161 @@ public class CoinSparkTest {
             }
         }
         
+        if(result || !ExitOnFailure)
+        {
+            result &= verifyMessageHashes(verifyItems);
+        }
+        
+        messageHasher.reset(null);                                              // a part which cannot be added fails the whole hash
+        if(messageHasher.addPart("text/plain", "empty.txt", new byte[0]) && messageHasher.addPart("text/plain", null, (byte [])null))
+        {
+            writeLogLine("CoinSparkMessageHasher added a part without content");
+            result=false;
+        }
+        if(messageHasher.getHash() != null)
+        {
+            writeLogLine("CoinSparkMessageHasher gave a hash after a part failed");
+            result=false;
+        }
+        
+        deleteDirectory(directory);
+        
+        return result;
+    }
+    
+    private byte [] hashMessageParts(CoinSparkMessageHasher hasher, byte [] salt, CoinSparkMessagePart [] parts, int rotate, Path directory)
+    {                                                                           // each part from another kind of source, rotated for each message
+        hasher.reset(salt);
+        
+        for(int index=0;index<parts.length;index++)
+        {
+            CoinSparkMessagePart part=parts[index];
+            boolean added;
+            switch((index+rotate)%6)
+            {
+                case 0:
+                    added=hasher.addPart(part);
+                    break;
+                case 1:
+                    added=hasher.addPart(part.mimeType, part.fileName, part.content);
+                    break;
+                case 2:
+                    ByteBuffer buffer=ByteBuffer.allocateDirect(part.content.length);
+                    buffer.put(part.content).flip();
+                    added=hasher.addPart(part.mimeType, part.fileName, buffer);
+                    break;
+                case 3:
+                    added=hasher.addPart(part.mimeType, part.fileName, new ByteArrayInputStream(part.content));
+                    break;
+                case 4:
+                    added=hasher.addPart(part.mimeType, part.fileName, Channels.newChannel(new ByteArrayInputStream(part.content)));
+                    break;
+                default:
+                    Path file=directory.resolve("part" + index);
+                    try {
+                        Files.write(file, part.content);
+                    } catch (IOException ex) {
+                        return null;
+                    }
+                    added=hasher.addPart(part.mimeType, part.fileName, file);
+                    break;
+            }
+            
+            if(!added)
+            {
+                return null;
+            }
+        }
+        
+        return hasher.getHash();
+    }
+    
+    private String checkHasher(byte [] data)
+    {                                                                           // returns null if CoinSparkHasher agrees with MessageDigest, however data is fed
+        byte [] expected;
+        try {
+            expected=MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException ex) {
+            return "SHA-256 not available";
+        }
+        
+        if(!Arrays.equals(CoinSparkHasher.hash(data, 0, data.length), expected))
+        {
+            return "hash() differs";
+        }
+        
+        int split1=Math.min(1, data.length);
+        int split2=Math.max(split1, data.length/2);
+        ByteBuffer rest=ByteBuffer.allocateDirect(data.length-split2);
+        rest.put(data, split2, data.length-split2).flip();
+        
+        CoinSparkHasher hasher=CoinSparkHasher.create();
+        hasher.update(data, 0, 0);                                              // no data, then the first byte on its own
+        if(split1>0)
+        {
+            hasher.update(data[0]);
+        }
+        hasher.update(Arrays.copyOfRange(data, split1, split2)).update(rest);
+        
+        byte [] streamed=new byte[CoinSparkHasher.COINSPARK_HASH_LEN+1];
+        if(!hasher.digest(streamed, 1) || !Arrays.equals(Arrays.copyOfRange(streamed, 1, streamed.length), expected))
+        {
+            return "hash fed in segments differs";
+        }
+        
+        CoinSparkHasher threadHasher=CoinSparkHasher.get();                     // as used by hash() above, reset by get()
+        if(!Arrays.equals(threadHasher.update(data).digest(), expected))
+        {
+            return "thread hasher differs";
+        }
+        
+        return null;
+    }
+    
+    private boolean verifyMessageHashes(List<CoinSparkHashVerifier.MessageItem> items)
+    {                                                                           // in parallel, checked against calcMessageHash() one by one
+        if(items.isEmpty())
+        {
+            return true;
+        }
+        
+        CoinSparkHashVerifier.MessageItem [] messages=items.toArray(new CoinSparkHashVerifier.MessageItem[items.size()+1]);
+        CoinSparkHashVerifier.MessageItem changed=new CoinSparkHashVerifier.MessageItem();
+        changed.message=messages[0].message;                                    // deliberate mismatch, the first message with another salt
+        changed.salt=Arrays.copyOf(messages[0].salt, messages[0].salt.length+1);
+        changed.messageParts=messages[0].messageParts;
+        messages[items.size()]=changed;
+        
+        boolean [] results=new boolean[messages.length];
+        CoinSparkHashVerifier verifier=new CoinSparkHashVerifier(4);
+        int countMatched=verifier.verifyMessages(messages, results);
+        verifier.shutdown();
+        
+        boolean result=true;
+        long bytesHashed=0;
+        for(int index=0;index<messages.length;index++)
+        {
+            CoinSparkHashVerifier.MessageItem item=messages[index];
+            boolean matches=item.message.validateMessageHash(CoinSparkMessage.calcMessageHash(item.salt, item.messageParts));
+            for(CoinSparkMessagePart part : item.messageParts)
+            {
+                bytesHashed+=part.content.length;
+            }
+            if((results[index] != matches) || (matches != (item != changed)))
+            {
+                writeLogLine("Hash verifier gave " + results[index] + " for message " + index + ", one by one gave " + matches);
+                result=false;
+            }
+        }
+        
+        if((countMatched != messages.length-1) || (verifier.getItemsVerified() != messages.length) || (verifier.getItemsFailed() != 1) || 
+                (verifier.getBytesHashed() != bytesHashed) || (verifier.getNanosElapsed() <= 0))
+        {
+            writeLogLine("Hash verifier counters wrong: " + countMatched + " matched, " + verifier.getItemsVerified() + " verified, " + 
+                    verifier.getItemsFailed() + " failed, " + verifier.getBytesHashed() + " bytes");
+            result=false;
+        }
+        
         return result;
     }
 
@@ -1036,6 +1251,15 @@ public class CoinSparkTest {
 		writeOutputLine("");
 		
         String [] lines;
+        List<CoinSparkHashVerifier.AssetItem> verifyItems=new ArrayList<CoinSparkHashVerifier.AssetItem>();
+        
+        Path directory;
+        try {
+            directory=Files.createTempDirectory("coinspark-contracts");
+        } catch (IOException ex) {
+            writeLogLine("Cannot create directory for contracts");
+            return false;
+        }
         
         while((lines=getInputLines(10)) != null)
         {
@@ -1058,11 +1282,42 @@ public class CoinSparkTest {
                 double multiple=Double.valueOf(lines[7]);
                 byte [] contract=lines[8].getBytes();
 
-                String hash=CoinSparkGenesis.byteToHex(CoinSparkGenesis.calcAssetHash(name, issuer, description, units, issueDate, expiryDate, interestRate, multiple, contract));
+                byte [] rawHash=CoinSparkGenesis.calcAssetHash(name, issuer, description, units, issueDate, expiryDate, interestRate, multiple, contract);
+                String hash=CoinSparkGenesis.byteToHex(rawHash);
 
                 if(hash != null)
                 {
                     writeOutputLine(hash);
+                    
+                    CoinSparkHashVerifier.AssetItem item=new CoinSparkHashVerifier.AssetItem();
+                    item.genesis=new CoinSparkGenesis();
+                    item.genesis.setAssetHash(rawHash);
+                    item.genesis.setAssetHashLen(rawHash.length);
+                    item.name=name;
+                    item.issuer=issuer;
+                    item.description=description;
+                    item.units=units;
+                    item.issueDate=issueDate;
+                    item.expiryDate=expiryDate;
+                    item.interestRate=interestRate;
+                    item.multiple=multiple;
+                    item.contractContent=contract;
+                    verifyItems.add(item);
+                    
+                    String hasherError=checkHasher(contract);
+                    if(hasherError == null)
+                    {
+                        hasherError=checkAssetHashSources(item, contract, directory);
+                    }
+                    if((hasherError == null) && (verifyItems.size() == 1))      // once, with a contract read in several chunks
+                    {
+                        hasherError=checkAssetHashSources(item, repeatContract(contract, 3*65536+1), directory);
+                    }
+                    if(hasherError != null)
+                    {
+                        writeLogLine("Contract of " + name + ": " + hasherError);
+                        this_result=false;
+                    }
                 }
                 else
                 {
@@ -1082,6 +1337,7 @@ public class CoinSparkTest {
                 {
                     if(ExitOnFailure)
                     {
+                        deleteDirectory(directory);
                         return result;
                     }
                     else
@@ -1092,87 +1348,1185 @@ public class CoinSparkTest {
             }
 		}
         
+        if(result || !ExitOnFailure)
+        {
+            result &= verifyAssetHashes(verifyItems);
+        }
+        
+        deleteDirectory(directory);
+        
+        return result;
+    }
+    
+    private String checkAssetHashSources(CoinSparkHashVerifier.AssetItem item, byte [] contract, Path directory)
+    {                                                                           // returns null if the contract gives the same hash from a file and a channel
+        byte [] expected=CoinSparkGenesis.calcAssetHash(item.name, item.issuer, item.description, item.units, item.issueDate, 
+                item.expiryDate, item.interestRate, item.multiple, contract);
+        
+        Path file=directory.resolve("contract");
+        try {
+            Files.write(file, contract);
+        } catch (IOException ex) {
+            return "cannot write contract file";
+        }
+        
+        byte [] fromFile=CoinSparkGenesis.calcAssetHashFromFile(item.name, item.issuer, item.description, item.units, item.issueDate, 
+                item.expiryDate, item.interestRate, item.multiple, file);
+        if(!Arrays.equals(fromFile, expected))
+        {
+            return "calcAssetHashFromFile differs for " + contract.length + " bytes";
+        }
+        
+        byte [] fromChannel=CoinSparkGenesis.calcAssetHashFromChannel(item.name, item.issuer, item.description, item.units, item.issueDate, 
+                item.expiryDate, item.interestRate, item.multiple, Channels.newChannel(new ByteArrayInputStream(contract)));
+        if(!Arrays.equals(fromChannel, expected))
+        {
+            return "calcAssetHashFromChannel differs for " + contract.length + " bytes";
+        }
+        
+        if(CoinSparkGenesis.calcAssetHashFromFile(item.name, item.issuer, item.description, item.units, item.issueDate, 
+                item.expiryDate, item.interestRate, item.multiple, directory.resolve("missing")) != null)
+        {
+            return "calcAssetHashFromFile gave a hash for a missing file";
+        }
+        
+        return null;
+    }
+    
+    private byte [] repeatContract(byte [] contract, int minLength)
+    {                                                                           // the contract and a line break repeated to at least minLength
+        byte [] repeated=new byte[minLength+contract.length];
+        int length=0;
+        while(length<minLength)
+        {
+            System.arraycopy(contract, 0, repeated, length, contract.length);
+            length+=contract.length;
+            repeated[length++]='\n';
+        }
+        
+        return Arrays.copyOf(repeated, length);
+    }
+    
+    private boolean verifyAssetHashes(List<CoinSparkHashVerifier.AssetItem> items)
+    {                                                                           // in parallel, checked against calcAssetHash() one by one
+        if(items.isEmpty())
+        {
+            return true;
+        }
+        
+        CoinSparkHashVerifier.AssetItem [] assets=items.toArray(new CoinSparkHashVerifier.AssetItem[items.size()+1]);
+        CoinSparkHashVerifier.AssetItem changed=new CoinSparkHashVerifier.AssetItem();
+        changed.genesis=assets[0].genesis;                                      // deliberate mismatch, the first asset with another contract
+        changed.name=assets[0].name;
+        changed.issuer=assets[0].issuer;
+        changed.description=assets[0].description;
+        changed.units=assets[0].units;
+        changed.issueDate=assets[0].issueDate;
+        changed.expiryDate=assets[0].expiryDate;
+        changed.interestRate=assets[0].interestRate;
+        changed.multiple=assets[0].multiple;
+        changed.contractContent=Arrays.copyOf(assets[0].contractContent, assets[0].contractContent.length+1);
+        assets[items.size()]=changed;
+        
+        boolean [] results=new boolean[assets.length];
+        CoinSparkHashVerifier verifier=new CoinSparkHashVerifier(4);
+        int countMatched=verifier.verifyAssets(assets, results);
+        verifier.shutdown();
+        
+        boolean result=true;
+        long bytesHashed=0;
+        for(int index=0;index<assets.length;index++)
+        {
+            CoinSparkHashVerifier.AssetItem item=assets[index];
+            boolean matches=item.genesis.validateAssetHash(CoinSparkGenesis.calcAssetHash(item.name, item.issuer, item.description, 
+                    item.units, item.issueDate, item.expiryDate, item.interestRate, item.multiple, item.contractContent));
+            bytesHashed+=item.contractContent.length;
+            if((results[index] != matches) || (matches != (item != changed)))
+            {
+                writeLogLine("Hash verifier gave " + results[index] + " for " + item.name + ", one by one gave " + matches);
+                result=false;
+            }
+        }
+        
+        if((countMatched != assets.length-1) || (verifier.getItemsVerified() != assets.length) || (verifier.getItemsFailed() != 1) || 
+                (verifier.getBytesHashed() != bytesHashed) || (verifier.getNanosElapsed() <= 0))
+        {
+            writeLogLine("Hash verifier counters wrong: " + countMatched + " matched, " + verifier.getItemsVerified() + " verified, " + 
+                    verifier.getItemsFailed() + " failed, " + verifier.getBytesHashed() + " bytes");
+            result=false;
+        }
+        
         return result;
     }
 
 
-    private boolean performTest()
+    private boolean performLedgerTest(boolean ExitOnFailure)
     {
         boolean result=true;
         
-        if(testType == null)
+        String line=getInputLine();
+        if((line == null) || !line.equals("CoinSpark Ledger Tests Input"))
         {
-            System.out.print(String.format("Undefined test mode"));            
+            writeLogLine("Different header line expected, got " + line);
+            return false;
+        }
+        line=getInputLine();
+        if((line == null) || (line.length()>0))
+        {
+            writeLogLine("Empty line expected, got " + line);
             return false;
         }
-                
-        System.out.print(String.format(testType.getText() + " test STARTED\n"));            
         
-        inputBR=null;
-        outputFW=null;
-        logFW=null;
+        writeOutputLine("CoinSpark Ledger Tests Output");
+        writeOutputLine("");
         
-        File f = new File(inputFile);
-
-        if (!f.exists()) 
-        {
-            System.out.print(String.format("Input file %s not found\n",inputFile));            
-            result=false;
-        }        
-        else
+        CoinSparkLedger ledger=new CoinSparkLedger();                           // transactions build on those before, so are not retried
+        String [] lines;
+        
+        while((lines=getInputLines(5)) != null)
         {
-            f = new File(outputFile);
-            if(f.exists())
+            String [] txFields=lines[0].split(" ");
+            long blockNum=Long.valueOf(txFields[0]);
+            long txOffset=Long.valueOf(txFields[1]);
+            long feeSatoshis=Long.valueOf(txFields[2]);
+            byte [] txID=CoinSparkBase.hexToByte(txFields[3]);
+            
+            String [] inputFields=lines[1].equals("-") ? new String[0] : lines[1].split(" ");
+            byte [][] inputTxIDs=new byte[inputFields.length][];
+            int [] inputVouts=new int[inputFields.length];
+            for(int input=0;input<inputFields.length;input++)
             {
-                f.delete();
+                String [] outpoint=inputFields[input].split(":");
+                inputTxIDs[input]=CoinSparkBase.hexToByte(outpoint[0]);
+                inputVouts[input]=Integer.valueOf(outpoint[1]);
+                if(outpoint.length>2)                                           // balances from before the ledger started, added to the store directly
+                {
+                    for(String seedField : outpoint[2].split(","))
+                    {
+                        String [] refQty=seedField.split("=");
+                        CoinSparkAssetRef seedRef=new CoinSparkAssetRef();
+                        if(!seedRef.decode(refQty[0]) ||
+                                !ledger.getStore().addBalance(inputTxIDs[input], inputVouts[input], seedRef, Long.valueOf(refQty[1])))
+                        {
+                            writeLogLine("Failed to add input balance " + seedField + " for " + lines[0]);
+                            result=false;
+                        }
+                    }
+                }
             }
-            f = new File(logFile);
-            if(f.exists())
+            
+            String [] outputFields=lines[2].split(" ");
+            byte [][] outputScripts=new byte[outputFields.length][];
+            long [] outputsSatoshis=new long[outputFields.length];
+            for(int output=0;output<outputFields.length;output++)
             {
-                f.delete();
+                String [] satoshisScript=outputFields[output].split(":");
+                outputsSatoshis[output]=Long.valueOf(satoshisScript[0]);
+                outputScripts[output]=CoinSparkBase.hexToByte(satoshisScript[1]);
             }
-            try {
-                inputBR=new BufferedReader(new FileReader(inputFile));
-            } catch (FileNotFoundException ex) {
-                System.out.print(String.format("Cannot open input file %s\n",inputFile));            
-                result=false;                                
+            
+            boolean processed=ledger.processTransaction(blockNum, txOffset, txID, inputTxIDs, inputVouts, outputScripts, 
+                    outputsSatoshis, feeSatoshis);
+            
+            CoinSparkAssetRef [] assetRefs=new CoinSparkAssetRef[16];
+            long [] balances=new long[16];
+            StringBuilder balancesString=new StringBuilder();
+            for(int output=0;output<outputFields.length;output++)
+            {
+                int countAssets=ledger.getStore().getBalances(txID, output, assetRefs, balances);
+                for(int index=0;index<countAssets;index++)
+                {
+                    if(balancesString.length()>0)
+                    {
+                        balancesString.append(" ");
+                    }
+                    balancesString.append(output + ":" + assetRefs[index].encode() + "=" + balances[index]);
+                }
             }
-            try {
-                outputFW = new FileWriter(outputFile);
-            } catch (IOException ex) {
-                System.out.print(String.format("Cannot open output file %s\n",outputFile));            
-                result=false;                
+            if(balancesString.length() == 0)
+            {
+                balancesString.append("-");
             }
-            try {
-                logFW = new FileWriter(logFile);
-            } catch (IOException ex) {
-                System.out.print(String.format("Cannot open log file %s\n",logFile));            
-                result=false;                
+            
+            writeOutputLine(processed ? "PROCESSED" : "FAILED");
+            writeOutputLine(balancesString.toString());
+            writeOutputLine("");
+            
+            boolean this_result=true;
+            if(!processed)
+            {
+                writeLogLine("Failed to process transaction " + lines[0]);
+                this_result=false;
+            }
+            if(!balancesString.toString().equals(lines[3]))
+            {
+                writeLogLine("Balances mismatch: " + balancesString + " should be " + lines[3] + " for " + lines[0]);
+                this_result=false;
+            }
+            
+            result &= this_result;
+            if(!this_result && ExitOnFailure)
+            {
+                return result;
             }
         }
         
-        switch(testType)
+        return result;
+    }
+    
+
+    private boolean performBalanceStoreTest(boolean ExitOnFailure)
+    {
+        boolean result=true;
+        
+        String line=getInputLine();
+        if((line == null) || !line.equals("CoinSpark BalanceStore Tests Input"))
         {
-            case ADDRESS:
-                result &= performAddressTest(true);
-                break;
-            case GENESIS:
-                result &= performGenesisTest(true);
-                break;
-            case HASH:
-                result &= performAssetHashTest(true);
-                break;
-            case REFERENCE:
-                result &= performAssetRefTest(true);
-                break;
-            case SCRIPT:
-                result &= performScriptTest(true);
-                break;
-            case TRANSFER:
-                result &= performTransferTest(true);
-                break;            
-            case MESSAGE:
-                result &= performMessageHashTest(true);
+            writeLogLine("Different header line expected, got " + line);
+            return false;
+        }
+        line=getInputLine();
+        if((line == null) || (line.length()>0))
+        {
+            writeLogLine("Empty line expected, got " + line);
+            return false;
+        }
+        
+        writeOutputLine("CoinSpark BalanceStore Tests Output");
+        writeOutputLine("");
+        
+        Path directory;
+        try {
+            directory=Files.createTempDirectory("coinspark-balances");
+        } catch (IOException ex) {
+            writeLogLine("Cannot create directory for balance store");
+            return false;
+        }
+        
+        CoinSparkMappedBalanceStore store=null;                                 // operations build on those before, so are not retried
+        
+        while((line=getInputLine()) != null)
+        {
+            if(line.length() == 0)
+            {
+                writeOutputLine("");
+                continue;
+            }
+            
+            String [] fields=line.split(" ");
+            String operation=fields[0];
+            String output;
+            boolean this_result=true;
+            
+            if(operation.equals("open"))                                        // open <capacity>
+            {
+                store=CoinSparkMappedBalanceStore.open(directory, Long.valueOf(fields[1]));
+                this_result=(store != null);
+                output=this_result ? "OK" : "FAILED";
+            }
+            else if(operation.equals("crash"))                                  // drops the store without closing it, leaving the log unchanged
+            {
+                store=null;
+                output="OK";
+            }
+            else if(operation.equals("appendlog"))                              // appendlog <hex>, as left by a crash while committing
+            {
+                this_result=appendToFile(directory.resolve("balances.log"), CoinSparkBase.hexToByte(fields[1]));
+                output=this_result ? "OK" : "FAILED";
+            }
+            else if(store == null)
+            {
+                output="NOT OPEN";
+                this_result=false;
+            }
+            else if(operation.equals("add"))                                    // add <txID> <vout> <assetRef> <balance>
+            {
+                CoinSparkAssetRef assetRef=new CoinSparkAssetRef();
+                this_result=assetRef.decode(fields[3]) && store.addBalance(CoinSparkBase.hexToByte(fields[1]), Integer.valueOf(fields[2]), 
+                        assetRef, Long.valueOf(fields[4]));
+                output=this_result ? "OK" : "FAILED";
+            }
+            else if(operation.equals("addrange"))                               // addrange <txID> <first vout> <count vouts> <assetRef> <balance>
+            {
+                CoinSparkAssetRef assetRef=new CoinSparkAssetRef();
+                byte [] txID=CoinSparkBase.hexToByte(fields[1]);
+                int firstVout=Integer.valueOf(fields[2]);
+                this_result=assetRef.decode(fields[4]);
+                for(int vout=firstVout;this_result && (vout<firstVout+Integer.valueOf(fields[3]));vout++)
+                {
+                    this_result=store.addBalance(txID, vout, assetRef, Long.valueOf(fields[5]));
+                }
+                output=this_result ? "OK" : "FAILED";
+            }
+            else if(operation.equals("spend") || operation.equals("expect"))    // spend|expect <txID> <vout> <expected balances>
+            {
+                CoinSparkAssetRef [] assetRefs=new CoinSparkAssetRef[16];
+                long [] balances=new long[16];
+                byte [] txID=CoinSparkBase.hexToByte(fields[1]);
+                int vout=Integer.valueOf(fields[2]);
+                int countAssets=operation.equals("spend") ? store.spendBalances(txID, vout, assetRefs, balances) : 
+                        store.getBalances(txID, vout, assetRefs, balances);
+                
+                StringBuilder balancesString=new StringBuilder();
+                if(countAssets < 0)
+                {
+                    balancesString.append("ERROR").append(countAssets);
+                }
+                for(int index=0;index<countAssets;index++)
+                {
+                    if(balancesString.length()>0)
+                    {
+                        balancesString.append(" ");
+                    }
+                    balancesString.append(assetRefs[index].encode()).append("=").append(balances[index]);
+                }
+                if(balancesString.length() == 0)
+                {
+                    balancesString.append("-");
+                }
+                
+                output=balancesString.toString();
+                StringBuilder expected=new StringBuilder(fields[3]);
+                for(int field=4;field<fields.length;field++)
+                {
+                    expected.append(" ").append(fields[field]);
+                }
+                this_result=output.equals(expected.toString());
+            }
+            else if(operation.equals("count"))                                  // count <outpoints> <balances> <capacity> <committed block>
+            {
+                output=store.countOutpoints() + " " + store.countBalances() + " " + store.getCapacity() + " " + store.getCommittedBlockNum();
+                this_result=output.equals(fields[1] + " " + fields[2] + " " + fields[3] + " " + fields[4]);
+            }
+            else if(operation.equals("commit"))                                 // commit <block>
+            {
+                this_result=store.commit(Long.valueOf(fields[1]));
+                output=this_result ? "OK" : "FAILED";
+            }
+            else if(operation.equals("rollback"))
+            {
+                store.rollback();
+                output="OK";
+            }
+            else if(operation.equals("close"))                                  // the store stays available to check it is closed
+            {
+                store.close();
+                output="OK";
+            }
+            else
+            {
+                output="UNKNOWN";
+                this_result=false;
+            }
+            
+            writeOutputLine(line + " => " + output);
+            
+            if(!this_result)
+            {
+                writeLogLine("Balance store mismatch: " + line + " gave " + output);
+            }
+            
+            result &= this_result;
+            if(!this_result && ExitOnFailure)
+            {
+                break;
+            }
+        }
+        
+        if(store != null)
+        {
+            store.close();
+        }
+        deleteDirectory(directory);
+        
+        return result;
+    }
+    
+    private boolean appendToFile(Path path, byte [] data)
+    {
+        if(data == null)
+        {
+            return false;
+        }
+        
+        try {
+            RandomAccessFile file=new RandomAccessFile(path.toFile(), "rw");
+            try {
+                file.seek(file.length());
+                file.write(data);
+            } finally {
+                file.close();
+            }
+        } catch (IOException ex) {
+            return false;
+        }
+        
+        return true;
+    }
+    
+    private void deleteDirectory(Path directory)
+    {
+        try {
+            DirectoryStream<Path> files=Files.newDirectoryStream(directory);
+            try {
+                for(Path file : files)
+                {
+                    Files.deleteIfExists(file);
+                }
+            } finally {
+                files.close();
+            }
+            Files.deleteIfExists(directory);
+        } catch (IOException ex) {
+            writeLogLine("Cannot delete directory " + directory);
+        }
+    }
+
+    private boolean performDomainCacheTest(boolean ExitOnFailure)
+    {
+        boolean result=true;
+        
+        String line=getInputLine();
+        if((line == null) || !line.equals("CoinSpark DomainCache Tests Input"))
+        {
+            writeLogLine("Different header line expected, got " + line);
+            return false;
+        }
+        line=getInputLine();
+        if((line == null) || (line.length()>0))
+        {
+            writeLogLine("Empty line expected, got " + line);
+            return false;
+        }
+        
+        writeOutputLine("CoinSpark DomainCache Tests Output");
+        writeOutputLine("");
+        
+        CoinSparkDomainCache.clear();                                           // operations build on those before, so are not retried
+        Map<String,Object> previous=new HashMap<String,Object>();               // last result for each key, the same object on a cache hit
+        
+        while((line=getInputLine()) != null)
+        {
+            if(line.length() == 0)
+            {
+                writeOutputLine("");
+                continue;
+            }
+            
+            String [] fields=line.split(" ");
+            String operation=fields[0];
+            String output;
+            String expected;
+            
+            if(operation.equals("clear"))
+            {
+                CoinSparkDomainCache.clear();                                   // so the next decode of each key is a miss
+                output="OK";
+                expected="OK";
+            }
+            else if(operation.equals("genesis") || operation.equals("message") || operation.equals("urls"))
+            {                                                                   // genesis|message|urls <domain> <path or -> <https> <prefix> <hit|miss|none>
+                String path=fields[2].equals("-") ? "" : fields[2];
+                output=decodeDomainCached(operation, fields[1], path, fields[3].equals("1"), fields[4].equals("1"), previous);
+                expected=fields[5];
+            }
+            else if(operation.equals("fill"))                                   // fill <first> <count> <hits>, generated genesis domains
+            {
+                int first=Integer.valueOf(fields[1]);
+                int hits=0;
+                output=null;
+                for(int index=first;(output == null) && (index<first+Integer.valueOf(fields[2]));index++)
+                {
+                    String outcome=decodeDomainCached("genesis", "host" + index + ".coinspark.org", "asset" + index, (index%2) == 0, 
+                            (index%3) == 0, previous);
+                    if(outcome.equals("hit"))
+                    {
+                        hits++;
+                    }
+                    else if(!outcome.equals("miss"))
+                    {
+                        output=outcome;
+                    }
+                }
+                if(output == null)
+                {
+                    output=String.valueOf(hits);
+                }
+                expected=fields[3];
+            }
+            else
+            {
+                output="UNKNOWN";
+                expected="";
+            }
+            
+            writeOutputLine(line + " => " + output);
+            
+            boolean this_result=output.equals(expected);
+            if(!this_result)
+            {
+                writeLogLine("Domain cache mismatch: " + line + " gave " + output);
+            }
+            
+            result &= this_result;
+            if(!this_result && ExitOnFailure)
+            {
+                break;
+            }
+        }
+        
+        CoinSparkDomainCache.clear();
+        
+        return result;
+    }
+    
+    private String decodeDomainCached(String Operation, String DomainName, String Path, boolean UseHttps, boolean UsePrefix, 
+            Map<String,Object> Previous)
+    {                                                                           // returns hit, miss or none, or what was wrong
+        String key=Operation + " " + DomainName + " " + Path + " " + UseHttps + " " + UsePrefix;
+        String scheme=UseHttps ? "https" : "http";
+        String domainURL=String.format("%s://%s", scheme, DomainName);
+        String fullURL=String.format("%s://%s/%s%s/", scheme, DomainName, UsePrefix ? "coinspark/" : "", Path).toLowerCase();
+        Object cached;
+        
+        if(Operation.equals("urls"))
+        {
+            CoinSparkDomainCache.Entry entry=CoinSparkDomainCache.getURLs(DomainName, Path, UseHttps, UsePrefix);
+            if(entry == null)
+            {
+                return "none";
+            }
+            if(!entry.domainURL.equals(domainURL) || !entry.fullURL.equals(fullURL) || 
+                    !(entry.assetURLPrefix + Path.toLowerCase() + "/").equals(fullURL))
+            {
+                return "wrong URLs " + entry.domainURL + " " + entry.fullURL + " " + entry.assetURLPrefix;
+            }
+            cached=entry;
+        }
+        else if(Operation.equals("genesis"))
+        {
+            CoinSparkGenesis genesis=new CoinSparkGenesis();
+            genesis.setQtyMantissa((short)1);
+            genesis.setDomainName(DomainName);
+            genesis.setPagePath(Path);
+            genesis.setUseHttps(UseHttps);
+            genesis.setUsePrefix(UsePrefix);
+            genesis.setAssetHash(new byte[32]);
+            genesis.setAssetHashLen(genesis.calcHashLen(80));
+            byte [] metadata=genesis.encode(80);
+            
+            CoinSparkGenesis decoded=new CoinSparkGenesis();
+            if((metadata == null) || !decoded.decode(metadata))
+            {
+                return "cannot encode or decode";
+            }
+            if(!decoded.getDomainName().equals(DomainName) || !decoded.getPagePath().equals(Path) || 
+                    (decoded.getUseHttps() != UseHttps) || (decoded.getUsePrefix() != UsePrefix))
+            {
+                return "wrong domain " + decoded.getDomainName() + " " + decoded.getPagePath();
+            }
+            if(!decoded.getDomainURL().equals(domainURL) || ((Path.length()>0) && !decoded.calcAssetURL("", 0).equals(fullURL)))
+            {
+                return "wrong URLs " + decoded.getDomainURL() + " " + decoded.calcAssetURL("", 0);
+            }
+            cached=decoded.getDomainName();
+        }
+        else
+        {
+            CoinSparkMessage message=new CoinSparkMessage();
+            message.setServerHost(DomainName);
+            message.setServerPath(Path);
+            message.setUseHttps(UseHttps);
+            message.setUsePrefix(UsePrefix);
+            message.setIsPublic(true);
+            message.setHash(new byte[32]);
+            message.setHashLen(message.calcHashLen(1, 80));
+            byte [] metadata=message.encode(1, 80);
+            
+            CoinSparkMessage decoded=new CoinSparkMessage();
+            if((metadata == null) || !decoded.decode(metadata, 1))
+            {
+                return "cannot encode or decode";
+            }
+            if(!decoded.getServerHost().equals(DomainName) || !decoded.getServerPath().equals(Path) || 
+                    (decoded.getUseHttps() != UseHttps) || (decoded.getUsePrefix() != UsePrefix))
+            {
+                return "wrong server " + decoded.getServerHost() + " " + decoded.getServerPath();
+            }
+            if(!decoded.getFullURL().equals(fullURL))
+            {
+                return "wrong URL " + decoded.getFullURL();
+            }
+            cached=decoded.getServerHost();
+        }
+        
+        boolean hit=(Previous.get(key) == cached);
+        Previous.put(key, cached);
+        
+        return hit ? "hit" : "miss";
+    }
+    
+    private boolean performAssetRegistryTest(boolean ExitOnFailure)
+    {
+        boolean result=true;
+        
+        String line=getInputLine();
+        if((line == null) || !line.equals("CoinSpark AssetRegistry Tests Input"))
+        {
+            writeLogLine("Different header line expected, got " + line);
+            return false;
+        }
+        line=getInputLine();
+        if((line == null) || (line.length()>0))
+        {
+            writeLogLine("Empty line expected, got " + line);
+            return false;
+        }
+        
+        writeOutputLine("CoinSpark AssetRegistry Tests Output");
+        writeOutputLine("");
+        
+        CoinSparkAssetRegistry registry=new CoinSparkAssetRegistry();           // operations build on those before, so are not retried
+        Map<String,CoinSparkGenesis> named=new HashMap<String,CoinSparkGenesis>();
+        
+        while((line=getInputLine()) != null)
+        {
+            if(line.length() == 0)
+            {
+                writeOutputLine("");
+                continue;
+            }
+            
+            String [] fields=line.split(" ");
+            String operation=fields[0];
+            String output;
+            String expected=fields[fields.length-1];
+            
+            if(operation.equals("clear"))
+            {
+                registry.clear();
+                output="OK";
+                expected="OK";
+            }
+            else if(operation.equals("put"))                                    // put <assetRef> <name> <OK|FAILED>
+            {
+                CoinSparkAssetRef assetRef=new CoinSparkAssetRef();
+                CoinSparkGenesis genesis=new CoinSparkGenesis();
+                named.put(fields[2], genesis);
+                output=(assetRef.decode(fields[1]) && registry.put(assetRef, genesis)) ? "OK" : "FAILED";
+            }
+            else if(operation.equals("get") || operation.equals("remove"))      // get|remove <assetRef> <name or ->
+            {
+                CoinSparkAssetRef assetRef=new CoinSparkAssetRef();
+                CoinSparkGenesis genesis=null;
+                if(assetRef.decode(fields[1]))
+                {
+                    genesis=operation.equals("get") ? registry.get(assetRef) : registry.remove(assetRef);
+                }
+                output=(genesis == null) ? "-" : "other";
+                for(Map.Entry<String,CoinSparkGenesis> entry : named.entrySet())
+                {
+                    if(entry.getValue() == genesis)
+                    {
+                        output=entry.getKey();
+                    }
+                }
+            }
+            else if(operation.equals("size"))                                   // size <count>
+            {
+                output=String.valueOf(registry.size());
+            }
+            else if(operation.equals("slots"))                                  // slots <count>
+            {
+                output=String.valueOf(registry.countSlots());
+            }
+            else if(operation.equals("fill"))                                   // fill <first> <count> <size>, generated assets
+            {
+                for(int index=Integer.valueOf(fields[1]);index<Integer.valueOf(fields[1])+Integer.valueOf(fields[2]);index++)
+                {
+                    registry.put(registryAssetRef(index), registryGenesis(index));
+                }
+                output=String.valueOf(registry.size());
+            }
+            else if(operation.equals("check"))                                  // check <first> <count> <found>
+            {
+                int found=0;
+                for(int index=Integer.valueOf(fields[1]);index<Integer.valueOf(fields[1])+Integer.valueOf(fields[2]);index++)
+                {
+                    CoinSparkGenesis genesis=registry.get(registryAssetRef(index));
+                    if((genesis != null) && (genesis.getQtyMantissa() == registryGenesis(index).getQtyMantissa()))
+                    {
+                        found++;
+                    }
+                }
+                output=String.valueOf(found);
+            }
+            else if(operation.equals("drop"))                                   // drop <first> <count> <step> <size>
+            {
+                for(int index=Integer.valueOf(fields[1]);index<Integer.valueOf(fields[1])+Integer.valueOf(fields[2]);index+=Integer.valueOf(fields[3]))
+                {
+                    registry.remove(registryAssetRef(index));
+                }
+                output=String.valueOf(registry.size());
+            }
+            else if(operation.equals("churn"))                                  // churn <first> <count> <rounds> <slots>
+            {
+                int first=Integer.valueOf(fields[1]);
+                int count=Integer.valueOf(fields[2]);
+                for(int round=0;round<Integer.valueOf(fields[3]);round++)
+                {
+                    for(int index=first+round*count;index<first+(round+1)*count;index++)
+                    {
+                        registry.put(registryAssetRef(index), registryGenesis(index));
+                    }
+                    for(int index=first+round*count;index<first+(round+1)*count;index++)
+                    {
+                        registry.remove(registryAssetRef(index));
+                    }
+                }
+                output=String.valueOf(registry.countSlots());
+            }
+            else
+            {
+                output="UNKNOWN";
+                expected="";
+            }
+            
+            writeOutputLine(line + " => " + output);
+            
+            boolean this_result=output.equals(expected);
+            if(!this_result)
+            {
+                writeLogLine("Asset registry mismatch: " + line + " gave " + output);
+            }
+            
+            result &= this_result;
+            if(!this_result && ExitOnFailure)
+            {
+                break;
+            }
+        }
+        
+        return result;
+    }
+    
+    private static CoinSparkAssetRef registryAssetRef(int Index)
+    {                                                                           // pairs of assets share a block number and offset
+        int txIDPrefix=((Index%2) == 0) ? 0x1111 : 0x2222;
+        return new CoinSparkAssetRef(300000+Index/14, 1000*((Index/2)%7), new byte [] {(byte)txIDPrefix, (byte)(txIDPrefix >> 8)});
+    }
+    
+    private static CoinSparkGenesis registryGenesis(int Index)
+    {
+        CoinSparkGenesis genesis=new CoinSparkGenesis();
+        genesis.setQtyMantissa((short)(1+Index%1000));
+        return genesis;
+    }
+    
+    private boolean performGenesisCacheTest(boolean ExitOnFailure)
+    {
+        boolean result=true;
+        
+        String line=getInputLine();
+        if((line == null) || !line.equals("CoinSpark GenesisCache Tests Input"))
+        {
+            writeLogLine("Different header line expected, got " + line);
+            return false;
+        }
+        line=getInputLine();
+        if((line == null) || (line.length()>0))
+        {
+            writeLogLine("Empty line expected, got " + line);
+            return false;
+        }
+        
+        writeOutputLine("CoinSpark GenesisCache Tests Output");
+        writeOutputLine("");
+        
+        GatedGenesisLoader loader=new GatedGenesisLoader();
+        CoinSparkGenesisCache cache=new CoinSparkGenesisCache(loader, 1);       // operations build on those before, so are not retried
+        int nextConcurrent=0;                                                   // assets for flight and race are each used once
+        
+        while((line=getInputLine()) != null)
+        {
+            if(line.length() == 0)
+            {
+                writeOutputLine("");
+                continue;
+            }
+            
+            String [] fields=line.split(" ");
+            String operation=fields[0];
+            String output;
+            String expected=fields[fields.length-1];
+            
+            if(operation.equals("new"))                                         // new <capacity> OK
+            {
+                cache=new CoinSparkGenesisCache(loader, Integer.valueOf(fields[1]));
+                output="OK";
+            }
+            else if(operation.equals("clear"))
+            {
+                cache.clear();
+                output="OK";
+                expected="OK";
+            }
+            else if(operation.equals("reset"))
+            {
+                cache.clearCounters();
+                output="OK";
+                expected="OK";
+            }
+            else if(operation.equals("get"))                                    // get <assetRef> <hit|miss|none>
+            {
+                CoinSparkAssetRef assetRef=new CoinSparkAssetRef();
+                assetRef.decode(fields[1]);
+                output=getCachedGenesis(cache, assetRef);
+            }
+            else if(operation.equals("put"))                                    // put <assetRef> <OK|FAILED>
+            {
+                CoinSparkAssetRef assetRef=new CoinSparkAssetRef();
+                output=(assetRef.decode(fields[1]) && cache.put(assetRef, new CoinSparkGenesis())) ? "OK" : "FAILED";
+            }
+            else if(operation.equals("remove"))                                 // remove <assetRef> <true|false>
+            {
+                CoinSparkAssetRef assetRef=new CoinSparkAssetRef();
+                assetRef.decode(fields[1]);
+                output=String.valueOf(cache.remove(assetRef));
+            }
+            else if(operation.equals("fill"))                                   // fill <first> <count> <hits>, generated assets
+            {
+                int hits=0;
+                for(int index=Integer.valueOf(fields[1]);index<Integer.valueOf(fields[1])+Integer.valueOf(fields[2]);index++)
+                {
+                    if(getCachedGenesis(cache, cacheAssetRef(index)).equals("hit"))
+                    {
+                        hits++;
+                    }
+                }
+                output=String.valueOf(hits);
+            }
+            else if(operation.equals("stats"))                                  // stats <hits>/<misses>/<loads>/<evictions>/<size>
+            {
+                output=cache.getHits() + "/" + cache.getMisses() + "/" + cache.getLoads() + "/" + cache.getEvictions() + "/" + cache.size();
+            }
+            else if(operation.equals("flight"))                                 // flight <threads> <loads>
+            {
+                output=getGenesisConcurrently(cache, loader, cacheAssetRef(CACHE_CONCURRENT_FIRST+nextConcurrent++), 
+                        Integer.valueOf(fields[1]));
+            }
+            else if(operation.equals("race"))                                   // race <put|remove|clear> <put|loaded|miss>
+            {
+                output=raceGenesisLoad(cache, loader, cacheAssetRef(CACHE_CONCURRENT_FIRST+nextConcurrent++), fields[1]);
+            }
+            else
+            {
+                output="UNKNOWN";
+                expected="";
+            }
+            
+            writeOutputLine(line + " => " + output);
+            
+            boolean this_result=output.equals(expected);
+            if(!this_result)
+            {
+                writeLogLine("Genesis cache mismatch: " + line + " gave " + output);
+            }
+            
+            result &= this_result;
+            if(!this_result && ExitOnFailure)
+            {
+                break;
+            }
+        }
+        
+        return result;
+    }
+    
+    private static final int CACHE_CONCURRENT_FIRST = 100000;
+    
+    private static CoinSparkAssetRef cacheAssetRef(int Index)
+    {
+        return new CoinSparkAssetRef(300000+Index, 1000, new byte [] {0x11, 0x11});
+    }
+    
+    private static String getCachedGenesis(CoinSparkGenesisCache Cache, CoinSparkAssetRef AssetRef)
+    {                                                                           // returns hit, miss or none
+        long loads=Cache.getLoads();
+        CoinSparkGenesis genesis=Cache.get(AssetRef);
+        if(Cache.getLoads() == loads)
+        {
+            return (genesis == null) ? "null hit" : "hit";
+        }
+        
+        return (genesis == null) ? "none" : "miss";
+    }
+    
+    private static String getGenesisConcurrently(final CoinSparkGenesisCache Cache, GatedGenesisLoader Loader, 
+            final CoinSparkAssetRef AssetRef, int CountThreads)
+    {                                                                           // returns the number of loads if all threads got the same genesis
+        long misses=Cache.getMisses();
+        long loads=Cache.getLoads();
+        final CoinSparkGenesis [] geneses=new CoinSparkGenesis[CountThreads];
+        Thread [] threads=new Thread[CountThreads];
+        
+        Loader.close();
+        for(int index=0;index<CountThreads;index++)
+        {
+            final int threadIndex=index;
+            threads[index]=new Thread() {
+                @Override
+                public void run()
+                {
+                    geneses[threadIndex]=Cache.get(AssetRef);
+                }
+            };
+            threads[index].start();
+        }
+        
+        long deadline=System.currentTimeMillis()+10000;                         // every thread has missed before the load finishes
+        while((Cache.getMisses()-misses < CountThreads) && (System.currentTimeMillis() < deadline))
+        {
+            Thread.yield();
+        }
+        
+        Loader.open();
+        if(!joinThreads(threads))
+        {
+            return "interrupted";
+        }
+        
+        for(CoinSparkGenesis genesis : geneses)
+        {
+            if((genesis == null) || (genesis != geneses[0]))
+            {
+                return "different";
+            }
+        }
+        
+        return String.valueOf(Cache.getLoads()-loads);
+    }
+    
+    private static String raceGenesisLoad(final CoinSparkGenesisCache Cache, GatedGenesisLoader Loader, 
+            final CoinSparkAssetRef AssetRef, String Operation)
+    {                                                                           // returns which genesis the cache has after the load
+        CoinSparkGenesis putGenesis=new CoinSparkGenesis();
+        Thread [] threads=new Thread[1];
+        
+        Loader.close();
+        threads[0]=new Thread() {
+            @Override
+            public void run()
+            {
+                Cache.get(AssetRef);
+            }
+        };
+        threads[0].start();
+        
+        if(!Loader.awaitEntered())
+        {
+            Loader.open();
+            joinThreads(threads);
+            return "not loading";
+        }
+        
+        if(Operation.equals("put"))
+        {
+            Cache.put(AssetRef, putGenesis);
+        }
+        else if(Operation.equals("remove"))
+        {
+            Cache.remove(AssetRef);
+        }
+        else
+        {
+            Cache.clear();
+        }
+        
+        Loader.open();
+        if(!joinThreads(threads))
+        {
+            return "interrupted";
+        }
+        
+        long loads=Cache.getLoads();
+        CoinSparkGenesis genesis=Cache.get(AssetRef);
+        if(Cache.getLoads() != loads)
+        {
+            return "miss";
+        }
+        
+        return (genesis == putGenesis) ? "put" : "loaded";
+    }
+    
+    private static boolean joinThreads(Thread [] Threads)
+    {
+        try {
+            for(Thread thread : Threads)
+            {
+                thread.join();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        
+        return true;
+    }
+    
+    private static final class GatedGenesisLoader implements CoinSparkGenesisLoader
+    {                                                                           // assets with transaction offset 0 are unknown
+        private volatile CountDownLatch entered=new CountDownLatch(0);
+        private volatile CountDownLatch gate=new CountDownLatch(0);
+        
+        private void close()
+        {
+            entered=new CountDownLatch(1);
+            gate=new CountDownLatch(1);
+        }
+        
+        private void open()
+        {
+            gate.countDown();
+        }
+        
+        private boolean awaitEntered()
+        {
+            try {
+                return entered.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        
+        @Override
+        public CoinSparkGenesis loadGenesis(CoinSparkAssetRef assetRef)
+        {
+            entered.countDown();
+            try {
+                gate.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            
+            if(assetRef.getTxOffset() == 0)
+            {
+                return null;
+            }
+            
+            CoinSparkGenesis genesis=new CoinSparkGenesis();
+            genesis.setQtyMantissa((short)(1+assetRef.getBlockNum()%1000));
+            return genesis;
+        }
+    }
+    
+
+    private boolean performTest()
+    {
+        boolean result=true;
+        
+        if(testType == null)
+        {
+            System.out.print(String.format("Undefined test mode"));            
+            return false;
+        }
+                
+        System.out.print(String.format(testType.getText() + " test STARTED\n"));            
+        
+        inputBR=null;
+        outputFW=null;
+        logFW=null;
+        
+        File f = new File(inputFile);
+        InputStream bundledInput=null;
+        
+        if (!f.exists())                                                        // suites only the Java library has, bundled with it
+        {
+            bundledInput=CoinSparkTest.class.getResourceAsStream("tests/" + testType.getSuffix() + "-Input.txt");
+        }
+
+        if (!f.exists() && (bundledInput == null)) 
+        {
+            System.out.print(String.format("Input file %s not found\n",inputFile));            
+            result=false;
+        }        
+        else
+        {
+            f = new File(outputFile);
+            if(f.exists())
+            {
+                f.delete();
+            }
+            f = new File(logFile);
+            if(f.exists())
+            {
+                f.delete();
+            }
+            try {
+                if(bundledInput != null)
+                {
+                    inputBR=new BufferedReader(new InputStreamReader(bundledInput, "UTF-8"));
+                }
+                else
+                {
+                    inputBR=new BufferedReader(new FileReader(inputFile));
+                }
+            } catch (IOException ex) {
+                System.out.print(String.format("Cannot open input file %s\n",inputFile));            
+                result=false;                                
+            }
+            try {
+                outputFW = new FileWriter(outputFile);
+            } catch (IOException ex) {
+                System.out.print(String.format("Cannot open output file %s\n",outputFile));            
+                result=false;                
+            }
+            try {
+                logFW = new FileWriter(logFile);
+            } catch (IOException ex) {
+                System.out.print(String.format("Cannot open log file %s\n",logFile));            
+                result=false;                
+            }
+        }
+        
+        switch(testType)
+        {
+            case ADDRESS:
+                result &= performAddressTest(true);
+                break;
+            case GENESIS:
+                result &= performGenesisTest(true);
+                break;
+            case HASH:
+                result &= performAssetHashTest(true);
+                break;
+            case REFERENCE:
+                result &= performAssetRefTest(true);
+                break;
+            case SCRIPT:
+                result &= performScriptTest(true);
+                break;
+            case TRANSFER:
+                result &= performTransferTest(true);
+                break;            
+            case MESSAGE:
+                result &= performMessageHashTest(true);
+                break;            
+            case LEDGER:
+                result &= performLedgerTest(true);
+                break;            
+            case BALANCE_STORE:
+                result &= performBalanceStoreTest(true);
+                break;            
+            case DOMAIN_CACHE:
+                result &= performDomainCacheTest(true);
+                break;            
+            case ASSET_REGISTRY:
+                result &= performAssetRegistryTest(true);
+                break;            
+            case GENESIS_CACHE:
+                result &= performGenesisCacheTest(true);
                 break;            
         }
         
@@ -1236,7 +2590,7 @@ public class CoinSparkTest {
             String testMode = br.readLine();
             if (testMode.length() == 0)
             {
-                testMode="ARSHGTM";
+                testMode="ARSHGTMLBDYC";
             }            
             
             System.out.print(String.format("Directory name for tests: "));
@@ -25,8 +25,6 @@
 
 package org.coinspark.protocol;
 
-import java.util.Arrays;
-
 /**
  * Class for managing individual asset transfer metadata
  */
@@ -193,6 +191,19 @@ public class CoinSparkTransfer extends CoinSparkBase{
         return true;
     }
     
+    /**
+     * Returns the number of bytes this transfer takes when encoded first in a transfer list, without encoding it.
+     * 
+     * @param countInputs number of transaction inputs
+     * @param countOutputs number of transaction outputs
+     * @return number of bytes, -1 if the transfer cannot be encoded
+     */
+    
+    public int encodedLen(int countInputs, int countOutputs)
+    {
+        return encodedLen(null, countInputs, countOutputs, new CoinSparkPacking.PackingByteCounts());
+    }
+    
     @Override
     public String toString()
     {
@@ -297,384 +308,239 @@ public class CoinSparkTransfer extends CoinSparkBase{
     
     protected boolean encode(CoinSparkBuffer buffer, CoinSparkTransfer previousTransfer, int countInputs, int countOutputs)
     {
-        boolean[] inputPackingOptions;
-        boolean[] outputPackingOptions;
         byte packing,packingExtend;
-        Byte packingExtendInput, packingExtendOutput;
-        
-        
-        CoinSparkGenesis tempGenesis = new CoinSparkGenesis();
         long encodeQuantity;
 
-        try
-        {
-            if(!isValid())
-            {
-                throw new CoinSparkExceptions.CannotEncode("Invalid transfer");
-            }
-            
-            boolean isDefaultRoute=(this.assetRef.getBlockNum() == COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE);
-
-            packing=0;
-            packingExtend=0;
-            
-            //  Packing for genesis reference
-            
-            if (isDefaultRoute)
-            {
-                if (previousTransfer != null &&
-                   (previousTransfer.assetRef.getBlockNum() != COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE))
-                    throw new CoinSparkExceptions.CannotEncode("No default route");
-                    // default route transfers have to come at the start
-
-                packing |= CoinSparkPacking.COINSPARK_PACKING_GENESIS_PREV;
-
-            }
-            else
-            {
-                if (previousTransfer != null && this.assetRef.match(previousTransfer.assetRef))
-                    packing |= CoinSparkPacking.COINSPARK_PACKING_GENESIS_PREV;
-
-                else if (this.assetRef.getBlockNum() <= CoinSparkPacking.COINSPARK_UNSIGNED_3_BYTES_MAX)
-                {
-                    if (this.assetRef.getTxOffset() <= CoinSparkPacking.COINSPARK_UNSIGNED_3_BYTES_MAX)
-                        packing|= CoinSparkPacking.COINSPARK_PACKING_GENESIS_3_3_BYTES;
-                    else if (this.assetRef.getTxOffset() <= CoinSparkPacking.COINSPARK_UNSIGNED_4_BYTES_MAX)
-                        packing|= CoinSparkPacking.COINSPARK_PACKING_GENESIS_3_4_BYTES;
-                    else
-                        throw new CoinSparkExceptions.CannotEncode("Wrong block number");
-                }
-
-                else if ((this.assetRef.getBlockNum() <= CoinSparkPacking.COINSPARK_UNSIGNED_4_BYTES_MAX) &&
-                         (this.assetRef.getTxOffset() <= CoinSparkPacking.COINSPARK_UNSIGNED_4_BYTES_MAX))
-                    packing|= CoinSparkPacking.COINSPARK_PACKING_GENESIS_4_4_BYTES;
-
-                else
-                    throw new CoinSparkExceptions.CannotEncode("Block number out of range");
-            }
+        int packings=encodePacking(previousTransfer, countInputs, countOutputs);
+        if(packings < 0)
+            return false;
+        
+        packing=(byte)packings;
+        packingExtend=(byte)(packings >> 8);
 
-            //  Packing for input and output indices
-            inputPackingOptions = CoinSparkPacking.getPackingOptions(previousTransfer != null ?
-                    previousTransfer.inputs : null, this.inputs, countInputs,false);
-            outputPackingOptions = CoinSparkPacking.getPackingOptions(previousTransfer != null ?
-                    previousTransfer.outputs : null, this.outputs, countOutputs,false);
+        //  Quantity as float if packing chose it
+        
+        encodeQuantity=this.qtyPerOutput;
+        
+        if ((packing & CoinSparkPacking.COINSPARK_PACKING_QUANTITY_MASK) == CoinSparkPacking.COINSPARK_PACKING_QUANTITY_FLOAT)
+        {
+            long qtyEncodedFloat=CoinSparkAssetQty.toMantissaExponent(this.qtyPerOutput, 0, COINSPARK_TRANSFER_QTY_FLOAT_MANTISSA_MAX,COINSPARK_TRANSFER_QTY_FLOAT_EXPONENT_MAX);
+            encodeQuantity = (CoinSparkAssetQty.mantissaExponentToExponent(qtyEncodedFloat)*COINSPARK_TRANSFER_QTY_FLOAT_EXPONENT_MULTIPLE +
+                    CoinSparkAssetQty.mantissaExponentToMantissa(qtyEncodedFloat))&COINSPARK_TRANSFER_QTY_FLOAT_MASK;
+        }
 
-            if (inputPackingOptions[CoinSparkPacking.PackingType._0P.getValue()] &&
-                outputPackingOptions[CoinSparkPacking.PackingType._0P.getValue()])
-                packing|= CoinSparkPacking.COINSPARK_PACKING_INDICES_0P_0P;
+        //  Write out the actual data
 
-            else if (inputPackingOptions[CoinSparkPacking.PackingType._0P.getValue()] &&
-                outputPackingOptions[CoinSparkPacking.PackingType._1S.getValue()])
-                packing|= CoinSparkPacking.COINSPARK_PACKING_INDICES_0P_1S;
+        CoinSparkPacking.PackingByteCounts counts = CoinSparkPacking.transferPackingToByteCounts(packing, packingExtend);  
 
-            else if (inputPackingOptions[CoinSparkPacking.PackingType._0P.getValue()] &&
-                    outputPackingOptions[CoinSparkPacking.PackingType._ALL.getValue()])
-                packing|= CoinSparkPacking.COINSPARK_PACKING_INDICES_0P_ALL;
+        buffer.writeByte(packing);
 
-            else if (inputPackingOptions[CoinSparkPacking.PackingType._1S.getValue()] &&
-                outputPackingOptions[CoinSparkPacking.PackingType._0P.getValue()])
-                packing|= CoinSparkPacking.COINSPARK_PACKING_INDICES_1S_0P;
+        if ((packing & CoinSparkPacking.COINSPARK_PACKING_INDICES_MASK) == CoinSparkPacking.COINSPARK_PACKING_INDICES_EXTEND)
+        {
+            buffer.writeByte(packingExtend);
+        }
 
-            else if (inputPackingOptions[CoinSparkPacking.PackingType._ALL.getValue()] &&
-                outputPackingOptions[CoinSparkPacking.PackingType._0P.getValue()])
-                packing|= CoinSparkPacking.COINSPARK_PACKING_INDICES_ALL_0P;
+        buffer.writeLong(assetRef.getBlockNum(),counts.blockNumBytes);
+        buffer.writeLong(assetRef.getTxOffset(),counts.txOffsetBytes);
+        buffer.writeBytes(assetRef.getTxIDPrefix(), counts.txIDPrefixBytes);
+        buffer.writeInt(inputs.first, counts.firstInputBytes);
+        buffer.writeInt(inputs.count, counts.countInputsBytes);
+        buffer.writeInt(outputs.first, counts.firstOutputBytes);
+        buffer.writeInt(outputs.count, counts.countOutputsBytes);
+        buffer.writeLong(encodeQuantity,counts.quantityBytes);
 
-            else if (inputPackingOptions[CoinSparkPacking.PackingType._ALL.getValue()] &&
-                outputPackingOptions[CoinSparkPacking.PackingType._1S.getValue()])
-                packing|= CoinSparkPacking.COINSPARK_PACKING_INDICES_ALL_1S;
+        return true;
+    }
 
-            else if (inputPackingOptions[CoinSparkPacking.PackingType._ALL.getValue()] &&
-                outputPackingOptions[CoinSparkPacking.PackingType._ALL.getValue()])
-                packing|= CoinSparkPacking.COINSPARK_PACKING_INDICES_ALL_ALL;
+    /**
+     * Returns the number of bytes encode() would write, without writing them.
+     * 
+     * @return number of bytes, -1 if the transfer cannot be encoded after previousTransfer
+     */
+    
+    protected int encodedLen(CoinSparkTransfer previousTransfer, int countInputs, int countOutputs, CoinSparkPacking.PackingByteCounts counts)
+    {
+        int packings=encodePacking(previousTransfer, countInputs, countOutputs);
+        if (packings < 0)
+            return -1;
+        
+        byte packing=(byte)packings;
+        CoinSparkPacking.transferPackingToByteCounts(packing, (byte)(packings >> 8), counts);
+        
+        int encodedLen=1;
+        if ((packing & CoinSparkPacking.COINSPARK_PACKING_INDICES_MASK) == CoinSparkPacking.COINSPARK_PACKING_INDICES_EXTEND)
+            encodedLen++;
+        
+        return encodedLen + counts.blockNumBytes + counts.txOffsetBytes + counts.txIDPrefixBytes +
+                counts.firstInputBytes + counts.countInputsBytes + counts.firstOutputBytes + counts.countOutputsBytes + counts.quantityBytes;
+    }
+    
+    /**
+     * Chooses the packing of the transfer after previousTransfer.
+     * 
+     * @return packing byte in the low 8 bits, extended packing byte in the next 8 bits, -1 if the transfer cannot be encoded
+     */
+    
+    private int encodePacking(CoinSparkTransfer previousTransfer, int countInputs, int countOutputs)
+    {
+        boolean[] inputPackingOptions;
+        boolean[] outputPackingOptions;
+        byte packing,packingExtend;
+        Byte packingExtendInput, packingExtendOutput;
 
-            else {                                                              // we need the second (extended) packing byte
-                packing|= CoinSparkPacking.COINSPARK_PACKING_INDICES_EXTEND;
+        if(!isValid())
+        {
+            return -1;
+        }
 
-            if( (packingExtendInput = CoinSparkPacking.encodePackingExtend(inputPackingOptions)) == null)
-                throw new CoinSparkExceptions.CannotEncode("Input packing error");
+        boolean isDefaultRoute=(this.assetRef.getBlockNum() == COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE);
 
-            if( (packingExtendOutput = CoinSparkPacking.encodePackingExtend(outputPackingOptions)) == null)
-                throw new CoinSparkExceptions.CannotEncode("Input packing error");
-                
-            packingExtend = (byte)((packingExtendInput << CoinSparkPacking.COINSPARK_PACKING_EXTEND_INPUTS_SHIFT) |
-                                       (packingExtendOutput << CoinSparkPacking.COINSPARK_PACKING_EXTEND_OUTPUTS_SHIFT));  
-            }
+        packing=0;
+        packingExtend=0;
 
-            //  Packing for quantity
-            
-            encodeQuantity=this.qtyPerOutput;
-            CoinSparkAssetQty qtyEncodedFloat=new CoinSparkAssetQty(this.qtyPerOutput, 0, COINSPARK_TRANSFER_QTY_FLOAT_MANTISSA_MAX,COINSPARK_TRANSFER_QTY_FLOAT_EXPONENT_MAX);
-            
-            if (this.qtyPerOutput==(previousTransfer != null ? previousTransfer.qtyPerOutput : 1))
-                packing|= CoinSparkPacking.COINSPARK_PACKING_QUANTITY_1P;
+        //  Packing for genesis reference
 
-            else if (this.qtyPerOutput >= CoinSparkAssetQty.COINSPARK_ASSET_QTY_MAX)
-                packing|= CoinSparkPacking.COINSPARK_PACKING_QUANTITY_MAX;
+        if (isDefaultRoute)
+        {
+            if (previousTransfer != null &&
+               (previousTransfer.assetRef.getBlockNum() != COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE))
+                return -1;
+                // default route transfers have to come at the start
 
-            else if (this.qtyPerOutput <= CoinSparkPacking.COINSPARK_UNSIGNED_BYTE_MAX)
-                packing|= CoinSparkPacking.COINSPARK_PACKING_QUANTITY_1_BYTE;
+            packing |= CoinSparkPacking.COINSPARK_PACKING_GENESIS_PREV;
 
-            else if (this.qtyPerOutput <= CoinSparkPacking.COINSPARK_UNSIGNED_2_BYTES_MAX)
-                packing|= CoinSparkPacking.COINSPARK_PACKING_QUANTITY_2_BYTES;
+        }
+        else
+        {
+            if (previousTransfer != null && this.assetRef.match(previousTransfer.assetRef))
+                packing |= CoinSparkPacking.COINSPARK_PACKING_GENESIS_PREV;
 
-            else if (qtyEncodedFloat.value==this.qtyPerOutput)
+            else if (this.assetRef.getBlockNum() <= CoinSparkPacking.COINSPARK_UNSIGNED_3_BYTES_MAX)
             {
-                packing |= CoinSparkPacking.COINSPARK_PACKING_QUANTITY_FLOAT;
-                encodeQuantity = (qtyEncodedFloat.exponent*COINSPARK_TRANSFER_QTY_FLOAT_EXPONENT_MULTIPLE +
-                        qtyEncodedFloat.mantissa)&COINSPARK_TRANSFER_QTY_FLOAT_MASK;
+                if (this.assetRef.getTxOffset() <= CoinSparkPacking.COINSPARK_UNSIGNED_3_BYTES_MAX)
+                    packing|= CoinSparkPacking.COINSPARK_PACKING_GENESIS_3_3_BYTES;
+                else if (this.assetRef.getTxOffset() <= CoinSparkPacking.COINSPARK_UNSIGNED_4_BYTES_MAX)
+                    packing|= CoinSparkPacking.COINSPARK_PACKING_GENESIS_3_4_BYTES;
+                else
+                    return -1;
             }
 
-            else if (this.qtyPerOutput <= CoinSparkPacking.COINSPARK_UNSIGNED_3_BYTES_MAX)
-                packing|= CoinSparkPacking.COINSPARK_PACKING_QUANTITY_3_BYTES;
-
-            else if (this.qtyPerOutput <= CoinSparkPacking.COINSPARK_UNSIGNED_4_BYTES_MAX)
-                packing|= CoinSparkPacking.COINSPARK_PACKING_QUANTITY_4_BYTES;
+            else if ((this.assetRef.getBlockNum() <= CoinSparkPacking.COINSPARK_UNSIGNED_4_BYTES_MAX) &&
+                     (this.assetRef.getTxOffset() <= CoinSparkPacking.COINSPARK_UNSIGNED_4_BYTES_MAX))
+                packing|= CoinSparkPacking.COINSPARK_PACKING_GENESIS_4_4_BYTES;
 
             else
-                packing|= CoinSparkPacking.COINSPARK_PACKING_QUANTITY_6_BYTES;
-
+                return -1;
+        }
 
-            //  Write out the actual data
+        //  Packing for input and output indices
+        inputPackingOptions = CoinSparkPacking.getPackingOptions(previousTransfer != null ?
+                previousTransfer.inputs : null, this.inputs, countInputs,false);
+        outputPackingOptions = CoinSparkPacking.getPackingOptions(previousTransfer != null ?
+                previousTransfer.outputs : null, this.outputs, countOutputs,false);
 
-            CoinSparkPacking.PackingByteCounts counts = CoinSparkPacking.transferPackingToByteCounts(packing, packingExtend);  
+        if (inputPackingOptions[CoinSparkPacking.PackingType._0P.getValue()] &&
+            outputPackingOptions[CoinSparkPacking.PackingType._0P.getValue()])
+            packing|= CoinSparkPacking.COINSPARK_PACKING_INDICES_0P_0P;
 
-            buffer.writeByte(packing);
+        else if (inputPackingOptions[CoinSparkPacking.PackingType._0P.getValue()] &&
+            outputPackingOptions[CoinSparkPacking.PackingType._1S.getValue()])
+            packing|= CoinSparkPacking.COINSPARK_PACKING_INDICES_0P_1S;
 
-            if ((packing & CoinSparkPacking.COINSPARK_PACKING_INDICES_MASK) == CoinSparkPacking.COINSPARK_PACKING_INDICES_EXTEND)
-            {
-                buffer.writeByte(packingExtend);
-            }
+        else if (inputPackingOptions[CoinSparkPacking.PackingType._0P.getValue()] &&
+                outputPackingOptions[CoinSparkPacking.PackingType._ALL.getValue()])
+            packing|= CoinSparkPacking.COINSPARK_PACKING_INDICES_0P_ALL;
 
-            buffer.writeLong(assetRef.getBlockNum(),counts.blockNumBytes);
-            buffer.writeLong(assetRef.getTxOffset(),counts.txOffsetBytes);
-            buffer.writeBytes(assetRef.getTxIDPrefix(), counts.txIDPrefixBytes);
-            buffer.writeInt(inputs.first, counts.firstInputBytes);
-            buffer.writeInt(inputs.count, counts.countInputsBytes);
-            buffer.writeInt(outputs.first, counts.firstOutputBytes);
-            buffer.writeInt(outputs.count, counts.countOutputsBytes);
-            buffer.writeLong(encodeQuantity,counts.quantityBytes);
-            
+        else if (inputPackingOptions[CoinSparkPacking.PackingType._1S.getValue()] &&
+            outputPackingOptions[CoinSparkPacking.PackingType._0P.getValue()])
+            packing|= CoinSparkPacking.COINSPARK_PACKING_INDICES_1S_0P;
 
-        }
-        catch (Exception ex)
-        {
-            System.out.print(ex.getMessage());
-            return false;
-        }
-        
-        return true;
-    }
+        else if (inputPackingOptions[CoinSparkPacking.PackingType._ALL.getValue()] &&
+            outputPackingOptions[CoinSparkPacking.PackingType._0P.getValue()])
+            packing|= CoinSparkPacking.COINSPARK_PACKING_INDICES_ALL_0P;
 
+        else if (inputPackingOptions[CoinSparkPacking.PackingType._ALL.getValue()] &&
+            outputPackingOptions[CoinSparkPacking.PackingType._1S.getValue()])
+            packing|= CoinSparkPacking.COINSPARK_PACKING_INDICES_ALL_1S;
 
-    protected boolean decode(CoinSparkBuffer buffer, CoinSparkTransfer previousTransfer, int countInputs, int countOutputs)
-    {
-        byte packing, packingExtend = 0;
-        CoinSparkPacking.PackingType inputPackingType = CoinSparkPacking.PackingType._NONE;
-        CoinSparkPacking.PackingType outputPackingType = CoinSparkPacking.PackingType._NONE;
-        
-        try
-        {
-            //  Extract packing
-            
-            if(buffer.canRead(1))
-            {
-                packing=buffer.readByte();
-            }
-            else
-                throw new CoinSparkExceptions.CannotDecode("Cannot read packing");
+        else if (inputPackingOptions[CoinSparkPacking.PackingType._ALL.getValue()] &&
+            outputPackingOptions[CoinSparkPacking.PackingType._ALL.getValue()])
+            packing|= CoinSparkPacking.COINSPARK_PACKING_INDICES_ALL_ALL;
 
+        else {                                                              // we need the second (extended) packing byte
+            packing|= CoinSparkPacking.COINSPARK_PACKING_INDICES_EXTEND;
 
-            // Packing for genesis reference
-            
-            switch (packing & CoinSparkPacking.COINSPARK_PACKING_GENESIS_MASK)
-            {
-                case CoinSparkPacking.COINSPARK_PACKING_GENESIS_PREV:
-                    if (previousTransfer != null)
-                        this.assetRef =previousTransfer.assetRef;
-
-                    else {                                                      // it's for a default route
-                        this.assetRef.setBlockNum(COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE);
-                        this.assetRef.setTxOffset(0);
-                        Arrays.fill(this.assetRef.getTxIDPrefix(), (byte)0);
-                    }
-                    break;
-            }
+        if( (packingExtendInput = CoinSparkPacking.encodePackingExtend(inputPackingOptions)) == null)
+            return -1;
 
-            //  Packing for input and output indices
+        if( (packingExtendOutput = CoinSparkPacking.encodePackingExtend(outputPackingOptions)) == null)
+            return -1;
 
-            if ((packing & CoinSparkPacking.COINSPARK_PACKING_INDICES_MASK) == CoinSparkPacking.COINSPARK_PACKING_INDICES_EXTEND)
-            {
-                // we're using second packing metadata byte
-                
-                if(buffer.canRead(1))
-                {
-                    packingExtend=buffer.readByte();
-                }
-                else
-                    throw new CoinSparkExceptions.CannotDecode("Cannot read packing extend");
+        packingExtend = (byte)((packingExtendInput << CoinSparkPacking.COINSPARK_PACKING_EXTEND_INPUTS_SHIFT) |
+                                   (packingExtendOutput << CoinSparkPacking.COINSPARK_PACKING_EXTEND_OUTPUTS_SHIFT));  
+        }
 
-                inputPackingType=CoinSparkPacking.decodePackingExtend((byte) ((packingExtend >> CoinSparkPacking.COINSPARK_PACKING_EXTEND_INPUTS_SHIFT) &
-                                CoinSparkPacking.COINSPARK_PACKING_EXTEND_MASK),false);
+        //  Packing for quantity
 
-                if (inputPackingType == CoinSparkPacking.PackingType._NONE)
-                    throw new CoinSparkExceptions.CannotDecode("Wrong packing type");
-                
-                outputPackingType = CoinSparkPacking.decodePackingExtend((byte) ((packingExtend >> CoinSparkPacking.COINSPARK_PACKING_EXTEND_OUTPUTS_SHIFT) &
-                                CoinSparkPacking.COINSPARK_PACKING_EXTEND_MASK),false);
-                if (outputPackingType == CoinSparkPacking.PackingType._NONE)
-                    throw new CoinSparkExceptions.CannotDecode("No packing type");
-                
+        if (this.qtyPerOutput==(previousTransfer != null ? previousTransfer.qtyPerOutput : 1))
+            packing|= CoinSparkPacking.COINSPARK_PACKING_QUANTITY_1P;
 
-            } else {                                                            // not using second packing metadata byte
-
-                switch (packing & CoinSparkPacking.COINSPARK_PACKING_INDICES_MASK) // input packing
-                {
-                    case CoinSparkPacking.COINSPARK_PACKING_INDICES_0P_0P:
-                    case CoinSparkPacking.COINSPARK_PACKING_INDICES_0P_1S:
-                    case CoinSparkPacking.COINSPARK_PACKING_INDICES_0P_ALL:
-                        inputPackingType= CoinSparkPacking.PackingType._0P;
-                        break;
-
-                    case CoinSparkPacking.COINSPARK_PACKING_INDICES_1S_0P:
-                        inputPackingType= CoinSparkPacking.PackingType._1S;
-                        break;
-
-                    case CoinSparkPacking.COINSPARK_PACKING_INDICES_ALL_0P:
-                    case CoinSparkPacking.COINSPARK_PACKING_INDICES_ALL_1S:
-                    case CoinSparkPacking.COINSPARK_PACKING_INDICES_ALL_ALL:
-                        inputPackingType= CoinSparkPacking.PackingType._ALL;
-                        break;
-                }
-
-                switch (packing & CoinSparkPacking.COINSPARK_PACKING_INDICES_MASK) // output packing
-                {
-                    case CoinSparkPacking.COINSPARK_PACKING_INDICES_0P_0P:
-                    case CoinSparkPacking.COINSPARK_PACKING_INDICES_1S_0P:
-                    case CoinSparkPacking.COINSPARK_PACKING_INDICES_ALL_0P:
-                        outputPackingType= CoinSparkPacking.PackingType._0P;
-                        break;
-
-                    case CoinSparkPacking.COINSPARK_PACKING_INDICES_0P_1S:
-                    case CoinSparkPacking.COINSPARK_PACKING_INDICES_ALL_1S:
-                        outputPackingType= CoinSparkPacking.PackingType._1S;
-                        break;
-
-                    case CoinSparkPacking.COINSPARK_PACKING_INDICES_0P_ALL:
-                    case CoinSparkPacking.COINSPARK_PACKING_INDICES_ALL_ALL:
-                        outputPackingType= CoinSparkPacking.PackingType._ALL;
-                        break;
-                }
-            }
+        else if (this.qtyPerOutput >= CoinSparkAssetQty.COINSPARK_ASSET_QTY_MAX)
+            packing|= CoinSparkPacking.COINSPARK_PACKING_QUANTITY_MAX;
 
-            inputs=CoinSparkPacking.packingTypeToValues(inputPackingType, previousTransfer != null ? previousTransfer.inputs : null, countInputs);
-            outputs=CoinSparkPacking.packingTypeToValues(outputPackingType, previousTransfer != null ? previousTransfer.outputs : null, countOutputs);
+        else if (this.qtyPerOutput <= CoinSparkPacking.COINSPARK_UNSIGNED_BYTE_MAX)
+            packing|= CoinSparkPacking.COINSPARK_PACKING_QUANTITY_1_BYTE;
 
-            //  Read in the fields as appropriate
-            
-            CoinSparkPacking.PackingByteCounts counts = CoinSparkPacking.transferPackingToByteCounts(packing, packingExtend);  
-            
-            long[] resLong = new long[1];
-            if (counts.blockNumBytes>0)
-            {
-                if(buffer.canRead(counts.blockNumBytes))
-                    assetRef.setBlockNum(buffer.readLong(counts.blockNumBytes));
-                else
-                    throw new CoinSparkExceptions.CannotDecode("Cannot read block number");
-            }
+        else if (this.qtyPerOutput <= CoinSparkPacking.COINSPARK_UNSIGNED_2_BYTES_MAX)
+            packing|= CoinSparkPacking.COINSPARK_PACKING_QUANTITY_2_BYTES;
 
-            if (counts.txOffsetBytes>0)
-            {
-                if(buffer.canRead(counts.txOffsetBytes))
-                    assetRef.setTxOffset(buffer.readLong(counts.txOffsetBytes));
-                else
-                    throw new CoinSparkExceptions.CannotDecode("Cannot read txn offset");
-            }
-            
-            if (counts.txIDPrefixBytes>0)
-            {
-                if(buffer.canRead(counts.txIDPrefixBytes))
-                    assetRef.setTxIDPrefix(buffer.readBytes(counts.txIDPrefixBytes));
-                else
-                    throw new CoinSparkExceptions.CannotDecode("Cannot read txn prefix");
-            }
-            
-            if (counts.firstInputBytes>0)
-            {
-                if(buffer.canRead(counts.firstInputBytes))
-                    inputs.first=buffer.readInt(counts.firstInputBytes);
-                else
-                    throw new CoinSparkExceptions.CannotDecode("Cannot read input first");
-            }
+        else if (isQtyFloat(this.qtyPerOutput))
+            packing |= CoinSparkPacking.COINSPARK_PACKING_QUANTITY_FLOAT;
 
-            if (counts.countInputsBytes>0)
-            {
-                if(buffer.canRead(counts.countInputsBytes))
-                    inputs.count=buffer.readInt(counts.countInputsBytes);
-                else
-                    throw new CoinSparkExceptions.CannotDecode("Cannot read input count");
-            }
+        else if (this.qtyPerOutput <= CoinSparkPacking.COINSPARK_UNSIGNED_3_BYTES_MAX)
+            packing|= CoinSparkPacking.COINSPARK_PACKING_QUANTITY_3_BYTES;
 
-            if (counts.firstOutputBytes>0)
-            {
-                if(buffer.canRead(counts.firstOutputBytes))
-                    outputs.first=buffer.readInt(counts.firstOutputBytes);
-                else
-                    throw new CoinSparkExceptions.CannotDecode("Cannot read output first");
-            }
+        else if (this.qtyPerOutput <= CoinSparkPacking.COINSPARK_UNSIGNED_4_BYTES_MAX)
+            packing|= CoinSparkPacking.COINSPARK_PACKING_QUANTITY_4_BYTES;
 
-            if (counts.countOutputsBytes>0)
-            {
-                if(buffer.canRead(counts.countOutputsBytes))
-                    outputs.count=buffer.readInt(counts.countOutputsBytes);
-                else
-                    throw new CoinSparkExceptions.CannotDecode("Cannot read output count");
-            }
+        else
+            packing|= CoinSparkPacking.COINSPARK_PACKING_QUANTITY_6_BYTES;
+        
+        return (packing & 0xFF) | ((packingExtend & 0xFF) << 8);
+    }
+    
+    private static boolean isQtyFloat(long qty)
+    {
+        long qtyEncodedFloat=CoinSparkAssetQty.toMantissaExponent(qty, 0, COINSPARK_TRANSFER_QTY_FLOAT_MANTISSA_MAX,COINSPARK_TRANSFER_QTY_FLOAT_EXPONENT_MAX);
+        
+        return CoinSparkAssetQty.mantissaExponentToValue(CoinSparkAssetQty.mantissaExponentToMantissa(qtyEncodedFloat),
+                CoinSparkAssetQty.mantissaExponentToExponent(qtyEncodedFloat)) == qty;
+    }
 
-            long decodeQuantity=0;
-            if (counts.quantityBytes>0)
-            {
-                if(buffer.canRead(counts.quantityBytes))
-                    decodeQuantity = buffer.readLong(counts.quantityBytes);
-                else
-                    throw new CoinSparkExceptions.CannotDecode("Cannot read quantity");
-            }
-            
-            
-            //  Finish up reading in quantity
 
-            switch (packing & CoinSparkPacking.COINSPARK_PACKING_QUANTITY_MASK)
-            {
-                case CoinSparkPacking.COINSPARK_PACKING_QUANTITY_1P:
-                    if (previousTransfer != null)
-                        this.qtyPerOutput = previousTransfer.qtyPerOutput;
-                    else
-                        this.qtyPerOutput = 1;
-                    break;
-
-                case CoinSparkPacking.COINSPARK_PACKING_QUANTITY_MAX:
-                    this.qtyPerOutput = CoinSparkAssetQty.COINSPARK_ASSET_QTY_MAX;
-                    break;
-
-                case CoinSparkPacking.COINSPARK_PACKING_QUANTITY_FLOAT:
-                    decodeQuantity &= COINSPARK_TRANSFER_QTY_FLOAT_MASK;
-                    
-                    this.qtyPerOutput = new CoinSparkAssetQty(
-                            (int)(decodeQuantity%COINSPARK_TRANSFER_QTY_FLOAT_EXPONENT_MULTIPLE),
-                            (int)(decodeQuantity/COINSPARK_TRANSFER_QTY_FLOAT_EXPONENT_MULTIPLE)).value;
-                    break;
-
-                default:
-                    this.qtyPerOutput=decodeQuantity;
-                    break;
-            }
-        }
-        catch (Exception ex)
+    protected boolean decode(CoinSparkBuffer buffer, CoinSparkTransfer previousTransfer, int countInputs, int countOutputs)
+    {
+        return decode(buffer, previousTransfer, countInputs, countOutputs, null) == CoinSparkDecodeStatus.Reason.OK;
+    }
+    
+    protected CoinSparkDecodeStatus.Reason decode(CoinSparkBuffer buffer, CoinSparkTransfer previousTransfer, int countInputs, int countOutputs, CoinSparkDecodeStatus status)
+    {
+        CoinSparkTransferCursor cursor=new CoinSparkTransferCursor();
+        
+        cursor.start(buffer, countInputs, countOutputs);
+        if (previousTransfer != null)
+            cursor.setPrevious(previousTransfer);
+        
+        if (!cursor.next())
         {
-            System.out.print(ex.getMessage());
-            return false;
+            if (!cursor.hasFailed())                                            // nothing left to read
+                return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.TRUNCATED, buffer.readOffset());
+            
+            return CoinSparkDecodeStatus.set(status, cursor.getStatus().reason, cursor.getStatus().offset);
         }
         
-        return true;
+        cursor.getTransfer(this);
+        return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.OK, 0);
     }
 
 }
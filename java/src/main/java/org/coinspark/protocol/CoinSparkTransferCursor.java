@@ -0,0 +1,626 @@
+/*
+ * CoinSpark 2.1 - Java library
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.coinspark.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * CoinSparkTransferCursor class for walking through encoded transfers in place.
+ *
+ * Each call to next() decodes one transfer into primitive fields, using the previous transfer's
+ * fields where the packing refers to them, so no CoinSparkTransfer objects are created.
+ * A single cursor can be reset and reused for any number of transactions.
+ */
+
+public class CoinSparkTransferCursor extends CoinSparkBase{
+
+// Public functions
+
+    /**
+     * CoinSparkTransferCursor class for walking through encoded transfers in place.
+     */
+
+    public CoinSparkTransferCursor()
+    {
+        ownBuffer=new CoinSparkBuffer(0);
+        buffer=ownBuffer;
+        counts=new CoinSparkPacking.PackingByteCounts();
+        txIDPrefix=new byte[CoinSparkAssetRef.COINSPARK_ASSETREF_TXID_PREFIX_LEN];
+        status=new CoinSparkDecodeStatus();
+        clear();
+    }
+
+    /**
+     * Set all fields in cursor to their default/zero values. next() returns false until the cursor is reset.
+     */
+
+    public final void clear()
+    {
+        buffer=ownBuffer;
+        buffer.wrap(EMPTY, 0, 0);
+        countInputs=0;
+        countOutputs=0;
+        failed=false;
+        status.clear();
+        clearTransfer();
+    }
+
+    /**
+     * Starts walking through the transfers in metadata.
+     *
+     * @param metadata Metadata to decode as hexadecimal
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @return true if the metadata contains transfers, false otherwise
+     */
+
+    public boolean reset(String metadata, int countInputs, int countOutputs)
+    {
+        byte [] raw=hexToByte(metadata);
+        if(raw == null)
+        {
+            raw=new byte[0];
+        }
+        buffer=ownBuffer;
+        buffer.wrap(raw, 0, raw.length);
+        return start(countInputs, countOutputs);
+    }
+
+    /**
+     * Starts walking through the transfers in metadata.
+     *
+     * @param metadata Metadata to decode as raw data
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @return true if the metadata contains transfers, false otherwise
+     */
+
+    public boolean reset(byte [] metadata, int countInputs, int countOutputs)
+    {
+        buffer=ownBuffer;
+        buffer.wrap(metadata, 0, metadata.length);
+        return start(countInputs, countOutputs);
+    }
+
+    /**
+     * Starts walking through the transfers in metadata.
+     *
+     * @param metadata Metadata to decode, in place in its buffer
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @return true if the metadata contains transfers, false otherwise
+     */
+
+    public boolean reset(CoinSparkMetadataView metadata, int countInputs, int countOutputs)
+    {
+        if(!metadata.isValid())
+        {
+            clear();
+            CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.NOT_FOUND, 0);
+            return false;
+        }
+
+        buffer=ownBuffer;
+        buffer.wrap(metadata.data, metadata.offset, metadata.length);
+        return start(countInputs, countOutputs);
+    }
+
+    /**
+     * Starts walking through the transfers in metadata.
+     *
+     * @param metadata Metadata to decode between position and limit, which are not changed
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @return true if the metadata contains transfers, false otherwise
+     */
+
+    public boolean reset(ByteBuffer metadata, int countInputs, int countOutputs)
+    {
+        buffer=ownBuffer;
+        buffer.wrap(metadata);
+        return start(countInputs, countOutputs);
+    }
+
+    /**
+     * Decodes the next transfer. The metadata must not be changed while the cursor is in use.
+     *
+     * @return true if a transfer was decoded, false at the end of the transfers or if the metadata is invalid
+     */
+
+    public boolean next()
+    {
+        if(failed || (buffer.availableForRead() <= 0))
+            return false;
+
+        if(decodeNext() != CoinSparkDecodeStatus.Reason.OK)
+        {
+            failed=true;
+            return false;
+        }
+
+        index++;
+        return true;
+    }
+
+    /**
+     * Returns true if decoding stopped because the metadata is invalid, rather than because all transfers were read.
+     *
+     * @return true if the metadata is invalid
+     */
+
+    public boolean hasFailed()
+    {
+        return failed;
+    }
+
+    /**
+     * Returns why the metadata contains no transfers or decoding stopped. The status is reused by the cursor.
+     *
+     * @return OK if all transfers read so far were valid, otherwise the reason and offset of the failure
+     */
+
+    public CoinSparkDecodeStatus getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * Returns index of current transfer in the list.
+     *
+     * @return transfer index, -1 before the first call to next()
+     */
+
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns block in which genesis transaction of current transfer is confirmed.
+     *
+     * @return block number, COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE for a default route
+     */
+
+    public long getBlockNum() {
+        return blockNum;
+    }
+
+    /**
+     * Returns byte offset of genesis transaction of current transfer within its block.
+     *
+     * @return byte offset
+     */
+
+    public long getTxOffset() {
+        return txOffset;
+    }
+
+    /**
+     * Returns first bytes of genesis transaction id of current transfer, as in CoinSparkAssetRef.encode().
+     *
+     * @return transaction id prefix as integer
+     */
+
+    public int getTxIDPrefixInteger() {
+        return 256*(txIDPrefix[1] & 0xFF) + (txIDPrefix[0] & 0xFF);
+    }
+
+    /**
+     * Returns true if the current transfer is a default route.
+     *
+     * @return true for a default route
+     */
+
+    public boolean isDefaultRoute() {
+        return blockNum == CoinSparkTransfer.COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE;
+    }
+
+    /**
+     * Returns first input of current transfer.
+     *
+     * @return first input
+     */
+
+    public int getInputFirst() {
+        return inputFirst;
+    }
+
+    /**
+     * Returns number of inputs of current transfer.
+     *
+     * @return input count
+     */
+
+    public int getInputCount() {
+        return inputCount;
+    }
+
+    /**
+     * Returns first output of current transfer.
+     *
+     * @return first output
+     */
+
+    public int getOutputFirst() {
+        return outputFirst;
+    }
+
+    /**
+     * Returns number of outputs of current transfer.
+     *
+     * @return output count
+     */
+
+    public int getOutputCount() {
+        return outputCount;
+    }
+
+    /**
+     * Returns quantity per output of current transfer.
+     *
+     * @return quantity per output
+     */
+
+    public long getQtyPerOutput() {
+        return qtyPerOutput;
+    }
+
+    /**
+     * Returns true if the current transfer refers to the asset reference.
+     *
+     * @param assetRef asset reference to compare with
+     * @return true if the genesis block, offset and transaction id prefix are identical
+     */
+
+    public boolean matchAssetRef(CoinSparkAssetRef assetRef)
+    {
+        return (blockNum == assetRef.getBlockNum()) && (txOffset == assetRef.getTxOffset()) &&
+               (memcmp(txIDPrefix, assetRef.getTxIDPrefix(), CoinSparkAssetRef.COINSPARK_ASSETREF_TXID_PREFIX_LEN) == 0);
+    }
+
+    /**
+     * Copies the current transfer into a CoinSparkTransfer, reusing its asset reference and ranges.
+     *
+     * @param transfer transfer to set
+     */
+
+    public void getTransfer(CoinSparkTransfer transfer)
+    {
+        CoinSparkAssetRef assetRef=transfer.getAssetRef();
+        assetRef.setBlockNum(blockNum);
+        assetRef.setTxOffset(txOffset);
+        System.arraycopy(txIDPrefix, 0, assetRef.getTxIDPrefix(), 0, CoinSparkAssetRef.COINSPARK_ASSETREF_TXID_PREFIX_LEN);
+        transfer.getInputs().first=inputFirst;
+        transfer.getInputs().count=inputCount;
+        transfer.getOutputs().first=outputFirst;
+        transfer.getOutputs().count=outputCount;
+        transfer.setQtyPerOutput(qtyPerOutput);
+    }
+
+
+// Private variables/constants/functions
+
+    private static final byte [] EMPTY = new byte[0];
+
+    private final CoinSparkBuffer ownBuffer;
+    private CoinSparkBuffer buffer;                                             // ownBuffer, or the caller's buffer for start(CoinSparkBuffer...)
+    private final CoinSparkPacking.PackingByteCounts counts;
+    private int countInputs;
+    private int countOutputs;
+    private boolean failed;
+    private final CoinSparkDecodeStatus status;
+    private int index;
+
+    private long blockNum;
+    private long txOffset;
+    private final byte [] txIDPrefix;
+    private int inputFirst;
+    private int inputCount;
+    private int outputFirst;
+    private int outputCount;
+    private long qtyPerOutput;
+
+    private void clearTransfer()
+    {
+        index=-1;
+        blockNum=0;
+        txOffset=0;
+        txIDPrefix[0]=0;
+        txIDPrefix[1]=0;
+        inputFirst=0;
+        inputCount=0;
+        outputFirst=0;
+        outputCount=0;
+        qtyPerOutput=0;
+    }
+
+    private boolean start(int CountInputs, int CountOutputs)
+    {
+        countInputs=CountInputs;
+        countOutputs=CountOutputs;
+        failed=false;
+        status.clear();
+        clearTransfer();
+
+        if(!buffer.locateRange(COINSPARK_TRANSFERS_PREFIX))
+        {
+            CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.NOT_FOUND, 0);
+            buffer.wrap(EMPTY, 0, 0);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Continues from a buffer already positioned at the transfers, reading from it directly
+     * so that the caller sees how much was read.
+     */
+
+    protected void start(CoinSparkBuffer Source, int CountInputs, int CountOutputs)
+    {
+        buffer=Source;
+        countInputs=CountInputs;
+        countOutputs=CountOutputs;
+        failed=false;
+        status.clear();
+        clearTransfer();
+    }
+
+    /**
+     * Makes a transfer the previous one for the next call to next().
+     */
+
+    protected void setPrevious(CoinSparkTransfer previousTransfer)
+    {
+        CoinSparkAssetRef assetRef=previousTransfer.getAssetRef();
+        index=0;
+        blockNum=assetRef.getBlockNum();
+        txOffset=assetRef.getTxOffset();
+        System.arraycopy(assetRef.getTxIDPrefix(), 0, txIDPrefix, 0, CoinSparkAssetRef.COINSPARK_ASSETREF_TXID_PREFIX_LEN);
+        inputFirst=previousTransfer.getInputs().first;
+        inputCount=previousTransfer.getInputs().count;
+        outputFirst=previousTransfer.getOutputs().first;
+        outputCount=previousTransfer.getOutputs().count;
+        qtyPerOutput=previousTransfer.getQtyPerOutput();
+    }
+
+    private CoinSparkDecodeStatus.Reason decodeNext()
+    {
+        byte packing, packingExtend = 0;
+        boolean hasPrevious = (index >= 0);
+        int transferOffset = buffer.readOffset();
+        CoinSparkPacking.PackingType inputPackingType = CoinSparkPacking.PackingType._NONE;
+        CoinSparkPacking.PackingType outputPackingType = CoinSparkPacking.PackingType._NONE;
+
+        //  Extract packing
+
+        if(buffer.canRead(1))
+        {
+            packing=(byte)buffer.readUnsignedByte();
+        }
+        else
+            return fail(CoinSparkDecodeStatus.Reason.TRUNCATED);
+
+
+        // Packing for genesis reference
+
+        switch (packing & CoinSparkPacking.COINSPARK_PACKING_GENESIS_MASK)
+        {
+            case CoinSparkPacking.COINSPARK_PACKING_GENESIS_PREV:
+                if (!hasPrevious) {                                         // it's for a default route
+                    blockNum=CoinSparkTransfer.COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE;
+                    txOffset=0;
+                    txIDPrefix[0]=0;
+                    txIDPrefix[1]=0;
+                }
+                break;
+        }
+
+        //  Packing for input and output indices
+
+        if ((packing & CoinSparkPacking.COINSPARK_PACKING_INDICES_MASK) == CoinSparkPacking.COINSPARK_PACKING_INDICES_EXTEND)
+        {
+            // we're using second packing metadata byte
+
+            if(buffer.canRead(1))
+            {
+                packingExtend=(byte)buffer.readUnsignedByte();
+            }
+            else
+                return fail(CoinSparkDecodeStatus.Reason.TRUNCATED);
+
+            inputPackingType=CoinSparkPacking.decodePackingExtend((byte) ((packingExtend >> CoinSparkPacking.COINSPARK_PACKING_EXTEND_INPUTS_SHIFT) &
+                            CoinSparkPacking.COINSPARK_PACKING_EXTEND_MASK),false);
+
+            if (inputPackingType == CoinSparkPacking.PackingType._NONE)
+                return fail(CoinSparkDecodeStatus.Reason.INVALID_PACKING);
+
+            outputPackingType = CoinSparkPacking.decodePackingExtend((byte) ((packingExtend >> CoinSparkPacking.COINSPARK_PACKING_EXTEND_OUTPUTS_SHIFT) &
+                            CoinSparkPacking.COINSPARK_PACKING_EXTEND_MASK),false);
+            if (outputPackingType == CoinSparkPacking.PackingType._NONE)
+                return fail(CoinSparkDecodeStatus.Reason.INVALID_PACKING);
+
+
+        } else {                                                            // not using second packing metadata byte
+
+            switch (packing & CoinSparkPacking.COINSPARK_PACKING_INDICES_MASK) // input packing
+            {
+                case CoinSparkPacking.COINSPARK_PACKING_INDICES_0P_0P:
+                case CoinSparkPacking.COINSPARK_PACKING_INDICES_0P_1S:
+                case CoinSparkPacking.COINSPARK_PACKING_INDICES_0P_ALL:
+                    inputPackingType= CoinSparkPacking.PackingType._0P;
+                    break;
+
+                case CoinSparkPacking.COINSPARK_PACKING_INDICES_1S_0P:
+                    inputPackingType= CoinSparkPacking.PackingType._1S;
+                    break;
+
+                case CoinSparkPacking.COINSPARK_PACKING_INDICES_ALL_0P:
+                case CoinSparkPacking.COINSPARK_PACKING_INDICES_ALL_1S:
+                case CoinSparkPacking.COINSPARK_PACKING_INDICES_ALL_ALL:
+                    inputPackingType= CoinSparkPacking.PackingType._ALL;
+                    break;
+            }
+
+            switch (packing & CoinSparkPacking.COINSPARK_PACKING_INDICES_MASK) // output packing
+            {
+                case CoinSparkPacking.COINSPARK_PACKING_INDICES_0P_0P:
+                case CoinSparkPacking.COINSPARK_PACKING_INDICES_1S_0P:
+                case CoinSparkPacking.COINSPARK_PACKING_INDICES_ALL_0P:
+                    outputPackingType= CoinSparkPacking.PackingType._0P;
+                    break;
+
+                case CoinSparkPacking.COINSPARK_PACKING_INDICES_0P_1S:
+                case CoinSparkPacking.COINSPARK_PACKING_INDICES_ALL_1S:
+                    outputPackingType= CoinSparkPacking.PackingType._1S;
+                    break;
+
+                case CoinSparkPacking.COINSPARK_PACKING_INDICES_0P_ALL:
+                case CoinSparkPacking.COINSPARK_PACKING_INDICES_ALL_ALL:
+                    outputPackingType= CoinSparkPacking.PackingType._ALL;
+                    break;
+            }
+        }
+
+        // first values use the previous count, so read both before overwriting
+
+        int nextInputFirst=CoinSparkPacking.packingTypeToFirst(inputPackingType, hasPrevious, inputFirst, inputCount);
+        inputCount=CoinSparkPacking.packingTypeToCount(inputPackingType, hasPrevious, inputCount, countInputs);
+        inputFirst=nextInputFirst;
+
+        int nextOutputFirst=CoinSparkPacking.packingTypeToFirst(outputPackingType, hasPrevious, outputFirst, outputCount);
+        outputCount=CoinSparkPacking.packingTypeToCount(outputPackingType, hasPrevious, outputCount, countOutputs);
+        outputFirst=nextOutputFirst;
+
+        //  Read in the fields as appropriate
+
+        CoinSparkPacking.transferPackingToByteCounts(packing, packingExtend, counts);
+
+        if (counts.blockNumBytes>0)
+        {
+            if(buffer.canRead(counts.blockNumBytes))
+                blockNum=buffer.readLong(counts.blockNumBytes);
+            else
+                return fail(CoinSparkDecodeStatus.Reason.TRUNCATED);
+        }
+
+        if (counts.txOffsetBytes>0)
+        {
+            if(buffer.canRead(counts.txOffsetBytes))
+                txOffset=buffer.readLong(counts.txOffsetBytes);
+            else
+                return fail(CoinSparkDecodeStatus.Reason.TRUNCATED);
+        }
+
+        if (counts.txIDPrefixBytes>0)
+        {
+            if(buffer.canRead(counts.txIDPrefixBytes))
+                buffer.readBytes(txIDPrefix, 0, counts.txIDPrefixBytes);
+            else
+                return fail(CoinSparkDecodeStatus.Reason.TRUNCATED);
+        }
+
+        if (counts.firstInputBytes>0)
+        {
+            if(buffer.canRead(counts.firstInputBytes))
+                inputFirst=buffer.readInt(counts.firstInputBytes);
+            else
+                return fail(CoinSparkDecodeStatus.Reason.TRUNCATED);
+        }
+
+        if (counts.countInputsBytes>0)
+        {
+            if(buffer.canRead(counts.countInputsBytes))
+                inputCount=buffer.readInt(counts.countInputsBytes);
+            else
+                return fail(CoinSparkDecodeStatus.Reason.TRUNCATED);
+        }
+
+        if (counts.firstOutputBytes>0)
+        {
+            if(buffer.canRead(counts.firstOutputBytes))
+                outputFirst=buffer.readInt(counts.firstOutputBytes);
+            else
+                return fail(CoinSparkDecodeStatus.Reason.TRUNCATED);
+        }
+
+        if (counts.countOutputsBytes>0)
+        {
+            if(buffer.canRead(counts.countOutputsBytes))
+                outputCount=buffer.readInt(counts.countOutputsBytes);
+            else
+                return fail(CoinSparkDecodeStatus.Reason.TRUNCATED);
+        }
+
+        //  Check the first indices as in CoinSparkIORange.isValid(), since a first value following the previous transfer can
+        //  pass the maximum. Counts are read in at most 2 bytes or taken from the transaction, so are not checked.
+
+        if ((inputFirst > CoinSparkIORange.COINSPARK_IO_INDEX_MAX) || (outputFirst > CoinSparkIORange.COINSPARK_IO_INDEX_MAX))
+            return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.OUT_OF_RANGE, transferOffset);
+
+        long decodeQuantity=0;
+        if (counts.quantityBytes>0)
+        {
+            if(buffer.canRead(counts.quantityBytes))
+                decodeQuantity = buffer.readLong(counts.quantityBytes);
+            else
+                return fail(CoinSparkDecodeStatus.Reason.TRUNCATED);
+        }
+
+
+        //  Finish up reading in quantity
+
+        switch (packing & CoinSparkPacking.COINSPARK_PACKING_QUANTITY_MASK)
+        {
+            case CoinSparkPacking.COINSPARK_PACKING_QUANTITY_1P:
+                if (!hasPrevious)
+                    qtyPerOutput = 1;
+                break;
+
+            case CoinSparkPacking.COINSPARK_PACKING_QUANTITY_MAX:
+                qtyPerOutput = CoinSparkAssetQty.COINSPARK_ASSET_QTY_MAX;
+                break;
+
+            case CoinSparkPacking.COINSPARK_PACKING_QUANTITY_FLOAT:
+                decodeQuantity &= CoinSparkTransfer.COINSPARK_TRANSFER_QTY_FLOAT_MASK;
+
+                qtyPerOutput = CoinSparkAssetQty.mantissaExponentToValue(
+                        (int)(decodeQuantity%CoinSparkTransfer.COINSPARK_TRANSFER_QTY_FLOAT_EXPONENT_MULTIPLE),
+                        (int)(decodeQuantity/CoinSparkTransfer.COINSPARK_TRANSFER_QTY_FLOAT_EXPONENT_MULTIPLE));
+                break;
+
+            default:
+                qtyPerOutput=decodeQuantity;
+                break;
+        }
+
+        return CoinSparkDecodeStatus.Reason.OK;
+    }
+
+    private CoinSparkDecodeStatus.Reason fail(CoinSparkDecodeStatus.Reason reason)
+    {
+        return CoinSparkDecodeStatus.set(status, reason, buffer.readOffset());
+    }
+}
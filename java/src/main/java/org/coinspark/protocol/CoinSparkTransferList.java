@@ -25,8 +25,9 @@
 
 package org.coinspark.protocol;
 
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
 
 /**
  * CoinSparkTransferList class for managing list of asset transfer metadata
@@ -82,12 +83,6 @@ public class CoinSparkTransferList extends CoinSparkBase{
     @Override
     public String toString()
     {
-        int[] ordering = new int[1024];
-        if (countTransfers > ordering.length)
-            return null;
-
-        transfersGroupOrdering(this.transfersList, ordering, countTransfers);
-
         StringBuilder sb = new StringBuilder();
         sb.append("COINSPARK TRANSFERS\n");
 
@@ -117,9 +112,6 @@ public class CoinSparkTransferList extends CoinSparkBase{
     
     public boolean match(CoinSparkTransferList transfers2,  boolean strict)
     {
-        int[] ordering1 = new int[1024];
-        int[] ordering2 = new int[1024];
-        
         if(countTransfers != transfers2.countTransfers)
         {
             return false;
@@ -134,14 +126,11 @@ public class CoinSparkTransferList extends CoinSparkBase{
         }
         else
         {
-            if (countTransfers>ordering1.length)
-                return false;
-
-            transfersGroupOrdering(this.transfersList, ordering1, countTransfers);
-            transfersGroupOrdering(transfers2.transfersList, ordering2, countTransfers);
+            int[] ordering1 = transfersGroupOrdering(this.transfersList, countTransfers);
+            int[] ordering2 = transfersGroupOrdering(transfers2.transfersList, countTransfers);
             for(int i = 0; i < countTransfers; i++)
             {
-                if (!transfersList[i].match(transfers2.transfersList[i]))
+                if (!transfersList[ordering1[i]].match(transfers2.transfersList[ordering2[i]]))
                 {
                     return false;
                 }
@@ -175,6 +164,17 @@ public class CoinSparkTransferList extends CoinSparkBase{
     {
         if (maxTransfers > i)
         {
+            if ((encodingOrder != null) && (i == countTransfers) && (transfer != null))
+            {                                                                   // appended, so the others keep their relative order
+                int position=encodingPosition(transfer);
+                System.arraycopy(encodingOrder, position, encodingOrder, position+1, countTransfers-position);
+                encodingOrder[position]=i;
+            }
+            else
+            {
+                encodingOrder=null;
+            }
+            
             transfersList[i] = transfer;
             if(i+1>countTransfers)
             {
@@ -225,6 +225,81 @@ public class CoinSparkTransferList extends CoinSparkBase{
         return buffer.toBytes();
     }
     
+    /**
+     * Returns the number of bytes encode() would produce for the transfer list, without encoding it.
+     * 
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @return number of bytes including the prefix, -1 if the transfer list cannot be encoded
+     */
+    
+    public int encodedLen(int countInputs, int countOutputs)
+    {
+        int[] ordering = encodingOrder();
+        CoinSparkPacking.PackingByteCounts counts = new CoinSparkPacking.PackingByteCounts();
+        
+        int encodedLen=COINSPARK_METADATA_IDENTIFIER_LEN+1;
+        CoinSparkTransfer previousTransfer = null;
+        
+        for (int transferIndex = 0; transferIndex<countTransfers; transferIndex++)
+        {
+            int transferLen=transfersList[ordering[transferIndex]].encodedLen(previousTransfer, countInputs, countOutputs, counts);
+            if(transferLen<0)
+            {
+                return -1;
+            }
+            
+            encodedLen+=transferLen;
+            previousTransfer = transfersList[ordering[transferIndex]];
+        }
+        
+        return encodedLen;
+    }
+    
+    /**
+     * Returns the change in encodedLen() if transfer were added to the end of the list, without adding it.
+     * 
+     * The added transfer is encoded next to transfers with the same asset reference, so the change 
+     * can be smaller than the transfer's own encodedLen(), or even negative. Only the transfer and the one
+     * encoded after it are measured, using the encoding order kept by setTransfer(). Call setTransfer() again
+     * for a transfer whose asset reference was changed in place, so that the order is updated.
+     * 
+     * @param transfer transfer which would be added
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @return change in number of bytes, Integer.MIN_VALUE if transfer cannot be encoded at its position
+     */
+    
+    public int encodedLenDelta(CoinSparkTransfer transfer, int countInputs, int countOutputs)
+    {
+        int[] ordering = encodingOrder();
+        int position = encodingPosition(transfer);
+        
+        CoinSparkTransfer previousTransfer = (position > 0) ? transfersList[ordering[position-1]] : null;
+        CoinSparkTransfer nextTransfer = (position < countTransfers) ? transfersList[ordering[position]] : null;
+        CoinSparkPacking.PackingByteCounts counts = new CoinSparkPacking.PackingByteCounts();
+        
+        int delta=transfer.encodedLen(previousTransfer, countInputs, countOutputs, counts);
+        if(delta<0)
+        {
+            return Integer.MIN_VALUE;
+        }
+        
+        if(nextTransfer != null)
+        {
+            int nextLenAfter=nextTransfer.encodedLen(transfer, countInputs, countOutputs, counts);
+            int nextLenBefore=nextTransfer.encodedLen(previousTransfer, countInputs, countOutputs, counts);
+            if( (nextLenAfter<0) || (nextLenBefore<0) )
+            {
+                return Integer.MIN_VALUE;
+            }
+            
+            delta+=nextLenAfter-nextLenBefore;
+        }
+        
+        return delta;
+    }
+    
     /**
      * Decodes the metadata into transfer list.
      * 
@@ -256,6 +331,74 @@ public class CoinSparkTransferList extends CoinSparkBase{
         return decode(buffer,countInputs,countOutputs);
     }
     
+    /**
+     * Decodes the metadata into transfer list.
+     * 
+     * @param metadata Metadata to decode, in place in its buffer
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @return true on success, false on failure
+     */
+    
+    public boolean decode(CoinSparkMetadataView metadata, int countInputs, int countOutputs)
+    {
+        if(!metadata.isValid())
+            return false;
+        
+        CoinSparkBuffer buffer=new CoinSparkBuffer(metadata.data, metadata.offset, metadata.length);
+        return decode(buffer,countInputs,countOutputs);
+    }
+    
+    /**
+     * Decodes the metadata into transfer list.
+     * 
+     * @param metadata Metadata to decode between position and limit, which are not changed
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @return true on success, false on failure
+     */
+    
+    public boolean decode(ByteBuffer metadata, int countInputs, int countOutputs)
+    {
+        CoinSparkBuffer buffer=new CoinSparkBuffer(metadata);
+        return decode(buffer,countInputs,countOutputs);
+    }
+    
+    /**
+     * Decodes the metadata into transfer list, reporting why it failed without writing to the console.
+     * 
+     * @param metadata Metadata to decode as raw data
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @param status Set to the result and the offset of any failure, can be null
+     * @return OK on success, otherwise the reason for failure
+     */
+    
+    public CoinSparkDecodeStatus.Reason decode(byte [] metadata, int countInputs, int countOutputs, CoinSparkDecodeStatus status)
+    {
+        CoinSparkBuffer buffer=new CoinSparkBuffer(metadata);
+        return decode(buffer,countInputs,countOutputs,status);
+    }
+    
+    /**
+     * Decodes the metadata into transfer list, reporting why it failed without writing to the console.
+     * 
+     * @param metadata Metadata to decode, in place in its buffer
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @param status Set to the result and the offset of any failure, can be null
+     * @return OK on success, otherwise the reason for failure
+     */
+    
+    public CoinSparkDecodeStatus.Reason decode(CoinSparkMetadataView metadata, int countInputs, int countOutputs, CoinSparkDecodeStatus status)
+    {
+        if(!metadata.isValid())
+            return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.NOT_FOUND, 0);
+        
+        CoinSparkBuffer buffer=new CoinSparkBuffer(metadata.data, metadata.offset, metadata.length);
+        return decode(buffer,countInputs,countOutputs,status);
+    }
+    
     /**
      * Decodes the metadata into transfer list.
      * 
@@ -302,28 +445,14 @@ public class CoinSparkTransferList extends CoinSparkBase{
             return COINSPARK_SATOSHI_QTY_MAX;
         }
         
-        int countOutputs=Math.min(outputsSatoshis.length, outputsRegular.length);
-                
-        int outputIndex, lastOutputIndex;
-
         int transfersToCover = 0;
 
         for (int transferIndex = 0; transferIndex < countTransfers; transferIndex++) {
-            if (
-                (this.transfersList[transferIndex].assetRef.getBlockNum() !=
-                        CoinSparkTransfer.COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE) && // don't count default routes
-                (this.transfersList[transferIndex].inputs.count > 0) &&
-                (this.transfersList[transferIndex].inputs.first < countInputs) // only count if at least one valid input index
-                )
+            if (this.transfersList[transferIndex].assetRef.getBlockNum() !=
+                        CoinSparkTransfer.COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE) // don't count default routes
             {
-                outputIndex = Math.max(this.transfersList[transferIndex].outputs.first, 0);
-                lastOutputIndex = Math.min(this.transfersList[transferIndex].outputs.first +
-                        this.transfersList[transferIndex].outputs.count, countOutputs)-1;
-
-                for (; outputIndex<=lastOutputIndex; outputIndex++) {
-                    if (outputsRegular[outputIndex])
-                        transfersToCover++;
-                }
+                transfersToCover += transferOutputsToCover(this.transfersList[transferIndex].inputs.first, this.transfersList[transferIndex].inputs.count,
+                        this.transfersList[transferIndex].outputs.first, this.transfersList[transferIndex].outputs.count, countInputs, outputsRegular);
             }
         }
         long temp = getMinFeeBasis(outputsSatoshis, outputsRegular);
@@ -348,7 +477,34 @@ public class CoinSparkTransferList extends CoinSparkBase{
     public long[] apply(CoinSparkAssetRef reference, CoinSparkGenesis genesis,
                long[] inputBalances,boolean[] outputsRegular)
     {
-        return applyInner(reference, genesis,  inputBalances, outputsRegular);
+        long[] outputBalances=new long[outputsRegular.length];
+        
+        applyInner(reference, genesis, inputBalances.length, inputBalances, outputsRegular.length, outputsRegular, outputBalances,
+                new CoinSparkApplyContext(inputBalances.length));
+        
+        return outputBalances;
+    }
+    
+    /**
+     * As apply(CoinSparkAssetRef,CoinSparkGenesis,long[],boolean[]), but writes into outputBalances and takes its scratch arrays
+     * from context, so it does not allocate. The arrays may be longer than countInputs/countOutputs, extra entries are ignored.
+     * ** Call this if the transaction DOES HAVE a sufficient fee to make the list of transfers valid **
+     * 
+     * @param reference Asset reference
+     * @param genesis Genesis object corresponding to asset reference
+     * @param countInputs number of inputs in transaction
+     * @param inputBalances Input balances (at least countInputs entries)
+     * @param countOutputs number of outputs in transaction
+     * @param outputsRegular pass array of booleans for whether each output script is regular (at least countOutputs entries)
+     * @param outputBalances array of at least countOutputs entries to receive the output balances
+     * @param context reusable scratch arrays
+     * @return true on success, false if an array is too small
+     */
+    
+    public boolean apply(CoinSparkAssetRef reference, CoinSparkGenesis genesis, int countInputs, long[] inputBalances,
+               int countOutputs, boolean[] outputsRegular, long[] outputBalances, CoinSparkApplyContext context)
+    {
+        return applyInner(reference, genesis, countInputs, inputBalances, countOutputs, outputsRegular, outputBalances, context);
     }
 
     
@@ -365,7 +521,140 @@ public class CoinSparkTransferList extends CoinSparkBase{
     public long[]  applyNone(CoinSparkAssetRef assetRef, CoinSparkGenesis genesis,
                                      long[] inputBalances,boolean[] outputsRegular)
     {
-        return new CoinSparkTransferList().applyInner(assetRef, genesis,inputBalances,outputsRegular);
+        long[] outputBalances=new long[outputsRegular.length];
+        
+        applyNoneInner(genesis, inputBalances.length, inputBalances, outputsRegular.length, outputsRegular, outputBalances,
+                new CoinSparkApplyContext(inputBalances.length));
+        
+        return outputBalances;
+    }
+
+    /**
+     * As applyNone(CoinSparkAssetRef,CoinSparkGenesis,long[],boolean[]), but writes into outputBalances and takes its scratch arrays
+     * from context, so it does not allocate. The arrays may be longer than countInputs/countOutputs, extra entries are ignored.
+     * ** Call this if the transaction DOES NOT HAVE a sufficient fee to make the list of transfers valid **
+     * 
+     * @param assetRef Asset reference
+     * @param genesis Genesis object corresponding to asset reference
+     * @param countInputs number of inputs in transaction
+     * @param inputBalances Input balances (at least countInputs entries)
+     * @param countOutputs number of outputs in transaction
+     * @param outputsRegular pass array of booleans for whether each output script is regular (at least countOutputs entries)
+     * @param outputBalances array of at least countOutputs entries to receive the output balances
+     * @param context reusable scratch arrays
+     * @return true on success, false if an array is too small
+     */
+    
+    public boolean applyNone(CoinSparkAssetRef assetRef, CoinSparkGenesis genesis, int countInputs, long[] inputBalances,
+               int countOutputs, boolean[] outputsRegular, long[] outputBalances, CoinSparkApplyContext context)
+    {
+        return applyNoneInner(genesis, countInputs, inputBalances, countOutputs, outputsRegular, outputBalances, context);
+    }
+
+    /**
+     * Compiles the transfer list for a transaction into an immutable plan, which can be applied many times to changing
+     * input balances without rescanning the transfers or rebuilding the default route map.
+     * The plan does not change if the transfer list is modified later.
+     * 
+     * @param countInputs number of inputs in transaction
+     * @param outputsRegular pass array of booleans for whether each output script is regular
+     * @return compiled plan
+     */
+    
+    public CoinSparkTransferPlan compile(int countInputs, boolean[] outputsRegular)
+    {
+        return new CoinSparkTransferPlan(this, countInputs, outputsRegular,
+                getDefaultRouteMap(countInputs, outputsRegular.length, outputsRegular, new int[countInputs]));
+    }
+    
+    /**
+     * For each asset specified by references[i] and geneses[i], applies the transfers in the list to move units of that asset
+     * from inputBalances[i] to outputBalances[i]. The results are the same as calling apply() for each asset, but the transfers
+     * are grouped by asset and the default route map is built only once.
+     * ** Call this if the transaction DOES HAVE a sufficient fee to make the list of transfers valid **
+     * 
+     * @param references Asset references
+     * @param geneses Genesis objects corresponding to asset references
+     * @param inputBalances Input balances for each asset, all of size countInputs
+     * @param outputsRegular pass array of booleans for whether each output script is regular
+     * @return Output balances for each asset, null if the array sizes do not match
+     */
+    
+    public long[][] applyAll(CoinSparkAssetRef[] references, CoinSparkGenesis[] geneses,
+               long[][] inputBalances,boolean[] outputsRegular)
+    {
+        if(!applyAllSizesValid(references, geneses, inputBalances))
+            return null;
+        
+        int countAssets=references.length;
+        int countInputs=(countAssets > 0) ? inputBalances[0].length : 0;
+        int countOutputs=outputsRegular.length;
+        long[][] outputBalances=new long[countAssets][];
+        long[][] inputsRemaining=new long[countAssets][];
+        
+        for (int assetIndex=0; assetIndex<countAssets; assetIndex++) {
+            outputBalances[assetIndex]=new long[countOutputs];
+            inputsRemaining[assetIndex]=Arrays.copyOf(inputBalances[assetIndex], inputBalances[assetIndex].length);
+        }
+        
+        //  Sort the assets once, then find the assets of each transfer by binary search, so there are no per-asset scans
+        
+        int[] assetOrdering=assetRefsOrdering(references);
+        
+        for (int transferIndex=0; transferIndex < countTransfers; transferIndex++)
+        {
+            CoinSparkTransfer transfer=this.transfersList[transferIndex];
+            int orderIndex=assetRefsFind(references, assetOrdering, transfer.getAssetRef());
+            
+            for (; (orderIndex<countAssets) && (compareAssetRefsExact(references[assetOrdering[orderIndex]], transfer.getAssetRef())==0); orderIndex++) {
+                int assetIndex=assetOrdering[orderIndex];
+                applyTransfer(transfer.getInputs().first, transfer.getInputs().count, transfer.getOutputs().first, transfer.getOutputs().count,
+                        transfer.getQtyPerOutput(), countInputs, inputsRemaining[assetIndex], countOutputs, outputBalances[assetIndex], outputsRegular);
+            }
+        }
+        
+        int[] inputDefaultOutput=getDefaultRouteMap(countInputs, countOutputs, outputsRegular, new int[countInputs]);
+        
+        for (int assetIndex=0; assetIndex<countAssets; assetIndex++) {
+            applyChargesAndDefaultRoutes(geneses[assetIndex], countInputs, inputsRemaining[assetIndex], countOutputs, outputBalances[assetIndex],
+                    outputsRegular, inputDefaultOutput);
+        }
+        
+        return outputBalances;
+    }
+    
+    /**
+     * For each asset specified by references[i] and geneses[i], move units of that asset from inputBalances[i] to
+     * outputBalances[i], applying the default behavior only (all assets goes to last regular output).
+     * The results are the same as calling applyNone() for each asset.
+     * ** Call this if the transaction DOES NOT HAVE a sufficient fee to make the list of transfers valid **
+     * 
+     * @param references Asset references
+     * @param geneses Genesis objects corresponding to asset references
+     * @param inputBalances Input balances for each asset, all of size countInputs
+     * @param outputsRegular pass array of booleans for whether each output script is regular
+     * @return Output balances for each asset, null if the array sizes do not match
+     */
+    
+    public long[][] applyNoneAll(CoinSparkAssetRef[] references, CoinSparkGenesis[] geneses,
+               long[][] inputBalances,boolean[] outputsRegular)
+    {
+        if(!applyAllSizesValid(references, geneses, inputBalances))
+            return null;
+        
+        int countAssets=references.length;
+        int countInputs=(countAssets > 0) ? inputBalances[0].length : 0;
+        int countOutputs=outputsRegular.length;
+        long[][] outputBalances=new long[countAssets][];
+        int[] inputDefaultOutput=fillDefaultRouteMap(countInputs, countOutputs, outputsRegular, new int[countInputs]);
+        
+        for (int assetIndex=0; assetIndex<countAssets; assetIndex++) {
+            outputBalances[assetIndex]=new long[countOutputs];
+            applyChargesAndDefaultRoutes(geneses[assetIndex], countInputs, Arrays.copyOf(inputBalances[assetIndex], countInputs),
+                    countOutputs, outputBalances[assetIndex], outputsRegular, inputDefaultOutput);
+        }
+        
+        return outputBalances;
     }
 
     /**
@@ -380,23 +669,35 @@ public class CoinSparkTransferList extends CoinSparkBase{
     
     public boolean [] defaultOutputs(int countInputs, boolean[] outputsRegular)
     {
-        int countOutputs=outputsRegular.length;
-        boolean [] outputsDefault=new boolean [countOutputs];
-        int outputIndex;
-        for (outputIndex = 0; outputIndex < countOutputs; outputIndex++) {
-            outputsDefault[outputIndex] = false;
-        }
-
-        int[] inputDefaultOutput = getDefaultRouteMap(countInputs, outputsRegular);
-
-        for (int inputIndex=0; inputIndex<countInputs; inputIndex++) {
-            outputIndex=inputDefaultOutput[inputIndex];
-
-            if (outputIndex<countOutputs)
-                outputsDefault[outputIndex] = true;
-        }
+        boolean [] outputsDefault=new boolean [outputsRegular.length];
+        
+        defaultOutputs(countInputs, outputsRegular.length, outputsRegular, outputsDefault, new CoinSparkApplyContext(countInputs));
+        
         return outputsDefault;
     }
+    
+    /**
+     * As defaultOutputs(int,boolean[]), but writes into outputsDefault and takes its scratch arrays from context, so it does not allocate.
+     *
+     * @param countInputs number of inputs in transaction
+     * @param countOutputs number of outputs in transaction
+     * @param outputsRegular pass array of booleans for whether each output script is regular (at least countOutputs entries)
+     * @param outputsDefault array of at least countOutputs entries to receive the result
+     * @param context reusable scratch arrays
+     * @return true on success, false if an array is too small
+    */
+    
+    public boolean defaultOutputs(int countInputs, int countOutputs, boolean[] outputsRegular, boolean [] outputsDefault, CoinSparkApplyContext context)
+    {
+        if( (countInputs < 0) || (countOutputs < 0) || (outputsRegular.length < countOutputs) || (outputsDefault.length < countOutputs) )
+            return false;
+        
+        int[] inputDefaultOutput = getDefaultRouteMap(countInputs, countOutputs, outputsRegular, context.getInputDefaultOutput(countInputs));
+
+        defaultRouteMapToOutputs(countInputs, inputDefaultOutput, countOutputs, outputsDefault);
+        
+        return true;
+    }
 
     
     
@@ -408,22 +709,68 @@ public class CoinSparkTransferList extends CoinSparkBase{
     private CoinSparkTransfer[] transfersList;
     private int maxTransfers;
     private int countTransfers;
+    private int[] encodingOrder;                                                // transfersGroupOrdering() for maxTransfers, null to recalculate
 
-
-    private boolean encode(CoinSparkBuffer buffer, int countInputs, int countOutputs,int metadataMaxLen)
+    private int[] encodingOrder()
+    {
+        if (encodingOrder == null)
+        {
+            encodingOrder = Arrays.copyOf(transfersGroupOrdering(transfersList, countTransfers), maxTransfers);
+        }
+        
+        return encodingOrder;
+    }
+    
+    private int encodingPosition(CoinSparkTransfer transfer)
+    {
+        //  Where transfersGroupOrdering() would put transfer if it was added to the end of the list: after the transfers it
+        //  does not sort before, and within transfers which compare() equal, after the last one it exactly matches if any
+        
+        int[] ordering = encodingOrder();
+        int low=0;
+        int high=countTransfers;
+        
+        while (low < high)
+        {
+            int middle=(low+high) >>> 1;
+            if (compareGroups(transfer.assetRef, transfersList[ordering[middle]].assetRef) >= 0)
+                low=middle+1;
+            else
+                high=middle;
+        }
+        
+        if (transfer.assetRef.getBlockNum() != CoinSparkTransfer.COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE)
+        {
+            for (int position=low-1; (position >= 0) && (compareGroups(transfer.assetRef, transfersList[ordering[position]].assetRef) == 0); position--)
+                if (transfer.assetRef.match(transfersList[ordering[position]].assetRef))
+                    return position+1;
+        }
+        
+        return low;
+    }
+    
+    private static int compareGroups(CoinSparkAssetRef assetRef1, CoinSparkAssetRef assetRef2)
     {
-        int[] ordering = new int[1024];
+        //  Order of transfersGroupOrdering() before ties are broken, with default routes first
+        
+        boolean defaultRoute1 = (assetRef1.getBlockNum() == CoinSparkTransfer.COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE);
+        boolean defaultRoute2 = (assetRef2.getBlockNum() == CoinSparkTransfer.COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE);
+        
+        if (defaultRoute1 != defaultRoute2)
+            return defaultRoute1 ? -1 : 1;
+        
+        return defaultRoute1 ? 0 : assetRef1.compare(assetRef2);
+    }
 
-        if (countTransfers > ordering.length)
-            return false; // too many for statically sized array
 
-        buffer.writeString(COINSPARK_METADATA_IDENTIFIER);
-        buffer.writeByte(COINSPARK_TRANSFERS_PREFIX);
+    private boolean encode(CoinSparkBuffer buffer, int countInputs, int countOutputs,int metadataMaxLen)
+    {
+        buffer.writePrefix(COINSPARK_TRANSFERS_PREFIX);
         
 
         //  Encode each transfer, grouping by asset reference, but preserving original order otherwise
 
-        transfersGroupOrdering(this.transfersList, ordering, countTransfers);
+        int[] ordering = transfersGroupOrdering(this.transfersList, countTransfers);
 
         CoinSparkTransfer previousTransfer = null;
 
@@ -448,36 +795,36 @@ public class CoinSparkTransferList extends CoinSparkBase{
     
     private boolean decode(CoinSparkBuffer buffer, int countInputs, int countOutputs)
     {
-        CoinSparkTransfer transfer, previousTransfer = null;
-        long transferBytesUsed = 0;
-
+        return decode(buffer, countInputs, countOutputs, null) == CoinSparkDecodeStatus.Reason.OK;
+    }
+    
+    private CoinSparkDecodeStatus.Reason decode(CoinSparkBuffer buffer, int countInputs, int countOutputs, CoinSparkDecodeStatus status)
+    {
         if(!buffer.locateRange(COINSPARK_TRANSFERS_PREFIX))
-            return false;
+            return CoinSparkDecodeStatus.set(status, CoinSparkDecodeStatus.Reason.NOT_FOUND, 0);
         
-        //  Iterate over list
-
-        try {
-            countTransfers=0;
-            transfer = new CoinSparkTransfer();
-            while (buffer.availableForRead() > 0)
-            {            
-                if(transfer.decode(buffer, countTransfers != 0 ? previousTransfer : null, countInputs, countOutputs))
-                {
-                    if (countTransfers < maxTransfers)
-                        transfersList[countTransfers]=transfer.clone(); // copy across if still space
-
-                    countTransfers++;
-                    previousTransfer=transfer.clone();
-                }
-                else
-                    return false;
+        encodingOrder=null;
+        
+        //  Iterate over list, the cursor keeps the previous transfer's fields
 
+        CoinSparkTransferCursor cursor=new CoinSparkTransferCursor();
+        cursor.start(buffer, countInputs, countOutputs);
+        
+        countTransfers=0;
+        while (cursor.next())
+        {            
+            if (countTransfers < maxTransfers)                                  // copy across if still space
+            {
+                transfersList[countTransfers]=new CoinSparkTransfer();
+                cursor.getTransfer(transfersList[countTransfers]);
             }
-        } catch (CloneNotSupportedException ex) {
-            Logger.getLogger(CoinSparkTransferList.class.getName()).log(Level.SEVERE, null, ex);
+            countTransfers++;
         }
         
-        return true;
+        if (cursor.hasFailed())
+            countTransfers=0;                                                   // as if nothing was decoded
+        
+        return CoinSparkDecodeStatus.set(status, cursor.getStatus().reason, cursor.getStatus().offset);
     }
     
     
@@ -490,101 +837,113 @@ public class CoinSparkTransferList extends CoinSparkBase{
         return 0;
     }
     
-    private long[] applyInner(CoinSparkAssetRef reference, CoinSparkGenesis genesis, 
-               long[] inputBalances, boolean[] outputsRegular)
+    private boolean applyInner(CoinSparkAssetRef reference, CoinSparkGenesis genesis, int countInputs, long[] inputBalances,
+               int countOutputs, boolean[] outputsRegular, long[] outputBalances, CoinSparkApplyContext context)
     {
-        int countInputs=inputBalances.length;
-        int countOutputs=outputsRegular.length;
-
-        long[] outputBalances=new long[countOutputs];
+        if(!applySizesValid(countInputs, inputBalances, countOutputs, outputsRegular, outputBalances))
+            return false;
+        
         int transferIndex;
-        int inputIndex, outputIndex, lastInputIndex, lastOutputIndex;
-        long transferRemaining;
-        long transferQuantity;
 
         //  Copy all input quantities and zero output quantities
 
-        long[] inputsRemaining = new long[countInputs];
-        for (inputIndex=0; inputIndex<countInputs; inputIndex++) {
-            inputsRemaining[inputIndex]=inputBalances[inputIndex];
-        }
-
-        for (outputIndex=0; outputIndex<countOutputs; outputIndex++) {
-            outputBalances[outputIndex] = 0;
-        }
+        long[] inputsRemaining = context.getInputsRemaining(countInputs);
+        System.arraycopy(inputBalances, 0, inputsRemaining, 0, countInputs);
+        Arrays.fill(outputBalances, 0, countOutputs, 0);
 
         //  Perform explicit this (i.e. not default routes)
 
         for (transferIndex=0; transferIndex < countTransfers; transferIndex++)
         {
             if (reference.match(this.transfersList[transferIndex].getAssetRef())) {
-                inputIndex = Math.max(this.transfersList[transferIndex].getInputs().first, 0);
-                outputIndex = Math.max(this.transfersList[transferIndex].getOutputs().first, 0);
-
-                lastInputIndex = Math.min(inputIndex + this.transfersList[transferIndex].getInputs().count, countInputs) - 1;
-                lastOutputIndex = Math.min(outputIndex + this.transfersList[transferIndex].getOutputs().count, countOutputs) - 1;
-
-                for (; outputIndex<=lastOutputIndex; outputIndex++) {
-                    if (outputsRegular[outputIndex]) {
-                        transferRemaining= this.transfersList[transferIndex].getQtyPerOutput();
-
-                        while (inputIndex<=lastInputIndex) {
-                            transferQuantity = Math.min(transferRemaining, inputsRemaining[inputIndex]);
-
-                            if (transferQuantity>0)                       // skip all this if nothing is to be transferred (branch not really necessary)
-                            {
-                                inputsRemaining[inputIndex] = inputsRemaining[inputIndex] - transferQuantity;
-                                transferRemaining = transferRemaining - transferQuantity;
-
-                                transferQuantity = Math.min(transferQuantity,
-                                        CoinSparkAssetQty.COINSPARK_ASSET_QTY_MAX - outputBalances[outputIndex]); // prevent overflow
-                                outputBalances[outputIndex] = (outputBalances[outputIndex] + transferQuantity);
-                            }
-
-                            if (transferRemaining>0)
-                                inputIndex++;                                   // move to next input since this one is drained
-                            else
-                                break;                                          // stop if we have nothing left to transfer
-                        }
-                    }
-                }
+                applyTransfer(this.transfersList[transferIndex].getInputs().first, this.transfersList[transferIndex].getInputs().count,
+                        this.transfersList[transferIndex].getOutputs().first, this.transfersList[transferIndex].getOutputs().count,
+                        this.transfersList[transferIndex].getQtyPerOutput(), countInputs, inputsRemaining, countOutputs, outputBalances, outputsRegular);
             }
         }
 
-        //  Apply payment charges to all quantities not routed by default
+        applyChargesAndDefaultRoutes(genesis, countInputs, inputsRemaining, countOutputs, outputBalances, outputsRegular,
+                getDefaultRouteMap(countInputs, countOutputs, outputsRegular, context.getInputDefaultOutput(countInputs)));
+        
+        return true;
+    }
 
-        for (outputIndex=0; outputIndex<countOutputs; outputIndex++) {
-            if (outputsRegular[outputIndex] && (outputBalances[outputIndex]>0) )
-                outputBalances[outputIndex] = genesis.calcNet(outputBalances[outputIndex]);
+    private static boolean applyAllSizesValid(CoinSparkAssetRef[] references, CoinSparkGenesis[] geneses, long[][] inputBalances)
+    {
+        if( (references.length != geneses.length) || (references.length != inputBalances.length) )
+            return false;
+        
+        for (int assetIndex=1; assetIndex<inputBalances.length; assetIndex++) {
+            if(inputBalances[assetIndex].length != inputBalances[0].length)     // the default route map is shared
+                return false;
         }
-
-        //  Send remaining quantities to default outputs
-
-        int[] inputDefaultOutput = getDefaultRouteMap(countInputs, outputsRegular);
-
-        for (inputIndex=0; inputIndex<countInputs; inputIndex++) {
-            outputIndex=inputDefaultOutput[inputIndex];
-            if (outputIndex<countOutputs)                                       // could be out of range if there are no regular outputs
-                outputBalances[outputIndex] += inputsRemaining[inputIndex];
+        
+        return true;
+    }
+    
+    protected static int compareAssetRefsExact(CoinSparkAssetRef assetRef1, CoinSparkAssetRef assetRef2)
+    {
+        // total order where 0 means CoinSparkAssetRef.match() is true, unlike CoinSparkAssetRef.compare() which ignores default route fields
+        
+        if (assetRef1.getBlockNum() != assetRef2.getBlockNum())
+            return assetRef1.getBlockNum() < assetRef2.getBlockNum() ? -1 : 1;
+        
+        if (assetRef1.getTxOffset() != assetRef2.getTxOffset())
+            return assetRef1.getTxOffset() < assetRef2.getTxOffset() ? -1 : 1;
+        
+        byte[] prefix1=assetRef1.getTxIDPrefix();
+        byte[] prefix2=assetRef2.getTxIDPrefix();
+        int length1=(prefix1 == null) ? -1 : prefix1.length;
+        int length2=(prefix2 == null) ? -1 : prefix2.length;
+        
+        if (length1 != length2)
+            return length1 < length2 ? -1 : 1;
+        
+        return (length1 > 0) ? memcmp(prefix1, prefix2, length1) : 0;
+    }
+    
+    private static int[] assetRefsOrdering(final CoinSparkAssetRef[] references)
+    {
+        Integer[] sorted=new Integer[references.length];
+        for (int assetIndex=0; assetIndex<references.length; assetIndex++) {
+            sorted[assetIndex]=assetIndex;
         }
         
-        return outputBalances;
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer assetIndex1, Integer assetIndex2) {
+                return compareAssetRefsExact(references[assetIndex1], references[assetIndex2]);
+            }
+        });
+        
+        int[] ordering=new int[references.length];
+        for (int orderIndex=0; orderIndex<references.length; orderIndex++) {
+            ordering[orderIndex]=sorted[orderIndex];
+        }
+        return ordering;
     }
-
-    private int[] getDefaultRouteMap(int countInputs, boolean[] outputsRegular)
+    
+    private static int assetRefsFind(CoinSparkAssetRef[] references, int[] ordering, CoinSparkAssetRef assetRef)
     {
+        // returns the first position in ordering which is not lower than assetRef
         
-        int countOutputs=outputsRegular.length;
-        int lastInputIndex, inputIndex, outputIndex;
-
-        int[] inputDefaultOutput = new int[countInputs];
-
-        //  Default to last output for all inputs
-
-        int lastRegularOutput = getLastRegularOutput(outputsRegular);  // can be countOutputs if no regular ones found
-        for (inputIndex=0; inputIndex<countInputs; inputIndex++) {
-            inputDefaultOutput[inputIndex]=lastRegularOutput;
+        int low=0;
+        int high=ordering.length;
+        
+        while (low < high) {
+            int middle=(low+high) >>> 1;
+            if (compareAssetRefsExact(references[ordering[middle]], assetRef) < 0)
+                low=middle+1;
+            else
+                high=middle;
         }
+        
+        return low;
+    }
+    
+    private int[] getDefaultRouteMap(int countInputs, int countOutputs, boolean[] outputsRegular, int[] inputDefaultOutput)
+    {
+        fillDefaultRouteMap(countInputs, countOutputs, outputsRegular, inputDefaultOutput);
 
         //  Apply any default route transfers in reverse order (since early ones take precedence)
 
@@ -592,62 +951,250 @@ public class CoinSparkTransferList extends CoinSparkBase{
             if (transfersList[transferIndex].assetRef.getBlockNum() ==
                     CoinSparkTransfer.COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE)
             {
-                outputIndex = transfersList[transferIndex].outputs.first; // outputs.count is not relevant
+                applyDefaultRoute(transfersList[transferIndex].inputs.first, transfersList[transferIndex].inputs.count,
+                        transfersList[transferIndex].outputs.first, countInputs, inputDefaultOutput, countOutputs);
+            }
+        }
+
+        return inputDefaultOutput;
+    }
+    
+    // The steps below work on plain fields so that they can be shared by every representation of a transfer list
+    
+    /**
+     * Moves up to qtyPerOutput units to each regular output in the output range, draining the inputs in the input range in order.
+     */
+    
+    protected static void applyTransfer(int inputFirst, int inputCount, int outputFirst, int outputCount, long qtyPerOutput,
+               int countInputs, long[] inputsRemaining, int countOutputs, long[] outputBalances, boolean[] outputsRegular)
+    {
+        int inputIndex = Math.max(inputFirst, 0);
+        int outputIndex = Math.max(outputFirst, 0);
+
+        applyResolvedTransfer(inputIndex, Math.min(inputIndex + inputCount, countInputs) - 1, 
+                outputIndex, Math.min(outputIndex + outputCount, countOutputs) - 1, qtyPerOutput, inputsRemaining, outputBalances, outputsRegular);
+    }
+    
+    /**
+     * As applyTransfer(), for input and output ranges already clipped to the transaction.
+     */
+    
+    protected static void applyResolvedTransfer(int inputIndex, int lastInputIndex, int outputIndex, int lastOutputIndex, long qtyPerOutput,
+               long[] inputsRemaining, long[] outputBalances, boolean[] outputsRegular)
+    {
+        long transferRemaining;
+        long transferQuantity;
+        
+        for (; outputIndex<=lastOutputIndex; outputIndex++) {
+            if (outputsRegular[outputIndex]) {
+                transferRemaining= qtyPerOutput;
+
+                while (inputIndex<=lastInputIndex) {
+                    transferQuantity = Math.min(transferRemaining, inputsRemaining[inputIndex]);
 
-                if ( (outputIndex>=0) && (outputIndex<countOutputs) ) {
-                    inputIndex = Math.max(transfersList[transferIndex].inputs.first, 0);
-                    lastInputIndex = Math.min(inputIndex + transfersList[transferIndex].inputs.count - 1, countInputs - 1);
+                    if (transferQuantity>0)                       // skip all this if nothing is to be transferred (branch not really necessary)
+                    {
+                        inputsRemaining[inputIndex] = inputsRemaining[inputIndex] - transferQuantity;
+                        transferRemaining = transferRemaining - transferQuantity;
 
-                    for (; inputIndex<=lastInputIndex; inputIndex++) {
-                        inputDefaultOutput[inputIndex]=outputIndex;
+                        transferQuantity = Math.min(transferQuantity,
+                                CoinSparkAssetQty.COINSPARK_ASSET_QTY_MAX - outputBalances[outputIndex]); // prevent overflow
+                        outputBalances[outputIndex] = (outputBalances[outputIndex] + transferQuantity);
                     }
+
+                    if (transferRemaining>0)
+                        inputIndex++;                                   // move to next input since this one is drained
+                    else
+                        break;                                          // stop if we have nothing left to transfer
                 }
             }
         }
+    }
+    
+    /**
+     * Finishes apply() once all explicit transfers have been performed.
+     */
+    
+    protected static void applyChargesAndDefaultRoutes(CoinSparkGenesis genesis, int countInputs, long[] inputsRemaining,
+               int countOutputs, long[] outputBalances, boolean[] outputsRegular, int[] inputDefaultOutput)
+    {
+        int inputIndex, outputIndex;
+        
+        //  Apply payment charges to all quantities not routed by default
+
+        for (outputIndex=0; outputIndex<countOutputs; outputIndex++) {
+            if (outputsRegular[outputIndex] && (outputBalances[outputIndex]>0) )
+                outputBalances[outputIndex] = genesis.calcNet(outputBalances[outputIndex]);
+        }
 
-        return inputDefaultOutput;
+        //  Send remaining quantities to default outputs
+
+        for (inputIndex=0; inputIndex<countInputs; inputIndex++) {
+            outputIndex=inputDefaultOutput[inputIndex];
+            if (outputIndex<countOutputs)                                       // could be out of range if there are no regular outputs
+                outputBalances[outputIndex] += inputsRemaining[inputIndex];
+        }
     }
+    
+    /**
+     * Fills a default route map with every input going to the last regular output.
+     */
+    
+    protected static int[] fillDefaultRouteMap(int countInputs, int countOutputs, boolean[] outputsRegular, int[] inputDefaultOutput)
+    {
+        //  Default to last output for all inputs
 
-    private static int[] transfersGroupOrdering(CoinSparkTransfer[] transfers, int[] ordering, int countTransfers)
+        Arrays.fill(inputDefaultOutput, 0, countInputs, getLastRegularOutput(countOutputs, outputsRegular)); // can be countOutputs if no regular ones found
+        
+        return inputDefaultOutput;
+    }
+    
+    /**
+     * Applies one default route transfer to the map. Call in reverse order of transfers, since early ones take precedence.
+     */
+    
+    protected static void applyDefaultRoute(int inputFirst, int inputCount, int outputFirst, int countInputs, int[] inputDefaultOutput, int countOutputs)
     {
-        int orderIndex, transferIndex, bestTransferIndex, transferScore, bestTransferScore;
+        int lastInputIndex, inputIndex, outputIndex;
+        
+        outputIndex = outputFirst; // outputs.count is not relevant
 
-        boolean[] transferUsed = new boolean[countTransfers];
+        if ( (outputIndex>=0) && (outputIndex<countOutputs) ) {
+            inputIndex = Math.max(inputFirst, 0);
+            lastInputIndex = Math.min(inputIndex + inputCount - 1, countInputs - 1);
 
-        for (transferIndex=0; transferIndex<countTransfers; transferIndex++) {
-            transferUsed[transferIndex] = false;
+            for (; inputIndex<=lastInputIndex; inputIndex++) {
+                inputDefaultOutput[inputIndex]=outputIndex;
+            }
         }
+    }
+    
+    protected static boolean [] defaultRouteMapToOutputs(int countInputs, int[] inputDefaultOutput, int countOutputs, boolean [] outputsDefault)
+    {
+        Arrays.fill(outputsDefault, 0, countOutputs, false);
 
-        for (orderIndex=0; orderIndex<countTransfers; orderIndex++) {
-            bestTransferScore=0;
-            bestTransferIndex=-1;
-
-            for (transferIndex=0; transferIndex<countTransfers; transferIndex++) {
-                if (!transferUsed[transferIndex])
-                {
-                    if (transfers[transferIndex].assetRef.getBlockNum() ==
-                            CoinSparkTransfer.COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE)
-                        transferScore=3;                                        // top priority to default routes, which must be first in the encoded list
+        for (int inputIndex=0; inputIndex<countInputs; inputIndex++) {
+            int outputIndex=inputDefaultOutput[inputIndex];
 
-                    else if ((orderIndex>0) && transfers[ordering[orderIndex-1]].assetRef.match(transfers[transferIndex].assetRef))
-                        transferScore=2;                                        // then next best is one which has same asset reference as previous
-                    else
-                        transferScore=1;                                        // otherwise any will do
+            if (outputIndex<countOutputs)
+                outputsDefault[outputIndex] = true;
+        }
+        return outputsDefault;
+    }
+    
+    /**
+     * Returns the number of regular outputs a transfer (not a default route) adds to the minimum fee.
+     */
+    
+    protected static int transferOutputsToCover(int inputFirst, int inputCount, int outputFirst, int outputCount, 
+               int countInputs, boolean[] outputsRegular)
+    {
+        int countOutputs=outputsRegular.length;
+        int outputIndex, lastOutputIndex;
+        int transfersToCover = 0;
+        
+        if ( (inputCount > 0) && (inputFirst < countInputs) )                   // only count if at least one valid input index
+        {
+            outputIndex = Math.max(outputFirst, 0);
+            lastOutputIndex = Math.min(outputFirst + outputCount, countOutputs)-1;
 
-                    if (transferScore>bestTransferScore) {                      // if it's clearly the best, take it
-                        bestTransferScore=transferScore;
-                        bestTransferIndex=transferIndex;
+            for (; outputIndex<=lastOutputIndex; outputIndex++) {
+                if (outputsRegular[outputIndex])
+                    transfersToCover++;
+            }
+        }
+        
+        return transfersToCover;
+    }
+    
+    /**
+     * Returns true if each array has room for its count.
+     */
+    
+    protected static boolean applySizesValid(int countInputs, long[] inputBalances, int countOutputs, boolean[] outputsRegular, long[] outputBalances)
+    {
+        return (countInputs >= 0) && (countOutputs >= 0) && (inputBalances.length >= countInputs) &&
+               (outputsRegular.length >= countOutputs) && (outputBalances.length >= countOutputs);
+    }
+    
+    /**
+     * Implements applyNone(), which does not depend on the transfers.
+     */
+    
+    protected static boolean applyNoneInner(CoinSparkGenesis genesis, int countInputs, long[] inputBalances,
+               int countOutputs, boolean[] outputsRegular, long[] outputBalances, CoinSparkApplyContext context)
+    {
+        if(!applySizesValid(countInputs, inputBalances, countOutputs, outputsRegular, outputBalances))
+            return false;
+        
+        long[] inputsRemaining = context.getInputsRemaining(countInputs);
+        System.arraycopy(inputBalances, 0, inputsRemaining, 0, countInputs);
+        Arrays.fill(outputBalances, 0, countOutputs, 0);
+        
+        applyChargesAndDefaultRoutes(genesis, countInputs, inputsRemaining, countOutputs, outputBalances, outputsRegular,
+                fillDefaultRouteMap(countInputs, countOutputs, outputsRegular, context.getInputDefaultOutput(countInputs)));
+        
+        return true;
+    }
 
-                    } else if (transferScore==bestTransferScore)                // otherwise give priority to "lower" asset references
-                        if (transfers[transferIndex].assetRef.compare(transfers[bestTransferIndex].assetRef)<0)
-                            bestTransferIndex=transferIndex;
+    private static int[] transfersGroupOrdering(final CoinSparkTransfer[] transfers, int countTransfers)
+    {
+        // Default routes come first in their original order, since they must be first in the encoded list. The other transfers are
+        // grouped by asset reference, with "lower" asset references first and the original order kept within each group.
+        // This is the order the original greedy selection produced, which compared each remaining transfer in turn.
+        
+        int transferIndex;
+        Integer[] sorted = new Integer[countTransfers];
+        final int[] firstExactMatch = new int[countTransfers];
+        boolean prefixesCompared = true;
+        
+        for (transferIndex=0; transferIndex<countTransfers; transferIndex++) {
+            sorted[transferIndex] = transferIndex;
+            firstExactMatch[transferIndex] = transferIndex;
+            if (transfers[transferIndex].assetRef.getTxIDPrefix().length != CoinSparkAssetRef.COINSPARK_ASSETREF_TXID_PREFIX_LEN)
+                prefixesCompared = false;
+        }
+        
+        if (!prefixesCompared)
+        {
+            //  compare() only looks at the first bytes of the prefix, so asset references it considers equal may not match().
+            //  Such transfers are grouped by exact asset reference, with the groups in order of their first transfer.
+            
+            Arrays.sort(sorted, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer transferIndex1, Integer transferIndex2) {
+                    return compareAssetRefsExact(transfers[transferIndex1].assetRef, transfers[transferIndex2].assetRef);
                 }
+            });
+            
+            for (int orderIndex=1; orderIndex<countTransfers; orderIndex++) {
+                if (transfers[sorted[orderIndex]].assetRef.match(transfers[sorted[orderIndex-1]].assetRef))
+                    firstExactMatch[sorted[orderIndex]] = firstExactMatch[sorted[orderIndex-1]];
+            }
+            
+            for (transferIndex=0; transferIndex<countTransfers; transferIndex++) {
+                sorted[transferIndex] = transferIndex;
             }
-
-            ordering[orderIndex]=bestTransferIndex;
-            transferUsed[bestTransferIndex] = true;
         }
-
+        
+        Arrays.sort(sorted, new Comparator<Integer>() {                         // stable, so the original order is kept for ties
+            @Override
+            public int compare(Integer transferIndex1, Integer transferIndex2) {
+                CoinSparkAssetRef assetRef1 = transfers[transferIndex1].assetRef;
+                int result = compareGroups(assetRef1, transfers[transferIndex2].assetRef);
+                if ((result != 0) || (assetRef1.getBlockNum() == CoinSparkTransfer.COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE))
+                    return result;
+                
+                return (firstExactMatch[transferIndex1] < firstExactMatch[transferIndex2]) ? -1 : 
+                       ((firstExactMatch[transferIndex1] == firstExactMatch[transferIndex2]) ? 0 : 1);
+            }
+        });
+        
+        int[] ordering = new int[countTransfers];
+        for (transferIndex=0; transferIndex<countTransfers; transferIndex++) {
+            ordering[transferIndex] = sorted[transferIndex];
+        }
+        
         return ordering;
     }
     
@@ -0,0 +1,340 @@
+/*
+ * CoinSpark 2.1 - Java library
+ *
+ * Copyright (c) Coin Sciences Ltd
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.coinspark.protocol;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * CoinSparkTransferPlan class holding a transfer list compiled for one transaction, by CoinSparkTransferList.compile().
+ *
+ * The index ranges of every transfer are clipped to the transaction, the transfers are grouped by asset reference,
+ * and the default route map and the number of outputs to cover for fees are calculated once, so the plan can be
+ * applied to changing input balances cheaply. A plan is immutable and may be shared between threads.
+ */
+
+public class CoinSparkTransferPlan extends CoinSparkBase{
+
+    /**
+     * Returns number of inputs in transaction the plan was compiled for.
+     *
+     * @return number of inputs
+     */
+
+    public int getCountInputs() {
+        return countInputs;
+    }
+
+    /**
+     * Returns number of outputs in transaction the plan was compiled for.
+     *
+     * @return number of outputs
+     */
+
+    public int getCountOutputs() {
+        return countOutputs;
+    }
+
+    /**
+     * Returns number of distinct asset references in the transfer list, including default routes.
+     *
+     * @return number of asset references
+     */
+
+    public int countAssets() {
+        return assetRefs.length;
+    }
+
+    /**
+     * Returns asset reference of group i, groups are sorted by block number, offset and transaction id prefix.
+     *
+     * @param i group id (0 based)
+     * @return copy of asset reference
+     */
+
+    public CoinSparkAssetRef getAssetRef(int i) {
+        return new CoinSparkAssetRef(assetRefs[i].getBlockNum(), assetRefs[i].getTxOffset(),
+                (assetRefs[i].getTxIDPrefix() == null) ? null : assetRefs[i].getTxIDPrefix().clone());
+    }
+
+    /**
+     * Returns number of regular outputs the transfers (not default routes) must cover in the minimum fee.
+     *
+     * @return number of transfers to cover
+     */
+
+    public int getTransfersToCover() {
+        return transfersToCover;
+    }
+
+    /**
+     * As CoinSparkTransferList.calcMinFee() for the transaction the plan was compiled for.
+     *
+     * @param outputsSatoshis Pass the number of bitcoin satoshis in each output in outputsSatoshis (array size countOutputs).
+     * @return Returns the minimum transaction fee (in bitcoin satoshis) required to make the set of transfers valid.
+     */
+
+    public long calcMinFee(long[] outputsSatoshis)
+    {
+        if(outputsSatoshis.length != countOutputs)
+        {
+            return COINSPARK_SATOSHI_QTY_MAX;
+        }
+
+        return getMinFeeBasis(outputsSatoshis, outputsRegular) * transfersToCover;
+    }
+
+    /**
+     * As CoinSparkTransferList.apply() for the transaction the plan was compiled for.
+     * ** Call this if the transaction DOES HAVE a sufficient fee to make the list of transfers valid **
+     *
+     * @param reference Asset reference
+     * @param genesis Genesis object corresponding to asset reference
+     * @param inputBalances Input balances (array size countInputs)
+     * @return Output balances, null if inputBalances has the wrong size
+     */
+
+    public long[] apply(CoinSparkAssetRef reference, CoinSparkGenesis genesis, long[] inputBalances)
+    {
+        long[] outputBalances=new long[countOutputs];
+
+        if(!apply(reference, genesis, inputBalances, outputBalances, new CoinSparkApplyContext(countInputs)))
+            return null;
+
+        return outputBalances;
+    }
+
+    /**
+     * As apply(CoinSparkAssetRef,CoinSparkGenesis,long[]), but writes into outputBalances and takes its scratch arrays
+     * from context, so it does not allocate.
+     * ** Call this if the transaction DOES HAVE a sufficient fee to make the list of transfers valid **
+     *
+     * @param reference Asset reference
+     * @param genesis Genesis object corresponding to asset reference
+     * @param inputBalances Input balances (at least countInputs entries)
+     * @param outputBalances array of at least countOutputs entries to receive the output balances
+     * @param context reusable scratch arrays
+     * @return true on success, false if an array is too small
+     */
+
+    public boolean apply(CoinSparkAssetRef reference, CoinSparkGenesis genesis, long[] inputBalances, long[] outputBalances,
+            CoinSparkApplyContext context)
+    {
+        if(!CoinSparkTransferList.applySizesValid(countInputs, inputBalances, countOutputs, outputsRegular, outputBalances))
+            return false;
+
+        long[] inputsRemaining = context.getInputsRemaining(countInputs);
+        System.arraycopy(inputBalances, 0, inputsRemaining, 0, countInputs);
+        Arrays.fill(outputBalances, 0, countOutputs, 0);
+
+        int group=findGroup(reference);
+        if (group >= 0)
+        {
+            for (int entry=groupStarts[group]; entry<groupStarts[group+1]; entry++) {
+                CoinSparkTransferList.applyResolvedTransfer(inputFirsts[entry], inputLasts[entry], outputFirsts[entry], outputLasts[entry],
+                        qtyPerOutputs[entry], inputsRemaining, outputBalances, outputsRegular);
+            }
+        }
+
+        CoinSparkTransferList.applyChargesAndDefaultRoutes(genesis, countInputs, inputsRemaining, countOutputs, outputBalances,
+                outputsRegular, inputDefaultOutput);
+
+        return true;
+    }
+
+    /**
+     * As CoinSparkTransferList.applyNone() for the transaction the plan was compiled for.
+     * ** Call this if the transaction DOES NOT HAVE a sufficient fee to make the list of transfers valid **
+     *
+     * @param genesis Genesis object corresponding to asset reference
+     * @param inputBalances Input balances (array size countInputs)
+     * @return Output balances, null if inputBalances has the wrong size
+     */
+
+    public long[] applyNone(CoinSparkGenesis genesis, long[] inputBalances)
+    {
+        long[] outputBalances=new long[countOutputs];
+
+        if(!applyNone(genesis, inputBalances, outputBalances, new CoinSparkApplyContext(countInputs)))
+            return null;
+
+        return outputBalances;
+    }
+
+    /**
+     * As applyNone(CoinSparkGenesis,long[]), but writes into outputBalances and takes its scratch arrays
+     * from context, so it does not allocate.
+     * ** Call this if the transaction DOES NOT HAVE a sufficient fee to make the list of transfers valid **
+     *
+     * @param genesis Genesis object corresponding to asset reference
+     * @param inputBalances Input balances (at least countInputs entries)
+     * @param outputBalances array of at least countOutputs entries to receive the output balances
+     * @param context reusable scratch arrays
+     * @return true on success, false if an array is too small
+     */
+
+    public boolean applyNone(CoinSparkGenesis genesis, long[] inputBalances, long[] outputBalances, CoinSparkApplyContext context)
+    {
+        if(!CoinSparkTransferList.applySizesValid(countInputs, inputBalances, countOutputs, outputsRegular, outputBalances))
+            return false;
+
+        long[] inputsRemaining = context.getInputsRemaining(countInputs);
+        System.arraycopy(inputBalances, 0, inputsRemaining, 0, countInputs);
+        Arrays.fill(outputBalances, 0, countOutputs, 0);
+
+        CoinSparkTransferList.applyChargesAndDefaultRoutes(genesis, countInputs, inputsRemaining, countOutputs, outputBalances,
+                outputsRegular, inputNoneOutput);
+
+        return true;
+    }
+
+    /**
+     * As CoinSparkTransferList.defaultOutputs() for the transaction the plan was compiled for.
+     *
+     * @return array of booleans indicating where each entry indicates whether that output might receive some assets due to default routes.
+     */
+
+    public boolean [] defaultOutputs()
+    {
+        return outputsDefault.clone();
+    }
+
+
+// Private variables/constants/functions
+
+    private final int countInputs;
+    private final int countOutputs;
+    private final boolean [] outputsRegular;
+    private final int [] inputDefaultOutput;                                    // with default routes, for apply()
+    private final int [] inputNoneOutput;                                       // without default routes, for applyNone()
+    private final boolean [] outputsDefault;
+    private final int transfersToCover;
+
+    private final CoinSparkAssetRef [] assetRefs;                               // sorted, one per group
+    private final int [] groupStarts;                                           // first entry of each group, plus the end
+    private final int [] inputFirsts;                                           // entries in group order, original order within each group
+    private final int [] inputLasts;
+    private final int [] outputFirsts;
+    private final int [] outputLasts;
+    private final long [] qtyPerOutputs;
+
+    /**
+     * Compiles transfers, whose default route map for the transaction is inputDefaultOutput.
+     */
+
+    protected CoinSparkTransferPlan(final CoinSparkTransferList transfers, int CountInputs, boolean[] OutputsRegular, int[] InputDefaultOutput)
+    {
+        int transferIndex;
+        int countTransfers=transfers.count();
+
+        countInputs=CountInputs;
+        countOutputs=OutputsRegular.length;
+        outputsRegular=OutputsRegular.clone();
+        inputDefaultOutput=InputDefaultOutput;
+        inputNoneOutput=CoinSparkTransferList.fillDefaultRouteMap(countInputs, countOutputs, outputsRegular, new int[countInputs]);
+        outputsDefault=CoinSparkTransferList.defaultRouteMapToOutputs(countInputs, inputDefaultOutput, countOutputs, new boolean[countOutputs]);
+
+        int toCover=0;
+        for (transferIndex=0; transferIndex<countTransfers; transferIndex++) {
+            CoinSparkTransfer transfer=transfers.getTransfer(transferIndex);
+
+            if (transfer.getAssetRef().getBlockNum() != CoinSparkTransfer.COINSPARK_TRANSFER_BLOCK_NUM_DEFAULT_ROUTE) // don't count default routes
+                toCover += CoinSparkTransferList.transferOutputsToCover(transfer.getInputs().first, transfer.getInputs().count,
+                        transfer.getOutputs().first, transfer.getOutputs().count, countInputs, outputsRegular);
+        }
+        transfersToCover=toCover;
+
+        //  Group the transfers by asset reference, the sort is stable so the original order is kept within each group
+
+        Integer[] ordering=new Integer[countTransfers];
+        for (transferIndex=0; transferIndex<countTransfers; transferIndex++) {
+            ordering[transferIndex]=transferIndex;
+        }
+
+        Arrays.sort(ordering, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer transferIndex1, Integer transferIndex2) {
+                return CoinSparkTransferList.compareAssetRefsExact(transfers.getTransfer(transferIndex1).getAssetRef(),
+                        transfers.getTransfer(transferIndex2).getAssetRef());
+            }
+        });
+
+        inputFirsts=new int[countTransfers];
+        inputLasts=new int[countTransfers];
+        outputFirsts=new int[countTransfers];
+        outputLasts=new int[countTransfers];
+        qtyPerOutputs=new long[countTransfers];
+
+        CoinSparkAssetRef [] groupAssetRefs=new CoinSparkAssetRef[countTransfers];
+        int [] groupEntries=new int[countTransfers+1];
+        int countGroups=0;
+
+        for (int entry=0; entry<countTransfers; entry++) {
+            CoinSparkTransfer transfer=transfers.getTransfer(ordering[entry]);
+            CoinSparkAssetRef assetRef=transfer.getAssetRef();
+
+            if ( (countGroups == 0) || (CoinSparkTransferList.compareAssetRefsExact(groupAssetRefs[countGroups-1], assetRef) != 0) )
+            {
+                groupAssetRefs[countGroups]=new CoinSparkAssetRef(assetRef.getBlockNum(), assetRef.getTxOffset(),
+                        (assetRef.getTxIDPrefix() == null) ? null : assetRef.getTxIDPrefix().clone());
+                groupEntries[countGroups]=entry;
+                countGroups++;
+            }
+
+            //  Same clipping as CoinSparkTransferList.applyTransfer()
+
+            inputFirsts[entry]=Math.max(transfer.getInputs().first, 0);
+            inputLasts[entry]=Math.min(inputFirsts[entry] + transfer.getInputs().count, countInputs) - 1;
+            outputFirsts[entry]=Math.max(transfer.getOutputs().first, 0);
+            outputLasts[entry]=Math.min(outputFirsts[entry] + transfer.getOutputs().count, countOutputs) - 1;
+            qtyPerOutputs[entry]=transfer.getQtyPerOutput();
+        }
+        groupEntries[countGroups]=countTransfers;
+
+        assetRefs=Arrays.copyOf(groupAssetRefs, countGroups);
+        groupStarts=Arrays.copyOf(groupEntries, countGroups+1);
+    }
+
+    private int findGroup(CoinSparkAssetRef reference)
+    {
+        int low=0;
+        int high=assetRefs.length-1;
+
+        while (low <= high) {
+            int middle=(low+high) >>> 1;
+            int compare=CoinSparkTransferList.compareAssetRefsExact(assetRefs[middle], reference);
+
+            if (compare < 0)
+                low=middle+1;
+            else if (compare > 0)
+                high=middle-1;
+            else
+                return middle;
+        }
+
+        return -1;
+    }
+}